@@ -105,10 +105,14 @@ public abstract class AegisApplicationBase extends Application {
     private class AppLifecycleObserver implements LifecycleEventObserver {
         @Override
         public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
-            if (event == Lifecycle.Event.ON_STOP
-                    && _vaultManager.isAutoLockEnabled(Preferences.AUTO_LOCK_ON_MINIMIZE)
-                    && !_vaultManager.isAutoLockBlocked()) {
-                _vaultManager.lock(false);
+            if (event == Lifecycle.Event.ON_STOP) {
+                if (_vaultManager.isAutoLockEnabled(Preferences.AUTO_LOCK_ON_MINIMIZE)
+                        && !_vaultManager.isAutoLockBlocked()) {
+                    _vaultManager.lock(false);
+                } else {
+                    // don't leave unsaved changes behind in case the process gets killed
+                    _vaultManager.flushPendingSaves();
+                }
             }
         }
     }
@@ -11,7 +11,8 @@ import android.util.Log;
 import com.beemdevelopment.aegis.database.AppDatabase;
 import com.beemdevelopment.aegis.database.AuditLogRepository;
 import com.beemdevelopment.aegis.util.IOUtils;
-import com.beemdevelopment.aegis.vault.VaultFile;
+import com.beemdevelopment.aegis.vault.VaultIconStore;
+import com.beemdevelopment.aegis.vault.VaultJournal;
 import com.beemdevelopment.aegis.vault.VaultRepository;
 import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 
@@ -71,13 +72,14 @@ public class AegisBackupAgent extends BackupAgent {
     }
 
     private void fullBackup(FullBackupDataOutput data) throws IOException {
-        // First copy the vault to the files/backup directory
+        // First copy the vault, along with any journal records that haven't been folded into it
+        // yet, to the files/backup directory. The vault file may refer to icons in the icon store,
+        // so those need to be backed up along with it. This all happens while holding the
+        // journal lock, so that a concurrent save or compaction can't tear the copy.
         createBackupDir();
-        File vaultBackupFile = getVaultBackupFile();
-        try (OutputStream outputStream = new FileOutputStream(vaultBackupFile)) {
-            VaultFile vaultFile = VaultRepository.readVaultFile(this);
-            byte[] bytes = vaultFile.exportable().toBytes();
-            outputStream.write(bytes);
+        try {
+            VaultRepository.writeBackup(this, getVaultBackupFile(), getJournalBackupFile(),
+                    () -> copyDirectory(VaultIconStore.getRootDir(this), getIconsBackupDir()));
         } catch (VaultRepositoryException | IOException e) {
             deleteBackupDir();
             throw new IOException(e);
@@ -97,9 +99,35 @@ public class AegisBackupAgent extends BackupAgent {
         super.onRestoreFile(data, size, destination, type, mode, mtime);
 
         File vaultBackupFile = getVaultBackupFile();
-        if (destination.getCanonicalFile().equals(vaultBackupFile.getCanonicalFile())) {
+        File iconsBackupDir = getIconsBackupDir().getCanonicalFile();
+        File parent = destination.getCanonicalFile().getParentFile();
+        if (parent != null && iconsBackupDir.equals(parent.getParentFile())) {
+            // Move icons into the icon store directory of the master key they belong to
+            File dir = new File(VaultIconStore.getRootDir(this), parent.getName());
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException(String.format("Unable to create directory %s", dir));
+            }
+            if (!destination.renameTo(new File(dir, destination.getName()))) {
+                throw new IOException(String.format("Unable to move %s into place", destination));
+            }
+        } else if (destination.getCanonicalFile().equals(getJournalBackupFile().getCanonicalFile())) {
+            // The journal can only be put into place once the vault file it belongs to has been
+            // restored. If that hasn't happened yet, it's left for when it does.
+            try (InputStream inStream = new FileInputStream(destination)) {
+                if (VaultRepository.restoreJournal(this, inStream) && !destination.delete()) {
+                    Log.e(TAG, String.format("Unable to delete %s", destination));
+                }
+            }
+        } else if (destination.getCanonicalFile().equals(vaultBackupFile.getCanonicalFile())) {
             try (InputStream inStream = new FileInputStream(vaultBackupFile)) {
                 VaultRepository.writeToFile(this, inStream);
+
+                File journalBackupFile = getJournalBackupFile();
+                if (journalBackupFile.exists()) {
+                    try (InputStream journalStream = new FileInputStream(journalBackupFile)) {
+                        VaultRepository.restoreJournal(this, journalStream);
+                    }
+                }
             } catch (IOException e) {
                 Log.e(TAG, String.format("onRestoreFile() failed: dest=%s, error=%s", destination, e));
                 throw e;
@@ -141,6 +169,37 @@ public class AegisBackupAgent extends BackupAgent {
         }
     }
 
+    private static void copyDirectory(File source, File target) throws IOException {
+        File[] files = source.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        if (!target.exists() && !target.mkdirs()) {
+            throw new IOException(String.format("Unable to create directory %s", target));
+        }
+
+        for (File file : files) {
+            File targetFile = new File(target, file.getName());
+            if (file.isDirectory()) {
+                copyDirectory(file, targetFile);
+            } else {
+                try (InputStream inStream = new FileInputStream(file);
+                     OutputStream outStream = new FileOutputStream(targetFile)) {
+                    IOUtils.copy(inStream, outStream);
+                }
+            }
+        }
+    }
+
+    private File getIconsBackupDir() {
+        return new File(new File(getFilesDir(), "backup"), VaultIconStore.DIRNAME);
+    }
+
+    private File getJournalBackupFile() {
+        return new File(new File(getFilesDir(), "backup"), VaultJournal.FILENAME);
+    }
+
     private File getVaultBackupFile() {
         return new File(new File(getFilesDir(), "backup"), VaultRepository.FILENAME);
     }
@@ -397,6 +397,18 @@ public class Preferences {
         setAndroidBackupResult(null);
     }
 
+    public boolean isVaultJournalEnabled() {
+        return _prefs.getBoolean("pref_vault_journal", false);
+    }
+
+    public boolean isVaultProtoEncodingEnabled() {
+        return _prefs.getBoolean("pref_vault_proto_encoding", false);
+    }
+
+    public boolean isVaultIconStoreEnabled() {
+        return _prefs.getBoolean("pref_vault_icon_store", false);
+    }
+
     public boolean isBackupsEnabled() {
         return _prefs.getBoolean("pref_backups", false);
     }
@@ -473,6 +485,23 @@ public class Preferences {
         _prefs.edit().putInt("pref_backups_versions", versions).apply();
     }
 
+    public boolean isBackupsIncrementalEnabled() {
+        return _prefs.getBoolean("pref_backups_incremental", false);
+    }
+
+    /**
+     * Returns a digest of the contents of the last backup that was created, or null if the
+     * last backup failed.
+     */
+    @Nullable
+    public String getBackupDigest() {
+        return _prefs.getString("pref_backups_digest", null);
+    }
+
+    public void setBackupDigest(@Nullable String digest) {
+        _prefs.edit().putString("pref_backups_digest", digest).apply();
+    }
+
     public void setAndroidBackupResult(@Nullable BackupResult res) {
         setBackupResult(false, res);
     }
@@ -0,0 +1,240 @@
+package com.beemdevelopment.aegis.crypto;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+/**
+ * Keeps the expensive parts of the crypto setup around while the vault is unlocked, so that
+ * they don't have to be redone every time the vault is saved. It holds a small pool of Cipher
+ * instances, which only need to be initialized with a fresh nonce for every operation, and
+ * the handle to the Android KeyStore. It also keeps track of how much time is spent on
+ * setting up ciphers versus the actual encryption and decryption.
+ *
+ * VaultManager starts a session when the vault is unlocked and ends it when it's locked.
+ * MasterKey uses the current session if there is one.
+ */
+public class CryptoSession {
+    private static final String TAG = CryptoSession.class.getSimpleName();
+
+    // More than the amount of threads that encrypt at the same time in practice
+    private static final int MAX_POOLED_CIPHERS = 4;
+
+    private static volatile CryptoSession _current;
+
+    private final ConcurrentLinkedQueue<Cipher> _ciphers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _pooledCiphers = new AtomicInteger();
+    private final Stats _stats = new Stats();
+    private KeyStoreHandle _keyStore;
+    private volatile boolean _ended;
+
+    private CryptoSession() {
+
+    }
+
+    /**
+     * Starts a new session, ending the current one if there is one.
+     */
+    @NonNull
+    public static synchronized CryptoSession start() {
+        end();
+        _current = new CryptoSession();
+        return _current;
+    }
+
+    /**
+     * Ends the current session, if there is one, and drops everything it kept around.
+     */
+    public static synchronized void end() {
+        CryptoSession session = _current;
+        if (session == null) {
+            return;
+        }
+
+        _current = null;
+        session._ended = true;
+        session._ciphers.clear();
+        synchronized (session) {
+            session._keyStore = null;
+        }
+        Log.i(TAG, String.format("Ended session: %s", session.getStats()));
+    }
+
+    /**
+     * Returns the current session, or null if there is none.
+     */
+    @Nullable
+    public static CryptoSession get() {
+        return _current;
+    }
+
+    /**
+     * Returns the KeyStore handle of the current session, or a new one if there is no session.
+     */
+    @NonNull
+    public static KeyStoreHandle getKeyStore() throws KeyStoreHandleException {
+        CryptoSession session = _current;
+        if (session == null) {
+            return new KeyStoreHandle();
+        }
+
+        synchronized (session) {
+            if (session._keyStore == null) {
+                session._keyStore = new KeyStoreHandle();
+            }
+            return session._keyStore;
+        }
+    }
+
+    public CryptResult encrypt(SecretKey key, byte[] data) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        Cipher cipher = acquireCipher();
+        try {
+            CryptoUtils.initCipher(cipher, key, Cipher.ENCRYPT_MODE, null);
+            long setupEnd = System.nanoTime();
+            CryptResult res = CryptoUtils.encrypt(data, cipher);
+            _stats.record(setupEnd - start, System.nanoTime() - setupEnd);
+            return res;
+        } finally {
+            releaseCipher(cipher);
+        }
+    }
+
+    /**
+     * Encrypts data that is produced incrementally, see MasterKey.encrypt(writer). The time
+     * the writer takes to produce the data is counted as crypto time.
+     */
+    public byte[] encrypt(SecretKey key, MasterKey.CipherWriter writer) throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        Cipher cipher = acquireCipher();
+        try {
+            CryptoUtils.initCipher(cipher, key, Cipher.ENCRYPT_MODE, null);
+            long setupEnd = System.nanoTime();
+            writer.write(cipher);
+            byte[] nonce = cipher.getIV();
+            _stats.record(setupEnd - start, System.nanoTime() - setupEnd);
+            return nonce;
+        } finally {
+            releaseCipher(cipher);
+        }
+    }
+
+    public CryptResult decrypt(SecretKey key, byte[] data, int offset, int len, CryptParameters params)
+            throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        Cipher cipher = acquireCipher();
+        try {
+            CryptoUtils.initCipher(cipher, key, Cipher.DECRYPT_MODE, params.getNonce());
+            long setupEnd = System.nanoTime();
+            CryptResult res = CryptoUtils.decrypt(data, offset, len, cipher, params);
+            _stats.record(setupEnd - start, System.nanoTime() - setupEnd);
+            return res;
+        } finally {
+            releaseCipher(cipher);
+        }
+    }
+
+    public CryptResult decrypt(SecretKey key, InputStream data, CryptParameters params)
+            throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        Cipher cipher = acquireCipher();
+        try {
+            CryptoUtils.initCipher(cipher, key, Cipher.DECRYPT_MODE, params.getNonce());
+            long setupEnd = System.nanoTime();
+            CryptResult res = CryptoUtils.decrypt(data, cipher, params);
+            _stats.record(setupEnd - start, System.nanoTime() - setupEnd);
+            return res;
+        } finally {
+            releaseCipher(cipher);
+        }
+    }
+
+    @NonNull
+    public Stats getStats() {
+        return _stats;
+    }
+
+    private Cipher acquireCipher() throws GeneralSecurityException {
+        Cipher cipher = _ciphers.poll();
+        if (cipher != null) {
+            _pooledCiphers.decrementAndGet();
+            return cipher;
+        }
+
+        _stats._ciphersCreated.incrementAndGet();
+        return Cipher.getInstance(CryptoUtils.CRYPTO_AEAD);
+    }
+
+    private void releaseCipher(Cipher cipher) {
+        // a cipher that is in an unknown state is fine to pool, as it's always initialized before use
+        if (!_ended && _pooledCiphers.incrementAndGet() <= MAX_POOLED_CIPHERS) {
+            _ciphers.add(cipher);
+        } else {
+            _pooledCiphers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Timing metrics of the operations that went through a session.
+     */
+    public static class Stats {
+        private final AtomicInteger _operations = new AtomicInteger();
+        private final AtomicInteger _ciphersCreated = new AtomicInteger();
+        private final AtomicLong _setupNanos = new AtomicLong();
+        private final AtomicLong _cryptNanos = new AtomicLong();
+
+        private void record(long setupNanos, long cryptNanos) {
+            _operations.incrementAndGet();
+            _setupNanos.addAndGet(setupNanos);
+            _cryptNanos.addAndGet(cryptNanos);
+        }
+
+        public int getOperations() {
+            return _operations.get();
+        }
+
+        /**
+         * Returns the amount of Cipher instances that had to be created, as opposed to being
+         * taken from the pool.
+         */
+        public int getCiphersCreated() {
+            return _ciphersCreated.get();
+        }
+
+        /**
+         * Returns the total time spent on obtaining and initializing ciphers.
+         */
+        public long getSetupNanos() {
+            return _setupNanos.get();
+        }
+
+        /**
+         * Returns the total time spent on the encryption and decryption itself.
+         */
+        public long getCryptNanos() {
+            return _cryptNanos.get();
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d operations, %d ciphers created, %d us setup, %d us crypto",
+                    getOperations(), getCiphersCreated(),
+                    TimeUnit.NANOSECONDS.toMicros(getSetupNanos()),
+                    TimeUnit.NANOSECONDS.toMicros(getCryptNanos()));
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.beemdevelopment.aegis.crypto;
 
+import androidx.annotation.Nullable;
+
 import com.beemdevelopment.aegis.crypto.bc.SCrypt;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
@@ -13,6 +16,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -20,6 +24,7 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -33,8 +38,36 @@ public class CryptoUtils {
     public static final int CRYPTO_SCRYPT_r = 8;
     public static final int CRYPTO_SCRYPT_p = 1;
 
+    // The amount of lanes to split the scrypt work over on devices with enough cores
+    public static final int CRYPTO_SCRYPT_PARALLEL_p = 4;
+
+    /**
+     * Returns the amount of lanes to split the scrypt work over on a device with the given
+     * amount of cores.
+     */
+    static int getSCryptLanes(int cores) {
+        return cores < CRYPTO_SCRYPT_PARALLEL_p ? CRYPTO_SCRYPT_p : CRYPTO_SCRYPT_PARALLEL_p;
+    }
+
+    /**
+     * Returns the amount of memory that the lanes that SCrypt derives at the same time use
+     * together, for the given parameters on a device with the given amount of cores.
+     */
+    public static long getSCryptMemoryUsage(int n, int r, int p, int cores) {
+        int parallel = p > 1 && cores > 1 ? Math.min(Math.min(p, cores), SCrypt.MAX_PARALLEL_LANES) : 1;
+        return (long) n * r * 128 * parallel;
+    }
+
     public static SecretKey deriveKey(byte[] input, SCryptParameters params) {
-        byte[] keyBytes = SCrypt.generate(input, params.getSalt(), params.getN(), params.getR(), params.getP(), CRYPTO_AEAD_KEY_SIZE);
+        return deriveKey(input, params, null);
+    }
+
+    /**
+     * Derives a key like deriveKey(byte[], SCryptParameters), but gives up with a
+     * CancellationException soon after the given flag is set.
+     */
+    public static SecretKey deriveKey(byte[] input, SCryptParameters params, @Nullable AtomicBoolean cancelled) {
+        byte[] keyBytes = SCrypt.generate(input, params.getSalt(), params.getN(), params.getR(), params.getP(), CRYPTO_AEAD_KEY_SIZE, cancelled);
         return new SecretKeySpec(keyBytes, 0, keyBytes.length, "AES");
     }
 
@@ -59,7 +92,15 @@ public class CryptoUtils {
             throws NoSuchPaddingException, NoSuchAlgorithmException,
             InvalidAlgorithmParameterException, InvalidKeyException {
         Cipher cipher = Cipher.getInstance(CRYPTO_AEAD);
+        initCipher(cipher, key, opmode, nonce);
+        return cipher;
+    }
 
+    /**
+     * Initializes the given cipher, which may have been used before, for a new operation.
+     */
+    static void initCipher(Cipher cipher, SecretKey key, int opmode, byte[] nonce)
+            throws InvalidAlgorithmParameterException, InvalidKeyException {
         // generate the nonce if none is given
         // we are not allowed to do this ourselves as "setRandomizedEncryptionRequired" is set to true
         if (nonce != null) {
@@ -68,16 +109,29 @@ public class CryptoUtils {
         } else {
             cipher.init(opmode, key);
         }
-
-        return cipher;
     }
 
     public static CryptResult encrypt(byte[] data, Cipher cipher)
             throws BadPaddingException, IllegalBlockSizeException {
-        // split off the tag to store it separately
-        byte[] result = cipher.doFinal(data);
-        byte[] tag = Arrays.copyOfRange(result, result.length - CRYPTO_AEAD_TAG_SIZE, result.length);
-        byte[] encrypted = Arrays.copyOfRange(result, 0, result.length - CRYPTO_AEAD_TAG_SIZE);
+        // the tag is stored separately, so write the ciphertext straight into a buffer of its
+        // final size and only pass the last block through doFinal, which appends the tag to it
+        byte[] encrypted = new byte[data.length];
+        int split = Math.max(0, data.length - CRYPTO_AEAD_TAG_SIZE);
+        int offset = 0;
+        if (split > 0) {
+            try {
+                offset = cipher.update(data, 0, split, encrypted, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        // most providers hold back all of the ciphertext until doFinal, in which case
+        // this is the only copy of it
+        byte[] rest = cipher.doFinal(data, split, data.length - split);
+        int restLen = rest.length - CRYPTO_AEAD_TAG_SIZE;
+        System.arraycopy(rest, 0, encrypted, offset, restLen);
+        byte[] tag = Arrays.copyOfRange(rest, restLen, rest.length);
 
         return new CryptResult(encrypted, new CryptParameters(cipher.getIV(), tag));
     }
@@ -89,13 +143,43 @@ public class CryptoUtils {
 
     public static CryptResult decrypt(byte[] encrypted, int encryptedOffset, int encryptedLen, Cipher cipher, CryptParameters params)
             throws IOException, BadPaddingException, IllegalBlockSizeException {
-        // append the tag to the ciphertext
+        // the tag is stored separately, so feed it to the cipher after the ciphertext instead
+        // of copying both into a new buffer
+        byte[] head = cipher.update(encrypted, encryptedOffset, encryptedLen);
+        byte[] decrypted = cipher.doFinal(params.getTag());
+
+        // most providers hold back all of the plaintext until the tag has been verified,
+        // in which case there's nothing to join
+        if (head != null && head.length > 0) {
+            byte[] joined = Arrays.copyOf(head, head.length + decrypted.length);
+            System.arraycopy(decrypted, 0, joined, head.length, decrypted.length);
+            decrypted = joined;
+        }
+
+        return new CryptResult(decrypted, params);
+    }
+
+    public static CryptResult decrypt(InputStream encrypted, Cipher cipher, CryptParameters params)
+            throws IOException, BadPaddingException, IllegalBlockSizeException {
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        stream.write(encrypted, encryptedOffset, encryptedLen);
-        stream.write(params.getTag());
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = encrypted.read(buf)) != -1) {
+            byte[] output = cipher.update(buf, 0, len);
+            if (output != null) {
+                stream.write(output);
+            }
+        }
 
-        encrypted = stream.toByteArray();
-        byte[] decrypted = cipher.doFinal(encrypted);
+        // the tag is stored separately, so feed it to the cipher last
+        byte[] decrypted = cipher.doFinal(params.getTag());
+
+        // most providers hold back all of the plaintext until the tag has been verified,
+        // in which case there's no need to copy it
+        if (stream.size() > 0) {
+            stream.write(decrypted);
+            decrypted = stream.toByteArray();
+        }
 
         return new CryptResult(decrypted, params);
     }
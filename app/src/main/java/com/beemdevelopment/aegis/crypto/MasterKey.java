@@ -1,7 +1,11 @@
 package com.beemdevelopment.aegis.crypto;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -27,6 +31,15 @@ public class MasterKey implements Serializable {
     }
 
     public CryptResult encrypt(byte[] bytes) throws MasterKeyException {
+        CryptoSession session = CryptoSession.get();
+        if (session != null) {
+            try {
+                return session.encrypt(_key, bytes);
+            } catch (GeneralSecurityException e) {
+                throw new MasterKeyException(e);
+            }
+        }
+
         try {
             Cipher cipher = CryptoUtils.createEncryptCipher(_key);
             return CryptoUtils.encrypt(bytes, cipher);
@@ -40,10 +53,74 @@ public class MasterKey implements Serializable {
         }
     }
 
+    /**
+     * Encrypts data that is produced incrementally with this master key. The given writer feeds
+     * the data through the cipher and finishes it, and is responsible for collecting the output.
+     * Returns the nonce that was used.
+     */
+    public byte[] encrypt(CipherWriter writer) throws MasterKeyException, IOException {
+        CryptoSession session = CryptoSession.get();
+        if (session != null) {
+            try {
+                return session.encrypt(_key, writer);
+            } catch (GeneralSecurityException e) {
+                throw new MasterKeyException(e);
+            }
+        }
+
+        try {
+            Cipher cipher = CryptoUtils.createEncryptCipher(_key);
+            writer.write(cipher);
+            return cipher.getIV();
+        } catch (NoSuchPaddingException
+                | NoSuchAlgorithmException
+                | InvalidAlgorithmParameterException
+                | InvalidKeyException e) {
+            throw new MasterKeyException(e);
+        }
+    }
+
     public CryptResult decrypt(byte[] bytes, CryptParameters params) throws MasterKeyException {
+        return decrypt(bytes, 0, bytes.length, params);
+    }
+
+    public CryptResult decrypt(byte[] bytes, int offset, int len, CryptParameters params) throws MasterKeyException {
+        CryptoSession session = CryptoSession.get();
+        if (session != null) {
+            try {
+                return session.decrypt(_key, bytes, offset, len, params);
+            } catch (GeneralSecurityException | IOException e) {
+                throw new MasterKeyException(e);
+            }
+        }
+
+        try {
+            Cipher cipher = CryptoUtils.createDecryptCipher(_key, params.getNonce());
+            return CryptoUtils.decrypt(bytes, offset, len, cipher, params);
+        } catch (NoSuchPaddingException
+                | NoSuchAlgorithmException
+                | InvalidAlgorithmParameterException
+                | InvalidKeyException
+                | BadPaddingException
+                | IOException
+                | IllegalBlockSizeException e) {
+            throw new MasterKeyException(e);
+        }
+    }
+
+    public CryptResult decrypt(InputStream encrypted, CryptParameters params) throws MasterKeyException {
+        CryptoSession session = CryptoSession.get();
+        if (session != null) {
+            try {
+                return session.decrypt(_key, encrypted, params);
+            } catch (GeneralSecurityException | IOException e) {
+                throw new MasterKeyException(e);
+            }
+        }
+
         try {
             Cipher cipher = CryptoUtils.createDecryptCipher(_key, params.getNonce());
-            return CryptoUtils.decrypt(bytes, cipher, params);
+            return CryptoUtils.decrypt(encrypted, cipher, params);
         } catch (NoSuchPaddingException
                 | NoSuchAlgorithmException
                 | InvalidAlgorithmParameterException
@@ -55,7 +132,42 @@ public class MasterKey implements Serializable {
         }
     }
 
+    /**
+     * Returns a stream that encrypts everything written to it into a segmented container with
+     * this master key. See {@link SegmentedCipher} for the format. Unlike {@link #encrypt(byte[])},
+     * this only keeps one segment in memory at a time, which makes it suitable for large payloads.
+     */
+    public SegmentedOutputStream encryptStream(OutputStream out) throws IOException {
+        return new SegmentedOutputStream(out, _key);
+    }
+
+    public SegmentedOutputStream encryptStream(OutputStream out, int segmentSize) throws IOException {
+        return new SegmentedOutputStream(out, _key, segmentSize);
+    }
+
+    /**
+     * Returns a stream that decrypts the segmented container that was written by
+     * {@link #encryptStream(OutputStream)} with this master key.
+     */
+    public SegmentedInputStream decryptStream(InputStream in) throws IOException {
+        return new SegmentedInputStream(in, _key);
+    }
+
+    /**
+     * Opens the segmented container in the given file for random access.
+     */
+    public SegmentedFile openSegmentedFile(FileChannel channel) throws IOException {
+        return new SegmentedFile(channel, _key);
+    }
+
     public byte[] getBytes() {
         return _key.getEncoded();
     }
+
+    /**
+     * Feeds data through an initialized cipher, see {@link #encrypt(CipherWriter)}.
+     */
+    public interface CipherWriter {
+        void write(Cipher cipher) throws IOException;
+    }
 }
@@ -0,0 +1,117 @@
+package com.beemdevelopment.aegis.crypto;
+
+import com.beemdevelopment.aegis.crypto.bc.SCrypt;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the scrypt parameters for a new password slot based on how fast this device is. It
+ * times a small derivation and extrapolates from that, as the cost of scrypt is linear in N and
+ * in p. The total cost (N * p) is the largest power of two that is expected to take no longer
+ * than the target, within bounds that keep it from becoming too weak or using too much memory.
+ * The lower bound applies to the N of every lane rather than to the total cost, as an attacker
+ * can run the lanes in parallel just as well as we can. The cost is raised by doubling N for as
+ * long as the memory limit allows, and by adding lanes after that, as SCrypt never derives more
+ * than SCrypt.MAX_PARALLEL_LANES of them at the same time.
+ */
+public class SCryptCalibrator {
+    public static final long TARGET_MILLIS = 500;
+
+    // Half of the default N, so that slow devices still get a reasonable amount of protection
+    static final int MIN_N = CryptoUtils.CRYPTO_SCRYPT_N / 2;
+    // Twice the default N, which is as far as MAX_MEMORY allows anyway with r = 8
+    static final int MAX_N = CryptoUtils.CRYPTO_SCRYPT_N * 2;
+    // Eight times the default cost, which leaves room for two doublings above the minimum
+    // cost of CryptoUtils.CRYPTO_SCRYPT_PARALLEL_p lanes
+    static final int MAX_COST = CryptoUtils.CRYPTO_SCRYPT_N * CryptoUtils.CRYPTO_SCRYPT_p * 8;
+    // The amount of memory that the lanes that run at the same time may use together
+    static final long MAX_MEMORY = 64 * 1024 * 1024;
+
+    private static final int PROBE_COST = 1 << 12;
+    private static final int PROBE_ROUNDS = 3;
+
+    private SCryptCalibrator() {
+
+    }
+
+    /**
+     * Times a small derivation on this device and returns the parameters that are expected to
+     * take about TARGET_MILLIS to derive a key with.
+     */
+    public static Result calibrate(byte[] salt) {
+        return calibrate(salt, TARGET_MILLIS, Runtime.getRuntime().availableProcessors());
+    }
+
+    static Result calibrate(byte[] salt, long targetMillis, int cores) {
+        int lanes = CryptoUtils.getSCryptLanes(cores);
+        byte[] password = CryptoUtils.generateRandomBytes(16);
+
+        // take the fastest of a couple of rounds, so that a one-off hiccup doesn't skew the result
+        long probeNanos = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_ROUNDS; i++) {
+            long start = System.nanoTime();
+            SCrypt.generate(password, salt, PROBE_COST / lanes, CryptoUtils.CRYPTO_SCRYPT_r, lanes, CryptoUtils.CRYPTO_AEAD_KEY_SIZE);
+            probeNanos = Math.min(probeNanos, System.nanoTime() - start);
+        }
+
+        double nanosPerCost = (double) probeNanos / PROBE_COST;
+        SCryptParameters params = selectParams(nanosPerCost, targetMillis, lanes, cores, salt);
+        long cost = (long) params.getN() * params.getP();
+        long estimatedMillis = Math.round(nanosPerCost * cost / TimeUnit.MILLISECONDS.toNanos(1));
+        return new Result(params, TimeUnit.NANOSECONDS.toMillis(probeNanos), estimatedMillis);
+    }
+
+    /**
+     * Returns the parameters with the largest total cost that is expected to take no longer
+     * than the given target, bounded by MAX_N, MAX_COST and MAX_MEMORY. Starts out with the
+     * given amount of lanes and an N of MIN_N, even if that exceeds the target.
+     */
+    static SCryptParameters selectParams(double nanosPerCost, long targetMillis, int lanes, int cores, byte[] salt) {
+        double targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        int r = CryptoUtils.CRYPTO_SCRYPT_r;
+
+        int n = MIN_N;
+        int p = lanes;
+        while ((long) n * p < MAX_COST && nanosPerCost * n * p * 2 <= targetNanos) {
+            if (n < MAX_N && CryptoUtils.getSCryptMemoryUsage(n * 2, r, p, cores) <= MAX_MEMORY) {
+                n *= 2;
+            } else if (CryptoUtils.getSCryptMemoryUsage(n, r, p * 2, cores) <= MAX_MEMORY) {
+                p *= 2;
+            } else {
+                break;
+            }
+        }
+
+        return new SCryptParameters(n, r, p, salt);
+    }
+
+    public static class Result {
+        private final SCryptParameters _params;
+        private final long _probeMillis;
+        private final long _estimatedMillis;
+
+        public Result(SCryptParameters params, long probeMillis, long estimatedMillis) {
+            _params = params;
+            _probeMillis = probeMillis;
+            _estimatedMillis = estimatedMillis;
+        }
+
+        public SCryptParameters getParams() {
+            return _params;
+        }
+
+        /**
+         * Returns how long the fastest of the probe derivations took.
+         */
+        public long getProbeMillis() {
+            return _probeMillis;
+        }
+
+        /**
+         * Returns how long a derivation with the selected parameters is expected to take.
+         */
+        public long getEstimatedMillis() {
+            return _estimatedMillis;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.beemdevelopment.aegis.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Shared logic of the segmented AEAD container, which encrypts a stream of data in segments
+ * of a fixed size with AES-GCM, along the lines of the STREAM construction. This allows large
+ * payloads to be encrypted and decrypted with buffers of a bounded size, and any segment to be
+ * decrypted on its own.
+ *
+ * The container starts with a header:
+ * - version (1 byte)
+ * - plaintext segment size (4 bytes, big endian)
+ * - salt (16 bytes)
+ * - nonce prefix (7 bytes)
+ *
+ * The header is followed by the segments, each of which is the ciphertext of segment size
+ * bytes of plaintext followed by the tag. Only the last segment may be shorter. The segments
+ * are encrypted with a key that is derived from the master key and the salt, so that the
+ * nonces of different containers never collide. The nonce of a segment consists of the nonce
+ * prefix, the index of the segment (4 bytes, big endian) and a byte that is 1 for the last
+ * segment and 0 for the others. The header is passed as associated data to every segment. As
+ * a result, segments can't be reordered, dropped or moved to a different container, and the
+ * container can't be truncated without detection.
+ */
+public class SegmentedCipher {
+    public static final byte VERSION = 1;
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+    // Readers allocate buffers of the segment size, so don't trust a header to ask for more
+    public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    static final int SALT_SIZE = 16;
+    static final int NONCE_PREFIX_SIZE = 7;
+    public static final int HEADER_SIZE = 1 + 4 + SALT_SIZE + NONCE_PREFIX_SIZE;
+
+    private static final String KEY_ALGO = "HmacSHA256";
+
+    private final byte[] _header;
+    private final int _segmentSize;
+    private final SecretKey _key;
+    private final Cipher _cipher;
+    private final byte[] _nonce = new byte[CryptoUtils.CRYPTO_AEAD_NONCE_SIZE];
+
+    private SegmentedCipher(SecretKey masterKey, byte[] header) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(header);
+        byte version = buf.get();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported segmented container version: %d", version));
+        }
+        _segmentSize = buf.getInt();
+        checkSegmentSize(_segmentSize);
+
+        byte[] salt = new byte[SALT_SIZE];
+        buf.get(salt);
+        buf.get(_nonce, 0, NONCE_PREFIX_SIZE);
+        _header = header;
+
+        try {
+            _key = deriveKey(masterKey, salt);
+            _cipher = Cipher.getInstance(CryptoUtils.CRYPTO_AEAD);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Creates a cipher for a new container with the given segment size, with a random salt
+     * and nonce prefix.
+     */
+    static SegmentedCipher create(SecretKey masterKey, int segmentSize) throws IOException {
+        checkSegmentSize(segmentSize);
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.put(VERSION);
+        buf.putInt(segmentSize);
+        buf.put(CryptoUtils.generateRandomBytes(SALT_SIZE + NONCE_PREFIX_SIZE));
+        return new SegmentedCipher(masterKey, buf.array());
+    }
+
+    /**
+     * Creates a cipher for the existing container that starts with the given header.
+     */
+    static SegmentedCipher fromHeader(SecretKey masterKey, byte[] header) throws IOException {
+        if (header.length != HEADER_SIZE) {
+            throw new IOException(String.format("Bad header size: %d", header.length));
+        }
+        return new SegmentedCipher(masterKey, header.clone());
+    }
+
+    private static void checkSegmentSize(int segmentSize) throws IOException {
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IOException(String.format("Bad segment size: %d", segmentSize));
+        }
+    }
+
+    private static SecretKey deriveKey(SecretKey masterKey, byte[] salt)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(KEY_ALGO);
+        mac.init(new SecretKeySpec(masterKey.getEncoded(), KEY_ALGO));
+        byte[] keyBytes = mac.doFinal(salt);
+        return new SecretKeySpec(keyBytes, 0, CryptoUtils.CRYPTO_AEAD_KEY_SIZE, "AES");
+    }
+
+    byte[] getHeader() {
+        return _header;
+    }
+
+    int getSegmentSize() {
+        return _segmentSize;
+    }
+
+    /**
+     * Returns the size of a full segment in the container, including the tag.
+     */
+    int getEncryptedSegmentSize() {
+        return _segmentSize + CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+    }
+
+    /**
+     * Encrypts len bytes of plaintext at the start of input as the segment with the given
+     * index and stores the result at the start of output. Returns the amount of bytes written.
+     */
+    int encryptSegment(long index, boolean last, byte[] input, int len, byte[] output) throws IOException {
+        try {
+            initCipher(Cipher.ENCRYPT_MODE, index, last);
+            return _cipher.doFinal(input, 0, len, output, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Decrypts len bytes of ciphertext at the start of input as the segment with the given
+     * index and stores the result at the start of output. Returns the amount of bytes written.
+     */
+    int decryptSegment(long index, boolean last, byte[] input, int len, byte[] output) throws IOException {
+        if (len < CryptoUtils.CRYPTO_AEAD_TAG_SIZE) {
+            throw new IOException(String.format("Segment %d is too short: %d bytes", index, len));
+        }
+
+        try {
+            initCipher(Cipher.DECRYPT_MODE, index, last);
+            return _cipher.doFinal(input, 0, len, output, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(String.format("Unable to decrypt segment %d", index), e);
+        }
+    }
+
+    private void initCipher(int opmode, long index, boolean last) throws GeneralSecurityException {
+        if (index < 0 || index > 0xFFFFFFFFL) {
+            throw new IllegalArgumentException(String.format("Bad segment index: %d", index));
+        }
+
+        ByteBuffer.wrap(_nonce, NONCE_PREFIX_SIZE, 5)
+                .putInt((int) index)
+                .put((byte) (last ? 1 : 0));
+        _cipher.init(opmode, _key, new GCMParameterSpec(CryptoUtils.CRYPTO_AEAD_TAG_SIZE * 8, _nonce));
+        _cipher.updateAAD(_header);
+    }
+}
@@ -0,0 +1,131 @@
+package com.beemdevelopment.aegis.crypto;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Provides random access to the plaintext of a segmented AEAD container in a file. See
+ * {@link SegmentedCipher} for the format. Only the segments that are needed to serve a read
+ * are decrypted, and only one of them is kept in memory at a time.
+ */
+public class SegmentedFile implements Closeable {
+    private final FileChannel _channel;
+    private final SegmentedCipher _cipher;
+    private final long _segmentCount;
+    private final long _size;
+
+    private final byte[] _inBuf;
+    private final byte[] _buf;
+    private long _bufIndex = -1;
+    private int _bufLen;
+
+    public SegmentedFile(FileChannel channel, SecretKey key) throws IOException {
+        _channel = channel;
+
+        byte[] header = new byte[SegmentedCipher.HEADER_SIZE];
+        if (readFully(header, header.length, 0) != header.length) {
+            throw new IOException("Unexpected end of file while reading the header");
+        }
+        _cipher = SegmentedCipher.fromHeader(key, header);
+        _inBuf = new byte[_cipher.getEncryptedSegmentSize()];
+        _buf = new byte[_cipher.getSegmentSize()];
+
+        // there's always at least one segment, even if the plaintext is empty
+        long encryptedSize = _channel.size() - SegmentedCipher.HEADER_SIZE;
+        long segmentLen = _cipher.getEncryptedSegmentSize();
+        _segmentCount = Math.max((encryptedSize + segmentLen - 1) / segmentLen, 1);
+        long lastLen = encryptedSize - (_segmentCount - 1) * segmentLen;
+        if (lastLen < CryptoUtils.CRYPTO_AEAD_TAG_SIZE) {
+            throw new IOException(String.format("Last segment is too short: %d bytes", lastLen));
+        }
+        _size = encryptedSize - _segmentCount * CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+    }
+
+    /**
+     * Returns the size of the plaintext.
+     */
+    public long getSize() {
+        return _size;
+    }
+
+    public long getSegmentCount() {
+        return _segmentCount;
+    }
+
+    public int getSegmentSize() {
+        return _cipher.getSegmentSize();
+    }
+
+    /**
+     * Decrypts the segment with the given index and stores its plaintext at the start of out,
+     * which must be at least the size of a segment. Returns the size of the plaintext.
+     */
+    public int readSegment(long index, byte[] out) throws IOException {
+        if (index < 0 || index >= _segmentCount) {
+            throw new IndexOutOfBoundsException(String.format("Bad segment index: %d", index));
+        }
+
+        long segmentLen = _cipher.getEncryptedSegmentSize();
+        long position = SegmentedCipher.HEADER_SIZE + index * segmentLen;
+        int len = (int) Math.min(segmentLen, _channel.size() - position);
+        if (readFully(_inBuf, len, position) != len) {
+            throw new IOException(String.format("Unexpected end of file while reading segment %d", index));
+        }
+
+        boolean last = index == _segmentCount - 1;
+        return _cipher.decryptSegment(index, last, _inBuf, len, out);
+    }
+
+    /**
+     * Reads up to len bytes of plaintext, starting at the given position, into b. Returns the
+     * amount of bytes read, or -1 if the position is at or past the end of the plaintext.
+     */
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException(String.format("Bad position: %d", position));
+        }
+        if (position >= _size) {
+            return -1;
+        }
+
+        int segmentSize = _cipher.getSegmentSize();
+        int total = 0;
+        while (total < len && position < _size) {
+            long index = position / segmentSize;
+            if (index != _bufIndex) {
+                // forget the previous segment first, in case decryption fails
+                _bufIndex = -1;
+                _bufLen = readSegment(index, _buf);
+                _bufIndex = index;
+            }
+
+            int segmentPos = (int) (position % segmentSize);
+            int n = Math.min(len - total, _bufLen - segmentPos);
+            System.arraycopy(_buf, segmentPos, b, off + total, n);
+            total += n;
+            position += n;
+        }
+
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+    private int readFully(byte[] b, int len, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(b, 0, len);
+        while (buf.hasRemaining()) {
+            int n = _channel.read(buf, position + buf.position());
+            if (n == -1) {
+                break;
+            }
+        }
+        return buf.position();
+    }
+}
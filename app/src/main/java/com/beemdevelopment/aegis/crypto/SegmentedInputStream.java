@@ -0,0 +1,105 @@
+package com.beemdevelopment.aegis.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.crypto.SecretKey;
+
+/**
+ * An InputStream that decrypts a segmented AEAD container. See {@link SegmentedCipher} for the
+ * format. Only one segment is buffered at a time, and none of its plaintext is returned before
+ * the segment has been authenticated. An IOException is thrown if the container was tampered
+ * with, including if it was truncated.
+ */
+public class SegmentedInputStream extends InputStream {
+    private final InputStream _in;
+    private final SegmentedCipher _cipher;
+    // one byte larger than a segment, to find out whether there's another segment after it
+    private final byte[] _inBuf;
+    private int _inLen;
+    private final byte[] _buf;
+    private int _bufPos;
+    private int _bufLen;
+    private long _index;
+    private boolean _done;
+
+    public SegmentedInputStream(InputStream in, SecretKey key) throws IOException {
+        _in = in;
+
+        byte[] header = new byte[SegmentedCipher.HEADER_SIZE];
+        if (readFully(header, 0, header.length) != header.length) {
+            throw new IOException("Unexpected end of stream while reading the header");
+        }
+        _cipher = SegmentedCipher.fromHeader(key, header);
+        _inBuf = new byte[_cipher.getEncryptedSegmentSize() + 1];
+        _buf = new byte[_cipher.getSegmentSize()];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int n = read(b, 0, 1);
+        return n == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        while (_bufPos == _bufLen) {
+            if (_done) {
+                return -1;
+            }
+            readSegment();
+        }
+
+        int n = Math.min(len, _bufLen - _bufPos);
+        System.arraycopy(_buf, _bufPos, b, off, n);
+        _bufPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return _bufLen - _bufPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _in.close();
+    }
+
+    private void readSegment() throws IOException {
+        int segmentLen = _cipher.getEncryptedSegmentSize();
+        _inLen += readFully(_inBuf, _inLen, _inBuf.length - _inLen);
+
+        boolean last = _inLen <= segmentLen;
+        int len = last ? _inLen : segmentLen;
+        _bufLen = _cipher.decryptSegment(_index, last, _inBuf, len, _buf);
+        _bufPos = 0;
+        _index++;
+
+        if (last) {
+            _done = true;
+            _inLen = 0;
+        } else {
+            // keep the byte of the next segment that was read ahead
+            _inBuf[0] = _inBuf[segmentLen];
+            _inLen = 1;
+        }
+    }
+
+    private int readFully(byte[] b, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = _in.read(b, off + total, len - total);
+            if (n == -1) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+}
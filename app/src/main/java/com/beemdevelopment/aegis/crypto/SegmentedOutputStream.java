@@ -0,0 +1,87 @@
+package com.beemdevelopment.aegis.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.crypto.SecretKey;
+
+/**
+ * An OutputStream that encrypts everything written to it into a segmented AEAD container. See
+ * {@link SegmentedCipher} for the format. Only one segment is buffered at a time. The last
+ * segment is written when the stream is closed, so the container is incomplete until then.
+ */
+public class SegmentedOutputStream extends OutputStream {
+    private final OutputStream _out;
+    private final SegmentedCipher _cipher;
+    private final byte[] _buf;
+    private final byte[] _outBuf;
+    private int _bufLen;
+    private long _index;
+    private boolean _closed;
+
+    public SegmentedOutputStream(OutputStream out, SecretKey key) throws IOException {
+        this(out, key, SegmentedCipher.DEFAULT_SEGMENT_SIZE);
+    }
+
+    public SegmentedOutputStream(OutputStream out, SecretKey key, int segmentSize) throws IOException {
+        _out = out;
+        _cipher = SegmentedCipher.create(key, segmentSize);
+        _buf = new byte[segmentSize];
+        _outBuf = new byte[_cipher.getEncryptedSegmentSize()];
+        _out.write(_cipher.getHeader());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (_closed) {
+            throw new IOException("Stream is closed");
+        }
+
+        while (len > 0) {
+            // a full segment is only written once more data arrives, as it may be the last one
+            if (_bufLen == _buf.length) {
+                writeSegment(false);
+            }
+
+            int n = Math.min(len, _buf.length - _bufLen);
+            System.arraycopy(b, off, _buf, _bufLen, n);
+            _bufLen += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        _out.flush();
+    }
+
+    /**
+     * Writes the last segment and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+
+        _closed = true;
+        try {
+            writeSegment(true);
+        } finally {
+            _out.close();
+        }
+    }
+
+    private void writeSegment(boolean last) throws IOException {
+        int len = _cipher.encryptSegment(_index, last, _buf, _bufLen, _outBuf);
+        _out.write(_outBuf, 0, len);
+        _bufLen = 0;
+        _index++;
+    }
+}
@@ -28,6 +28,10 @@ import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.Integers;
 import org.bouncycastle.util.Pack;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Implementation of the scrypt a password-based key derivation function.
  * <p>
@@ -36,6 +40,12 @@ import org.bouncycastle.util.Pack;
  */
 public class SCrypt
 {
+    // The maximum amount of lanes that are derived at the same time
+    public static final int MAX_PARALLEL_LANES = 4;
+
+    // How often SMix checks whether the derivation was cancelled, in iterations
+    private static final int CANCEL_CHECK_MASK = (1 << 10) - 1;
+
     private SCrypt()
     {
         // not used.
@@ -55,6 +65,18 @@ public class SCrypt
      * @return the generated key.
      */
     public static byte[] generate(byte[] P, byte[] S, int N, int r, int p, int dkLen)
+    {
+        return generate(P, S, N, r, p, dkLen, null);
+    }
+
+    /**
+     * Generate a key using the scrypt key derivation function, unless the given flag is set
+     * before the derivation has finished.
+     *
+     * @param cancelled a flag that is checked regularly while the key is derived, or null.
+     * @throws CancellationException if the flag was set before the key was derived.
+     */
+    public static byte[] generate(byte[] P, byte[] S, int N, int r, int p, int dkLen, AtomicBoolean cancelled)
     {
         if (P == null)
         {
@@ -87,10 +109,10 @@ public class SCrypt
         {
             throw new IllegalArgumentException("Generated key length dkLen must be >= 1.");
         }
-        return MFcrypt(P, S, N, r, p, dkLen);
+        return MFcrypt(P, S, N, r, p, dkLen, cancelled);
     }
 
-    private static byte[] MFcrypt(byte[] P, byte[] S, int N, int r, int p, int dkLen)
+    private static byte[] MFcrypt(byte[] P, byte[] S, int N, int r, int p, int dkLen, AtomicBoolean cancelled)
     {
         int MFLenBytes = r * 128;
         byte[] bytes = SingleIterationPBKDF2(P, S, p * MFLenBytes);
@@ -116,10 +138,25 @@ public class SCrypt
             }
 
             int MFLenWords = MFLenBytes >>> 2;
-            for (int BOff = 0; BOff < BLen; BOff += MFLenWords)
+            if (p > 1 && Runtime.getRuntime().availableProcessors() > 1)
+            {
+                SMixParallel(B, MFLenWords, N, d, r, p, cancelled);
+            }
+            else
             {
-                // TODO These can be done in parallel threads
-                SMix(B, BOff, N, d, r);
+                // The lanes are processed one after another, so they can share the scratch buffers
+                Scratch scratch = new Scratch(N, d, r);
+                try
+                {
+                    for (int BOff = 0; BOff < BLen; BOff += MFLenWords)
+                    {
+                        SMix(B, BOff, N, r, scratch, cancelled);
+                    }
+                }
+                finally
+                {
+                    scratch.clear();
+                }
             }
 
             Pack.intToLittleEndian(B, bytes, 0);
@@ -141,59 +178,102 @@ public class SCrypt
         return key.getKey();
     }
 
-    private static void SMix(int[] B, int BOff, int N, int d, int r)
+    /**
+     * Runs SMix for each of the p lanes of B on the common fork-join pool. The calling thread
+     * takes part in the work, so this never uses more threads than there are lanes, nor more
+     * than MAX_PARALLEL_LANES.
+     */
+    private static void SMixParallel(final int[] B, final int MFLenWords, final int N, final int d, final int r, int p,
+                                     final AtomicBoolean cancelled)
     {
-        int powN = Integers.numberOfTrailingZeros(N);
-        int blocksPerChunk = N >>> d;
-        int chunkCount = 1 << d, chunkMask = blocksPerChunk - 1, chunkPow = powN - d;
+        // Every worker takes every workers-th lane, so that no more than MAX_PARALLEL_LANES
+        // scratch buffers are alive at the same time, regardless of p
+        final int workers = Math.min(p, MAX_PARALLEL_LANES);
+        final int BLen = p * MFLenWords;
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers];
+        for (int i = 0; i < workers; ++i)
+        {
+            final int firstOff = i * MFLenWords;
+            tasks[i] = ForkJoinTask.adapt(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Scratch scratch = new Scratch(N, d, r);
+                    try
+                    {
+                        for (int BOff = firstOff; BOff < BLen; BOff += workers * MFLenWords)
+                        {
+                            SMix(B, BOff, N, r, scratch, cancelled);
+                        }
+                    }
+                    finally
+                    {
+                        scratch.clear();
+                    }
+                }
+            });
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+    }
 
+    private static void SMix(int[] B, int BOff, int N, int r, Scratch scratch, AtomicBoolean cancelled)
+    {
         int BCount = r * 32;
+        int blocksPerChunk = scratch.blocksPerChunk;
+        int chunkMask = blocksPerChunk - 1, chunkPow = scratch.chunkPow;
 
-        int[] blockX1 = new int[16];
-        int[] blockX2 = new int[16];
-        int[] blockY = new int[BCount];
+        int[] blockX1 = scratch.blockX1;
+        int[] blockX2 = scratch.blockX2;
+        int[] blockY = scratch.blockY;
+        int[] X = scratch.X;
+        int[][] VV = scratch.VV;
 
-        int[] X = new int[BCount];
-        int[][] VV = new int[chunkCount][];
+        System.arraycopy(B, BOff, X, 0, BCount);
 
-        try
+        for (int c = 0; c < VV.length; ++c)
         {
-            System.arraycopy(B, BOff, X, 0, BCount);
+            checkCancelled(cancelled);
+            int[] V = VV[c];
 
-            for (int c = 0; c < chunkCount; ++c)
+            int off = 0;
+            for (int i = 0; i < blocksPerChunk; i += 2)
             {
-                int[] V = new int[blocksPerChunk * BCount];
-                VV[c] = V;
-
-                int off = 0;
-                for (int i = 0; i < blocksPerChunk; i += 2)
-                {
-                    System.arraycopy(X, 0, V, off, BCount);
-                    off += BCount;
-                    BlockMix(X, blockX1, blockX2, blockY, r);
-                    System.arraycopy(blockY, 0, V, off, BCount);
-                    off += BCount;
-                    BlockMix(blockY, blockX1, blockX2, X, r);
-                }
+                System.arraycopy(X, 0, V, off, BCount);
+                off += BCount;
+                BlockMix(X, blockX1, blockX2, blockY, r);
+                System.arraycopy(blockY, 0, V, off, BCount);
+                off += BCount;
+                BlockMix(blockY, blockX1, blockX2, X, r);
             }
+        }
 
-            int mask = N - 1;
-            for (int i = 0; i < N; ++i)
+        int mask = N - 1;
+        for (int i = 0; i < N; ++i)
+        {
+            if ((i & CANCEL_CHECK_MASK) == 0)
             {
-                int j = X[BCount - 16] & mask;
-                int[] V = VV[j >>> chunkPow];
-                int VOff = (j & chunkMask) * BCount;
-                System.arraycopy(V, VOff, blockY, 0, BCount);
-                Xor(blockY, X, 0, blockY);
-                BlockMix(blockY, blockX1, blockX2, X, r);
+                checkCancelled(cancelled);
             }
 
-            System.arraycopy(X, 0, B, BOff, BCount);
+            int j = X[BCount - 16] & mask;
+            int[] V = VV[j >>> chunkPow];
+            int VOff = (j & chunkMask) * BCount;
+
+            // XOR straight out of V, rather than copying the block out of it first
+            Xor(X, V, VOff, blockY);
+            BlockMix(blockY, blockX1, blockX2, X, r);
         }
-        finally
+
+        System.arraycopy(X, 0, B, BOff, BCount);
+    }
+
+    private static void checkCancelled(AtomicBoolean cancelled)
+    {
+        if (cancelled != null && cancelled.get())
         {
-            ClearAll(VV);
-            ClearAll(new int[][]{X, blockX1, blockX2, blockY});
+            throw new CancellationException("Key derivation was cancelled");
         }
     }
 
@@ -215,6 +295,41 @@ public class SCrypt
         }
     }
 
+    /**
+     * The buffers that SMix works in. These are reused for all lanes that a thread processes,
+     * as V is as large as N * r * 128 bytes.
+     */
+    private static class Scratch
+    {
+        final int blocksPerChunk;
+        final int chunkPow;
+        final int[] blockX1 = new int[16];
+        final int[] blockX2 = new int[16];
+        final int[] blockY;
+        final int[] X;
+        final int[][] VV;
+
+        Scratch(int N, int d, int r)
+        {
+            int BCount = r * 32;
+            blocksPerChunk = N >>> d;
+            chunkPow = Integers.numberOfTrailingZeros(N) - d;
+            blockY = new int[BCount];
+            X = new int[BCount];
+            VV = new int[1 << d][];
+            for (int c = 0; c < VV.length; ++c)
+            {
+                VV[c] = new int[blocksPerChunk * BCount];
+            }
+        }
+
+        void clear()
+        {
+            ClearAll(VV);
+            ClearAll(new int[][]{X, blockX1, blockX2, blockY});
+        }
+    }
+
     private static void Xor(int[] a, int[] b, int bOff, int[] output)
     {
         for (int i = output.length - 1; i >= 0; --i)
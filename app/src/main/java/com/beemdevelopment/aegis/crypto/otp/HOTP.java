@@ -14,16 +14,7 @@ public class HOTP {
 
     public static OTP generateOTP(byte[] secret, String algo, int digits, long counter)
             throws NoSuchAlgorithmException, InvalidKeyException {
-        byte[] hash = getHash(secret, algo, counter);
-
-        // truncate hash to get the HTOP value
-        // http://tools.ietf.org/html/rfc4226#section-5.4
-        int offset = hash[hash.length - 1] & 0xf;
-        int otp = ((hash[offset] & 0x7f) << 24)
-                | ((hash[offset + 1] & 0xff) << 16)
-                | ((hash[offset + 2] & 0xff) << 8)
-                | (hash[offset + 3] & 0xff);
-
+        int otp = OtpGenerator.get().generate(secret, algo, counter);
         return new OTP(otp, digits);
     }
 
@@ -0,0 +1,314 @@
+package com.beemdevelopment.aegis.crypto.otp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Generates one-time passwords without allocating anything other than the resulting string,
+ * once the key of an entry has been seen. It keeps an initialized Mac for each of the most
+ * recently used secrets, and reuses its buffers for the counter, the hash and the digits.
+ *
+ * Use get() to obtain the instance of the current thread. Instances are only meant to be used
+ * by a single thread, but they lock themselves while they're in use, so that invalidateAll()
+ * can wipe their keys from any thread. The codes are the same as those of HOTP, TOTP, OTP and
+ * YAOTP.
+ */
+public class OtpGenerator {
+    // Enough to cover all entries of a large vault without keeping keys around forever
+    private static final int MAX_CACHED_KEYS = 256;
+    private static final int MAX_DIGITS = 32;
+    private static final int EN_ALPHABET_LENGTH = 26;
+    private static final String STEAM_ALPHABET = "23456789BCDFGHJKMNPQRTVWXY";
+
+    // Computed the same way as in OTP and YAOTP, so that the codes are identical
+    private static final int[] DECIMAL_MODULI = new int[MAX_DIGITS + 1];
+    private static final long[] YANDEX_MODULI = new long[MAX_DIGITS + 1];
+    static {
+        for (int i = 0; i <= MAX_DIGITS; i++) {
+            DECIMAL_MODULI[i] = (int) Math.pow(10, i);
+            YANDEX_MODULI[i] = (long) Math.pow(EN_ALPHABET_LENGTH, i);
+        }
+    }
+
+    private static final ThreadLocal<OtpGenerator> _instances = new ThreadLocal<OtpGenerator>() {
+        @Override
+        protected OtpGenerator initialValue() {
+            return new OtpGenerator();
+        }
+    };
+
+    // All live instances, so that invalidateAll can reach the ones of other threads. The
+    // instances of threads that have died are dropped once they're garbage collected.
+    private static final Set<OtpGenerator> _registry = Collections.newSetFromMap(new WeakHashMap<>());
+
+    // Keyed by the identity of the secret array, as OtpInfo hands out the same array every time
+    private final Map<byte[], Key> _keys = new LinkedHashMap<byte[], Key>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<byte[], Key> eldest) {
+            if (size() > MAX_CACHED_KEYS) {
+                eldest.getValue().wipe();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final byte[] _counter = new byte[8];
+    private final byte[] _hash = new byte[64];
+    private final char[] _chars = new char[MAX_DIGITS];
+    private int _hashLength;
+
+    private OtpGenerator() {
+        synchronized (_registry) {
+            _registry.add(this);
+        }
+    }
+
+    /**
+     * Returns the generator of the current thread.
+     */
+    @NonNull
+    public static OtpGenerator get() {
+        return _instances.get();
+    }
+
+    /**
+     * Makes the generators of all threads forget the keys they have cached. The keys are
+     * wiped by the time this returns, waiting for generators that are in use to finish.
+     */
+    public static void invalidateAll() {
+        List<OtpGenerator> generators;
+        synchronized (_registry) {
+            generators = new ArrayList<>(_registry);
+        }
+        for (OtpGenerator generator : generators) {
+            generator.clear();
+        }
+    }
+
+    /**
+     * Forgets the keys that this generator has cached.
+     */
+    public synchronized void clear() {
+        for (Key key : _keys.values()) {
+            key.wipe();
+        }
+        _keys.clear();
+        Arrays.fill(_counter, (byte) 0);
+        Arrays.fill(_hash, (byte) 0);
+    }
+
+    @VisibleForTesting
+    synchronized int getCachedKeyCount() {
+        return _keys.size();
+    }
+
+    /**
+     * Returns the truncated HOTP value of the given counter, like HOTP.generateOTP does.
+     */
+    public synchronized int generate(byte[] secret, String algo, long counter)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        hash(getKey(secret, algo, null), counter);
+        return truncate();
+    }
+
+    /**
+     * Computes the HOTP values of count consecutive counters, starting at fromCounter, and
+     * stores them in out at the given offset. The values are reduced to the given amount of
+     * digits, so the code of a counter is its value left padded with zeroes.
+     */
+    public synchronized void generateRange(byte[] secret, String algo, int digits, long fromCounter, int count, int[] out, int offset)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        if (count < 0 || offset < 0 || offset + count > out.length) {
+            throw new IndexOutOfBoundsException(String.format("Range out of bounds: %d + %d > %d", offset, count, out.length));
+        }
+
+        // look up the key once for the whole range
+        Key key = getKey(secret, algo, null);
+        int modulus = digits <= MAX_DIGITS ? DECIMAL_MODULI[digits] : (int) Math.pow(10, digits);
+        for (int i = 0; i < count; i++) {
+            hash(key, fromCounter + i);
+            out[offset + i] = truncate() % modulus;
+        }
+    }
+
+    /**
+     * Returns the HOTP code for the given counter, formatted as a string of decimal digits.
+     */
+    @NonNull
+    public String generateCode(byte[] secret, String algo, int digits, long counter)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        return formatDecimal(generate(secret, algo, counter), digits);
+    }
+
+    /**
+     * Returns the HOTP code for the given counter, formatted for Steam.
+     */
+    @NonNull
+    public String generateSteamCode(byte[] secret, String algo, int digits, long counter)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        return formatSteam(generate(secret, algo, counter), digits);
+    }
+
+    /**
+     * Returns the Yandex code for the given counter, formatted as a string of letters.
+     */
+    @NonNull
+    public String generateYandexCode(byte[] secret, String pin, String algo, int digits, long counter)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        return formatYandex(generateYandex(secret, pin, algo, counter), digits);
+    }
+
+    /**
+     * Returns the truncated Yandex value of the given counter, like YAOTP.generateOTP does.
+     */
+    public synchronized long generateYandex(byte[] secret, String pin, String algo, long counter)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        hash(getKey(secret, algo, pin), counter);
+
+        int offset = _hash[_hashLength - 1] & 0xf;
+        if (offset + 8 > _hashLength) {
+            throw new IndexOutOfBoundsException(String.format("Hash too short: %d bytes", _hashLength));
+        }
+        long code = _hash[offset] & 0x7f;
+        for (int i = 1; i < 8; i++) {
+            code = (code << 8) | (_hash[offset + i] & 0xff);
+        }
+        return code;
+    }
+
+    @NonNull
+    String formatDecimal(int code, int digits) {
+        code %= digits <= MAX_DIGITS ? DECIMAL_MODULI[digits] : (int) Math.pow(10, digits);
+
+        // write the digits from right to left and prepend zeroes if needed
+        char[] chars = getChars(Math.max(digits, 10));
+        int pos = chars.length;
+        do {
+            chars[--pos] = (char) ('0' + code % 10);
+            code /= 10;
+        } while (code > 0);
+
+        int start = Math.min(pos, chars.length - digits);
+        Arrays.fill(chars, start, pos, '0');
+        return new String(chars, start, chars.length - start);
+    }
+
+    @NonNull
+    String formatSteam(int code, int digits) {
+        digits = Math.max(digits, 0);
+        char[] chars = getChars(digits);
+        for (int i = 0; i < digits; i++) {
+            chars[i] = STEAM_ALPHABET.charAt(code % STEAM_ALPHABET.length());
+            code /= STEAM_ALPHABET.length();
+        }
+        return new String(chars, 0, digits);
+    }
+
+    @NonNull
+    String formatYandex(long code, int digits) {
+        code %= digits <= MAX_DIGITS ? YANDEX_MODULI[digits] : (long) Math.pow(EN_ALPHABET_LENGTH, digits);
+
+        char[] chars = getChars(digits);
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[i] = (char) ('a' + (code % EN_ALPHABET_LENGTH));
+            code /= EN_ALPHABET_LENGTH;
+        }
+        return new String(chars, 0, digits);
+    }
+
+    private char[] getChars(int length) {
+        return length <= _chars.length ? _chars : new char[length];
+    }
+
+    private int truncate() {
+        // http://tools.ietf.org/html/rfc4226#section-5.4
+        int offset = _hash[_hashLength - 1] & 0xf;
+        return ((_hash[offset] & 0x7f) << 24)
+                | ((_hash[offset + 1] & 0xff) << 16)
+                | ((_hash[offset + 2] & 0xff) << 8)
+                | (_hash[offset + 3] & 0xff);
+    }
+
+    private void hash(Key key, long counter) {
+        // encode counter in big endian
+        for (int i = _counter.length - 1; i >= 0; i--) {
+            _counter[i] = (byte) counter;
+            counter >>>= 8;
+        }
+
+        try {
+            key.mac.update(_counter);
+            _hashLength = key.mac.getMacLength();
+            key.mac.doFinal(_hash, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Key getKey(byte[] secret, String algo, @Nullable String pin)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        Key key = _keys.get(secret);
+        if (key != null && key.matches(secret, algo, pin)) {
+            return key;
+        }
+
+        // The secret was changed in place or is used with other parameters, so start over
+        if (key != null) {
+            key.wipe();
+        }
+        key = new Key(secret, algo, pin);
+        _keys.put(secret, key);
+        return key;
+    }
+
+    private static class Key {
+        private final byte[] secret;
+        private final String algo;
+        private final String pin;
+        private final Mac mac;
+
+        public Key(byte[] secret, String algo, @Nullable String pin)
+                throws NoSuchAlgorithmException, InvalidKeyException {
+            this.secret = secret.clone();
+            this.algo = algo;
+            this.pin = pin;
+
+            byte[] keyBytes = pin == null ? secret : YAOTP.getKeyHash(secret, pin);
+            mac = Mac.getInstance(algo);
+            mac.init(new SecretKeySpec(keyBytes, "RAW"));
+            if (pin != null) {
+                Arrays.fill(keyBytes, (byte) 0);
+            }
+        }
+
+        public boolean matches(byte[] secret, String algo, @Nullable String pin) {
+            return this.algo.equals(algo)
+                    && Objects.equals(this.pin, pin)
+                    && Arrays.equals(this.secret, secret);
+        }
+
+        public void wipe() {
+            // The Mac keeps its own copy of the key, which can't be overwritten. Resetting it at
+            // least clears any state of the last computation, and the key is unreachable after this.
+            Arrays.fill(secret, (byte) 0);
+            mac.reset();
+        }
+    }
+}
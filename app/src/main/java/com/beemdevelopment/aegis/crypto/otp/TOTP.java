@@ -2,20 +2,179 @@ package com.beemdevelopment.aegis.crypto.otp;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class TOTP {
+    // The amount of entries below which a range task is not split any further
+    private static final int RANGE_TASK_THRESHOLD = 8;
 
     private TOTP() {
     }
 
     public static OTP generateOTP(byte[] secret, String algo, int digits, long period, long seconds)
             throws InvalidKeyException, NoSuchAlgorithmException {
-        long counter = (long) Math.floor((double) seconds / period);
-        return HOTP.generateOTP(secret, algo, digits, counter);
+        return HOTP.generateOTP(secret, algo, digits, getCounter(seconds, period));
+    }
+
+    /**
+     * Returns the time step counter for the given time in seconds.
+     */
+    public static long getCounter(long seconds, long period) {
+        return (long) Math.floor((double) seconds / period);
     }
 
     public static OTP generateOTP(byte[] secret, String algo, int digits, long period)
             throws InvalidKeyException, NoSuchAlgorithmException {
         return generateOTP(secret, algo, digits, period, System.currentTimeMillis() / 1000);
     }
+
+    /**
+     * Computes the codes of count consecutive time steps, starting at fromStep, and stores
+     * them in out. The code of a step is its value left padded with zeroes to the given
+     * amount of digits. The key is only set up once for the whole range.
+     */
+    public static void generateRange(byte[] secret, String algo, int digits, long period, long fromStep, int count, int[] out)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+        OtpGenerator.get().generateRange(secret, algo, digits, fromStep, count, out, 0);
+    }
+
+    /**
+     * Searches the time steps within window steps of the given time for the given code and
+     * returns the step closest to the given time that it matches, or -1 if it matches none
+     * of them. This can be used to find out how much the clock of a device has drifted.
+     */
+    public static long findStep(byte[] secret, String algo, int digits, long period, long seconds, int window, int code)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+        long step = getCounter(seconds, period);
+        long fromStep = Math.max(step - window, 0);
+        int count = (int) (step + window - fromStep + 1);
+
+        int[] codes = new int[count];
+        generateRange(secret, algo, digits, period, fromStep, count, codes);
+
+        long res = -1;
+        for (int i = 0; i < count; i++) {
+            long candidate = fromStep + i;
+            if (codes[i] == code && (res == -1 || Math.abs(candidate - step) < Math.abs(res - step))) {
+                res = candidate;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Computes the codes of count consecutive time steps for each of the given entries,
+     * starting at the step that the given time falls in, on the common fork-join pool.
+     * See {@link #generateRanges(List, long, int, ForkJoinPool)}.
+     */
+    public static int[][] generateRanges(List<Params> params, long fromSeconds, int count)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+        return generateRanges(params, fromSeconds, count, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the codes of count consecutive time steps for each of the given entries,
+     * starting at the step that the given time falls in. The entries are split up over the
+     * threads of the given pool. The result contains the codes of each entry, in the same
+     * order as the given list.
+     */
+    public static int[][] generateRanges(List<Params> params, long fromSeconds, int count, ForkJoinPool pool)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+        int[][] res = new int[params.size()][count];
+        try {
+            pool.invoke(new RangeTask(params, fromSeconds, count, res, 0, params.size()));
+        } catch (RangeException e) {
+            // the pool may have wrapped the exception of the worker thread once more
+            Throwable cause = e.getCause();
+            while (cause instanceof RangeException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof InvalidKeyException) {
+                throw (InvalidKeyException) cause;
+            }
+            throw (NoSuchAlgorithmException) cause;
+        }
+        return res;
+    }
+
+    /**
+     * The parameters of a single entry for {@link #generateRanges(List, long, int)}.
+     */
+    public static class Params {
+        private final byte[] _secret;
+        private final String _algo;
+        private final int _digits;
+        private final long _period;
+
+        public Params(byte[] secret, String algo, int digits, long period) {
+            _secret = secret;
+            _algo = algo;
+            _digits = digits;
+            _period = period;
+        }
+
+        public byte[] getSecret() {
+            return _secret;
+        }
+
+        public String getAlgorithm() {
+            return _algo;
+        }
+
+        public int getDigits() {
+            return _digits;
+        }
+
+        public long getPeriod() {
+            return _period;
+        }
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private final List<Params> _params;
+        private final long _fromSeconds;
+        private final int _count;
+        private final int[][] _out;
+        private final int _start;
+        private final int _end;
+
+        public RangeTask(List<Params> params, long fromSeconds, int count, int[][] out, int start, int end) {
+            _params = params;
+            _fromSeconds = fromSeconds;
+            _count = count;
+            _out = out;
+            _start = start;
+            _end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (_end - _start > RANGE_TASK_THRESHOLD) {
+                int mid = (_start + _end) >>> 1;
+                invokeAll(new RangeTask(_params, _fromSeconds, _count, _out, _start, mid),
+                        new RangeTask(_params, _fromSeconds, _count, _out, mid, _end));
+                return;
+            }
+
+            // every worker thread has its own generator, so the keys are only set up once per thread
+            OtpGenerator generator = OtpGenerator.get();
+            for (int i = _start; i < _end; i++) {
+                Params params = _params.get(i);
+                long fromStep = getCounter(_fromSeconds, params.getPeriod());
+                try {
+                    generator.generateRange(params.getSecret(), params.getAlgorithm(), params.getDigits(), fromStep, _count, _out[i], 0);
+                } catch (InvalidKeyException | NoSuchAlgorithmException e) {
+                    throw new RangeException(e);
+                }
+            }
+        }
+    }
+
+    private static class RangeException extends RuntimeException {
+        public RangeException(Exception cause) {
+            super(cause);
+        }
+    }
 }
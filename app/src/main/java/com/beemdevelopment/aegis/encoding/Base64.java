@@ -2,6 +2,8 @@ package com.beemdevelopment.aegis.encoding;
 
 import com.google.common.io.BaseEncoding;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
 public class Base64 {
@@ -21,7 +23,69 @@ public class Base64 {
         return decode(new String(s, StandardCharsets.UTF_8));
     }
 
+    /**
+     * Returns an InputStream that decodes the given string in chunks as it is read, instead of
+     * decoding all of it up front. Decoding errors are reported as an IOException.
+     */
+    public static InputStream decodingStream(String s) {
+        return new DecodingStream(s);
+    }
+
+    /**
+     * Reports whether the given string is valid Base64, without actually decoding it.
+     */
+    public static boolean canDecode(String s) {
+        return BaseEncoding.base64().canDecode(s);
+    }
+
     public static String encode(byte[] data) {
         return BaseEncoding.base64().encode(data);
     }
+
+    private static class DecodingStream extends InputStream {
+        // This must be a multiple of 4, so that padding is only ever found in the last chunk
+        private static final int CHUNK_SIZE = 4 * 1024;
+
+        private final String _s;
+        private int _pos;
+        private byte[] _buf = new byte[0];
+        private int _bufPos;
+
+        public DecodingStream(String s) {
+            _s = s;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (_bufPos == _buf.length) {
+                if (_pos == _s.length()) {
+                    return -1;
+                }
+
+                int end = Math.min(_pos + CHUNK_SIZE, _s.length());
+                try {
+                    _buf = BaseEncoding.base64().decode(_s.subSequence(_pos, end));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e);
+                }
+                _pos = end;
+                _bufPos = 0;
+            }
+
+            int n = Math.min(len, _buf.length - _bufPos);
+            System.arraycopy(_buf, _bufPos, b, off, n);
+            _bufPos += n;
+            return n;
+        }
+    }
 }
@@ -5,6 +5,7 @@ import androidx.biometric.BiometricPrompt;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
 
+import com.beemdevelopment.aegis.crypto.CryptoSession;
 import com.beemdevelopment.aegis.crypto.KeyStoreHandle;
 import com.beemdevelopment.aegis.crypto.KeyStoreHandleException;
 import com.beemdevelopment.aegis.vault.slots.BiometricSlot;
@@ -49,7 +50,7 @@ public class BiometricSlotInitializer extends BiometricPrompt.AuthenticationCall
 
         KeyStoreHandle keyStore;
         try {
-            keyStore = new KeyStoreHandle();
+            keyStore = CryptoSession.getKeyStore();
         } catch (KeyStoreHandleException e) {
             fail(e);
             return;
@@ -90,7 +91,7 @@ public class BiometricSlotInitializer extends BiometricPrompt.AuthenticationCall
                 // clean up the unused KeyStore key
                 // this is non-critical, so just fail silently if an error occurs
                 String uuid = _slot.getUUID().toString();
-                KeyStoreHandle keyStore = new KeyStoreHandle();
+                KeyStoreHandle keyStore = CryptoSession.getKeyStore();
                 if (keyStore.containsKey(uuid)) {
                     keyStore.deleteKey(uuid);
                 }
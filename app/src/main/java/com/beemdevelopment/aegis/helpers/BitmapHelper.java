@@ -37,9 +37,15 @@ public class BitmapHelper {
     }
 
     public static boolean isVaultEntryIconOptimized(VaultEntryIcon icon) {
+        byte[] bytes = icon.getBytes();
+        if (bytes == null) {
+            // there's nothing to optimize about an icon that can't be read
+            return true;
+        }
+
         BitmapFactory.Options opts = new BitmapFactory.Options();
         opts.inJustDecodeBounds = true;
-        BitmapFactory.decodeByteArray(icon.getBytes(), 0, icon.getBytes().length, opts);
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, opts);
         return opts.outWidth <= VaultEntryIcon.MAX_DIMENS && opts.outHeight <= VaultEntryIcon.MAX_DIMENS;
     }
 
@@ -0,0 +1,506 @@
+package com.beemdevelopment.aegis.helpers;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.beemdevelopment.aegis.crypto.otp.TOTP;
+import com.beemdevelopment.aegis.otp.HotpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vault.VaultManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Computes the codes of a list of entries in batches on a background thread. Entries are
+ * grouped by period and algorithm, and all codes of a group are computed together once the
+ * group reaches the next time step. The time steps are driven by the RefreshScheduler of the
+ * list, with one subscription for every period in use, so that the codes rotate on the same
+ * clock as the progress bars. The results are published as an immutable snapshot that readers
+ * on the main thread can look codes up in.
+ *
+ * For every entry, the codes of the previous, current and next time step are kept in a small
+ * ring keyed by the time step. At a rotation, only the code of the new next time step needs to
+ * be computed. The codes are wiped when the vault is locked.
+ */
+public class CodeScheduler implements VaultManager.LockListener {
+    private static final String TAG = CodeScheduler.class.getSimpleName();
+
+    private final Listener _listener;
+    private final RefreshScheduler _refreshScheduler;
+    private final Handler _handler;
+    private final Executor _executor;
+
+    // All of the following are only touched on the main thread
+    private final RefreshScheduler.Listener _tick = this::tick;
+    private List<Bucket> _buckets = Collections.emptyList();
+    private Snapshot _snapshot = new Snapshot(Collections.emptyMap());
+    private boolean _running;
+
+    // Bumped whenever the entries change, so that results for old entries are dropped
+    private int _generation;
+
+    public CodeScheduler(@NonNull Listener listener, @NonNull RefreshScheduler refreshScheduler) {
+        this(listener, refreshScheduler, Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    @VisibleForTesting
+    CodeScheduler(@NonNull Listener listener, @NonNull RefreshScheduler refreshScheduler, @NonNull Executor executor) {
+        _listener = listener;
+        _refreshScheduler = refreshScheduler;
+        _executor = executor;
+        _handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Replaces the entries to compute codes for. The codes of entries that haven't changed
+     * remain available until the new ones have been computed.
+     */
+    public void setEntries(@NonNull Collection<VaultEntry> entries) {
+        Map<UUID, Item> oldItems = new HashMap<>();
+        for (Bucket bucket : _buckets) {
+            for (Item item : bucket.items) {
+                oldItems.put(item.uuid, item);
+            }
+        }
+
+        Map<String, Bucket> buckets = new LinkedHashMap<>();
+        Map<UUID, Codes> codes = new HashMap<>();
+        for (VaultEntry entry : entries) {
+            // Keep the copy of the secret of entries that haven't changed, rather than making
+            // yet another one
+            Item item = oldItems.get(entry.getUUID());
+            if (item != null && item.info.equals(entry.getInfo())) {
+                oldItems.remove(item.uuid);
+            } else {
+                item = new Item(entry.getUUID(), entry.getInfo().copy());
+            }
+
+            String key = getBucketKey(item.info);
+            Bucket bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket(item.info);
+                buckets.put(key, bucket);
+            }
+            bucket.items.add(item);
+
+            Codes oldCodes = _snapshot.getCodes(item.uuid);
+            if (oldCodes != null && oldCodes.matches(item.info)) {
+                codes.put(item.uuid, oldCodes);
+            }
+        }
+
+        // Results for the items that were replaced or removed are dropped from now on
+        _generation++;
+        _buckets = new ArrayList<>(buckets.values());
+        _snapshot = new Snapshot(codes);
+        for (Item item : oldItems.values()) {
+            item.wipe();
+        }
+
+        if (_running) {
+            for (Bucket bucket : _buckets) {
+                bucket.step = -1;
+            }
+            subscribe();
+            tick();
+        }
+    }
+
+    /**
+     * Computes the codes of the given entry again, for when its OtpInfo was changed in place
+     * (e.g. the counter of an HOTP entry was incremented).
+     */
+    public void refresh(@NonNull VaultEntry entry) {
+        for (Bucket bucket : _buckets) {
+            for (int i = 0; i < bucket.items.size(); i++) {
+                Item oldItem = bucket.items.get(i);
+                if (oldItem.uuid.equals(entry.getUUID())) {
+                    Item item = oldItem;
+                    if (!oldItem.info.equals(entry.getInfo())) {
+                        // Codes that are still being computed with the old copy won't match
+                        // the entry anymore, whether it's wiped or not
+                        item = new Item(entry.getUUID(), entry.getInfo().copy());
+                        bucket.items.set(i, item);
+                        oldItem.wipe();
+                    }
+                    if (_running) {
+                        submit(Collections.singletonList(new Batch(bucket.period, Collections.singletonList(item))));
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts computing codes. The codes of all entries are computed right away.
+     */
+    public void start() {
+        if (_running) {
+            return;
+        }
+
+        _running = true;
+        for (Bucket bucket : _buckets) {
+            bucket.step = -1;
+        }
+        subscribe();
+        tick();
+    }
+
+    public void stop() {
+        _running = false;
+        _refreshScheduler.unsubscribe(_tick);
+        _generation++;
+    }
+
+    public void destroy() {
+        stop();
+        if (_executor instanceof ExecutorService) {
+            ((ExecutorService) _executor).shutdown();
+        }
+    }
+
+    /**
+     * Returns the codes of the given entry, or null if they haven't been computed (yet).
+     */
+    @Nullable
+    public Codes getCodes(@NonNull VaultEntry entry) {
+        Codes codes = _snapshot.getCodes(entry.getUUID());
+        return codes != null && codes.matches(entry.getInfo()) ? codes : null;
+    }
+
+    /**
+     * Returns the code of the given entry for the time step that is offset steps away from
+     * the current one. The code is taken from the cache if possible, and generated otherwise.
+     */
+    @NonNull
+    public String getOtp(@NonNull VaultEntry entry, int offset) throws OtpInfoException {
+        OtpInfo info = entry.getInfo();
+        long time = _refreshScheduler.currentTimeMillis() / 1000;
+        long step = 0;
+        if (info instanceof TotpInfo) {
+            time += (long) offset * ((TotpInfo) info).getPeriod();
+            step = TOTP.getCounter(time, ((TotpInfo) info).getPeriod());
+        } else if (info instanceof HotpInfo) {
+            step = ((HotpInfo) info).getCounter();
+        }
+
+        Codes codes = getCodes(entry);
+        if (codes != null && codes.hasCode(step)) {
+            String code = codes.getCode(step);
+            if (code == null) {
+                throw new OtpInfoException("Unable to generate the code");
+            }
+            return code;
+        }
+
+        if (info instanceof TotpInfo) {
+            return ((TotpInfo) info).getOtp(time);
+        }
+        return info.getOtp();
+    }
+
+    /**
+     * Wipes all codes and the copies of the entries they were computed from.
+     */
+    public void wipe() {
+        _generation++;
+        _refreshScheduler.unsubscribe(_tick);
+        for (Bucket bucket : _buckets) {
+            for (Item item : bucket.items) {
+                item.wipe();
+            }
+        }
+        _buckets = Collections.emptyList();
+        _snapshot = new Snapshot(Collections.emptyMap());
+    }
+
+    @Override
+    public void onLocked(boolean userInitiated) {
+        wipe();
+    }
+
+    @NonNull
+    public Snapshot getSnapshot() {
+        return _snapshot;
+    }
+
+    /**
+     * Subscribes to the boundaries of every period that the current entries use. Buckets
+     * that share a period share a subscription.
+     */
+    private void subscribe() {
+        Set<Integer> periods = new TreeSet<>();
+        for (Bucket bucket : _buckets) {
+            if (bucket.period > 0) {
+                periods.add(bucket.period);
+            }
+        }
+
+        _refreshScheduler.unsubscribe(_tick);
+        for (int period : periods) {
+            _refreshScheduler.subscribe(period, _tick);
+        }
+    }
+
+    private void tick() {
+        long seconds = _refreshScheduler.currentTimeMillis() / 1000;
+
+        // Periods that share a boundary cause multiple calls, but only the first finds new steps
+        List<Batch> batches = new ArrayList<>();
+        for (Bucket bucket : _buckets) {
+            long step = bucket.getStep(seconds);
+            if (step != bucket.step) {
+                bucket.step = step;
+                batches.add(new Batch(bucket.period, new ArrayList<>(bucket.items)));
+            }
+        }
+
+        if (!batches.isEmpty()) {
+            submit(batches);
+        }
+    }
+
+    private void submit(List<Batch> batches) {
+        int generation = _generation;
+        long seconds = _refreshScheduler.currentTimeMillis() / 1000;
+        Snapshot snapshot = _snapshot;
+        _executor.execute(() -> {
+            Map<UUID, Codes> codes = new HashMap<>();
+            for (Batch batch : batches) {
+                batch.compute(seconds, snapshot, codes);
+            }
+            _handler.post(() -> publish(generation, codes));
+        });
+    }
+
+    private void publish(int generation, Map<UUID, Codes> codes) {
+        if (generation != _generation) {
+            return;
+        }
+
+        Set<UUID> changed = new HashSet<>();
+        Map<UUID, Codes> map = new HashMap<>(_snapshot._codes);
+        for (Map.Entry<UUID, Codes> entry : codes.entrySet()) {
+            Codes oldCodes = map.put(entry.getKey(), entry.getValue());
+            if (!entry.getValue().equals(oldCodes)) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        _snapshot = new Snapshot(map);
+        if (!changed.isEmpty()) {
+            _listener.onCodesChanged(_snapshot, Collections.unmodifiableSet(changed));
+        }
+    }
+
+    private static String getBucketKey(OtpInfo info) {
+        int period = info instanceof TotpInfo ? ((TotpInfo) info).getPeriod() : 0;
+        return String.format("%s:%d", info.getAlgorithm(false), period);
+    }
+
+    /**
+     * An immutable set of codes, keyed by the UUID of the entry they belong to.
+     */
+    public static class Snapshot {
+        private final Map<UUID, Codes> _codes;
+
+        private Snapshot(Map<UUID, Codes> codes) {
+            _codes = Collections.unmodifiableMap(codes);
+        }
+
+        @Nullable
+        public Codes getCodes(UUID uuid) {
+            return _codes.get(uuid);
+        }
+    }
+
+    /**
+     * The codes of an entry for the time steps (or counter values for HOTP) around the current
+     * one, in a ring that is keyed by the time step. It's only modified before it's published.
+     */
+    public static class Codes {
+        private static final int SIZE = 3;
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private final OtpInfo _info;
+        private final long[] _steps = new long[SIZE];
+        private final String[] _codes = new String[SIZE];
+
+        private Codes(OtpInfo info, @Nullable Codes codes) {
+            _info = info;
+            if (codes != null && codes.matches(info)) {
+                System.arraycopy(codes._steps, 0, _steps, 0, SIZE);
+                System.arraycopy(codes._codes, 0, _codes, 0, SIZE);
+            } else {
+                Arrays.fill(_steps, EMPTY);
+            }
+        }
+
+        private void put(long step, @Nullable String code) {
+            int i = Math.floorMod(step, SIZE);
+            _steps[i] = step;
+            _codes[i] = code;
+        }
+
+        /**
+         * Reports whether these codes were computed for the given OtpInfo.
+         */
+        public boolean matches(OtpInfo info) {
+            return _info.equals(info);
+        }
+
+        /**
+         * Returns the code for the given time step, or null if it's not one that was computed.
+         * A null code for a step that was computed means that generating the code failed.
+         */
+        @Nullable
+        public String getCode(long step) {
+            return hasCode(step) ? _codes[Math.floorMod(step, SIZE)] : null;
+        }
+
+        /**
+         * Reports whether the code for the given time step was computed.
+         */
+        public boolean hasCode(long step) {
+            return step != EMPTY && _steps[Math.floorMod(step, SIZE)] == step;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Codes)) {
+                return false;
+            }
+
+            Codes codes = (Codes) o;
+            return _info.equals(codes._info)
+                    && Arrays.equals(_steps, codes._steps)
+                    && Arrays.equals(_codes, codes._codes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(Arrays.hashCode(_steps), Arrays.hashCode(_codes));
+        }
+    }
+
+    private static class Item {
+        private final UUID uuid;
+        private final OtpInfo info;
+
+        public Item(UUID uuid, OtpInfo info) {
+            this.uuid = uuid;
+            this.info = info;
+        }
+
+        public void wipe() {
+            Arrays.fill(info.getSecret(), (byte) 0);
+        }
+    }
+
+    private static class Bucket {
+        private final int period;
+        private final List<Item> items = new ArrayList<>();
+        private long step = -1;
+
+        public Bucket(OtpInfo info) {
+            period = info instanceof TotpInfo ? ((TotpInfo) info).getPeriod() : 0;
+        }
+
+        public long getStep(long seconds) {
+            // Entries without a period only change when they're refreshed explicitly
+            return period > 0 ? TOTP.getCounter(seconds, period) : 0;
+        }
+    }
+
+    private static class Batch {
+        private final int period;
+        private final List<Item> items;
+
+        public Batch(int period, List<Item> items) {
+            this.period = period;
+            this.items = items;
+        }
+
+        public void compute(long seconds, Snapshot snapshot, Map<UUID, Codes> codes) {
+            for (Item item : items) {
+                try {
+                    Codes ring = new Codes(item.info, snapshot.getCodes(item.uuid));
+                    if (item.info instanceof TotpInfo) {
+                        // Only compute the codes that aren't in the ring yet, which is usually
+                        // just the one for the next time step
+                        TotpInfo info = (TotpInfo) item.info;
+                        long step = TOTP.getCounter(seconds, period);
+                        for (long i = step - 1; i <= step + 1; i++) {
+                            if (!ring.hasCode(i)) {
+                                ring.put(i, getOtp(info, i * period));
+                            }
+                        }
+                    } else if (item.info instanceof HotpInfo) {
+                        long counter = ((HotpInfo) item.info).getCounter();
+                        if (!ring.hasCode(counter)) {
+                            ring.put(counter, getOtp(item.info));
+                        }
+                    }
+                    codes.put(item.uuid, ring);
+                } catch (RuntimeException e) {
+                    // Leave it to the reader of the code to deal with this, like before
+                    Log.e(TAG, String.format("Unable to compute the code of %s: %s", item.uuid, e));
+                }
+            }
+        }
+
+        @Nullable
+        private static String getOtp(TotpInfo info, long time) {
+            try {
+                return info.getOtp(time);
+            } catch (OtpInfoException e) {
+                return null;
+            }
+        }
+
+        @Nullable
+        private static String getOtp(OtpInfo info) {
+            try {
+                return info.getOtp();
+            } catch (OtpInfoException e) {
+                return null;
+            }
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread when the codes of the given entries have changed.
+         */
+        void onCodesChanged(@NonNull Snapshot snapshot, @NonNull Set<UUID> changed);
+    }
+}
@@ -0,0 +1,154 @@
+package com.beemdevelopment.aegis.helpers;
+
+import androidx.annotation.NonNull;
+
+import com.beemdevelopment.aegis.otp.OtpInfo;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Keeps track of how many entries there are with each issuer and with each TOTP period, so
+ * that the entry list doesn't have to scan all entries for every row it binds. The counts are
+ * updated incrementally: only entries that were added, removed or changed affect them.
+ */
+public class EntryCounts {
+    private static final int NO_PERIOD = -1;
+
+    // The issuer and period that each entry was counted with
+    private final Map<UUID, Item> _items = new HashMap<>();
+    private final Map<String, Integer> _issuers = new HashMap<>();
+    private final Map<Integer, Integer> _periods = new HashMap<>();
+    private int _totpCount;
+
+    // Cached until the periods change
+    private int _mostFrequentPeriod = NO_PERIOD;
+    private boolean _periodsChanged;
+
+    /**
+     * Updates the counts to reflect exactly the given entries.
+     */
+    public void setEntries(@NonNull Iterable<VaultEntry> entries) {
+        Set<UUID> seen = new HashSet<>();
+        for (VaultEntry entry : entries) {
+            seen.add(entry.getUUID());
+
+            Item item = new Item(entry);
+            Item oldItem = _items.put(entry.getUUID(), item);
+            if (oldItem != null) {
+                if (oldItem.equals(item)) {
+                    continue;
+                }
+                remove(oldItem);
+            }
+            add(item);
+        }
+
+        if (seen.size() != _items.size()) {
+            Iterator<Map.Entry<UUID, Item>> it = _items.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<UUID, Item> item = it.next();
+                if (!seen.contains(item.getKey())) {
+                    remove(item.getValue());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the amount of entries with the given issuer.
+     */
+    public int getIssuerCount(String issuer) {
+        Integer count = _issuers.get(issuer);
+        return count != null ? count : 0;
+    }
+
+    /**
+     * Returns the period that most TOTP entries have, or -1 if there is no period that more
+     * than one entry has. If there's only one TOTP entry, its period is returned.
+     */
+    public int getMostFrequentPeriod() {
+        if (_periodsChanged) {
+            _mostFrequentPeriod = calculateMostFrequentPeriod();
+            _periodsChanged = false;
+        }
+        return _mostFrequentPeriod;
+    }
+
+    private int calculateMostFrequentPeriod() {
+        if (_totpCount == 0) {
+            return NO_PERIOD;
+        }
+
+        int maxCount = 0;
+        int maxPeriod = 0;
+        for (Map.Entry<Integer, Integer> period : _periods.entrySet()) {
+            if (period.getValue() > maxCount) {
+                maxCount = period.getValue();
+                maxPeriod = period.getKey();
+            }
+        }
+
+        if (_totpCount == 1) {
+            return maxPeriod;
+        }
+        return maxCount > 1 ? maxPeriod : NO_PERIOD;
+    }
+
+    private void add(Item item) {
+        _issuers.merge(item.issuer, 1, Integer::sum);
+        if (item.period != NO_PERIOD) {
+            _periods.merge(item.period, 1, Integer::sum);
+            _totpCount++;
+            _periodsChanged = true;
+        }
+    }
+
+    private void remove(Item item) {
+        decrement(_issuers, item.issuer);
+        if (item.period != NO_PERIOD) {
+            decrement(_periods, item.period);
+            _totpCount--;
+            _periodsChanged = true;
+        }
+    }
+
+    private static <K> void decrement(Map<K, Integer> counts, K key) {
+        counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private static class Item {
+        final String issuer;
+        final int period;
+
+        Item(VaultEntry entry) {
+            issuer = entry.getIssuer();
+
+            OtpInfo info = entry.getInfo();
+            period = info instanceof TotpInfo ? ((TotpInfo) info).getPeriod() : NO_PERIOD;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item)) {
+                return false;
+            }
+
+            Item item = (Item) o;
+            return period == item.period && Objects.equals(issuer, item.issuer);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(issuer, period);
+        }
+    }
+}
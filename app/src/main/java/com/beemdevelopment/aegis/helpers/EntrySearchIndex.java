@@ -0,0 +1,371 @@
+package com.beemdevelopment.aegis.helpers;
+
+import androidx.annotation.NonNull;
+
+import com.beemdevelopment.aegis.Preferences;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vault.VaultGroup;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the searchable fields of the entries, so that searching doesn't have to
+ * normalize every field of every entry for every keystroke. It keeps the normalized
+ * (case-folded and accent-stripped) issuer, name and note of every entry, the normalized name
+ * of every group, and a trigram index on top of those. A token of a query is looked up by
+ * intersecting the entries of its trigrams, after which only those candidates are checked.
+ * Tokens that are shorter than a trigram are checked against the normalized fields directly.
+ *
+ * The index is updated incrementally: only entries and groups that changed are reindexed.
+ * All methods are synchronized, so the index can be queried from a background thread while
+ * it's being updated on the main thread.
+ */
+public class EntrySearchIndex {
+    private static final int GRAM_SIZE = 3;
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final int FIELD_ISSUER = 0;
+    private static final int FIELD_NAME = 1;
+    private static final int FIELD_NOTE = 2;
+    private static final int[] FIELD_MASKS = {
+            Preferences.SEARCH_IN_ISSUER,
+            Preferences.SEARCH_IN_NAME,
+            Preferences.SEARCH_IN_NOTE
+    };
+    // How much a match in a field counts towards the score, in the same order as the fields
+    private static final int[] FIELD_WEIGHTS = {4, 3, 1};
+    private static final int GROUP_WEIGHT = 2;
+
+    // The quality of a match of a token in a field, from worst to best
+    private static final int MATCH_SUBSTRING = 1;
+    private static final int MATCH_WORD_PREFIX = 2;
+    private static final int MATCH_PREFIX = 3;
+    private static final int MATCH_EXACT = 4;
+
+    private final Map<UUID, Doc> _docs = new HashMap<>();
+    @SuppressWarnings("unchecked")
+    private final Map<String, Set<UUID>>[] _fieldGrams = new Map[]{new HashMap<>(), new HashMap<>(), new HashMap<>()};
+
+    private final Map<UUID, String> _groupNames = new HashMap<>();
+    private final Map<String, Set<UUID>> _groupGrams = new HashMap<>();
+    // The entries that are in each group
+    private final Map<UUID, Set<UUID>> _groupEntries = new HashMap<>();
+
+    /**
+     * Updates the index to contain exactly the given entries. Entries whose searchable fields
+     * haven't changed since the last call are left alone.
+     */
+    public synchronized void setEntries(@NonNull Collection<VaultEntry> entries) {
+        Set<UUID> seen = new HashSet<>();
+        for (VaultEntry entry : entries) {
+            UUID uuid = entry.getUUID();
+            seen.add(uuid);
+
+            Doc doc = _docs.get(uuid);
+            if (doc != null && doc.matches(entry)) {
+                continue;
+            }
+            if (doc != null) {
+                removeDoc(uuid, doc);
+            }
+            addDoc(uuid, new Doc(entry));
+        }
+
+        if (seen.size() != _docs.size()) {
+            for (UUID uuid : new ArrayList<>(_docs.keySet())) {
+                if (!seen.contains(uuid)) {
+                    removeDoc(uuid, _docs.get(uuid));
+                }
+            }
+        }
+    }
+
+    /**
+     * Updates the index to contain exactly the given groups. Groups whose name hasn't changed
+     * since the last call are left alone.
+     */
+    public synchronized void setGroups(@NonNull Collection<VaultGroup> groups) {
+        Map<UUID, String> names = new HashMap<>();
+        for (VaultGroup group : groups) {
+            names.put(group.getUUID(), normalize(group.getName()));
+        }
+
+        for (UUID uuid : new ArrayList<>(_groupNames.keySet())) {
+            if (!Objects.equals(names.get(uuid), _groupNames.get(uuid))) {
+                removeGrams(_groupGrams, uuid, _groupNames.remove(uuid));
+            }
+        }
+        for (Map.Entry<UUID, String> name : names.entrySet()) {
+            if (!_groupNames.containsKey(name.getKey())) {
+                _groupNames.put(name.getKey(), name.getValue());
+                addGrams(_groupGrams, name.getKey(), name.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the entries that match every token of the given query in at least one of the
+     * fields that are enabled in the given mask of Preferences.SEARCH_IN_* flags, along with
+     * a score for each of them. A higher score means a better match: exact matches rank above
+     * prefix matches, which rank above matches somewhere in the middle, and matches in the
+     * issuer rank above matches in the name, groups and note, in that order.
+     */
+    @NonNull
+    public synchronized Map<UUID, Integer> search(@NonNull String query, int mask) {
+        List<String> tokens = tokenize(normalize(query));
+
+        Map<UUID, Integer> scores = null;
+        for (String token : tokens) {
+            Map<UUID, Integer> tokenScores = searchToken(token, mask, scores != null ? scores.keySet() : _docs.keySet());
+            if (scores == null) {
+                scores = tokenScores;
+            } else {
+                Map<UUID, Integer> merged = new HashMap<>();
+                for (Map.Entry<UUID, Integer> score : tokenScores.entrySet()) {
+                    Integer prev = scores.get(score.getKey());
+                    if (prev != null) {
+                        merged.put(score.getKey(), prev + score.getValue());
+                    }
+                }
+                scores = merged;
+            }
+
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+
+        if (scores == null) {
+            // an empty query matches everything
+            scores = new HashMap<>();
+            for (UUID uuid : _docs.keySet()) {
+                scores.put(uuid, 0);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Returns the score of every entry in the given candidates that matches the given token.
+     */
+    private Map<UUID, Integer> searchToken(String token, int mask, Set<UUID> candidates) {
+        Map<UUID, Integer> scores = new HashMap<>();
+
+        for (int field = 0; field < FIELD_MASKS.length; field++) {
+            if ((mask & FIELD_MASKS[field]) == 0) {
+                continue;
+            }
+
+            Set<UUID> uuids = candidates;
+            if (token.length() >= GRAM_SIZE) {
+                uuids = lookup(_fieldGrams[field], token, candidates);
+            }
+            for (UUID uuid : uuids) {
+                int quality = getMatchQuality(_docs.get(uuid).fields[field], token);
+                if (quality > 0) {
+                    scores.merge(uuid, quality * FIELD_WEIGHTS[field], Math::max);
+                }
+            }
+        }
+
+        if ((mask & Preferences.SEARCH_IN_GROUPS) != 0) {
+            Set<UUID> groups = _groupNames.keySet();
+            if (token.length() >= GRAM_SIZE) {
+                groups = lookup(_groupGrams, token, groups);
+            }
+            for (UUID group : groups) {
+                int quality = getMatchQuality(_groupNames.get(group), token);
+                if (quality == 0) {
+                    continue;
+                }
+
+                Set<UUID> entries = _groupEntries.getOrDefault(group, Collections.emptySet());
+                for (UUID uuid : entries) {
+                    if (candidates.contains(uuid)) {
+                        scores.merge(uuid, quality * GROUP_WEIGHT, Math::max);
+                    }
+                }
+            }
+        }
+
+        return scores;
+    }
+
+    /**
+     * Returns the items of the given candidates that contain all of the trigrams of the
+     * given token, according to the given index.
+     */
+    private static Set<UUID> lookup(Map<String, Set<UUID>> index, String token, Set<UUID> candidates) {
+        // start with the rarest trigram, to keep the intersection small
+        Set<String> grams = getGrams(token);
+        List<Set<UUID>> postings = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            Set<UUID> posting = index.get(gram);
+            if (posting == null) {
+                return Collections.emptySet();
+            }
+            postings.add(posting);
+        }
+        postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        Set<UUID> res = new HashSet<>();
+        for (UUID uuid : postings.get(0)) {
+            if (!candidates.contains(uuid)) {
+                continue;
+            }
+
+            boolean all = true;
+            for (int i = 1; i < postings.size() && all; i++) {
+                all = postings.get(i).contains(uuid);
+            }
+            if (all) {
+                res.add(uuid);
+            }
+        }
+        return res;
+    }
+
+    private static int getMatchQuality(String value, String token) {
+        int index = value.indexOf(token);
+        if (index == -1) {
+            return 0;
+        }
+        if (index == 0) {
+            return value.length() == token.length() ? MATCH_EXACT : MATCH_PREFIX;
+        }
+
+        // look for an occurrence at the start of a word
+        while (index != -1) {
+            if (!Character.isLetterOrDigit(value.charAt(index - 1))) {
+                return MATCH_WORD_PREFIX;
+            }
+            index = value.indexOf(token, index + 1);
+        }
+        return MATCH_SUBSTRING;
+    }
+
+    private void addDoc(UUID uuid, Doc doc) {
+        _docs.put(uuid, doc);
+        for (int field = 0; field < doc.fields.length; field++) {
+            addGrams(_fieldGrams[field], uuid, doc.fields[field]);
+        }
+        for (UUID group : doc.groups) {
+            _groupEntries.computeIfAbsent(group, k -> new HashSet<>()).add(uuid);
+        }
+    }
+
+    private void removeDoc(UUID uuid, Doc doc) {
+        _docs.remove(uuid);
+        for (int field = 0; field < doc.fields.length; field++) {
+            removeGrams(_fieldGrams[field], uuid, doc.fields[field]);
+        }
+        for (UUID group : doc.groups) {
+            Set<UUID> entries = _groupEntries.get(group);
+            if (entries != null) {
+                entries.remove(uuid);
+                if (entries.isEmpty()) {
+                    _groupEntries.remove(group);
+                }
+            }
+        }
+    }
+
+    private static void addGrams(Map<String, Set<UUID>> index, UUID uuid, String value) {
+        for (String gram : getGrams(value)) {
+            index.computeIfAbsent(gram, k -> new HashSet<>()).add(uuid);
+        }
+    }
+
+    private static void removeGrams(Map<String, Set<UUID>> index, UUID uuid, String value) {
+        for (String gram : getGrams(value)) {
+            Set<UUID> posting = index.get(gram);
+            if (posting != null) {
+                posting.remove(uuid);
+                if (posting.isEmpty()) {
+                    index.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static Set<String> getGrams(String value) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_SIZE <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM_SIZE));
+        }
+        return grams;
+    }
+
+    /**
+     * Splits the given query on whitespace, dropping any empty tokens.
+     */
+    private static List<String> tokenize(String query) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            boolean space = i == query.length() || Character.isWhitespace(query.charAt(i));
+            if (space && start != -1) {
+                tokens.add(query.substring(start, i));
+                start = -1;
+            } else if (!space && start == -1) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Folds the case of the given string and strips its accents, so that "Ébay" and "ebay"
+     * are considered equal.
+     */
+    @NonNull
+    public static String normalize(String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+
+        String decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private static class Doc {
+        // the original values, to find out whether the entry changed
+        final String issuer;
+        final String name;
+        final String note;
+        final Set<UUID> groups;
+
+        final String[] fields;
+
+        Doc(VaultEntry entry) {
+            issuer = entry.getIssuer();
+            name = entry.getName();
+            note = entry.getNote();
+            groups = new HashSet<>(entry.getGroups());
+
+            fields = new String[FIELD_MASKS.length];
+            fields[FIELD_ISSUER] = normalize(issuer);
+            fields[FIELD_NAME] = normalize(name);
+            fields[FIELD_NOTE] = normalize(note);
+        }
+
+        boolean matches(VaultEntry entry) {
+            return Objects.equals(issuer, entry.getIssuer())
+                    && Objects.equals(name, entry.getName())
+                    && Objects.equals(note, entry.getNote())
+                    && groups.equals(entry.getGroups());
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.beemdevelopment.aegis.helpers;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.SortCategory;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Sorts entries in a single pass: favorites first, then by the sort category, and then in
+ * the order they were given in. This is the same order as sorting by the comparator of the
+ * category and then by FavoriteComparator, as both sorts are stable.
+ *
+ * The issuer and account name of every entry are case-folded once, when the entry changes,
+ * so that comparing them is a plain string comparison. For the usage based categories, the
+ * entries are kept in an ordered set that is updated incrementally when the usage of an entry
+ * changes, so sorting comes down to picking the given entries out of it. The result of the
+ * last sort of every category is kept, so switching back to a category doesn't sort again
+ * if nothing changed in the meantime.
+ *
+ * All methods are synchronized, so sorting can happen on a background thread while the
+ * entries are updated on the main thread.
+ */
+public class EntrySorter {
+    private static final Comparator<Item> FAVORITE_ORDER = (a, b) -> -1 * Boolean.compare(a.favorite, b.favorite);
+    private static final Comparator<Item> ACCOUNT_ORDER = Comparator
+            .<Item, String>comparing(item -> item.nameKey)
+            .thenComparing(item -> item.issuerKey);
+    private static final Comparator<Item> ISSUER_ORDER = Comparator
+            .<Item, String>comparing(item -> item.issuerKey)
+            .thenComparing(item -> item.nameKey);
+    private static final Comparator<Item> USAGE_COUNT_ORDER = (a, b) -> Integer.compare(b.usageCount, a.usageCount);
+    private static final Comparator<Item> LAST_USED_ORDER = (a, b) -> Long.compare(b.lastUsed, a.lastUsed);
+    private static final Comparator<Item> POSITION_ORDER = (a, b) -> Integer.compare(a.position, b.position);
+
+    private final Map<UUID, Item> _items = new HashMap<>();
+    private final TreeSet<Item> _byUsageCount = new TreeSet<>(FAVORITE_ORDER.thenComparing(USAGE_COUNT_ORDER).thenComparing(POSITION_ORDER));
+    private final TreeSet<Item> _byLastUsed = new TreeSet<>(FAVORITE_ORDER.thenComparing(LAST_USED_ORDER).thenComparing(POSITION_ORDER));
+
+    private final Map<SortCategory, Result> _results = new EnumMap<>(SortCategory.class);
+    // Bumped whenever anything that affects the order changes
+    private long _version;
+
+    /**
+     * Updates the sort keys of the given entries, which must be all entries in their custom
+     * order. Only entries that were added, removed or changed are updated.
+     */
+    public synchronized void setEntries(@NonNull List<VaultEntry> entries) {
+        // Take all items that changed or disappeared out of the ordered sets before putting any
+        // of them back. The ordered sets fall back to the position of an item to break ties, so
+        // adding an item at the position of one that hasn't been moved out of the way yet would
+        // make the sets consider them equal and drop it.
+        Set<UUID> seen = new HashSet<>();
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            VaultEntry entry = entries.get(i);
+            seen.add(entry.getUUID());
+
+            Item item = _items.get(entry.getUUID());
+            if (item == null || !item.matches(entry, i)) {
+                if (item != null) {
+                    removeOrdered(item);
+                }
+                changed.add(i);
+            }
+        }
+
+        if (seen.size() != _items.size()) {
+            for (UUID uuid : new ArrayList<>(_items.keySet())) {
+                if (!seen.contains(uuid)) {
+                    removeOrdered(_items.remove(uuid));
+                    _version++;
+                }
+            }
+        }
+
+        for (int i : changed) {
+            VaultEntry entry = entries.get(i);
+            Item item = _items.get(entry.getUUID());
+            if (item == null) {
+                item = new Item();
+                _items.put(entry.getUUID(), item);
+            }
+
+            item.update(entry, i);
+            addOrdered(item);
+            _version++;
+        }
+    }
+
+    /**
+     * Updates the position of the given entry in the usage based orders, after its usage
+     * count or last used timestamp changed.
+     */
+    public synchronized void onUsageChanged(@NonNull VaultEntry entry) {
+        Item item = _items.get(entry.getUUID());
+        if (item == null || item.matches(entry, item.position)) {
+            return;
+        }
+
+        removeOrdered(item);
+        item.update(entry, item.position);
+        addOrdered(item);
+        _version++;
+    }
+
+    /**
+     * Returns a sorted copy of the given entries. For the best performance, the entries should
+     * have been passed to setEntries beforehand, and be in the same relative order.
+     */
+    @NonNull
+    public synchronized List<VaultEntry> sort(@NonNull List<VaultEntry> entries, @Nullable SortCategory category) {
+        SortCategory key = category != null ? category : SortCategory.CUSTOM;
+        Result cached = _results.get(key);
+        if (cached != null && cached.matches(_version, entries)) {
+            return new ArrayList<>(cached.output);
+        }
+
+        Item[] items = new Item[entries.size()];
+        boolean known = true;
+        int lastPosition = -1;
+        for (int i = 0; i < items.length; i++) {
+            VaultEntry entry = entries.get(i);
+            Item item = _items.get(entry.getUUID());
+            if (item == null || item.entry != entry || !item.matches(entry, item.position) || item.position < lastPosition) {
+                // not something we've seen in setEntries, so fall back to sorting a one-off copy
+                known = false;
+                item = new Item();
+                item.update(entry, i);
+            }
+            lastPosition = item.position;
+            items[i] = item;
+        }
+
+        List<VaultEntry> res;
+        if (known && (key == SortCategory.USAGE_COUNT || key == SortCategory.LAST_USED)) {
+            res = pick(key == SortCategory.USAGE_COUNT ? _byUsageCount : _byLastUsed, items);
+        } else {
+            res = sort(items, key);
+        }
+
+        _results.put(key, new Result(_version, entries, res));
+        return new ArrayList<>(res);
+    }
+
+    /**
+     * Returns the given items in the order of the given ordered set. The relative order of
+     * the items must be the same as their order in setEntries.
+     */
+    private static List<VaultEntry> pick(TreeSet<Item> ordered, Item[] items) {
+        List<VaultEntry> res = new ArrayList<>(items.length);
+        if (items.length == ordered.size()) {
+            for (Item item : ordered) {
+                res.add(item.entry);
+            }
+            return res;
+        }
+
+        Set<Item> wanted = new HashSet<>(Arrays.asList(items));
+        for (Item item : ordered) {
+            if (wanted.contains(item)) {
+                res.add(item.entry);
+            }
+        }
+        return res;
+    }
+
+    private static List<VaultEntry> sort(Item[] items, SortCategory category) {
+        Integer[] indices = new Integer[items.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+
+        Comparator<Item> order = getOrder(category);
+        Arrays.sort(indices, (a, b) -> {
+            int res = order.compare(items[a], items[b]);
+            return res != 0 ? res : Integer.compare(a, b);
+        });
+
+        List<VaultEntry> res = new ArrayList<>(items.length);
+        for (int index : indices) {
+            res.add(items[index].entry);
+        }
+        return res;
+    }
+
+    private static Comparator<Item> getOrder(SortCategory category) {
+        switch (category) {
+            case ACCOUNT:
+                return FAVORITE_ORDER.thenComparing(ACCOUNT_ORDER);
+            case ACCOUNT_REVERSED:
+                return FAVORITE_ORDER.thenComparing(ACCOUNT_ORDER.reversed());
+            case ISSUER:
+                return FAVORITE_ORDER.thenComparing(ISSUER_ORDER);
+            case ISSUER_REVERSED:
+                return FAVORITE_ORDER.thenComparing(ISSUER_ORDER.reversed());
+            case USAGE_COUNT:
+                return FAVORITE_ORDER.thenComparing(USAGE_COUNT_ORDER);
+            case LAST_USED:
+                return FAVORITE_ORDER.thenComparing(LAST_USED_ORDER);
+            default:
+                return FAVORITE_ORDER;
+        }
+    }
+
+    private void addOrdered(Item item) {
+        _byUsageCount.add(item);
+        _byLastUsed.add(item);
+    }
+
+    private void removeOrdered(Item item) {
+        _byUsageCount.remove(item);
+        _byLastUsed.remove(item);
+    }
+
+    /**
+     * Folds the case of the given string, such that comparing the results with compareTo
+     * gives the same order as comparing the originals with compareToIgnoreCase.
+     */
+    static String foldCase(String value) {
+        if (value == null) {
+            return "";
+        }
+
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); ) {
+            int c = value.codePointAt(i);
+            builder.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c)));
+            i += Character.charCount(c);
+        }
+        return builder.toString();
+    }
+
+    private static class Item {
+        VaultEntry entry;
+        int position;
+        boolean favorite;
+        int usageCount;
+        long lastUsed;
+        String issuer;
+        String name;
+        String issuerKey;
+        String nameKey;
+
+        void update(VaultEntry entry, int position) {
+            this.entry = entry;
+            this.position = position;
+            favorite = entry.isFavorite();
+            usageCount = entry.getUsageCount();
+            lastUsed = entry.getLastUsedTimestamp();
+
+            // only fold the strings again if they changed
+            if (issuerKey == null || !entry.getIssuer().equals(issuer)) {
+                issuer = entry.getIssuer();
+                issuerKey = foldCase(issuer);
+            }
+            if (nameKey == null || !entry.getName().equals(name)) {
+                name = entry.getName();
+                nameKey = foldCase(name);
+            }
+        }
+
+        boolean matches(VaultEntry entry, int position) {
+            return this.entry == entry
+                    && this.position == position
+                    && favorite == entry.isFavorite()
+                    && usageCount == entry.getUsageCount()
+                    && lastUsed == entry.getLastUsedTimestamp()
+                    && entry.getIssuer().equals(issuer)
+                    && entry.getName().equals(name);
+        }
+    }
+
+    private static class Result {
+        final long version;
+        final List<VaultEntry> input;
+        final List<VaultEntry> output;
+
+        Result(long version, List<VaultEntry> input, List<VaultEntry> output) {
+            this.version = version;
+            this.input = new ArrayList<>(input);
+            this.output = output;
+        }
+
+        boolean matches(long version, List<VaultEntry> input) {
+            if (this.version != version || this.input.size() != input.size()) {
+                return false;
+            }
+
+            for (int i = 0; i < input.size(); i++) {
+                if (this.input.get(i) != input.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.beemdevelopment.aegis.helpers;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+/**
+ * A single clock for everything in the entry list that has to happen at the boundaries of
+ * TOTP periods, like restarting the progress bars, the expiration state of the codes and the
+ * vibrations. Listeners subscribe with a period, and optionally with a lead time to be called
+ * that long before every boundary instead. Listeners with the same period and lead time share
+ * a slot, and all slots are driven by a single message on the main thread that is posted for
+ * the earliest upcoming boundary. This keeps the views in lockstep, instead of every view
+ * running its own timer that drifts apart from the others.
+ *
+ * It also keeps track of how late the boundaries are dispatched. A boundary that is dispatched
+ * more than MISSED_DEADLINE_MILLIS late, or that is skipped because the next boundary of the
+ * same slot was already due by the time the main thread got to it (e.g. after the device has
+ * been asleep), counts as a missed deadline.
+ */
+public class RefreshScheduler {
+    private static final String TAG = RefreshScheduler.class.getSimpleName();
+
+    // A couple of frames at 60 Hz
+    static final long MISSED_DEADLINE_MILLIS = 50;
+
+    private final Handler _handler;
+    private final LongSupplier _clock;
+    private final Runnable _tick = this::tick;
+    private final List<Slot> _slots = new ArrayList<>();
+    private final Stats _stats = new Stats();
+
+    // The wall clock time that the tick is currently posted for
+    private long _scheduledAt = Long.MAX_VALUE;
+
+    public RefreshScheduler() {
+        this(System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    RefreshScheduler(@NonNull LongSupplier clock) {
+        _clock = clock;
+        _handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Subscribes the given listener to every boundary of the given period (in seconds).
+     */
+    public void subscribe(int period, @NonNull Listener listener) {
+        subscribe(period, 0, listener);
+    }
+
+    /**
+     * Subscribes the given listener to be called leadMillis before every boundary of the given
+     * period (in seconds). Subscribing a listener again with the same period and lead time
+     * does nothing.
+     */
+    public void subscribe(int period, long leadMillis, @NonNull Listener listener) {
+        if (period <= 0) {
+            throw new IllegalArgumentException(String.format("Bad period: %d", period));
+        }
+        if (leadMillis < 0) {
+            throw new IllegalArgumentException(String.format("Bad lead time: %d", leadMillis));
+        }
+
+        Slot slot = findSlot(period, leadMillis);
+        if (slot == null) {
+            slot = new Slot(period, leadMillis);
+            slot.deadline = slot.getNextDeadline(_clock.getAsLong());
+            _slots.add(slot);
+        }
+        if (!slot.listeners.contains(listener)) {
+            slot.listeners.add(listener);
+        }
+        schedule();
+    }
+
+    /**
+     * Unsubscribes the given listener from all of the periods it was subscribed to.
+     */
+    public void unsubscribe(@NonNull Listener listener) {
+        Iterator<Slot> it = _slots.iterator();
+        while (it.hasNext()) {
+            Slot slot = it.next();
+            slot.listeners.remove(listener);
+            if (slot.listeners.isEmpty()) {
+                it.remove();
+            }
+        }
+        schedule();
+    }
+
+    public void destroy() {
+        _slots.clear();
+        _handler.removeCallbacks(_tick);
+        _scheduledAt = Long.MAX_VALUE;
+        Log.i(TAG, String.format("Destroyed scheduler: %s", _stats));
+    }
+
+    /**
+     * Returns the current time of the clock that this scheduler runs off, in milliseconds.
+     */
+    public long currentTimeMillis() {
+        return _clock.getAsLong();
+    }
+
+    @NonNull
+    public Stats getStats() {
+        return _stats;
+    }
+
+    @VisibleForTesting
+    void tick() {
+        _scheduledAt = Long.MAX_VALUE;
+        long now = _clock.getAsLong();
+
+        // collect the slots first, as listeners may (un)subscribe while they're being called
+        List<Slot> due = new ArrayList<>();
+        for (Slot slot : _slots) {
+            if (slot.deadline <= now) {
+                due.add(slot);
+            }
+        }
+
+        for (Slot slot : due) {
+            _stats.record(now - slot.deadline, slot.periodMillis);
+            slot.deadline = slot.getNextDeadline(now);
+            for (Listener listener : new ArrayList<>(slot.listeners)) {
+                if (slot.listeners.contains(listener)) {
+                    listener.onRefresh();
+                }
+            }
+        }
+
+        schedule();
+    }
+
+    private void schedule() {
+        long next = Long.MAX_VALUE;
+        for (Slot slot : _slots) {
+            next = Math.min(next, slot.deadline);
+        }
+        if (next == _scheduledAt) {
+            return;
+        }
+
+        _handler.removeCallbacks(_tick);
+        _scheduledAt = next;
+        if (next != Long.MAX_VALUE) {
+            _handler.postDelayed(_tick, Math.max(0, next - _clock.getAsLong()));
+        }
+    }
+
+    private Slot findSlot(int period, long leadMillis) {
+        for (Slot slot : _slots) {
+            if (slot.periodMillis == period * 1000L && slot.leadMillis == leadMillis) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private static class Slot {
+        private final long periodMillis;
+        private final long leadMillis;
+        private final List<Listener> listeners = new ArrayList<>();
+        private long deadline;
+
+        public Slot(int period, long leadMillis) {
+            this.periodMillis = period * 1000L;
+            this.leadMillis = leadMillis;
+        }
+
+        /**
+         * Returns the first point in time after the given one that lies leadMillis before a
+         * boundary of the period.
+         */
+        public long getNextDeadline(long now) {
+            long shifted = now + leadMillis;
+            return Math.floorDiv(shifted, periodMillis) * periodMillis + periodMillis - leadMillis;
+        }
+    }
+
+    /**
+     * Timing metrics of the boundaries that were dispatched by a scheduler.
+     */
+    public static class Stats {
+        private int _boundaries;
+        private int _missedDeadlines;
+        private long _totalLatenessMillis;
+        private long _maxLatenessMillis;
+
+        private void record(long latenessMillis, long periodMillis) {
+            _boundaries++;
+            _totalLatenessMillis += latenessMillis;
+            _maxLatenessMillis = Math.max(_maxLatenessMillis, latenessMillis);
+
+            // boundaries that passed entirely while waiting are skipped, and count as missed
+            long skipped = latenessMillis / periodMillis;
+            _missedDeadlines += skipped;
+            if (latenessMillis % periodMillis > MISSED_DEADLINE_MILLIS) {
+                _missedDeadlines++;
+            }
+        }
+
+        /**
+         * Returns the amount of boundaries that were dispatched, counting a boundary that was
+         * shared by multiple listeners only once.
+         */
+        public int getBoundaries() {
+            return _boundaries;
+        }
+
+        /**
+         * Returns the amount of boundaries that were dispatched too late or not at all.
+         */
+        public int getMissedDeadlines() {
+            return _missedDeadlines;
+        }
+
+        public long getTotalLatenessMillis() {
+            return _totalLatenessMillis;
+        }
+
+        public long getMaxLatenessMillis() {
+            return _maxLatenessMillis;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d boundaries, %d missed deadlines, %d ms total lateness, %d ms max lateness",
+                    getBoundaries(), getMissedDeadlines(), getTotalLatenessMillis(), getMaxLatenessMillis());
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread at (or leadMillis before) every boundary of the period
+         * that the listener was subscribed with.
+         */
+        void onRefresh();
+    }
+}
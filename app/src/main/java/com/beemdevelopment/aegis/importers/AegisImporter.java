@@ -11,6 +11,7 @@ import com.beemdevelopment.aegis.helpers.ContextHelper;
 import com.beemdevelopment.aegis.ui.dialogs.Dialogs;
 import com.beemdevelopment.aegis.ui.tasks.PasswordSlotDecryptTask;
 import com.beemdevelopment.aegis.util.IOUtils;
+import com.beemdevelopment.aegis.vault.VaultBackupManager;
 import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultEntryException;
 import com.beemdevelopment.aegis.vault.VaultFile;
@@ -25,8 +26,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.UUID;
 
@@ -45,22 +48,54 @@ public class AegisImporter extends DatabaseImporter {
     public State read(InputStream stream, boolean isInternal) throws DatabaseImporterException {
         try {
             byte[] bytes = IOUtils.readAll(stream);
+
+            // An incremental backup is imported on top of the full backup that it was made on
+            // top of, which is looked up in the backup directory
+            JSONObject delta = readIncrementalBackup(bytes);
+            if (delta != null) {
+                String baseFilename = VaultBackupManager.getIncrementalBackupBase(delta);
+                try {
+                    bytes = VaultBackupManager.readBackupFile(requireContext(), baseFilename);
+                } catch (FileNotFoundException e) {
+                    // there's no backup location on a new device, or the base isn't in it
+                    throw new DatabaseImporterException(requireContext().getString(R.string.importer_incremental_backup_base_missing, baseFilename));
+                }
+            }
+
             VaultFile file = VaultFile.fromBytes(bytes);
             if (file.isEncrypted()) {
-                return new EncryptedState(file);
+                return new EncryptedState(file, delta);
+            }
+
+            JSONObject obj = file.getContent();
+            if (delta != null) {
+                obj = VaultBackupManager.applyIncrementalBackup(obj, delta, null);
             }
-            return new DecryptedState(file.getContent());
+            return new DecryptedState(obj);
         } catch (VaultFileException | IOException e) {
             throw new DatabaseImporterException(e);
         }
     }
 
+    @Nullable
+    private static JSONObject readIncrementalBackup(byte[] bytes) {
+        try {
+            JSONObject obj = new JSONObject(new String(bytes, StandardCharsets.UTF_8));
+            return VaultBackupManager.isIncrementalBackup(obj) ? obj : null;
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
     public static class EncryptedState extends State {
         private VaultFile _file;
+        // The incremental backup to apply on top of the file, if any
+        private JSONObject _delta;
 
-        private EncryptedState(VaultFile file) {
+        private EncryptedState(VaultFile file, @Nullable JSONObject delta) {
             super(true);
             _file = file;
+            _delta = delta;
         }
 
         public SlotList getSlots() {
@@ -71,6 +106,9 @@ public class AegisImporter extends DatabaseImporter {
             JSONObject obj;
             try {
                 obj = _file.getContent(creds);
+                if (_delta != null) {
+                    obj = VaultBackupManager.applyIncrementalBackup(obj, _delta, creds);
+                }
             } catch (VaultFileException e) {
                 throw new DatabaseImporterException(e);
             }
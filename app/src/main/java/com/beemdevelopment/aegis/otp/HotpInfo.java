@@ -1,7 +1,6 @@
 package com.beemdevelopment.aegis.otp;
 
-import com.beemdevelopment.aegis.crypto.otp.HOTP;
-import com.beemdevelopment.aegis.crypto.otp.OTP;
+import com.beemdevelopment.aegis.crypto.otp.OtpGenerator;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -29,13 +28,22 @@ public class HotpInfo extends OtpInfo {
         setCounter(counter);
     }
 
+    protected HotpInfo(HotpInfo info) {
+        super(info);
+        _counter = info._counter;
+    }
+
+    @Override
+    public HotpInfo copy() {
+        return new HotpInfo(this);
+    }
+
     @Override
     public String getOtp() throws OtpInfoException {
         checkSecret();
 
         try {
-            OTP otp = HOTP.generateOTP(getSecret(), getAlgorithm(true), getDigits(), getCounter());
-            return otp.toString();
+            return OtpGenerator.get().generateCode(getSecret(), getAlgorithm(true), getDigits(), getCounter());
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             throw new RuntimeException(e);
         }
@@ -30,6 +30,16 @@ public class MotpInfo extends TotpInfo {
         setPin(pin);
     }
 
+    protected MotpInfo(MotpInfo info) {
+        super(info);
+        _pin = info._pin;
+    }
+
+    @Override
+    public MotpInfo copy() {
+        return new MotpInfo(this);
+    }
+
     @Override
     public String getOtp(long time) {
         if (_pin == null) {
@@ -28,6 +28,17 @@ public abstract class OtpInfo implements Serializable {
         setDigits(digits);
     }
 
+    protected OtpInfo(OtpInfo info) {
+        _secret = info._secret.clone();
+        _algorithm = info._algorithm;
+        _digits = info._digits;
+    }
+
+    /**
+     * Returns a deep copy of this OtpInfo.
+     */
+    public abstract OtpInfo copy();
+
     public abstract String getOtp() throws OtpInfoException;
 
     protected void checkSecret() throws OtpInfoException {
@@ -1,6 +1,6 @@
 package com.beemdevelopment.aegis.otp;
 
-import com.beemdevelopment.aegis.crypto.otp.OTP;
+import com.beemdevelopment.aegis.crypto.otp.OtpGenerator;
 import com.beemdevelopment.aegis.crypto.otp.TOTP;
 
 import java.security.InvalidKeyException;
@@ -19,13 +19,22 @@ public class SteamInfo extends TotpInfo {
         super(secret, algorithm, digits, period);
     }
 
+    protected SteamInfo(SteamInfo info) {
+        super(info);
+    }
+
+    @Override
+    public SteamInfo copy() {
+        return new SteamInfo(this);
+    }
+
     @Override
     public String getOtp(long time) throws OtpInfoException {
         checkSecret();
 
         try {
-            OTP otp = TOTP.generateOTP(getSecret(), getAlgorithm(true), getDigits(), getPeriod(), time);
-            return otp.toSteamString();
+            long counter = TOTP.getCounter(time, getPeriod());
+            return OtpGenerator.get().generateSteamCode(getSecret(), getAlgorithm(true), getDigits(), counter);
         } catch (InvalidKeyException | NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
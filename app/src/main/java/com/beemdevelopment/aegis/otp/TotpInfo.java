@@ -1,6 +1,6 @@
 package com.beemdevelopment.aegis.otp;
 
-import com.beemdevelopment.aegis.crypto.otp.OTP;
+import com.beemdevelopment.aegis.crypto.otp.OtpGenerator;
 import com.beemdevelopment.aegis.crypto.otp.TOTP;
 
 import org.json.JSONException;
@@ -25,6 +25,16 @@ public class TotpInfo extends OtpInfo {
         setPeriod(period);
     }
 
+    protected TotpInfo(TotpInfo info) {
+        super(info);
+        _period = info._period;
+    }
+
+    @Override
+    public TotpInfo copy() {
+        return new TotpInfo(this);
+    }
+
     @Override
     public String getOtp() throws OtpInfoException {
         return getOtp(System.currentTimeMillis() / 1000);
@@ -34,8 +44,8 @@ public class TotpInfo extends OtpInfo {
         checkSecret();
 
         try {
-            OTP otp = TOTP.generateOTP(getSecret(), getAlgorithm(true), getDigits(), getPeriod(), time);
-            return otp.toString();
+            long counter = TOTP.getCounter(time, getPeriod());
+            return OtpGenerator.get().generateCode(getSecret(), getAlgorithm(true), getDigits(), counter);
         } catch (InvalidKeyException | NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
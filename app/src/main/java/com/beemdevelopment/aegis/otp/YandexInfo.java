@@ -3,12 +3,12 @@ package com.beemdevelopment.aegis.otp;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.beemdevelopment.aegis.crypto.otp.YAOTP;
+import com.beemdevelopment.aegis.crypto.otp.OtpGenerator;
+import com.beemdevelopment.aegis.crypto.otp.TOTP;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -37,6 +37,16 @@ public class YandexInfo extends TotpInfo {
         _pin = pin;
     }
 
+    protected YandexInfo(YandexInfo info) {
+        super(info);
+        _pin = info._pin;
+    }
+
+    @Override
+    public YandexInfo copy() {
+        return new YandexInfo(this);
+    }
+
     @Override
     public String getOtp(long time) {
         if (_pin == null) {
@@ -44,9 +54,9 @@ public class YandexInfo extends TotpInfo {
         }
 
         try {
-            YAOTP otp = YAOTP.generateOTP(getSecret(), getPin(), getDigits(), getAlgorithm(true), getPeriod(), time);
-            return otp.toString();
-        } catch (InvalidKeyException | NoSuchAlgorithmException | IOException e) {
+            long counter = TOTP.getCounter(time, getPeriod());
+            return OtpGenerator.get().generateYandexCode(getSecret(), getPin(), getAlgorithm(true), getDigits(), counter);
+        } catch (InvalidKeyException | NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
     }
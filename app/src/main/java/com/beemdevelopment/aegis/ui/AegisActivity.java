@@ -15,6 +15,7 @@ import androidx.annotation.CallSuper;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.ActionMode;
+import androidx.core.content.ContextCompat;
 import androidx.core.view.ViewPropertyAnimatorCompat;
 
 import com.beemdevelopment.aegis.Preferences;
@@ -27,6 +28,9 @@ import com.beemdevelopment.aegis.vault.VaultManager;
 import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 import com.google.android.material.appbar.AppBarLayout;
 import com.google.android.material.color.MaterialColors;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
@@ -146,6 +150,35 @@ public abstract class AegisActivity extends AppCompatActivity implements VaultMa
         }
     }
 
+    /**
+     * Saves the vault on a background thread. An error is shown if saving fails.
+     */
+    protected ListenableFuture<Void> saveVaultAsync() {
+        return addSaveErrorCallback(_vaultManager.saveAsync());
+    }
+
+    /**
+     * Saves and backs up the vault on a background thread. An error is shown if saving fails.
+     */
+    protected ListenableFuture<Void> saveAndBackupVaultAsync() {
+        return addSaveErrorCallback(_vaultManager.saveAndBackupAsync());
+    }
+
+    private ListenableFuture<Void> addSaveErrorCallback(ListenableFuture<Void> future) {
+        Futures.addCallback(future, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+
+            }
+
+            @Override
+            public void onFailure(@NonNull Throwable t) {
+                Toast.makeText(AegisActivity.this, getString(R.string.saving_error), Toast.LENGTH_LONG).show();
+            }
+        }, ContextCompat.getMainExecutor(this));
+        return future;
+    }
+
     /**
      * Closes this activity if it has become an orphan (isOrphan() == true) and launches MainActivity.
      * @param savedInstanceState the bundle passed to onCreate.
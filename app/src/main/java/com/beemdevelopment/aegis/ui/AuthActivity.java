@@ -33,7 +33,6 @@ import com.beemdevelopment.aegis.ui.dialogs.Dialogs;
 import com.beemdevelopment.aegis.ui.tasks.PasswordSlotDecryptTask;
 import com.beemdevelopment.aegis.vault.VaultFile;
 import com.beemdevelopment.aegis.vault.VaultFileCredentials;
-import com.beemdevelopment.aegis.vault.VaultRepository;
 import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 import com.beemdevelopment.aegis.vault.slots.BiometricSlot;
 import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
@@ -119,7 +118,7 @@ public class AuthActivity extends AegisActivity {
         }
 
         try {
-            _vaultFile = VaultRepository.readVaultFile(this);
+            _vaultFile = _vaultManager.readVaultFile();
         } catch (VaultRepositoryException e) {
             Dialogs.showErrorDialog(this, R.string.vault_load_error, e, (dialog, which) -> {
                 getOnBackPressedDispatcher().onBackPressed();
@@ -61,7 +61,6 @@ import com.beemdevelopment.aegis.ui.glide.GlideHelper;
 import com.beemdevelopment.aegis.ui.models.VaultGroupModel;
 import com.beemdevelopment.aegis.ui.tasks.ImportFileTask;
 import com.beemdevelopment.aegis.ui.views.IconAdapter;
-import com.beemdevelopment.aegis.util.Cloner;
 import com.beemdevelopment.aegis.util.IOUtils;
 import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultEntryIcon;
@@ -791,7 +790,7 @@ public class EditEntryActivity extends AegisActivity {
             throw new ParseException("The entered info is incorrect: " + e.getMessage());
         }
 
-        VaultEntry entry = Cloner.clone(_origEntry);
+        VaultEntry entry = new VaultEntry(_origEntry);
         entry.setInfo(info);
         entry.setIssuer(_textIssuer.getText().toString());
         entry.setName(_textName.getText().toString());
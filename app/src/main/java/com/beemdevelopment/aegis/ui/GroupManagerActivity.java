@@ -14,7 +14,6 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.ui.dialogs.Dialogs;
 import com.beemdevelopment.aegis.ui.views.GroupAdapter;
-import com.beemdevelopment.aegis.util.Cloner;
 import com.beemdevelopment.aegis.helpers.ViewHelper;
 import com.beemdevelopment.aegis.vault.VaultGroup;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
@@ -115,7 +114,7 @@ public class GroupManagerActivity extends AegisActivity implements GroupAdapter.
         Dialogs.TextInputListener onEditGroup = text -> {
             String newGroupName = new String(text).trim();
             if (!newGroupName.isEmpty()) {
-                VaultGroup newGroup = Cloner.clone(group);
+                VaultGroup newGroup = new VaultGroup(group);
                 newGroup.setName(newGroupName);
                 _adapter.replaceGroup(group.getUUID(), newGroup);
                 _backPressHandler.setEnabled(true);
@@ -22,7 +22,6 @@ import com.beemdevelopment.aegis.ui.slides.SecuritySetupSlide;
 import com.beemdevelopment.aegis.ui.slides.WelcomeSlide;
 import com.beemdevelopment.aegis.vault.VaultFile;
 import com.beemdevelopment.aegis.vault.VaultFileCredentials;
-import com.beemdevelopment.aegis.vault.VaultRepository;
 import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 import com.beemdevelopment.aegis.vault.slots.BiometricSlot;
 import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
@@ -106,7 +105,7 @@ public class IntroActivity extends IntroBaseActivity {
         } else {
             VaultFile vaultFile;
             try {
-                vaultFile = VaultRepository.readVaultFile(this);
+                vaultFile = _vaultManager.readVaultFile();
             } catch (VaultRepositoryException e) {
                 e.printStackTrace();
                 Dialogs.showErrorDialog(this, R.string.vault_load_error, e);
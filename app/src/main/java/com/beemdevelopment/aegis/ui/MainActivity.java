@@ -37,6 +37,7 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.view.ActionMode;
 import androidx.appcompat.widget.SearchView;
+import androidx.core.content.ContextCompat;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
@@ -67,7 +68,6 @@ import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultEntryIcon;
 import com.beemdevelopment.aegis.vault.VaultFile;
 import com.beemdevelopment.aegis.vault.VaultGroup;
-import com.beemdevelopment.aegis.vault.VaultRepository;
 import com.beemdevelopment.aegis.vault.VaultRepositoryException;
 import com.google.android.material.bottomsheet.BottomSheetDialog;
 import com.google.android.material.chip.Chip;
@@ -78,6 +78,7 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -553,7 +554,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
                 }
 
                 dialog.dismiss();
-                saveAndBackupVault();
+                saveAndBackupVaultAsync();
                 _actionMode.finish();
                 setGroups(_vaultManager.getVault().getUsedGroups());
             });
@@ -749,7 +750,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
         }
 
         _vaultManager.getVault().setIconsOptimized(true);
-        saveAndBackupVault();
+        saveAndBackupVaultAsync();
 
         if (!newIcons.isEmpty()) {
             _entryListView.setEntries(_vaultManager.getVault().getEntries());
@@ -913,7 +914,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
         if (!_vaultManager.isVaultLoaded()) {
             VaultFile vaultFile;
             try {
-                vaultFile = VaultRepository.readVaultFile(this);
+                vaultFile = _vaultManager.readVaultFile();
             } catch (VaultRepositoryException e) {
                 e.printStackTrace();
                 Dialogs.showErrorDialog(this, R.string.vault_load_error, e, (dialog, which) -> {
@@ -1276,12 +1277,12 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
 
     @Override
     public void onEntryDrop(VaultEntry entry) {
-        saveVault();
+        saveVaultAsync();
     }
 
     @Override
     public void onEntryChange(VaultEntry entry) {
-        saveAndBackupVault();
+        saveAndBackupVaultAsync();
     }
 
     public void onEntryCopy(VaultEntry entry) {
@@ -1301,7 +1302,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
     @Override
     public void onSaveGroupFilter(Set<UUID> groupFilter) {
         if (_vaultManager.getVault().isGroupsMigrationFresh()) {
-            saveAndBackupVault();
+            saveAndBackupVaultAsync();
         }
         _prefs.setGroupFilter(groupFilter);
     }
@@ -1332,11 +1333,22 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
         return res;
     }
 
+    @Override
+    protected ListenableFuture<Void> saveAndBackupVaultAsync() {
+        ListenableFuture<Void> future = super.saveAndBackupVaultAsync();
+        future.addListener(() -> {
+            if (!isDestroyed()) {
+                updateErrorCard();
+            }
+        }, ContextCompat.getMainExecutor(this));
+        return future;
+    }
+
     @SuppressLint("InlinedApi")
     private void copyEntryCode(VaultEntry entry) {
         String otp;
         try {
-            otp = entry.getInfo().getOtp();
+            otp = _entryListView.getOtp(entry);
         } catch (OtpInfoException e) {
             return;
         }
@@ -1433,7 +1445,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
                     });
                 }
 
-                saveAndBackupVault();
+                saveAndBackupVaultAsync();
                 _entryListView.setEntries(_vaultManager.getVault().getEntries());
                 mode.finish();
             } else if (itemId == R.id.action_share_qr) {
@@ -1455,7 +1467,7 @@ public class MainActivity extends AegisActivity implements EntryListView.Listene
                     for (VaultEntry entry : _selectedEntries) {
                         _vaultManager.getVault().removeEntry(entry);
                     }
-                    saveAndBackupVault();
+                    saveAndBackupVaultAsync();
                     _entryListView.setGroups(_vaultManager.getVault().getUsedGroups());
                     _entryListView.setEntries(_vaultManager.getVault().getEntries());
                     mode.finish();
@@ -33,6 +33,7 @@ public class BackupsPreferencesFragment extends PreferencesFragment {
     private Preference _backupsLocationPreference;
     private Preference _backupsTriggerPreference;
     private Preference _backupsVersionsPreference;
+    private Preference _backupsIncrementalPreference;
     private Preference _backupsPasswordWarningPreference;
 
     private Preference _builtinBackupStatusPreference;
@@ -167,6 +168,8 @@ public class BackupsPreferencesFragment extends PreferencesFragment {
             });
             return false;
         });
+
+        _backupsIncrementalPreference = requirePreference("pref_backups_incremental");
     }
 
     private void saveAndDisableBackupReminder(boolean understand) {
@@ -208,6 +211,7 @@ public class BackupsPreferencesFragment extends PreferencesFragment {
         _backupsLocationPreference.setVisible(backupEnabled);
         _backupsTriggerPreference.setVisible(backupEnabled);
         _backupsVersionsPreference.setVisible(backupEnabled && _prefs.getBackupVersioningStrategy() != BackupsVersioningStrategy.SINGLE_BACKUP);
+        _backupsIncrementalPreference.setVisible(backupEnabled && _prefs.getBackupVersioningStrategy() == BackupsVersioningStrategy.MULTIPLE_BACKUPS);
         if (backupEnabled) {
             updateBackupStatus(_builtinBackupStatusPreference, _prefs.getBuiltInBackupResult());
         }
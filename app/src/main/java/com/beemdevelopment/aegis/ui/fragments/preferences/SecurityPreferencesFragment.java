@@ -16,6 +16,7 @@ import androidx.preference.SwitchPreferenceCompat;
 import com.beemdevelopment.aegis.PassReminderFreq;
 import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.R;
+import com.beemdevelopment.aegis.crypto.CryptoSession;
 import com.beemdevelopment.aegis.crypto.KeyStoreHandle;
 import com.beemdevelopment.aegis.crypto.KeyStoreHandleException;
 import com.beemdevelopment.aegis.helpers.BiometricSlotInitializer;
@@ -129,7 +130,7 @@ public class SecurityPreferencesFragment extends PreferencesFragment {
 
                 // remove the KeyStore key
                 try {
-                    KeyStoreHandle handle = new KeyStoreHandle();
+                    KeyStoreHandle handle = CryptoSession.getKeyStore();
                     handle.deleteKey(slot.getUUID().toString());
                 } catch (KeyStoreHandleException e) {
                     e.printStackTrace();
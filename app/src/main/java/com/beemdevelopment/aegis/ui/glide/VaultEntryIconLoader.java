@@ -13,6 +13,7 @@ import com.bumptech.glide.load.model.ModelLoader;
 import com.bumptech.glide.load.model.ModelLoaderFactory;
 import com.bumptech.glide.load.model.MultiModelLoaderFactory;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 public class VaultEntryIconLoader implements ModelLoader<VaultEntryIcon, ByteBuffer> {
@@ -38,6 +39,12 @@ public class VaultEntryIconLoader implements ModelLoader<VaultEntryIcon, ByteBuf
         @Override
         public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super ByteBuffer> callback) {
             byte[] bytes = _icon.getBytes();
+            if (bytes == null) {
+                // the icon could not be read from the icon store
+                callback.onLoadFailed(new IOException("Unable to read the icon"));
+                return;
+            }
+
             ByteBuffer buf = ByteBuffer.wrap(bytes);
             callback.onDataReady(buf);
         }
@@ -1,15 +1,20 @@
 package com.beemdevelopment.aegis.ui.tasks;
 
 import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.SCryptCalibrator;
 import com.beemdevelopment.aegis.crypto.SCryptParameters;
 import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
 
 import javax.crypto.SecretKey;
 
 public class KeyDerivationTask extends ProgressDialogTask<KeyDerivationTask.Params, KeyDerivationTask.Result> {
+    private static final String TAG = KeyDerivationTask.class.getSimpleName();
+
     private Callback _cb;
 
     public KeyDerivationTask(Context context, Callback cb) {
@@ -23,15 +28,18 @@ public class KeyDerivationTask extends ProgressDialogTask<KeyDerivationTask.Para
 
         Params params = args[0];
         byte[] salt = CryptoUtils.generateSalt();
-        SCryptParameters scryptParams = new SCryptParameters(
-                CryptoUtils.CRYPTO_SCRYPT_N,
-                CryptoUtils.CRYPTO_SCRYPT_r,
-                CryptoUtils.CRYPTO_SCRYPT_p,
-                salt
-        );
+        SCryptCalibrator.Result calibration = SCryptCalibrator.calibrate(salt);
+        SCryptParameters scryptParams = calibration.getParams();
 
         PasswordSlot slot = params.getSlot();
+        long start = SystemClock.elapsedRealtime();
         SecretKey key = slot.deriveKey(params.getPassword(), scryptParams);
+        long derivationMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, String.format("Derived key with N=%d, r=%d, p=%d in %d ms (estimated: %d ms, probe: %d ms)",
+                scryptParams.getN(), scryptParams.getR(), scryptParams.getP(), derivationMillis,
+                calibration.getEstimatedMillis(), calibration.getProbeMillis()));
+
         return new Result(slot, key);
     }
 
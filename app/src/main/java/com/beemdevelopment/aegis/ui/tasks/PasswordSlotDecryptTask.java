@@ -2,20 +2,37 @@ package com.beemdevelopment.aegis.ui.tasks;
 
 import android.content.Context;
 
+import androidx.annotation.Nullable;
+
 import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.crypto.CryptoUtils;
 import com.beemdevelopment.aegis.crypto.MasterKey;
+import com.beemdevelopment.aegis.crypto.SCryptParameters;
 import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
 import com.beemdevelopment.aegis.vault.slots.Slot;
 import com.beemdevelopment.aegis.vault.slots.SlotException;
 import com.beemdevelopment.aegis.vault.slots.SlotIntegrityException;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 
 public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecryptTask.Params, PasswordSlotDecryptTask.Result> {
+    // The amount of memory that the derivations that run at the same time may use together. A
+    // single derivation may need this much by itself (see SCryptCalibrator), in which case the
+    // derivations run one after another.
+    private static final long MAX_DERIVATION_MEMORY = 64 * 1024 * 1024;
+
     private Callback _cb;
 
     public PasswordSlotDecryptTask(Context context, Callback cb) {
@@ -31,18 +48,134 @@ public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecr
         return decrypt(params.getSlots(), params.getPassword());
     }
 
+    /**
+     * Tries to decrypt the given slots with the given password and returns the result of the
+     * first one in the order of the list that succeeds, or null if none do. The key derivations
+     * of the slots run concurrently as far as MAX_DERIVATION_MEMORY allows, so that this takes
+     * about as long as a single derivation in the common case.
+     */
     public static Result decrypt(List<PasswordSlot> slots, char[] password) {
+        byte[] oldPasswordBytes = CryptoUtils.toBytesOld(password);
+
+        // try the current password encoding for all slots first, as it's the most likely to succeed
+        List<Attempt> attempts = new ArrayList<>();
         for (PasswordSlot slot : slots) {
+            attempts.add(new Attempt(slot, password, null));
+        }
+        for (PasswordSlot slot : slots) {
+            // a bug introduced in afb9e59 caused passwords longer than 64 bytes to produce a different key than before
+            // so, also try the old password encode function if the password is longer than 64 bytes
+            if (!slot.isRepaired() && oldPasswordBytes.length > 64) {
+                attempts.add(new Attempt(slot, password, oldPasswordBytes));
+            }
+        }
+
+        Attempt attempt = runAttempts(attempts);
+        if (attempt == null) {
+            return null;
+        }
+
+        // if necessary, repair the slot by re-encrypting the master key with the correct key
+        // slots with passwords smaller than 64 bytes also get this treatment to make sure those also have 'repaired' set to true
+        PasswordSlot slot = attempt.getSlot();
+        boolean repaired = false;
+        if (!slot.isRepaired()) {
+            SecretKey key = attempt.isOldEncoding() ? getDerivedKey(attempts, slot) : attempt.getDerivedKey();
             try {
-                return decryptPasswordSlot(slot, password);
+                Cipher cipher = Slot.createEncryptCipher(key);
+                slot.setKey(attempt.getMasterKey(), cipher);
             } catch (SlotException e) {
                 throw new RuntimeException(e);
-            } catch (SlotIntegrityException ignored) {
+            }
+            repaired = true;
+        }
 
+        return new Result(attempt.getMasterKey(), slot, repaired);
+    }
+
+    /**
+     * Returns the key that was derived from the password in the current encoding for the given
+     * slot. An attempt with the old encoding only wins once that attempt has failed, so it has
+     * always finished by then.
+     */
+    private static SecretKey getDerivedKey(List<Attempt> attempts, PasswordSlot slot) {
+        for (Attempt attempt : attempts) {
+            if (attempt.getSlot() == slot && !attempt.isOldEncoding()) {
+                return attempt.getDerivedKey();
             }
         }
 
-        return null;
+        throw new IllegalStateException("No attempt with the current encoding for this slot");
+    }
+
+    /**
+     * Runs the given attempts in order and returns the first one in the list that succeeds, so
+     * that the outcome doesn't depend on which derivation happens to finish first. An attempt
+     * is only started if the memory that it needs fits in MAX_DERIVATION_MEMORY together with
+     * that of the attempts that are already running. Once an attempt succeeds, the ones after
+     * it can no longer change the outcome, so they're cancelled.
+     */
+    @Nullable
+    private static Attempt runAttempts(List<Attempt> attempts) {
+        if (attempts.isEmpty()) {
+            return null;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(attempts.size(), cores));
+        CompletionService<Attempt> service = new ExecutorCompletionService<>(executor);
+        try {
+            boolean[] finished = new boolean[attempts.size()];
+            int next = 0;
+            int running = 0;
+            long memory = 0;
+
+            // the index of the first attempt in the list that has succeeded so far
+            int winner = attempts.size();
+
+            while (true) {
+                // the winner only wins once all of the attempts before it have failed
+                int first = 0;
+                while (first < winner && finished[first]) {
+                    first++;
+                }
+                if (first == winner) {
+                    return winner < attempts.size() ? attempts.get(winner) : null;
+                }
+
+                // always keep at least one attempt running, even if it exceeds the budget by itself
+                while (next < winner && (running == 0 || memory + attempts.get(next).getMemoryUsage(cores) <= MAX_DERIVATION_MEMORY)) {
+                    Attempt attempt = attempts.get(next++);
+                    service.submit(attempt);
+                    memory += attempt.getMemoryUsage(cores);
+                    running++;
+                }
+
+                Attempt attempt = service.take().get();
+                memory -= attempt.getMemoryUsage(cores);
+                running--;
+
+                int i = attempts.indexOf(attempt);
+                finished[i] = true;
+                if (attempt.getMasterKey() != null && i < winner) {
+                    winner = i;
+                    for (int j = winner + 1; j < next; j++) {
+                        attempts.get(j).cancel();
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            // don't wait for the derivations that are still running, they stop by themselves
+            for (Attempt attempt : attempts) {
+                attempt.cancel();
+            }
+            executor.shutdownNow();
+        }
     }
 
     public static Result decryptPasswordSlot(PasswordSlot slot, char[] password)
@@ -89,6 +222,67 @@ public class PasswordSlotDecryptTask extends ProgressDialogTask<PasswordSlotDecr
         _cb.onTaskFinished(result);
     }
 
+    private static class Attempt implements Callable<Attempt> {
+        private final PasswordSlot _slot;
+        private final char[] _password;
+        private final byte[] _oldPasswordBytes;
+        private final AtomicBoolean _cancelled = new AtomicBoolean();
+        private SecretKey _key;
+        private MasterKey _masterKey;
+
+        public Attempt(PasswordSlot slot, char[] password, @Nullable byte[] oldPasswordBytes) {
+            _slot = slot;
+            _password = password;
+            _oldPasswordBytes = oldPasswordBytes;
+        }
+
+        @Override
+        public Attempt call() throws SlotException {
+            byte[] passwordBytes = isOldEncoding() ? _oldPasswordBytes : CryptoUtils.toBytes(_password);
+            try {
+                _key = CryptoUtils.deriveKey(passwordBytes, _slot.getSCryptParameters(), _cancelled);
+                _masterKey = decryptPasswordSlot(_slot, _key);
+            } catch (CancellationException | SlotIntegrityException ignored) {
+
+            }
+            return this;
+        }
+
+        /**
+         * Makes the key derivation of this attempt give up as soon as possible, or makes it
+         * not start at all if it hasn't yet.
+         */
+        public void cancel() {
+            _cancelled.set(true);
+        }
+
+        /**
+         * Returns the amount of memory that the key derivation of this attempt needs, given
+         * that SCrypt runs up to one lane per core at the same time.
+         */
+        public long getMemoryUsage(int cores) {
+            SCryptParameters params = _slot.getSCryptParameters();
+            return CryptoUtils.getSCryptMemoryUsage(params.getN(), params.getR(), params.getP(), cores);
+        }
+
+        public PasswordSlot getSlot() {
+            return _slot;
+        }
+
+        public boolean isOldEncoding() {
+            return _oldPasswordBytes != null;
+        }
+
+        public SecretKey getDerivedKey() {
+            return _key;
+        }
+
+        @Nullable
+        public MasterKey getMasterKey() {
+            return _masterKey;
+        }
+    }
+
     public static class Params {
         private List<PasswordSlot> _slots;
         private char[] _password;
@@ -4,6 +4,7 @@ import static androidx.recyclerview.widget.RecyclerView.NO_POSITION;
 
 import android.graphics.Typeface;
 import android.os.Handler;
+import android.os.Looper;
 import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.style.StyleSpan;
@@ -25,10 +26,13 @@ import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.SortCategory;
 import com.beemdevelopment.aegis.ViewMode;
+import com.beemdevelopment.aegis.helpers.CodeScheduler;
+import com.beemdevelopment.aegis.helpers.EntryCounts;
+import com.beemdevelopment.aegis.helpers.EntrySearchIndex;
+import com.beemdevelopment.aegis.helpers.EntrySorter;
 import com.beemdevelopment.aegis.helpers.ItemTouchHelperAdapter;
-import com.beemdevelopment.aegis.helpers.comparators.FavoriteComparator;
+import com.beemdevelopment.aegis.helpers.RefreshScheduler;
 import com.beemdevelopment.aegis.otp.HotpInfo;
-import com.beemdevelopment.aegis.otp.OtpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfoException;
 import com.beemdevelopment.aegis.otp.TotpInfo;
 import com.beemdevelopment.aegis.ui.models.ErrorCardInfo;
@@ -37,24 +41,30 @@ import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultGroup;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> implements ItemTouchHelperAdapter, CodeScheduler.Listener {
+    private static final String TAG = EntryAdapter.class.getSimpleName();
 
-public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> implements ItemTouchHelperAdapter {
     private EntryListView _view;
+    // the list that is currently shown, which only changes on the main thread
     private EntryList _entryList;
+    // the entries and error card that will be shown once the pending list update is done
+    private List<VaultEntry> _entries;
+    private ErrorCardInfo _errorCardInfo;
     private List<VaultEntry> _selectedEntries;
-    private Collection<VaultGroup> _groups;
     private Map<UUID, Integer> _usageCounts;
     private Map<UUID, Long> _lastUsedTimestamps;
     private VaultEntry _focusedEntry;
@@ -84,13 +94,45 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     // keeps track of the EntryHolders that are currently bound
     private List<EntryHolder> _holders;
 
+    // computes the codes of the shown entries for the holders
+    private CodeScheduler _codeScheduler;
+
+    // the clock that the progress bars and expiration states of the holders run off
+    private final RefreshScheduler _refreshScheduler = new RefreshScheduler();
+
+    // counts the issuers of all entries and the periods of the shown entries, for binding rows
+    private final EntryCounts _entryCounts = new EntryCounts();
+    private final EntryCounts _shownEntryCounts = new EntryCounts();
+
+    // keeps the searchable fields of the entries around in a normalized form
+    private final EntrySearchIndex _searchIndex = new EntrySearchIndex();
+
+    // sorts the entries with precomputed sort keys
+    private final EntrySorter _entrySorter = new EntrySorter();
+
+    // filters, sorts and diffs new lists off the main thread
+    private final ExecutorService _executor;
+    private final Handler _mainHandler;
+    // bumped for every new list, so that the work for lists that were superseded is dropped
+    private final AtomicInteger _generation = new AtomicInteger();
+    private Future<?> _pendingUpdate;
+    private final List<Runnable> _updateCallbacks = new ArrayList<>();
+
     public EntryAdapter(EntryListView view) {
         _entryList = new EntryList();
+        _entries = _entryList.getEntries();
         _selectedEntries = new ArrayList<>();
         _groupFilter = new TreeSet<>();
         _holders = new ArrayList<>();
+        _codeScheduler = new CodeScheduler(this, _refreshScheduler);
         _dimHandler = new Handler();
         _doubleTapHandler = new Handler();
+        _mainHandler = new Handler(Looper.getMainLooper());
+        _executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
         _view = view;
     }
 
@@ -98,9 +140,39 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         for (EntryHolder holder : _holders) {
             holder.destroy();
         }
+        _codeScheduler.destroy();
+        _refreshScheduler.destroy();
+        _generation.incrementAndGet();
+        _executor.shutdownNow();
+        _updateCallbacks.clear();
         _view = null;
     }
 
+    public CodeScheduler getCodeScheduler() {
+        return _codeScheduler;
+    }
+
+    public RefreshScheduler getRefreshScheduler() {
+        return _refreshScheduler;
+    }
+
+    public void startCodeScheduler() {
+        _codeScheduler.start();
+    }
+
+    public void stopCodeScheduler() {
+        _codeScheduler.stop();
+    }
+
+    @Override
+    public void onCodesChanged(@NonNull CodeScheduler.Snapshot snapshot, @NonNull Set<UUID> changed) {
+        for (EntryHolder holder : _holders) {
+            if (changed.contains(holder.getEntry().getUUID())) {
+                holder.refresh();
+            }
+        }
+    }
+
     public void setCodeGroupSize(Preferences.CodeGrouping codeGroupSize) {
         _codeGroupSize = codeGroupSize;
     }
@@ -150,15 +222,12 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     public void setErrorCardInfo(ErrorCardInfo info) {
-        if (Objects.equals(info, _entryList.getErrorCardInfo())) {
+        if (Objects.equals(info, _errorCardInfo)) {
             return;
         }
 
-        replaceEntryList(new EntryList(
-                _entryList.getEntries(),
-                _entryList.getShownEntries(),
-                info
-        ));
+        _errorCardInfo = info;
+        submitEntryList();
     }
 
     public VaultEntry getEntryAtPosition(int position) {
@@ -176,57 +245,34 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             entry.setLastUsedTimestamp(_lastUsedTimestamps.containsKey(entry.getUUID()) ? _lastUsedTimestamps.get(entry.getUUID()) : 0);
         }
 
-        replaceEntryList(new EntryList(
-                entries,
-                calculateShownEntries(entries),
-                _entryList.getErrorCardInfo()
-        ));
+        _entries = entries;
+        _searchIndex.setEntries(entries);
+        _entrySorter.setEntries(entries);
+        submitEntryList();
     }
 
     public void clearEntries() {
-        replaceEntryList(new EntryList());
-    }
-
-    public int translateEntryPosToIndex(int position) {
-        return _entryList.translateEntryPosToIndex(position);
+        _entries = new ArrayList<>();
+        _searchIndex.setEntries(_entries);
+        _entrySorter.setEntries(_entries);
+        _errorCardInfo = null;
+        submitEntryList();
     }
 
-    private boolean isEntryFiltered(VaultEntry entry) {
-        Set<UUID> groups = entry.getGroups();
-        String issuer = entry.getIssuer().toLowerCase();
-        String name = entry.getName().toLowerCase();
-        String note = entry.getNote().toLowerCase();
-
-        if (_searchFilter != null) {
-            String[] tokens = _searchFilter.toLowerCase().split("\\s+");
-
-            // Return true if not all tokens match at least one of the relevant fields
-            return !Arrays.stream(tokens)
-                    .allMatch(token ->
-                            ((_searchBehaviorMask & Preferences.SEARCH_IN_ISSUER) != 0 && issuer.contains(token)) ||
-                                    ((_searchBehaviorMask & Preferences.SEARCH_IN_NAME) != 0 && name.contains(token)) ||
-                                    ((_searchBehaviorMask & Preferences.SEARCH_IN_NOTE) != 0 && note.contains(token)) ||
-                                    ((_searchBehaviorMask & Preferences.SEARCH_IN_GROUPS) != 0 && doesAnyGroupMatchSearchFilter(groups, token))
-                    );
-        }
-
-        if (!_groupFilter.isEmpty()) {
-            if (groups.isEmpty() && !_groupFilter.contains(null)) {
-                return true;
-            }
-            if (!groups.isEmpty() && _groupFilter.stream().filter(Objects::nonNull).noneMatch(groups::contains)) {
-                return true;
-            }
+    /**
+     * Runs the given callback on the main thread once the list reflects all of the changes
+     * that were made so far, or right away if there are no pending changes.
+     */
+    public void runAfterListUpdate(Runnable callback) {
+        if (_pendingUpdate == null) {
+            callback.run();
+        } else {
+            _updateCallbacks.add(callback);
         }
-
-        return false;
     }
 
-    private boolean doesAnyGroupMatchSearchFilter(Set<UUID> entryGroupUUIDs, String searchFilter) {
-        return _groups.stream()
-                .filter(group -> entryGroupUUIDs.contains(group.getUUID()))
-                .map(VaultGroup::getName)
-                .anyMatch(groupName -> groupName.toLowerCase().contains(searchFilter.toLowerCase()));
+    public int translateEntryPosToIndex(int position) {
+        return _entryList.translateEntryPosToIndex(position);
     }
 
     public void refresh(boolean hard) {
@@ -275,16 +321,67 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     private void refreshEntryList() {
-        replaceEntryList(new EntryList(
-                _entryList.getEntries(),
-                calculateShownEntries(_entryList.getEntries()),
-                _entryList.getErrorCardInfo()
-        ));
+        submitEntryList();
+    }
+
+    /**
+     * Filters and sorts the entries, and calculates the difference with the current list, on
+     * a background thread. The result is applied on the main thread, unless another list was
+     * submitted in the meantime. This keeps rapid changes, like typing in the search box, from
+     * blocking the main thread.
+     */
+    private void submitEntryList() {
+        int generation = _generation.incrementAndGet();
+        if (_pendingUpdate != null) {
+            // this only cancels the work if it hasn't started yet, the generation takes care of the rest
+            _pendingUpdate.cancel(false);
+        }
+
+        EntryList oldList = _entryList;
+        List<VaultEntry> entries = _entries;
+        ErrorCardInfo errorCardInfo = _errorCardInfo;
+        EntryFilter filter = createEntryFilter();
+        _pendingUpdate = _executor.submit(() -> {
+            List<VaultEntry> shownEntries = filter.filter(entries);
+            if (generation != _generation.get()) {
+                return;
+            }
+            shownEntries = filter.sort(shownEntries);
+            if (generation != _generation.get()) {
+                return;
+            }
+
+            EntryList newList = new EntryList(entries, shownEntries, errorCardInfo);
+            DiffUtil.DiffResult diffRes = DiffUtil.calculateDiff(new DiffCallback(oldList, newList));
+            _mainHandler.post(() -> {
+                if (generation == _generation.get()) {
+                    _pendingUpdate = null;
+                    applyEntryList(newList, diffRes);
+                }
+            });
+        });
     }
 
+    /**
+     * Replaces the list right away, dropping any list that is still being computed. This is
+     * used while dragging entries, as the view expects the move to be reflected immediately.
+     */
     private void replaceEntryList(EntryList newEntryList) {
+        _generation.incrementAndGet();
+        if (_pendingUpdate != null) {
+            _pendingUpdate.cancel(false);
+            _pendingUpdate = null;
+        }
+
         DiffUtil.DiffResult diffRes = DiffUtil.calculateDiff(new DiffCallback(_entryList, newEntryList));
+        applyEntryList(newEntryList, diffRes);
+    }
+
+    private void applyEntryList(EntryList newEntryList, DiffUtil.DiffResult diffRes) {
         _entryList = newEntryList;
+        _entryCounts.setEntries(_entryList.getEntries());
+        _shownEntryCounts.setEntries(_entryList.getShownEntries());
+        _codeScheduler.setEntries(_entryList.getShownEntries());
         updatePeriodUniformity();
 
         // This scroll position trick is required in order to not have the recycler view
@@ -294,30 +391,20 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         diffRes.dispatchUpdatesTo(this);
         _view.scrollToPosition(scrollPos);
         _view.onListChange();
-    }
 
-    private List<VaultEntry> calculateShownEntries(List<VaultEntry> entries) {
-        List<VaultEntry> res = new ArrayList<>();
-        for (VaultEntry entry : entries) {
-            if (!isEntryFiltered(entry)) {
-                res.add(entry);
-            }
+        List<Runnable> callbacks = new ArrayList<>(_updateCallbacks);
+        _updateCallbacks.clear();
+        for (Runnable callback : callbacks) {
+            callback.run();
         }
-
-        sortEntries(res, _sortCategory);
-        return res;
     }
 
-    private static void sortEntries(List<VaultEntry> entries, SortCategory sortCategory) {
-        if (sortCategory != null) {
-            Comparator<VaultEntry> comparator = sortCategory.getComparator();
-            if (comparator != null) {
-                Collections.sort(entries, comparator);
-            }
-        }
-
-        Comparator<VaultEntry> favoriteComparator = new FavoriteComparator();
-        Collections.sort(entries, favoriteComparator);
+    /**
+     * Captures the current filter and sort settings, so that they can be applied on a
+     * background thread.
+     */
+    private EntryFilter createEntryFilter() {
+        return new EntryFilter(_searchFilter, _searchBehaviorMask, _searchIndex, _entrySorter, _groupFilter, _sortCategory);
     }
 
     private boolean isEntryDraggable(VaultEntry entry) {
@@ -336,7 +423,9 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
 
     public Map<UUID, Integer> getUsageCounts() { return _usageCounts; }
 
-    public void setGroups(Collection<VaultGroup> groups) { _groups = groups; }
+    public void setGroups(Collection<VaultGroup> groups) {
+        _searchIndex.setGroups(groups);
+    }
 
     public void setLastUsedTimestamps(Map<UUID, Long> lastUsedTimestamps) { _lastUsedTimestamps = lastUsedTimestamps; }
 
@@ -381,13 +470,13 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         _view.onEntryMove(firstEntry, secondEntry);
 
         // Then update the visual end
-        List<VaultEntry> newEntries = new ArrayList<>(_entryList.getEntries());
+        List<VaultEntry> newEntries = new ArrayList<>(_entries);
         CollectionUtils.move(newEntries, newEntries.indexOf(firstEntry), newEntries.indexOf(secondEntry));
-        replaceEntryList(new EntryList(
-                newEntries,
-                calculateShownEntries(newEntries),
-                _entryList.getErrorCardInfo()
-        ));
+        _entries = newEntries;
+        _entrySorter.setEntries(newEntries);
+        EntryFilter filter = createEntryFilter();
+        List<VaultEntry> shownEntries = filter.sort(filter.filter(newEntries));
+        replaceEntryList(new EntryList(newEntries, shownEntries, _errorCardInfo));
     }
 
     @Override
@@ -415,7 +504,7 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }  else if (viewType == R.layout.card_footer) {
             holder = new FooterView(view);
         } else {
-            holder = new EntryHolder(view);
+            holder = new EntryHolder(view, _codeScheduler, _refreshScheduler);
         }
 
         if (_showIcon && holder instanceof EntryHolder) {
@@ -447,9 +536,7 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             boolean showAccountName = true;
             if (_onlyShowNecessaryAccountNames) {
                 // Only show account name when there's multiple entries found with the same issuer.
-                showAccountName = _entryList.getEntries().stream()
-                        .filter(x -> x.getIssuer().equals(entry.getIssuer()))
-                        .count() > 1;
+                showAccountName = _entryCounts.getIssuerCount(entry.getIssuer()) > 1;
             }
 
             AccountNamePosition accountNamePosition = showAccountName ? _accountNamePosition : AccountNamePosition.HIDDEN;
@@ -562,6 +649,7 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
                     _view.onEntryChange(entry);
 
                     // finally, refresh the code in the UI
+                    _codeScheduler.refresh(entry);
                     entryHolder.refreshCode();
                 }
             });
@@ -592,42 +680,7 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     public int getMostFrequentPeriod() {
-        List<TotpInfo> infos = new ArrayList<>();
-        for (VaultEntry entry : _entryList.getShownEntries()) {
-            OtpInfo info = entry.getInfo();
-            if (info instanceof TotpInfo) {
-                infos.add((TotpInfo) info);
-            }
-        }
-
-        if (infos.isEmpty()) {
-            return -1;
-        }
-
-        if (infos.size() == 1) {
-            return infos.get(0).getPeriod();
-        }
-
-        Map<Integer, Integer> occurrences = new HashMap<>();
-        for (TotpInfo info : infos) {
-            int period = info.getPeriod();
-            if(occurrences.containsKey(period)) {
-                occurrences.put(period, occurrences.get(period) + 1);
-            } else {
-                occurrences.put(period, 1);
-            }
-        }
-
-        Integer maxValue = 0;
-        Integer maxKey = 0;
-        for (Map.Entry<Integer, Integer> entry : occurrences.entrySet()){
-            if(entry.getValue() > maxValue){
-                maxValue = entry.getValue();
-                maxKey = entry.getKey();
-            }
-        }
-
-        return maxValue > 1 ? maxKey : -1;
+        return _shownEntryCounts.getMostFrequentPeriod();
     }
 
     public void focusEntry(VaultEntry entry, int secondsToFocus) {
@@ -746,6 +799,11 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }
 
         _lastUsedTimestamps.put(entry.getUUID(), new Date().getTime());
+
+        // only the position of this entry in the usage based orders needs to be updated
+        entry.setUsageCount(_usageCounts.get(entry.getUUID()));
+        entry.setLastUsedTimestamp(_lastUsedTimestamps.get(entry.getUUID()));
+        _entrySorter.onUsageChanged(entry);
     }
 
     public boolean isDragAndDropAllowed() {
@@ -805,6 +863,68 @@ public class EntryAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }
     }
 
+    /**
+     * An immutable copy of the filter and sort settings of the adapter.
+     */
+    private static class EntryFilter {
+        private final String _searchFilter;
+        private final int _searchBehaviorMask;
+        private final EntrySearchIndex _searchIndex;
+        private final EntrySorter _entrySorter;
+        private final Set<UUID> _groupFilter;
+        private final SortCategory _sortCategory;
+
+        public EntryFilter(
+                @Nullable String searchFilter,
+                int searchBehaviorMask,
+                @NonNull EntrySearchIndex searchIndex,
+                @NonNull EntrySorter entrySorter,
+                @NonNull Set<UUID> groupFilter,
+                @Nullable SortCategory sortCategory
+        ) {
+            _searchFilter = searchFilter;
+            _searchBehaviorMask = searchBehaviorMask;
+            _searchIndex = searchIndex;
+            _entrySorter = entrySorter;
+            _groupFilter = new HashSet<>(groupFilter);
+            _sortCategory = sortCategory;
+        }
+
+        public List<VaultEntry> filter(List<VaultEntry> entries) {
+            // an entry is only shown if all tokens of the search filter match one of its relevant fields
+            Map<UUID, Integer> matches = null;
+            if (_searchFilter != null) {
+                matches = _searchIndex.search(_searchFilter, _searchBehaviorMask);
+            }
+
+            List<VaultEntry> res = new ArrayList<>();
+            for (VaultEntry entry : entries) {
+                if (matches != null ? matches.containsKey(entry.getUUID()) : !isEntryFiltered(entry)) {
+                    res.add(entry);
+                }
+            }
+            return res;
+        }
+
+        public List<VaultEntry> sort(List<VaultEntry> entries) {
+            return _entrySorter.sort(entries, _sortCategory);
+        }
+
+        private boolean isEntryFiltered(VaultEntry entry) {
+            if (!_groupFilter.isEmpty()) {
+                Set<UUID> groups = entry.getGroups();
+                if (groups.isEmpty() && !_groupFilter.contains(null)) {
+                    return true;
+                }
+                if (!groups.isEmpty() && _groupFilter.stream().filter(Objects::nonNull).noneMatch(groups::contains)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
     private static class EntryList {
         private final List<VaultEntry> _entries;
         private final List<VaultEntry> _shownEntries;
@@ -28,8 +28,9 @@ import com.beemdevelopment.aegis.R;
 import com.beemdevelopment.aegis.ViewMode;
 import com.beemdevelopment.aegis.helpers.AnimationsHelper;
 import com.beemdevelopment.aegis.helpers.CenterVerticalSpan;
+import com.beemdevelopment.aegis.helpers.CodeScheduler;
+import com.beemdevelopment.aegis.helpers.RefreshScheduler;
 import com.beemdevelopment.aegis.helpers.SimpleAnimationEndListener;
-import com.beemdevelopment.aegis.helpers.UiRefresher;
 import com.beemdevelopment.aegis.otp.HotpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfoException;
@@ -70,9 +71,10 @@ public class EntryHolder extends RecyclerView.ViewHolder {
     private TotpProgressBar _progressBar;
     private MaterialCardView _view;
 
-    private UiRefresher _refresher;
+    private final CodeScheduler _codeScheduler;
+    private final RefreshScheduler _refreshScheduler;
     private Handler _copyAnimationHandler;
-    private Handler _expirationHandler;
+    private RefreshScheduler.Listener _expirationListener;
     private AnimatorSet _expirationAnimSet;
     private boolean _showNextCode;
     private boolean _showExpirationState;
@@ -80,8 +82,10 @@ public class EntryHolder extends RecyclerView.ViewHolder {
     private Animation _scaleIn;
     private Animation _scaleOut;
 
-    public EntryHolder(final View view) {
+    public EntryHolder(final View view, CodeScheduler codeScheduler, RefreshScheduler refreshScheduler) {
         super(view);
+        _codeScheduler = codeScheduler;
+        _refreshScheduler = refreshScheduler;
 
         _view = (MaterialCardView) view;
         _profileName = view.findViewById(R.id.profile_account_name);
@@ -97,32 +101,12 @@ public class EntryHolder extends RecyclerView.ViewHolder {
         _favoriteIndicator = view.findViewById(R.id.favorite_indicator);
 
         _copyAnimationHandler = new Handler();
-        _expirationHandler = new Handler();
 
         _progressBar = view.findViewById(R.id.progressBar);
+        _progressBar.setRefreshScheduler(refreshScheduler);
 
         _scaleIn = AnimationsHelper.loadScaledAnimation(view.getContext(), R.anim.item_scale_in);
         _scaleOut = AnimationsHelper.loadScaledAnimation(view.getContext(), R.anim.item_scale_out);
-
-        _refresher = new UiRefresher(new UiRefresher.Listener() {
-            @Override
-            public void onRefresh() {
-                refreshCode();
-            }
-
-            @Override
-            public void onExpiring() { }
-
-            @Override
-            public long getMillisTillNextRefresh() {
-                return ((TotpInfo) _entry.getInfo()).getMillisTillNextRotation();
-            }
-
-            @Override
-            public long getPeriodMillis() {
-                return ((TotpInfo) _entry.getInfo()).getPeriod() * 1000L;
-            }
-        });
     }
 
     public void setData(VaultEntry entry, Preferences.CodeGrouping groupSize, ViewMode viewMode, AccountNamePosition accountNamePosition, boolean showIcon, boolean nonUniform, boolean hidden, boolean paused, boolean dimmed, boolean showExpirationState, boolean showNextCode) {
@@ -140,7 +124,7 @@ public class EntryHolder extends RecyclerView.ViewHolder {
         _selected.clearAnimation();
         _selected.setVisibility(View.GONE);
         _copyAnimationHandler.removeCallbacksAndMessages(null);
-        _expirationHandler.removeCallbacksAndMessages(null);
+        stopExpirationListener();
         _showNextCode = entry.getInfo() instanceof TotpInfo && showNextCode;
         _showExpirationState = _entry.getInfo() instanceof TotpInfo && showExpirationState;
 
@@ -276,16 +260,16 @@ public class EntryHolder extends RecyclerView.ViewHolder {
     }
 
     public void destroy() {
-        _refresher.destroy();
+        stopRefreshLoop();
+        stopExpirationListener();
     }
 
+    // The codes themselves are refreshed by the CodeScheduler of the adapter
     public void startRefreshLoop() {
-        _refresher.start();
         _progressBar.start();
     }
 
     public void stopRefreshLoop() {
-        _refresher.stop();
         _progressBar.stop();
     }
 
@@ -322,11 +306,7 @@ public class EntryHolder extends RecyclerView.ViewHolder {
         // the OTP, instead of crashing.
         String otp;
         try {
-            if (info instanceof TotpInfo) {
-                otp = ((TotpInfo)info).getOtp((System.currentTimeMillis() / 1000) + ((long) (offset) * ((TotpInfo) _entry.getInfo()).getPeriod()));
-            } else {
-                otp = info.getOtp();
-            }
+            otp = _codeScheduler.getOtp(_entry, offset);
 
             if (!(info instanceof SteamInfo || info instanceof YandexInfo)) {
                 otp = formatCode(otp);
@@ -445,9 +425,9 @@ public class EntryHolder extends RecyclerView.ViewHolder {
             if (info.getMillisTillNextRotation() < totalStateDuration) {
                 _profileCode.setTextColor(color);
             } else {
-                _expirationHandler.postDelayed(() -> {
-                    _profileCode.setTextColor(color);
-                }, info.getMillisTillNextRotation() - totalStateDuration);
+                // the code is refreshed at the next boundary, which resets the color again
+                _expirationListener = () -> _profileCode.setTextColor(color);
+                _refreshScheduler.subscribe(info.getPeriod(), totalStateDuration, _expirationListener);
             }
 
             return;
@@ -481,7 +461,7 @@ public class EntryHolder extends RecyclerView.ViewHolder {
     }
 
     private void stopExpirationAnimation() {
-        _expirationHandler.removeCallbacksAndMessages(null);
+        stopExpirationListener();
         if (_expirationAnimSet != null) {
             _expirationAnimSet.cancel();
             _expirationAnimSet = null;
@@ -492,6 +472,13 @@ public class EntryHolder extends RecyclerView.ViewHolder {
         _profileCode.setAlpha(1f);
     }
 
+    private void stopExpirationListener() {
+        if (_expirationListener != null) {
+            _refreshScheduler.unsubscribe(_expirationListener);
+            _expirationListener = null;
+        }
+    }
+
     public void showIcon(boolean show) {
         if (show) {
             _profileDrawable.setVisibility(View.VISIBLE);
@@ -37,14 +37,15 @@ import com.beemdevelopment.aegis.VibrationPatterns;
 import com.beemdevelopment.aegis.ViewMode;
 import com.beemdevelopment.aegis.helpers.AnimationsHelper;
 import com.beemdevelopment.aegis.helpers.MetricsHelper;
+import com.beemdevelopment.aegis.helpers.RefreshScheduler;
 import com.beemdevelopment.aegis.helpers.SimpleItemTouchHelperCallback;
-import com.beemdevelopment.aegis.helpers.UiRefresher;
 import com.beemdevelopment.aegis.helpers.VibrationHelper;
-import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
 import com.beemdevelopment.aegis.ui.glide.GlideHelper;
 import com.beemdevelopment.aegis.ui.models.ErrorCardInfo;
 import com.beemdevelopment.aegis.vault.VaultEntry;
 import com.beemdevelopment.aegis.vault.VaultGroup;
+import com.beemdevelopment.aegis.vault.VaultManager;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.ListPreloader;
 import com.bumptech.glide.RequestBuilder;
@@ -63,7 +64,15 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import javax.inject.Inject;
+
+import dagger.hilt.android.AndroidEntryPoint;
+
+@AndroidEntryPoint
 public class EntryListView extends Fragment implements EntryAdapter.Listener {
+    @Inject
+    VaultManager _vaultManager;
+
     private EntryAdapter _adapter;
     private Listener _listener;
     private SimpleItemTouchHelperCallback _touchCallback;
@@ -78,17 +87,25 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
     private ViewMode _viewMode;
     private LinearLayout _emptyStateView;
 
-    private UiRefresher _refresher;
+    private RefreshScheduler.Listener _refreshListener;
+    private RefreshScheduler.Listener _expiringListener;
+    private boolean _isRefreshing;
+    // the period that the refresh listeners are subscribed to, or -1 if they aren't
+    private int _refresherPeriod = -1;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         _adapter = new EntryAdapter(this);
         _showProgress = false;
+
+        // don't keep any codes around after the vault has been locked
+        _vaultManager.registerLockListener(_adapter.getCodeScheduler());
     }
 
     @Override
     public void onDestroy() {
+        _vaultManager.unregisterLockListener(_adapter.getCodeScheduler());
         _adapter.destroy();
         super.onDestroy();
     }
@@ -97,6 +114,7 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_entry_list_view, container, false);
         _progressBar = view.findViewById(R.id.progressBar);
+        _progressBar.setRefreshScheduler(_adapter.getRefreshScheduler());
         _vibrationHelper = new VibrationHelper(getContext());
 
         // set up the recycler view
@@ -143,28 +161,10 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
         _touchHelper.attachToRecyclerView(_recyclerView);
         _recyclerView.setAdapter(_adapter);
 
-        _refresher = new UiRefresher(new UiRefresher.Listener() {
-            @Override
-            public void onRefresh() {
-                refresh(false);
-                 _vibrationHelper.vibratePattern(getContext(), VibrationPatterns.REFRESH_CODE);
-            }
-
-            @Override
-            public void onExpiring() {
-                _vibrationHelper.vibratePattern(getContext(), VibrationPatterns.EXPIRING);
-            }
-
-            @Override
-            public long getMillisTillNextRefresh() {
-                return TotpInfo.getMillisTillNextRotation(_adapter.getMostFrequentPeriod());
-            }
-
-            @Override
-            public long getPeriodMillis() {
-                return _adapter.getMostFrequentPeriod() * 1000L;
-            }
-        });
+        // the codes of the entries are refreshed by the code scheduler of the adapter, and the
+        // progress bar runs off the same clock as these
+        _refreshListener = () -> _vibrationHelper.vibratePattern(getContext(), VibrationPatterns.REFRESH_CODE);
+        _expiringListener = () -> _vibrationHelper.vibratePattern(getContext(), VibrationPatterns.EXPIRING);
 
         final int rvInitialPaddingLeft = _recyclerView.getPaddingLeft();
         final int rvInitialPaddingTop = _recyclerView.getPaddingTop();
@@ -201,20 +201,52 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
 
     @Override
     public void onDestroyView() {
-        _refresher.destroy();
+        stopRefresher();
+        _progressBar.stop();
         super.onDestroyView();
     }
 
     public void onRefreshStop() {
-        _refresher.stop();
+        _isRefreshing = false;
+        _adapter.stopCodeScheduler();
+        stopRefresher();
     }
 
     public void onRefreshStart() {
-        if (_adapter.getMostFrequentPeriod() != -1){
-            _refresher.start();
+        _isRefreshing = true;
+        _adapter.startCodeScheduler();
+
+        // the period to subscribe to isn't known until the pending list has been applied
+        _adapter.runAfterListUpdate(this::updateRefresher);
+    }
+
+    /**
+     * Subscribes the refresh listeners to the period that all shown entries share, if any, or
+     * unsubscribes them otherwise. This is called again whenever the list changes, as the
+     * period may change along with it.
+     */
+    private void updateRefresher() {
+        int period = _isRefreshing && _showProgress ? _adapter.getMostFrequentPeriod() : -1;
+        if (period == _refresherPeriod) {
+            return;
+        }
+
+        stopRefresher();
+        if (period != -1) {
+            RefreshScheduler scheduler = _adapter.getRefreshScheduler();
+            scheduler.subscribe(period, _refreshListener);
+            scheduler.subscribe(period, VibrationPatterns.getLengthInMillis(VibrationPatterns.EXPIRING), _expiringListener);
+            _refresherPeriod = period;
         }
     }
 
+    private void stopRefresher() {
+        RefreshScheduler scheduler = _adapter.getRefreshScheduler();
+        scheduler.unsubscribe(_refreshListener);
+        scheduler.unsubscribe(_expiringListener);
+        _refresherPeriod = -1;
+    }
+
     public void setGroups(Collection<VaultGroup> groups) {
         _adapter.setGroups(groups);
         updateDividerDecoration();
@@ -223,7 +255,6 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
     public void setGroupFilter(Set<UUID> groups) {
         _adapter.setGroupFilter(groups);
         _touchCallback.setIsLongPressDragEnabled(_adapter.isDragAndDropAllowed());
-        updateEmptyState();
         updateDividerDecoration();
     }
 
@@ -279,7 +310,6 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
     public void setSearchFilter(String search) {
         _adapter.setSearchFilter(search);
         _touchCallback.setIsLongPressDragEnabled(_adapter.isDragAndDropAllowed());
-        updateEmptyState();
         updateDividerDecoration();
     }
 
@@ -379,16 +409,17 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
             _progressBar.setVisibility(View.VISIBLE);
             _progressBar.setPeriod(period);
             _progressBar.start();
-            onRefreshStart();
         } else {
             _progressBar.setVisibility(View.GONE);
             _progressBar.stop();
-            onRefreshStop();
         }
+        updateRefresher();
     }
 
     @Override
     public void onListChange() {
+        updateEmptyState();
+        updateRefresher();
         if (_listener != null) {
             _listener.onListChange();
         }
@@ -438,8 +469,13 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
         _adapter.setErrorCardInfo(info);
     }
 
-    @SuppressLint("ClickableViewAccessibility")
     public void onEntryAdded(VaultEntry entry) {
+        // the entry only has a position once the list has caught up with the new entries
+        _adapter.runAfterListUpdate(() -> scrollToAddedEntry(entry));
+    }
+
+    @SuppressLint("ClickableViewAccessibility")
+    private void scrollToAddedEntry(VaultEntry entry) {
         int position = _adapter.getEntryPosition(entry);
         if (position < 0) {
             return;
@@ -501,12 +537,18 @@ public class EntryListView extends Fragment implements EntryAdapter.Listener {
 
     public void setEntries(Collection<VaultEntry> entries) {
         _adapter.setEntries(new ArrayList<>(entries));
-        updateEmptyState();
+    }
+
+    /**
+     * Returns the current code of the given entry, preferably from the cache of codes that
+     * were computed ahead of time.
+     */
+    public String getOtp(VaultEntry entry) throws OtpInfoException {
+        return _adapter.getCodeScheduler().getOtp(entry, 0);
     }
 
     public void clearEntries() {
         _adapter.clearEntries();
-        updateEmptyState();
     }
 
     public void runEntriesAnimation() {
@@ -2,17 +2,20 @@ package com.beemdevelopment.aegis.ui.views;
 
 import android.animation.ObjectAnimator;
 import android.content.Context;
-import android.os.Handler;
 import android.util.AttributeSet;
 import android.view.animation.LinearInterpolator;
 import android.widget.ProgressBar;
 
+import androidx.annotation.NonNull;
+
 import com.beemdevelopment.aegis.helpers.AnimationsHelper;
+import com.beemdevelopment.aegis.helpers.RefreshScheduler;
 import com.beemdevelopment.aegis.otp.TotpInfo;
 
-public class TotpProgressBar extends ProgressBar {
+public class TotpProgressBar extends ProgressBar implements RefreshScheduler.Listener {
     private int _period = TotpInfo.DEFAULT_PERIOD;
-    private Handler _handler;
+    private RefreshScheduler _scheduler;
+    private boolean _running;
     private float _animDurationScale;
 
     public TotpProgressBar(Context context) {
@@ -35,17 +38,27 @@ public class TotpProgressBar extends ProgressBar {
         _period = period;
     }
 
+    /**
+     * Sets the scheduler that drives the animation of this progress bar. It must be set
+     * before the progress bar is started.
+     */
+    public void setRefreshScheduler(@NonNull RefreshScheduler scheduler) {
+        stop();
+        _scheduler = scheduler;
+    }
+
     public void start() {
         stop();
-        _handler = new Handler();
+        _running = true;
         _animDurationScale = AnimationsHelper.Scale.ANIMATOR.getValue(getContext());
+        _scheduler.subscribe(1, this);
         refresh();
     }
 
     public void stop() {
-        if (_handler != null) {
-            _handler.removeCallbacksAndMessages(null);
-            _handler = null;
+        if (_running) {
+            _scheduler.unsubscribe(this);
+            _running = false;
         }
     }
 
@@ -54,6 +67,11 @@ public class TotpProgressBar extends ProgressBar {
         start();
     }
 
+    @Override
+    public void onRefresh() {
+        refresh();
+    }
+
     private void refresh() {
         // calculate the current progress the bar should start at
         int maxProgress = getMax();
@@ -65,7 +83,6 @@ public class TotpProgressBar extends ProgressBar {
         int animEnd = (int) (Math.floor(currentProgress / animPart) * animPart);
         int animPartDuration = _animDurationScale > 0 ? (int) (1000 / _animDurationScale) : 0;
         float animDurationFraction = (float) (currentProgress - animEnd) / animPart;
-        int realAnimDuration = (int) (1000 * animDurationFraction);
         int animDuration =  (int) (animPartDuration * animDurationFraction);
 
         ObjectAnimator animation = ObjectAnimator.ofInt(this, "progress", currentProgress, animEnd);
@@ -73,7 +90,6 @@ public class TotpProgressBar extends ProgressBar {
         animation.setInterpolator(new LinearInterpolator());
         animation.start();
 
-        // the animation only lasts for (less than) one second, so restart it after that
-        _handler.postDelayed(this::refresh, realAnimDuration);
+        // the animation only lasts until the next second, at which point the scheduler restarts it
     }
 }
@@ -0,0 +1,285 @@
+package com.beemdevelopment.aegis.util;
+
+import com.google.common.io.BaseEncoding;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A streaming JSON writer that produces the exact same output as Android's
+ * JSONObject.toString(indentSpaces), without building the document up in memory first.
+ * Values that are only available as a JSONObject or JSONArray can be mixed in with value(Object).
+ */
+public class JsonStreamWriter implements Flushable {
+    // The number of bytes that are Base64-encoded in one go. This must be a multiple of 3,
+    // so that padding is only ever added to the last chunk.
+    private static final int BASE64_CHUNK_SIZE = 3 * 1024;
+
+    private enum Scope {
+        EMPTY_ARRAY,
+        NONEMPTY_ARRAY,
+        EMPTY_OBJECT,
+        DANGLING_KEY,
+        NONEMPTY_OBJECT
+    }
+
+    private final Writer _out;
+    private final String _indent;
+    private final List<Scope> _stack = new ArrayList<>();
+
+    public JsonStreamWriter(Writer out, int indentSpaces) {
+        StringBuilder indent = new StringBuilder();
+        for (int i = 0; i < indentSpaces; i++) {
+            indent.append(' ');
+        }
+
+        _out = out;
+        _indent = indent.toString();
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        return open(Scope.EMPTY_OBJECT, '{');
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        return close(Scope.EMPTY_OBJECT, Scope.NONEMPTY_OBJECT, '}');
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        return open(Scope.EMPTY_ARRAY, '[');
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        return close(Scope.EMPTY_ARRAY, Scope.NONEMPTY_ARRAY, ']');
+    }
+
+    public JsonStreamWriter name(String name) throws IOException {
+        Scope scope = peek();
+        if (scope == Scope.NONEMPTY_OBJECT) {
+            _out.write(',');
+        } else if (scope != Scope.EMPTY_OBJECT) {
+            throw new IllegalStateException("Nesting problem");
+        }
+
+        newline();
+        replaceTop(Scope.DANGLING_KEY);
+        string(name);
+        return this;
+    }
+
+    public JsonStreamWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+
+        beforeValue();
+        string(value);
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        _out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonStreamWriter value(boolean value) throws IOException {
+        beforeValue();
+        _out.write(value ? "true" : "false");
+        return this;
+    }
+
+    public JsonStreamWriter nullValue() throws IOException {
+        beforeValue();
+        _out.write("null");
+        return this;
+    }
+
+    /**
+     * Writes the given value the same way JSONObject and JSONArray would: recursively for
+     * JSONObject and JSONArray, verbatim for numbers and booleans and as a string otherwise.
+     */
+    public JsonStreamWriter value(Object value) throws IOException {
+        if (value == null || value == JSONObject.NULL) {
+            return nullValue();
+        }
+
+        if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            beginObject();
+            for (Iterator<String> it = obj.keys(); it.hasNext(); ) {
+                String key = it.next();
+                name(key).value(obj.opt(key));
+            }
+            return endObject();
+        }
+
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            beginArray();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            return endArray();
+        }
+
+        if (value instanceof Boolean) {
+            return value((boolean) value);
+        }
+
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            long longValue = number.longValue();
+            if (number.doubleValue() == (double) longValue) {
+                return value(longValue);
+            }
+
+            beforeValue();
+            _out.write(number.toString());
+            return this;
+        }
+
+        return value(value.toString());
+    }
+
+    /**
+     * Writes the Base64 representation of the given bytes as a string value, without
+     * materializing the full encoded string.
+     */
+    public JsonStreamWriter base64Value(byte[] data, int offset, int length) throws IOException {
+        beforeValue();
+        _out.write('"');
+
+        BaseEncoding encoding = BaseEncoding.base64();
+        for (int i = 0; i < length; i += BASE64_CHUNK_SIZE) {
+            String chunk = encoding.encode(data, offset + i, Math.min(BASE64_CHUNK_SIZE, length - i));
+
+            // '/' is the only character of the Base64 alphabet that needs to be escaped
+            int start = 0;
+            for (int j = 0; j < chunk.length(); j++) {
+                if (chunk.charAt(j) == '/') {
+                    _out.write(chunk, start, j - start);
+                    _out.write("\\/");
+                    start = j + 1;
+                }
+            }
+            _out.write(chunk, start, chunk.length() - start);
+        }
+
+        _out.write('"');
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        _out.flush();
+    }
+
+    private JsonStreamWriter open(Scope empty, char openBracket) throws IOException {
+        beforeValue();
+        _stack.add(empty);
+        _out.write(openBracket);
+        return this;
+    }
+
+    private JsonStreamWriter close(Scope empty, Scope nonEmpty, char closeBracket) throws IOException {
+        Scope scope = peek();
+        if (scope != empty && scope != nonEmpty) {
+            throw new IllegalStateException("Nesting problem");
+        }
+
+        _stack.remove(_stack.size() - 1);
+        if (scope == nonEmpty) {
+            newline();
+        }
+        _out.write(closeBracket);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (_stack.isEmpty()) {
+            return;
+        }
+
+        Scope scope = peek();
+        if (scope == Scope.EMPTY_ARRAY) {
+            replaceTop(Scope.NONEMPTY_ARRAY);
+            newline();
+        } else if (scope == Scope.NONEMPTY_ARRAY) {
+            _out.write(',');
+            newline();
+        } else if (scope == Scope.DANGLING_KEY) {
+            _out.write(_indent.isEmpty() ? ":" : ": ");
+            replaceTop(Scope.NONEMPTY_OBJECT);
+        } else {
+            throw new IllegalStateException("Nesting problem");
+        }
+    }
+
+    private void newline() throws IOException {
+        if (_indent.isEmpty()) {
+            return;
+        }
+
+        _out.write('\n');
+        for (int i = 0; i < _stack.size(); i++) {
+            _out.write(_indent);
+        }
+    }
+
+    private void string(String value) throws IOException {
+        _out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    _out.write('\\');
+                    _out.write(c);
+                    break;
+                case '\t':
+                    _out.write("\\t");
+                    break;
+                case '\b':
+                    _out.write("\\b");
+                    break;
+                case '\n':
+                    _out.write("\\n");
+                    break;
+                case '\r':
+                    _out.write("\\r");
+                    break;
+                case '\f':
+                    _out.write("\\f");
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        _out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        _out.write(c);
+                    }
+                    break;
+            }
+        }
+        _out.write('"');
+    }
+
+    private Scope peek() {
+        if (_stack.isEmpty()) {
+            throw new IllegalStateException("Nesting problem");
+        }
+        return _stack.get(_stack.size() - 1);
+    }
+
+    private void replaceTop(Scope scope) {
+        _stack.set(_stack.size() - 1, scope);
+    }
+}
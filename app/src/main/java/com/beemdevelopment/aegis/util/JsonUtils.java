@@ -1,7 +1,13 @@
 package com.beemdevelopment.aegis.util;
 
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 import javax.annotation.Nullable;
 
 public class JsonUtils {
@@ -13,4 +19,51 @@ public class JsonUtils {
     public static String optString(JSONObject obj, String key) {
         return obj.isNull(key) ? null : obj.optString(key, null);
     }
+
+    /**
+     * Reads the next object from the given pull parser into a JSONObject. Unlike parsing a
+     * string with JSONObject, this doesn't require the full document to be in memory.
+     */
+    public static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        JSONObject obj = new JSONObject();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            obj.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+        return obj;
+    }
+
+    public static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.put(readValue(reader));
+        }
+        reader.endArray();
+        return array;
+    }
+
+    private static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                return readObject(reader);
+            case BEGIN_ARRAY:
+                return readArray(reader);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+            case NUMBER:
+                String number = reader.nextString();
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(number);
+                }
+            default:
+                return reader.nextString();
+        }
+    }
 }
@@ -2,28 +2,43 @@ package com.beemdevelopment.aegis.util;
 
 import androidx.annotation.NonNull;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.util.AbstractCollection;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A map data structure abstraction for storing values with a UUID as the key. Keys
- * must be specified by the value itself, instead of separately. It uses a
- * LinkedHashMap internally (a hash map with a separate linked list that maintains
- * the order).
+ * must be specified by the value itself, instead of separately. It uses a hash map
+ * for lookups by UUID and an implicit treap (a randomized balanced binary tree that
+ * is ordered by position) to maintain the order. This keeps lookups by UUID O(1),
+ * and moves, removals and lookups by position O(log n).
  * @param <T> The type of values in this map
  */
 public class UUIDMap <T extends UUIDMap.Value> implements Iterable<T>, Serializable {
-    private LinkedHashMap<UUID, T> _map = new LinkedHashMap<>();
+    // The serialized form is the one of the LinkedHashMap this class used to be backed by
+    private static final long serialVersionUID = -4622649066317392699L;
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("_map", LinkedHashMap.class)
+    };
+
+    private transient HashMap<UUID, Node<T>> _map = new HashMap<>();
+    private transient Node<T> _root;
+    private transient int _modCount;
 
     /**
-     * Adds a value to the internal map.
+     * Adds a value to the end of the internal map.
      * @throws AssertionError if a map value with the UUID of the given value already exists.
      */
     public void add(T value) {
@@ -31,7 +46,11 @@ public class UUIDMap <T extends UUIDMap.Value> implements Iterable<T>, Serializa
         if (_map.containsKey(uuid)) {
             throw new AssertionError(String.format("Existing value found with UUID: %s", uuid));
         }
-        _map.put(uuid, value);
+
+        Node<T> node = new Node<>(value);
+        _map.put(uuid, node);
+        _root = merge(_root, node);
+        _modCount++;
     }
 
     /**
@@ -40,9 +59,11 @@ public class UUIDMap <T extends UUIDMap.Value> implements Iterable<T>, Serializa
      * @return The old value that is now no longer present in the internal map.
      */
     public T remove(T value) {
-        T oldValue = getByUUID(value.getUUID());
-        _map.remove(oldValue.getUUID());
-        return oldValue;
+        Node<T> node = getNode(value.getUUID());
+        unlink(node);
+        _map.remove(value.getUUID());
+        _modCount++;
+        return node.value;
     }
 
     /**
@@ -50,6 +71,8 @@ public class UUIDMap <T extends UUIDMap.Value> implements Iterable<T>, Serializa
      */
     public void wipe() {
         _map.clear();
+        _root = null;
+        _modCount++;
     }
 
     /**
@@ -59,8 +82,9 @@ public class UUIDMap <T extends UUIDMap.Value> implements Iterable<T>, Serializa
      * @return The old value that is now no longer present in the internal map.
      */
     public T replace(T newValue) {
-        T oldValue = getByUUID(newValue.getUUID());
-        _map.put(oldValue.getUUID(), newValue);
+        Node<T> node = getNode(newValue.getUUID());
+        T oldValue = node.value;
+        node.value = newValue;
         return oldValue;
     }
 
@@ -68,32 +92,22 @@ public class UUIDMap <T extends UUIDMap.Value> implements Iterable<T>, Serializa
       * Moves value1 to the position of value2.
       */
     public void move(T value1, T value2) {
-        List<T> values = new ArrayList<>(_map.values());
-
-        int vi1 = -1, vi2 = -1;
-        for (int i = 0; i < values.size(); i++) {
-            T value = values.get(i);
-            if (value.getUUID().equals(value1.getUUID())) {
-                vi1 = i;
-            }
-            if (value.getUUID().equals(value2.getUUID())) {
-                vi2 = i;
-            }
-        }
-
-        if (vi1 < 0) {
+        Node<T> node1 = _map.get(value1.getUUID());
+        if (node1 == null) {
             throw new AssertionError(String.format("No value found for value1 with UUID: %s", value1.getUUID()));
         }
-        if (vi2 < 0) {
+        Node<T> node2 = _map.get(value2.getUUID());
+        if (node2 == null) {
             throw new AssertionError(String.format("No value found for value2 with UUID: %s", value2.getUUID()));
         }
-
-        CollectionUtils.move(values, vi1, vi2);
-
-        _map.clear();
-        for (T value : values) {
-            _map.put(value.getUUID(), value);
+        if (node1 == node2) {
+            return;
         }
+
+        int index = indexOf(node2);
+        unlink(node1);
+        insertAt(node1, index);
+        _modCount++;
     }
 
     /**
@@ -110,11 +124,29 @@ public class UUIDMap <T extends UUIDMap.Value> implements Iterable<T>, Serializa
         return _map.containsKey(uuid);
     }
 
+    /**
+     * Returns the number of values in the internal map.
+     */
+    public int size() {
+        return _map.size();
+    }
+
     /**
      * Returns a read-only view of the values in the internal map.
      */
     public Collection<T> getValues() {
-        return Collections.unmodifiableCollection(_map.values());
+        return new AbstractCollection<T>() {
+            @NonNull
+            @Override
+            public Iterator<T> iterator() {
+                return new ValueIterator(false);
+            }
+
+            @Override
+            public int size() {
+                return UUIDMap.this.size();
+            }
+        };
     }
 
     /**
@@ -122,17 +154,266 @@ public class UUIDMap <T extends UUIDMap.Value> implements Iterable<T>, Serializa
      * @throws AssertionError if no map value exists with the given UUID.
      */
     public T getByUUID(UUID uuid) {
-        T value = _map.get(uuid);
-        if (value == null) {
-            throw new AssertionError(String.format("No value found with UUID: %s", uuid));
+        return getNode(uuid).value;
+    }
+
+    /**
+     * Retrieves the value at the given position in the internal map.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public T get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException(String.format("Index: %d, size: %d", index, size()));
+        }
+
+        Node<T> node = _root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.value;
+            }
         }
-        return value;
+    }
+
+    /**
+     * Returns the position of the value with the given UUID in the internal map, or -1 if
+     * there is no such value.
+     */
+    public int indexOf(UUID uuid) {
+        Node<T> node = _map.get(uuid);
+        return node == null ? -1 : indexOf(node);
     }
 
     @NonNull
     @Override
     public Iterator<T> iterator() {
-        return _map.values().iterator();
+        return new ValueIterator(true);
+    }
+
+    private Node<T> getNode(UUID uuid) {
+        Node<T> node = _map.get(uuid);
+        if (node == null) {
+            throw new AssertionError(String.format("No value found with UUID: %s", uuid));
+        }
+        return node;
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <T> int indexOf(Node<T> node) {
+        int index = size(node.left);
+        for (Node<T> cur = node; cur.parent != null; cur = cur.parent) {
+            if (cur == cur.parent.right) {
+                index += size(cur.parent.left) + 1;
+            }
+        }
+        return index;
+    }
+
+    private void unlink(Node<T> node) {
+        // Merge the children of the node and put the result in its place
+        Node<T> parent = node.parent;
+        Node<T> child = merge(node.left, node.right);
+        if (child != null) {
+            child.parent = parent;
+        }
+        if (parent == null) {
+            _root = child;
+        } else if (parent.left == node) {
+            parent.left = child;
+        } else {
+            parent.right = child;
+        }
+        for (Node<T> cur = parent; cur != null; cur = cur.parent) {
+            cur.size--;
+        }
+
+        node.left = node.right = node.parent = null;
+        node.size = 1;
+    }
+
+    private void insertAt(Node<T> node, int index) {
+        Node<T>[] parts = split(_root, index);
+        _root = merge(merge(parts[0], node), parts[1]);
+    }
+
+    /**
+     * Splits the given tree into one with the first count nodes and one with the rest.
+     */
+    private static <T> Node<T>[] split(Node<T> node, int count) {
+        @SuppressWarnings("unchecked")
+        Node<T>[] parts = new Node[2];
+        if (node == null) {
+            return parts;
+        }
+
+        node.parent = null;
+        if (size(node.left) >= count) {
+            Node<T>[] left = split(node.left, count);
+            node.setLeft(left[1]);
+            parts[0] = left[0];
+            parts[1] = node;
+        } else {
+            Node<T>[] right = split(node.right, count - size(node.left) - 1);
+            node.setRight(right[0]);
+            parts[0] = node;
+            parts[1] = right[1];
+        }
+        return parts;
+    }
+
+    /**
+     * Concatenates the given trees, returning the root of the result.
+     */
+    private static <T> Node<T> merge(Node<T> left, Node<T> right) {
+        if (left == null || right == null) {
+            Node<T> node = left != null ? left : right;
+            if (node != null) {
+                node.parent = null;
+            }
+            return node;
+        }
+
+        if (left.priority > right.priority) {
+            left.setRight(merge(left.right, right));
+            left.parent = null;
+            return left;
+        } else {
+            right.setLeft(merge(left, right.left));
+            right.parent = null;
+            return right;
+        }
+    }
+
+    private static <T> Node<T> first(Node<T> node) {
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        return node;
+    }
+
+    private static <T> Node<T> successor(Node<T> node) {
+        if (node.right != null) {
+            return first(node.right);
+        }
+
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        LinkedHashMap<UUID, T> map = new LinkedHashMap<>();
+        for (T value : this) {
+            map.put(value.getUUID(), value);
+        }
+
+        ObjectOutputStream.PutField fields = stream.putFields();
+        fields.put("_map", map);
+        stream.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = stream.readFields();
+        LinkedHashMap<UUID, T> map = (LinkedHashMap<UUID, T>) fields.get("_map", null);
+
+        _map = new HashMap<>();
+        if (map != null) {
+            for (T value : map.values()) {
+                add(value);
+            }
+        }
+    }
+
+    private static class Node<T> {
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private T value;
+        private Node<T> left;
+        private Node<T> right;
+        private Node<T> parent;
+        private int size = 1;
+
+        public Node(T value) {
+            this.value = value;
+        }
+
+        private void setLeft(Node<T> node) {
+            left = node;
+            if (node != null) {
+                node.parent = this;
+            }
+            update();
+        }
+
+        private void setRight(Node<T> node) {
+            right = node;
+            if (node != null) {
+                node.parent = this;
+            }
+            update();
+        }
+
+        private void update() {
+            size = 1 + UUIDMap.size(left) + UUIDMap.size(right);
+        }
+    }
+
+    private class ValueIterator implements Iterator<T> {
+        private final boolean _mutable;
+        private Node<T> _next = first(_root);
+        private Node<T> _last;
+        private int _expectedModCount = _modCount;
+
+        public ValueIterator(boolean mutable) {
+            _mutable = mutable;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _next != null;
+        }
+
+        @Override
+        public T next() {
+            if (_modCount != _expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (_next == null) {
+                throw new NoSuchElementException();
+            }
+
+            _last = _next;
+            _next = successor(_next);
+            return _last.value;
+        }
+
+        @Override
+        public void remove() {
+            if (!_mutable) {
+                throw new UnsupportedOperationException();
+            }
+            if (_last == null) {
+                throw new IllegalStateException();
+            }
+            if (_modCount != _expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            UUIDMap.this.remove(_last.value);
+            _expectedModCount = _modCount;
+            _last = null;
+        }
     }
 
     public static abstract class Value implements Serializable {
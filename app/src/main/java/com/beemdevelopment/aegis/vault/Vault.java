@@ -1,18 +1,29 @@
 package com.beemdevelopment.aegis.vault;
 
+import android.util.JsonReader;
+import android.util.JsonToken;
+
 import androidx.annotation.Nullable;
 
+import com.beemdevelopment.aegis.util.JsonStreamWriter;
+import com.beemdevelopment.aegis.util.JsonUtils;
 import com.beemdevelopment.aegis.util.UUIDMap;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 public class Vault {
     private static final int VERSION = 3;
+
+    // The version of vaults with entries that refer to icons in the icon store
+    private static final int VERSION_ICON_STORE = 4;
     private final UUIDMap<VaultEntry> _entries = new UUIDMap<>();
     private final UUIDMap<VaultGroup> _groups = new UUIDMap<>();
     private boolean _iconsOptimized = true;
@@ -20,16 +31,47 @@ public class Vault {
     // Whether we've migrated the group list to the new format while parsing the vault
     private boolean _isGroupsMigrationFresh = false;
 
+    // Whether the entries referred to their icons by hash in the JSON this vault was parsed from
+    private boolean _usesIconStore = false;
+
+    public Vault() {
+
+    }
+
+    /**
+     * Creates a deep copy of the given vault. Icons are immutable, so they're shared with the
+     * original instead of copied.
+     */
+    Vault(Vault vault) {
+        for (VaultEntry entry : vault._entries) {
+            _entries.add(new VaultEntry(entry));
+        }
+        for (VaultGroup group : vault._groups) {
+            _groups.add(new VaultGroup(group));
+        }
+        _iconsOptimized = vault._iconsOptimized;
+        _isGroupsMigrationFresh = vault._isGroupsMigrationFresh;
+        _usesIconStore = vault._usesIconStore;
+    }
+
     public JSONObject toJson() {
         return toJson(null);
     }
 
     public JSONObject toJson(@Nullable EntryFilter filter) {
+        return toJson(filter, true);
+    }
+
+    /**
+     * Serializes the vault to JSON. If inlineIcons is false, the entries refer to their icons by
+     * hash, in which case the icons are expected to be in the icon store.
+     */
+    JSONObject toJson(@Nullable EntryFilter filter, boolean inlineIcons) {
         try {
             JSONArray entriesArray = new JSONArray();
             for (VaultEntry e : _entries) {
                 if (filter == null || filter.includeEntry(e)) {
-                    entriesArray.put(e.toJson());
+                    entriesArray.put(e.toJson(true, inlineIcons));
                 }
             }
 
@@ -40,7 +82,7 @@ public class Vault {
             }
 
             JSONObject obj = new JSONObject();
-            obj.put("version", VERSION);
+            obj.put("version", inlineIcons ? VERSION : VERSION_ICON_STORE);
             obj.put("entries", entriesArray);
             obj.put("groups", groupsArray);
             obj.put("icons_optimized", _iconsOptimized);
@@ -51,14 +93,54 @@ public class Vault {
         }
     }
 
+    /**
+     * Writes the vault to the given JSON stream, in the same format as toJson(filter).
+     */
+    public void writeJson(JsonStreamWriter writer, @Nullable EntryFilter filter) throws IOException {
+        writeJson(writer, filter, true);
+    }
+
+    /**
+     * Writes the vault to the given JSON stream, in the same format as toJson(filter, inlineIcons).
+     */
+    void writeJson(JsonStreamWriter writer, @Nullable EntryFilter filter, boolean inlineIcons) throws IOException {
+        writer.beginObject();
+        writer.name("version").value(inlineIcons ? VERSION : VERSION_ICON_STORE);
+
+        writer.name("entries").beginArray();
+        for (VaultEntry e : _entries) {
+            if (filter == null || filter.includeEntry(e)) {
+                e.writeJson(writer, inlineIcons);
+            }
+        }
+        writer.endArray();
+
+        writer.name("groups").beginArray();
+        for (VaultGroup group : _groups) {
+            writer.value(group.toJson());
+        }
+        writer.endArray();
+
+        writer.name("icons_optimized").value(_iconsOptimized);
+        writer.endObject();
+    }
+
     public static Vault fromJson(JSONObject obj) throws VaultException {
+        return fromJson(obj, null);
+    }
+
+    /**
+     * Parses a vault from the given JSON. Icons that the entries refer to by hash are looked
+     * up in the given icon store.
+     */
+    static Vault fromJson(JSONObject obj, @Nullable VaultIconStore icons) throws VaultException {
         Vault vault = new Vault();
         UUIDMap<VaultEntry> entries = vault.getEntries();
         UUIDMap<VaultGroup> groups = vault.getGroups();
 
         try {
             int ver = obj.getInt("version");
-            if (ver > VERSION) {
+            if (ver > VERSION_ICON_STORE) {
                 throw new VaultException("Unsupported version");
             }
 
@@ -74,24 +156,13 @@ public class Vault {
 
             JSONArray array = obj.getJSONArray("entries");
             for (int i = 0; i < array.length(); i++) {
-                VaultEntry entry = VaultEntry.fromJson(array.getJSONObject(i));
-                if (vault.migrateOldGroup(entry)) {
-                    vault.setGroupsMigrationFresh();
-                }
-
-                // check the vault has a group corresponding to each one the entry claims to be in
-                for (UUID groupUuid: entry.getGroups()) {
-                    if (!groups.has(groupUuid)) {
-                        entry.removeGroup(groupUuid);
-                    }
-                }
-
-                entries.add(entry);
+                vault.addParsedEntry(VaultEntry.fromJson(array.getJSONObject(i), icons));
             }
 
             if (!obj.optBoolean("icons_optimized")) {
                 vault.setIconsOptimized(false);
             }
+            vault._usesIconStore = ver == VERSION_ICON_STORE;
         } catch (VaultEntryException | JSONException e) {
             throw new VaultException(e);
         }
@@ -99,6 +170,96 @@ public class Vault {
         return vault;
     }
 
+    /**
+     * Parses a vault from the given pull parser, in the same format as fromJson(obj, icons).
+     * The entries are parsed one at a time, so that only a single entry is ever held as a
+     * JSONObject, instead of the whole vault.
+     */
+    static Vault fromJson(JsonReader reader, @Nullable VaultIconStore icons) throws VaultException, IOException {
+        Vault vault = new Vault();
+        UUIDMap<VaultGroup> groups = vault.getGroups();
+        List<VaultEntry> entries = null;
+        int ver = -1;
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "version":
+                        ver = reader.nextInt();
+                        if (ver > VERSION_ICON_STORE) {
+                            throw new VaultException("Unsupported version");
+                        }
+                        break;
+                    case "entries":
+                        entries = new ArrayList<>();
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            entries.add(VaultEntry.fromJson(JsonUtils.readObject(reader), icons));
+                        }
+                        reader.endArray();
+                        break;
+                    case "groups":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            VaultGroup group = VaultGroup.fromJson(JsonUtils.readObject(reader));
+                            if (!groups.has(group)) {
+                                groups.add(group);
+                            }
+                        }
+                        reader.endArray();
+                        break;
+                    case "icons_optimized":
+                        if (reader.peek() != JsonToken.BOOLEAN || !reader.nextBoolean()) {
+                            vault.setIconsOptimized(false);
+                        }
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (VaultEntryException | JSONException | IllegalStateException | NumberFormatException e) {
+            throw new VaultException(e);
+        }
+
+        if (ver == -1 || entries == null) {
+            throw new VaultException("Missing version or entries");
+        }
+
+        // The groups come after the entries in the file, so the entries can only be checked
+        // against them once everything has been read
+        for (VaultEntry entry : entries) {
+            vault.addParsedEntry(entry);
+        }
+        vault._usesIconStore = ver == VERSION_ICON_STORE;
+        return vault;
+    }
+
+    private void addParsedEntry(VaultEntry entry) {
+        if (migrateOldGroup(entry)) {
+            setGroupsMigrationFresh();
+        }
+
+        // check the vault has a group corresponding to each one the entry claims to be in
+        for (UUID groupUuid: entry.getGroups()) {
+            if (!_groups.has(groupUuid)) {
+                entry.removeGroup(groupUuid);
+            }
+        }
+
+        _entries.add(entry);
+    }
+
+    /**
+     * Reports whether the entries in the JSON that this vault was parsed from referred to
+     * icons in the icon store.
+     */
+    boolean usesIconStore() {
+        return _usesIconStore;
+    }
+
     private void setGroupsMigrationFresh() {
         _isGroupsMigrationFresh = true;
     }
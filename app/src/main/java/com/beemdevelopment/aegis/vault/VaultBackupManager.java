@@ -4,10 +4,13 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.UriPermission;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.AtomicFile;
 import androidx.documentfile.provider.DocumentFile;
 
 import com.beemdevelopment.aegis.BackupsVersioningStrategy;
@@ -15,21 +18,32 @@ import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.database.AuditLogRepository;
 import com.beemdevelopment.aegis.util.IOUtils;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -41,6 +55,13 @@ public class VaultBackupManager {
 
     public static final String FILENAME_PREFIX = "aegis-backup";
     public static final String FILENAME_SINGLE = String.format("%s.json", FILENAME_PREFIX);
+    public static final String DELTA_EXTENSION = "delta";
+
+    // Describes the last full backup, so that incremental backups can be made on top of it
+    private static final String BASE_FILENAME = "backup_base.json";
+
+    // Lists the files in the backup directory, so that it doesn't have to be scanned for every backup
+    private static final String INDEX_FILENAME = "backup_index.json";
 
     private final Context _context;
     private final Preferences _prefs;
@@ -55,27 +76,182 @@ public class VaultBackupManager {
     }
 
     public void scheduleBackup(File tempFile, BackupsVersioningStrategy strategy, Uri uri, int versionsToKeep) {
+        scheduleBackup(tempFile, strategy, uri, versionsToKeep, null, null);
+    }
+
+    /**
+     * Schedules a full backup. If digest is not null, it's recorded once the backup has been
+     * created, so that the next backup can be skipped if its digest is the same. If base is not
+     * null, the backup becomes the base that incremental backups are made on top of.
+     */
+    void scheduleBackup(File tempFile, BackupsVersioningStrategy strategy, Uri uri, int versionsToKeep,
+                        @Nullable String digest, @Nullable Base base) {
         _executor.execute(() -> {
             try {
-                createBackup(tempFile, strategy, uri, versionsToKeep);
-                _auditLogRepository.addBackupCreatedEvent();
-                _prefs.setBuiltInBackupResult(new Preferences.BackupResult(null));
+                String filename = createBackup(tempFile, strategy, uri, versionsToKeep);
+                if (base != null && filename != null) {
+                    writeBase(new Base(base, uri, filename));
+                } else {
+                    discardBase();
+                }
+                onBackupCreated(digest);
             } catch (VaultRepositoryException | VaultBackupPermissionException e) {
                 e.printStackTrace();
-                _prefs.setBuiltInBackupResult(new Preferences.BackupResult(e));
+                onBackupFailed(e);
             }
         });
     }
 
-    private void createBackup(File tempFile, BackupsVersioningStrategy strategy, Uri uri, int versionsToKeep)
+    /**
+     * Schedules an incremental backup, i.e. a file that contains the changes since the full
+     * backup that the given base describes.
+     */
+    void scheduleIncrementalBackup(File tempFile, Uri dirUri, int versionsToKeep, @NonNull String digest, @NonNull Base base) {
+        _executor.execute(() -> {
+            try {
+                createBackup(tempFile, dirUri, versionsToKeep, new FileInfo(FILENAME_PREFIX, DELTA_EXTENSION));
+                writeBase(new Base(base, base.getDeltaCount() + 1));
+                onBackupCreated(digest);
+            } catch (VaultRepositoryException | VaultBackupPermissionException e) {
+                e.printStackTrace();
+                onBackupFailed(e);
+            }
+        });
+    }
+
+    /**
+     * Reports whether the given object is an incremental backup, as opposed to a vault file.
+     */
+    public static boolean isIncrementalBackup(@NonNull JSONObject obj) {
+        return obj.has("base") && obj.has("record");
+    }
+
+    /**
+     * Returns the filename of the full backup that the given incremental backup was made on
+     * top of.
+     */
+    @NonNull
+    public static String getIncrementalBackupBase(@NonNull JSONObject obj) throws VaultFileException {
+        try {
+            return obj.getString("base");
+        } catch (JSONException e) {
+            throw new VaultFileException(e);
+        }
+    }
+
+    /**
+     * Applies the given incremental backup to the given content of the full backup that it
+     * was made on top of, and returns the resulting content. The credentials must be the ones
+     * that the full backup was decrypted with, or null if it's not encrypted.
+     */
+    @NonNull
+    public static JSONObject applyIncrementalBackup(@NonNull JSONObject content, @NonNull JSONObject obj,
+                                                    @Nullable VaultFileCredentials creds) throws VaultFileException {
+        return VaultDelta.applyBackup(content, obj, creds);
+    }
+
+    /**
+     * Reads the backup file with the given name from the backup directory.
+     */
+    @NonNull
+    public static byte[] readBackupFile(@NonNull Context context, @NonNull String filename) throws IOException {
+        Uri dirUri = new Preferences(context).getBackupsLocation();
+        DocumentFile dir = dirUri != null ? DocumentFile.fromTreeUri(context, dirUri) : null;
+        DocumentFile file = dir != null ? dir.findFile(filename) : null;
+        if (file == null || !file.isFile()) {
+            throw new FileNotFoundException(String.format("Backup file %s is not in the backup directory", filename));
+        }
+
+        try (InputStream inStream = context.getContentResolver().openInputStream(file.getUri())) {
+            if (inStream == null) {
+                throw new IOException("openInputStream returned null");
+            }
+            return IOUtils.readAll(inStream);
+        }
+    }
+
+    /**
+     * Reports whether the last backup that was created has the given digest.
+     */
+    boolean isLatestBackup(@NonNull String digest) {
+        return digest.equals(_prefs.getBackupDigest());
+    }
+
+    private void onBackupCreated(@Nullable String digest) {
+        _prefs.setBackupDigest(digest);
+        _auditLogRepository.addBackupCreatedEvent();
+        _prefs.setBuiltInBackupResult(new Preferences.BackupResult(null));
+    }
+
+    private void onBackupFailed(Exception e) {
+        _prefs.setBackupDigest(null);
+        _prefs.setBuiltInBackupResult(new Preferences.BackupResult(e));
+    }
+
+    /**
+     * Returns the base for incremental backups in the given directory, or null if there is
+     * none or if it was made with a different header.
+     */
+    @Nullable
+    Base readBase(Uri dirUri, String headerDigest) {
+        AtomicFile file = getBaseFile();
+        if (!file.getBaseFile().exists()) {
+            return null;
+        }
+
+        try {
+            JSONObject obj = new JSONObject(new String(file.readFully(), StandardCharsets.UTF_8));
+            Base base = Base.fromJson(obj);
+            if (!dirUri.toString().equals(base.getUri()) || !headerDigest.equals(base.getHeaderDigest())) {
+                return null;
+            }
+            return base;
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, String.format("Unable to read the base for incremental backups: %s", e));
+            return null;
+        }
+    }
+
+    private void writeBase(Base base) {
+        AtomicFile file = getBaseFile();
+        FileOutputStream outStream = null;
+        try {
+            outStream = file.startWrite();
+            outStream.write(base.toJson().toString().getBytes(StandardCharsets.UTF_8));
+            file.finishWrite(outStream);
+        } catch (IOException e) {
+            // The next backup will simply be a full one
+            Log.e(TAG, String.format("Unable to write the base for incremental backups: %s", e));
+            if (outStream != null) {
+                file.failWrite(outStream);
+            }
+        }
+    }
+
+    private void discardBase() {
+        getBaseFile().delete();
+    }
+
+    private AtomicFile getBaseFile() {
+        return new AtomicFile(new File(_context.getFilesDir(), BASE_FILENAME));
+    }
+
+    /**
+     * Creates a full backup and returns its filename, or null if it overwrote the single backup file.
+     */
+    @Nullable
+    private String createBackup(File tempFile, BackupsVersioningStrategy strategy, Uri uri, int versionsToKeep)
             throws VaultRepositoryException, VaultBackupPermissionException {
         if (uri == null) {
             throw new VaultRepositoryException("getBackupsLocation returned null");
         }
         if (strategy == BackupsVersioningStrategy.SINGLE_BACKUP) {
             createBackup(tempFile, uri);
+            return null;
         } else if (strategy == BackupsVersioningStrategy.MULTIPLE_BACKUPS) {
-            createBackup(tempFile, uri, versionsToKeep);
+            FileInfo fileInfo = new FileInfo(FILENAME_PREFIX);
+            createBackup(tempFile, uri, versionsToKeep, fileInfo);
+            return fileInfo.toString();
         } else {
             throw new VaultRepositoryException("Invalid backups versioning strategy");
         }
@@ -107,10 +283,11 @@ public class VaultBackupManager {
         }
     }
 
-    private void createBackup(File tempFile, Uri dirUri, int versionsToKeep)
+    private void createBackup(File tempFile, Uri dirUri, int versionsToKeep, FileInfo fileInfo)
             throws VaultRepositoryException, VaultBackupPermissionException {
-        FileInfo fileInfo = new FileInfo(FILENAME_PREFIX);
+        Timings timings = new Timings();
         DocumentFile dir = DocumentFile.fromTreeUri(_context, dirUri);
+        BackupIndex index;
 
         try {
             Log.i(TAG, String.format("Creating backup at %s: %s", Uri.decode(dir.getUri().toString()), fileInfo.toString()));
@@ -118,18 +295,32 @@ public class VaultBackupManager {
             if (!hasPermissionsAt(dirUri)) {
                 throw new VaultBackupPermissionException("No persisted URI permissions");
             }
+            timings.mark("permissions");
+
+            index = readIndex(dir);
+            timings.mark("index");
 
             // If we create a file with a name that already exists, SAF will append a number
             // to the filename and write to that instead. We can't overwrite existing files, so
-            // just avoid that altogether by checking beforehand.
-            if (dir.findFile(fileInfo.toString()) != null) {
+            // just avoid that altogether by checking beforehand. Looking the name up in the
+            // index saves us from listing the directory, and files that were added behind our
+            // back are caught by checking the name that SAF gave the new file.
+            String filename = fileInfo.toString();
+            if (index.contains(filename)) {
                 throw new VaultRepositoryException("Backup file already exists");
             }
 
-            DocumentFile file = dir.createFile("application/json", fileInfo.toString());
+            // Some providers append an extension that matches the MIME type, so don't claim that deltas are JSON
+            String mimeType = fileInfo.isDelta() ? "application/octet-stream" : "application/json";
+            DocumentFile file = dir.createFile(mimeType, filename);
             if (file == null) {
                 throw new VaultRepositoryException("createFile returned null");
             }
+            if (!filename.equals(file.getName())) {
+                file.delete();
+                throw new VaultRepositoryException("Backup file already exists");
+            }
+            timings.mark("create");
 
             try (FileInputStream inStream = new FileInputStream(tempFile);
                  OutputStream outStream = _context.getContentResolver().openOutputStream(file.getUri())) {
@@ -140,6 +331,8 @@ public class VaultBackupManager {
             } catch (IOException e) {
                 throw new VaultRepositoryException(e);
             }
+            index.add(filename, file.getUri());
+            timings.mark("copy");
         } catch (VaultRepositoryException | VaultBackupPermissionException e) {
             Log.e(TAG, String.format("Unable to create backup: %s", e.toString()));
             throw e;
@@ -147,7 +340,14 @@ public class VaultBackupManager {
             tempFile.delete();
         }
 
-        enforceVersioning(dir, versionsToKeep);
+        index = enforceVersioning(dir, index, versionsToKeep);
+        timings.mark("versioning");
+
+        // Creating and deleting files changes the modification time of the directory
+        index.setDirModified(dir.lastModified());
+        writeIndex(index);
+        timings.mark("save index");
+        Log.i(TAG, String.format("Created backup %s in %s", fileInfo, timings));
     }
 
     public boolean hasPermissionsAt(Uri uri) {
@@ -160,33 +360,146 @@ public class VaultBackupManager {
         return false;
     }
 
-    private void enforceVersioning(DocumentFile dir, int versionsToKeep) {
-        if (versionsToKeep <= 0) {
-            return;
+    private BackupIndex enforceVersioning(DocumentFile dir, BackupIndex index, int versionsToKeep) {
+        if (versionsToKeep <= 0 || index.getFullBackupCount() <= versionsToKeep) {
+            return index;
+        }
+
+        // Deleting files based on a stale index could leave us with fewer backups than the
+        // user asked for. Checking every file in the index would take a round trip to the
+        // provider for each of them, so only make sure that the files we're about to delete
+        // still exist, and rescan the directory if one of them doesn't.
+        List<BackupFile> expired = getExpiredFiles(index, versionsToKeep);
+        if (!index.isScanned() && !checkFiles(expired)) {
+            index = scanDirectory(dir);
+            expired = getExpiredFiles(index, versionsToKeep);
+        }
+
+        for (BackupFile file : expired) {
+            deleteBackupFile(index, file);
         }
 
-        Log.i(TAG, String.format("Scanning directory %s for backup files", Uri.decode(dir.getUri().toString())));
+        return index;
+    }
 
+    /**
+     * Returns the files in the given index that should be deleted to keep only the given
+     * amount of full backups.
+     */
+    private static List<BackupFile> getExpiredFiles(BackupIndex index, int versionsToKeep) {
         List<BackupFile> files = new ArrayList<>();
-        for (DocumentFile docFile : dir.listFiles()) {
-            if (docFile.isFile() && !docFile.isVirtual()) {
-                try {
-                    files.add(new BackupFile(docFile));
-                } catch (ParseException ignored) { }
+        List<BackupFile> deltas = new ArrayList<>();
+        for (BackupFile file : index.getFiles()) {
+            if (file.getInfo().isDelta()) {
+                deltas.add(file);
+            } else {
+                files.add(file);
             }
         }
 
         Log.i(TAG, String.format("Found %d backup files, keeping the %d most recent", files.size(), versionsToKeep));
 
+        List<BackupFile> expired = new ArrayList<>();
         Collections.sort(files, new FileComparator());
         if (files.size() > versionsToKeep) {
-            for (BackupFile file : files.subList(0, files.size() - versionsToKeep)) {
-                Log.i(TAG, String.format("Deleting %s", file.getFile().getName()));
-                if (!file.getFile().delete()) {
-                    Log.e(TAG, String.format("Unable to delete %s", file.getFile().getName()));
+            expired.addAll(files.subList(0, files.size() - versionsToKeep));
+
+            // Incremental backups are useless without the full backup they were made on top of
+            Date oldest = files.get(files.size() - versionsToKeep).getInfo().getDate();
+            for (BackupFile file : deltas) {
+                if (file.getInfo().getDate().before(oldest)) {
+                    expired.add(file);
                 }
             }
         }
+
+        return expired;
+    }
+
+    /**
+     * Reports whether all of the given files still exist.
+     */
+    private boolean checkFiles(List<BackupFile> files) {
+        for (BackupFile file : files) {
+            DocumentFile docFile = DocumentFile.fromSingleUri(_context, file.getUri());
+            if (docFile == null || !docFile.exists()) {
+                Log.w(TAG, String.format("Backup file %s has disappeared, discarding the index", file.getName()));
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void deleteBackupFile(BackupIndex index, BackupFile file) {
+        Log.i(TAG, String.format("Deleting %s", file.getName()));
+        DocumentFile docFile = DocumentFile.fromSingleUri(_context, file.getUri());
+        if (docFile == null || !docFile.delete()) {
+            // The file may have been removed behind our back. If it wasn't, the next full scan
+            // of the directory will put it back in the index.
+            Log.e(TAG, String.format("Unable to delete %s", file.getName()));
+        }
+        index.remove(file.getName());
+    }
+
+    /**
+     * Returns the index of the backup files in the given directory. The directory is only
+     * scanned if there is no index for it yet, or if its modification time differs from the
+     * one recorded in the index, which means that files were added or removed by something
+     * other than us in the meantime. Some providers don't report a modification time for
+     * directories, in which case the directory is always scanned.
+     */
+    private BackupIndex readIndex(DocumentFile dir) {
+        String dirUri = dir.getUri().toString();
+        AtomicFile file = getIndexFile();
+        if (file.getBaseFile().exists()) {
+            try {
+                JSONObject obj = new JSONObject(new String(file.readFully(), StandardCharsets.UTF_8));
+                BackupIndex index = BackupIndex.fromJson(obj);
+                long modified = dir.lastModified();
+                if (dirUri.equals(index.getDirUri()) && modified != 0 && modified == index.getDirModified()) {
+                    return index;
+                }
+            } catch (IOException | JSONException e) {
+                Log.e(TAG, String.format("Unable to read the backup index: %s", e));
+            }
+        }
+
+        return scanDirectory(dir);
+    }
+
+    private BackupIndex scanDirectory(DocumentFile dir) {
+        String dirUri = dir.getUri().toString();
+        Log.i(TAG, String.format("Scanning directory %s for backup files", Uri.decode(dirUri)));
+
+        BackupIndex index = new BackupIndex(dirUri, dir.lastModified(), true);
+        for (DocumentFile docFile : dir.listFiles()) {
+            if (docFile.isFile() && !docFile.isVirtual()) {
+                index.add(docFile.getName(), docFile.getUri());
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(BackupIndex index) {
+        AtomicFile file = getIndexFile();
+        FileOutputStream outStream = null;
+        try {
+            outStream = file.startWrite();
+            outStream.write(index.toJson().toString().getBytes(StandardCharsets.UTF_8));
+            file.finishWrite(outStream);
+        } catch (IOException e) {
+            // The next backup will simply scan the directory again
+            Log.e(TAG, String.format("Unable to write the backup index: %s", e));
+            if (outStream != null) {
+                file.failWrite(outStream);
+            }
+            file.delete();
+        }
+    }
+
+    private AtomicFile getIndexFile() {
+        return new AtomicFile(new File(_context.getFilesDir(), INDEX_FILENAME));
     }
 
     public static class FileInfo {
@@ -217,11 +530,16 @@ public class VaultBackupManager {
                 throw new ParseException("The filename must not be null", 0);
             }
 
-            final String ext = ".json";
-            if (!filename.endsWith(ext)) {
+            String ext = null;
+            for (String candidate : new String[]{"json", DELTA_EXTENSION}) {
+                if (filename.endsWith("." + candidate)) {
+                    ext = candidate;
+                }
+            }
+            if (ext == null) {
                 throwBadFormat(filename);
             }
-            filename = filename.substring(0, filename.length() - ext.length());
+            filename = filename.substring(0, filename.length() - ext.length() - 1);
 
             final String delim = "-";
             String[] parts = filename.split(delim);
@@ -239,7 +557,7 @@ public class VaultBackupManager {
                 throwBadFormat(filename);
             }
 
-            return new FileInfo(filename, date);
+            return new FileInfo(filename, ext, date);
         }
 
         private static void throwBadFormat(String filename) throws ParseException {
@@ -258,6 +576,13 @@ public class VaultBackupManager {
             return _date;
         }
 
+        /**
+         * Reports whether this is an incremental backup.
+         */
+        public boolean isDelta() {
+            return DELTA_EXTENSION.equals(_ext);
+        }
+
         @NonNull
         @Override
         public String toString() {
@@ -265,17 +590,106 @@ public class VaultBackupManager {
         }
     }
 
+    /**
+     * Describes the full backup that incremental backups are made on top of.
+     */
+    static class Base {
+        private final String _headerDigest;
+        private final VaultDelta.State _state;
+        private final String _uri;
+        private final String _filename;
+        private final int _deltas;
+
+        private Base(String headerDigest, VaultDelta.State state, String uri, String filename, int deltas) {
+            _headerDigest = headerDigest;
+            _state = state;
+            _uri = uri;
+            _filename = filename;
+            _deltas = deltas;
+        }
+
+        /**
+         * Creates a base for a full backup that has not been created yet.
+         * @param headerDigest A digest of the credentials and the format of the backup.
+         * @param state The state of the vault in the backup.
+         */
+        Base(String headerDigest, VaultDelta.State state) {
+            this(headerDigest, state, null, null, 0);
+        }
+
+        private Base(Base base, Uri uri, String filename) {
+            this(base._headerDigest, base._state, uri.toString(), filename, 0);
+        }
+
+        private Base(Base base, int deltas) {
+            this(base._headerDigest, base._state, base._uri, base._filename, deltas);
+        }
+
+        String getHeaderDigest() {
+            return _headerDigest;
+        }
+
+        VaultDelta.State getState() {
+            return _state;
+        }
+
+        String getUri() {
+            return _uri;
+        }
+
+        String getFilename() {
+            return _filename;
+        }
+
+        /**
+         * Returns the number of incremental backups that were made on top of this one.
+         */
+        int getDeltaCount() {
+            return _deltas;
+        }
+
+        JSONObject toJson() {
+            try {
+                JSONObject obj = new JSONObject();
+                obj.put("header", _headerDigest);
+                obj.put("state", _state.toJson());
+                obj.put("uri", _uri);
+                obj.put("filename", _filename);
+                obj.put("deltas", _deltas);
+                return obj;
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        static Base fromJson(JSONObject obj) throws JSONException {
+            return new Base(
+                    obj.getString("header"),
+                    VaultDelta.State.fromJson(obj.getJSONObject("state")),
+                    obj.getString("uri"),
+                    obj.getString("filename"),
+                    obj.getInt("deltas")
+            );
+        }
+    }
+
     private static class BackupFile {
-        private DocumentFile _file;
-        private FileInfo _info;
+        private final String _name;
+        private final Uri _uri;
+        private final FileInfo _info;
+
+        public BackupFile(String name, Uri uri) throws ParseException {
+            _name = name;
+            _uri = uri;
+            _info = FileInfo.parseFilename(name);
+        }
 
-        public BackupFile(DocumentFile file) throws ParseException {
-            _file = file;
-            _info = FileInfo.parseFilename(file.getName());
+        public String getName() {
+            return _name;
         }
 
-        public DocumentFile getFile() {
-            return _file;
+        public Uri getUri() {
+            return _uri;
         }
 
         public FileInfo getInfo() {
@@ -283,6 +697,130 @@ public class VaultBackupManager {
         }
     }
 
+    /**
+     * Keeps track of the backup files in the backup directory, so that the directory doesn't
+     * have to be listed every time a backup is created. Only files with a name that looks
+     * like that of a backup are kept in the index.
+     */
+    private static class BackupIndex {
+        private final String _dirUri;
+        private final boolean _scanned;
+        private long _dirModified;
+        private final Map<String, BackupFile> _files = new LinkedHashMap<>();
+
+        public BackupIndex(String dirUri, long dirModified, boolean scanned) {
+            _dirUri = dirUri;
+            _dirModified = dirModified;
+            _scanned = scanned;
+        }
+
+        public String getDirUri() {
+            return _dirUri;
+        }
+
+        /**
+         * Returns the modification time of the directory at the time the index was last
+         * brought up to date with it.
+         */
+        public long getDirModified() {
+            return _dirModified;
+        }
+
+        public void setDirModified(long dirModified) {
+            _dirModified = dirModified;
+        }
+
+        /**
+         * Reports whether this index was just created by listing the directory, rather than
+         * read from disk.
+         */
+        public boolean isScanned() {
+            return _scanned;
+        }
+
+        public Collection<BackupFile> getFiles() {
+            return _files.values();
+        }
+
+        public int getFullBackupCount() {
+            int count = 0;
+            for (BackupFile file : _files.values()) {
+                if (!file.getInfo().isDelta()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public boolean contains(String name) {
+            return _files.containsKey(name);
+        }
+
+        public void add(String name, Uri uri) {
+            try {
+                _files.put(name, new BackupFile(name, uri));
+            } catch (ParseException ignored) { }
+        }
+
+        public void remove(String name) {
+            _files.remove(name);
+        }
+
+        public JSONObject toJson() {
+            try {
+                JSONArray files = new JSONArray();
+                for (BackupFile file : _files.values()) {
+                    JSONObject obj = new JSONObject();
+                    obj.put("name", file.getName());
+                    obj.put("uri", file.getUri().toString());
+                    files.put(obj);
+                }
+
+                JSONObject obj = new JSONObject();
+                obj.put("uri", _dirUri);
+                obj.put("modified", _dirModified);
+                obj.put("files", files);
+                return obj;
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public static BackupIndex fromJson(JSONObject obj) throws JSONException {
+            BackupIndex index = new BackupIndex(obj.getString("uri"), obj.getLong("modified"), false);
+            JSONArray files = obj.getJSONArray("files");
+            for (int i = 0; i < files.length(); i++) {
+                JSONObject file = files.getJSONObject(i);
+                index.add(file.getString("name"), Uri.parse(file.getString("uri")));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Records how long each phase of creating a backup takes.
+     */
+    private static class Timings {
+        private final StringBuilder _phases = new StringBuilder();
+        private final long _start = SystemClock.elapsedRealtime();
+        private long _last = _start;
+
+        public void mark(String phase) {
+            long now = SystemClock.elapsedRealtime();
+            if (_phases.length() > 0) {
+                _phases.append(", ");
+            }
+            _phases.append(String.format(Locale.ROOT, "%s: %d ms", phase, now - _last));
+            _last = now;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d ms (%s)", _last - _start, _phases);
+        }
+    }
+
     private static class FileComparator implements Comparator<BackupFile> {
         @Override
         public int compare(BackupFile o1, BackupFile o2) {
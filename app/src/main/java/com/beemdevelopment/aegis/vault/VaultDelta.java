@@ -0,0 +1,399 @@
+package com.beemdevelopment.aegis.vault;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.encoding.Hex;
+import com.beemdevelopment.aegis.util.UUIDMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The differences between a vault and an earlier state of it. Applying the delta to a vault
+ * that is in the earlier state brings it up to date. Deltas are used for the records in the
+ * journal and for incremental backups.
+ */
+class VaultDelta {
+    // The version of incremental backup files
+    static final int BACKUP_VERSION = 1;
+
+    private final List<VaultEntry> _changed;
+    private final List<UUID> _removed;
+    @Nullable
+    private final List<UUID> _order;
+    @Nullable
+    private final JSONArray _groups;
+    private final State _state;
+    private final boolean _empty;
+
+    private VaultDelta(List<VaultEntry> changed, List<UUID> removed, @Nullable List<UUID> order,
+                       @Nullable JSONArray groups, State state, boolean empty) {
+        _changed = changed;
+        _removed = removed;
+        _order = order;
+        _groups = groups;
+        _state = state;
+        _empty = empty;
+    }
+
+    /**
+     * Computes the delta that turns a vault in the given old state into the given vault.
+     */
+    static VaultDelta between(State oldState, Vault vault) {
+        State state = State.of(vault);
+        List<VaultEntry> changed = new ArrayList<>();
+        for (VaultEntry entry : vault.getEntries()) {
+            if (!Arrays.equals(state._entryHashes.get(entry.getUUID()), oldState._entryHashes.get(entry.getUUID()))) {
+                changed.add(entry);
+            }
+        }
+
+        // Applying a delta appends new entries to the end of the list, so the order only
+        // needs to be recorded if it differs from what applying the delta would result in
+        List<UUID> removed = new ArrayList<>();
+        List<UUID> expectedOrder = new ArrayList<>();
+        for (UUID uuid : oldState._order) {
+            if (state._entryHashes.containsKey(uuid)) {
+                expectedOrder.add(uuid);
+            } else {
+                removed.add(uuid);
+            }
+        }
+        for (UUID uuid : state._order) {
+            if (!oldState._entryHashes.containsKey(uuid)) {
+                expectedOrder.add(uuid);
+            }
+        }
+
+        List<UUID> order = state._order.equals(expectedOrder) ? null : state._order;
+        JSONArray groups = state._groups.equals(oldState._groups) ? null : groupsToJson(vault);
+        boolean empty = changed.isEmpty() && removed.isEmpty() && order == null && groups == null
+                && state._iconsOptimized == oldState._iconsOptimized;
+        return new VaultDelta(changed, removed, order, groups, state, empty);
+    }
+
+    /**
+     * Reports whether applying this delta would leave the vault unchanged.
+     */
+    boolean isEmpty() {
+        return _empty;
+    }
+
+    /**
+     * Returns the entries that were added or changed.
+     */
+    List<VaultEntry> getChangedEntries() {
+        return Collections.unmodifiableList(_changed);
+    }
+
+    /**
+     * Returns the state of the vault after applying this delta.
+     */
+    State getState() {
+        return _state;
+    }
+
+    /**
+     * Serializes the delta to JSON. If inlineIcons is false, the changed entries refer to their
+     * icons by hash, in which case the icons are expected to be in the icon store.
+     */
+    JSONObject toJson(boolean inlineIcons) {
+        try {
+            JSONArray entries = new JSONArray();
+            for (VaultEntry entry : _changed) {
+                entries.put(entry.toJson(true, inlineIcons));
+            }
+
+            JSONObject obj = new JSONObject();
+            obj.put("entries", entries);
+            obj.put("removed", uuidsToJson(_removed));
+            if (_order != null) {
+                obj.put("order", uuidsToJson(_order));
+            }
+            if (_groups != null) {
+                obj.put("groups", _groups);
+            }
+            obj.put("icons_optimized", _state._iconsOptimized);
+            return obj;
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Applies the given delta to the given vault. Icons that the delta refers to by hash are
+     * looked up in the given icon store. Nothing is changed if the delta can't be parsed.
+     */
+    static void apply(Vault vault, JSONObject delta, @Nullable VaultIconStore icons) throws JSONException, VaultEntryException {
+        // Parse everything before touching the vault, so that a bad delta is never applied partially
+        List<VaultGroup> groups = null;
+        if (delta.has("groups")) {
+            groups = new ArrayList<>();
+            JSONArray array = delta.getJSONArray("groups");
+            for (int i = 0; i < array.length(); i++) {
+                groups.add(VaultGroup.fromJson(array.getJSONObject(i)));
+            }
+        }
+
+        List<UUID> removed = parseUUIDs(delta.getJSONArray("removed"));
+        List<UUID> order = delta.has("order") ? parseUUIDs(delta.getJSONArray("order")) : null;
+
+        List<VaultEntry> entries = new ArrayList<>();
+        JSONArray array = delta.getJSONArray("entries");
+        for (int i = 0; i < array.length(); i++) {
+            entries.add(VaultEntry.fromJson(array.getJSONObject(i), icons));
+        }
+
+        boolean iconsOptimized = delta.getBoolean("icons_optimized");
+
+        if (groups != null) {
+            UUIDMap<VaultGroup> vaultGroups = vault.getGroups();
+            vaultGroups.wipe();
+            for (VaultGroup group : groups) {
+                if (!vaultGroups.has(group)) {
+                    vaultGroups.add(group);
+                }
+            }
+        }
+
+        UUIDMap<VaultEntry> vaultEntries = vault.getEntries();
+        for (UUID uuid : removed) {
+            if (vaultEntries.has(uuid)) {
+                vaultEntries.remove(vaultEntries.getByUUID(uuid));
+            }
+        }
+
+        for (VaultEntry entry : entries) {
+            if (vaultEntries.has(entry)) {
+                vaultEntries.replace(entry);
+            } else {
+                vaultEntries.add(entry);
+            }
+        }
+
+        if (order != null) {
+            // Entries that are missing from the order list keep their relative order at the end
+            Set<UUID> ordered = new HashSet<>(order);
+            List<VaultEntry> newEntries = new ArrayList<>();
+            for (UUID uuid : order) {
+                if (vaultEntries.has(uuid)) {
+                    newEntries.add(vaultEntries.getByUUID(uuid));
+                }
+            }
+            for (VaultEntry entry : vaultEntries) {
+                if (!ordered.contains(entry.getUUID())) {
+                    newEntries.add(entry);
+                }
+            }
+
+            vaultEntries.wipe();
+            for (VaultEntry entry : newEntries) {
+                vaultEntries.add(entry);
+            }
+        }
+
+        vault.setIconsOptimized(iconsOptimized);
+    }
+
+    /**
+     * Serializes this delta as an incremental backup, to be applied on top of the full backup
+     * with the given filename. If creds is not null, the delta is encrypted with it.
+     */
+    JSONObject toBackupJson(String baseFilename, @Nullable VaultFileCredentials creds) throws VaultFileException {
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("version", BACKUP_VERSION);
+            obj.put("base", baseFilename);
+            obj.put("record", VaultJournal.encodeRecord(toJson(true), creds));
+            return obj;
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Applies the given incremental backup to the given vault, which must have been loaded from
+     * the full backup that the incremental backup refers to.
+     */
+    static void applyBackup(Vault vault, JSONObject obj, @Nullable VaultFileCredentials creds) throws VaultFileException {
+        try {
+            if (obj.getInt("version") > BACKUP_VERSION) {
+                throw new VaultFileException("Unsupported version");
+            }
+
+            JSONObject delta = VaultJournal.decodeRecord(obj.getJSONObject("record"), creds);
+            apply(vault, delta, null);
+        } catch (JSONException | VaultEntryException e) {
+            throw new VaultFileException(e);
+        }
+    }
+
+    /**
+     * Applies the given incremental backup to the given content of the full backup that it
+     * refers to, and returns the resulting content.
+     */
+    static JSONObject applyBackup(JSONObject content, JSONObject obj, @Nullable VaultFileCredentials creds) throws VaultFileException {
+        Vault vault;
+        try {
+            vault = Vault.fromJson(content);
+        } catch (VaultException e) {
+            throw new VaultFileException(e);
+        }
+
+        applyBackup(vault, obj, creds);
+        return vault.toJson();
+    }
+
+    private static JSONArray uuidsToJson(List<UUID> uuids) {
+        JSONArray array = new JSONArray();
+        for (UUID uuid : uuids) {
+            array.put(uuid.toString());
+        }
+        return array;
+    }
+
+    private static List<UUID> parseUUIDs(JSONArray array) throws JSONException {
+        List<UUID> uuids = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            try {
+                uuids.add(UUID.fromString(array.getString(i)));
+            } catch (IllegalArgumentException e) {
+                throw new JSONException(String.format("Bad UUID: %s", array.getString(i)));
+            }
+        }
+        return uuids;
+    }
+
+    private static JSONArray groupsToJson(Vault vault) {
+        JSONArray array = new JSONArray();
+        for (VaultGroup group : vault.getGroups()) {
+            array.put(group.toJson());
+        }
+        return array;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A compact summary of the contents of a vault, that deltas can be computed against. It
+     * only keeps a hash of every entry, not the entries themselves.
+     */
+    static class State {
+        private final Map<UUID, byte[]> _entryHashes;
+        private final List<UUID> _order;
+        private final String _groups;
+        private final boolean _iconsOptimized;
+
+        private State(Map<UUID, byte[]> entryHashes, List<UUID> order, String groups, boolean iconsOptimized) {
+            _entryHashes = entryHashes;
+            _order = order;
+            _groups = groups;
+            _iconsOptimized = iconsOptimized;
+        }
+
+        static State of(Vault vault) {
+            Map<UUID, byte[]> hashes = new HashMap<>();
+            List<UUID> order = new ArrayList<>();
+            for (VaultEntry entry : vault.getEntries()) {
+                hashes.put(entry.getUUID(), hashEntry(entry));
+                order.add(entry.getUUID());
+            }
+
+            return new State(hashes, order, groupsToJson(vault).toString(), vault.areIconsOptimized());
+        }
+
+        /**
+         * Returns a hash of the contents of the vault. The order of the entries is left out,
+         * so vaults that only differ in the order of their entries have the same digest.
+         */
+        @NonNull
+        String digest() {
+            List<UUID> uuids = new ArrayList<>(_order);
+            Collections.sort(uuids);
+
+            MessageDigest md = newDigest();
+            for (UUID uuid : uuids) {
+                md.update(uuid.toString().getBytes(StandardCharsets.UTF_8));
+                md.update(_entryHashes.get(uuid));
+            }
+            md.update(_groups.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) (_iconsOptimized ? 1 : 0));
+            return Hex.encode(md.digest());
+        }
+
+        int size() {
+            return _order.size();
+        }
+
+        JSONObject toJson() {
+            try {
+                JSONObject entries = new JSONObject();
+                for (UUID uuid : _order) {
+                    entries.put(uuid.toString(), Hex.encode(_entryHashes.get(uuid)));
+                }
+
+                JSONObject obj = new JSONObject();
+                obj.put("entries", entries);
+                obj.put("order", uuidsToJson(_order));
+                obj.put("groups", _groups);
+                obj.put("icons_optimized", _iconsOptimized);
+                return obj;
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        static State fromJson(JSONObject obj) throws JSONException {
+            Map<UUID, byte[]> hashes = new HashMap<>();
+            JSONObject entries = obj.getJSONObject("entries");
+            try {
+                for (Iterator<String> it = entries.keys(); it.hasNext(); ) {
+                    String uuid = it.next();
+                    hashes.put(UUID.fromString(uuid), Hex.decode(entries.getString(uuid)));
+                }
+            } catch (IllegalArgumentException | EncodingException e) {
+                throw new JSONException(String.format("Bad entry hash: %s", e));
+            }
+
+            List<UUID> order = parseUUIDs(obj.getJSONArray("order"));
+            if (!hashes.keySet().equals(new HashSet<>(order))) {
+                throw new JSONException("Entry hashes don't match the order of the entries");
+            }
+
+            return new State(hashes, order, obj.getString("groups"), obj.getBoolean("icons_optimized"));
+        }
+
+        private static byte[] hashEntry(VaultEntry entry) {
+            // The icon hash stands in for the icon bytes, so that they don't have to be encoded every time
+            MessageDigest md = newDigest();
+            md.update(entry.toJson(false).toString().getBytes(StandardCharsets.UTF_8));
+            if (entry.hasIcon()) {
+                md.update(entry.getIcon().getHash());
+            }
+            return md.digest();
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.beemdevelopment.aegis.vault;
 
+import androidx.annotation.Nullable;
+
 import com.beemdevelopment.aegis.otp.GoogleAuthInfo;
 import com.beemdevelopment.aegis.otp.OtpInfo;
 import com.beemdevelopment.aegis.otp.OtpInfoException;
 import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.util.JsonStreamWriter;
 import com.beemdevelopment.aegis.util.JsonUtils;
 import com.beemdevelopment.aegis.util.UUIDMap;
 
@@ -11,6 +14,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
@@ -44,11 +48,45 @@ public class VaultEntry extends UUIDMap.Value {
         setIssuer(issuer);
     }
 
+    /**
+     * Creates a copy of the given entry, with the same UUID. The icon is shared with the
+     * original, because icons are never modified after they've been created.
+     */
+    public VaultEntry(VaultEntry entry) {
+        super(entry.getUUID());
+        _name = entry._name;
+        _issuer = entry._issuer;
+        _info = entry._info.copy();
+        _icon = entry._icon;
+        _isFavorite = entry._isFavorite;
+        _usageCount = entry._usageCount;
+        _lastUsedTimestamp = entry._lastUsedTimestamp;
+        _note = entry._note;
+        _oldGroup = entry._oldGroup;
+        _groups = new TreeSet<>(entry._groups);
+    }
+
     public VaultEntry(GoogleAuthInfo info) {
         this(info.getOtpInfo(), info.getAccountName(), info.getIssuer());
     }
 
     public JSONObject toJson() {
+        return toJson(true);
+    }
+
+    /**
+     * Serializes this entry to JSON. If includeIcon is false, the icon fields are left
+     * out, which avoids encoding the icon bytes when only the other fields are of interest.
+     */
+    JSONObject toJson(boolean includeIcon) {
+        return toJson(includeIcon, true);
+    }
+
+    /**
+     * Serializes this entry to JSON. If inlineIcon is false, the icon is referred to by its
+     * hash instead of being included, in which case it's expected to be in the icon store.
+     */
+    JSONObject toJson(boolean includeIcon, boolean inlineIcon) {
         JSONObject obj = new JSONObject();
 
         try {
@@ -58,7 +96,9 @@ public class VaultEntry extends UUIDMap.Value {
             obj.put("issuer", _issuer);
             obj.put("note", _note);
             obj.put("favorite", _isFavorite);
-            VaultEntryIcon.toJson(_icon, obj);
+            if (includeIcon) {
+                VaultEntryIcon.toJson(_icon, obj, inlineIcon);
+            }
             obj.put("info", _info.toJson());
 
             JSONArray groupUuids = new JSONArray();
@@ -74,7 +114,52 @@ public class VaultEntry extends UUIDMap.Value {
         return obj;
     }
 
+    /**
+     * Writes this entry to the given JSON stream, in the same format as toJson().
+     */
+    void writeJson(JsonStreamWriter writer) throws IOException {
+        writeJson(writer, true);
+    }
+
+    /**
+     * Writes this entry to the given JSON stream, in the same format as toJson(true, inlineIcon).
+     */
+    void writeJson(JsonStreamWriter writer, boolean inlineIcon) throws IOException {
+        writer.beginObject();
+        writer.name("type").value(_info.getTypeId());
+        writer.name("uuid").value(getUUID().toString());
+        // JSONObject leaves out keys with a null value, so mirror that here
+        if (_name != null) {
+            writer.name("name").value(_name);
+        }
+        if (_issuer != null) {
+            writer.name("issuer").value(_issuer);
+        }
+        if (_note != null) {
+            writer.name("note").value(_note);
+        }
+        writer.name("favorite").value(_isFavorite);
+        VaultEntryIcon.writeJson(_icon, writer, inlineIcon);
+        writer.name("info").value(_info.toJson());
+
+        writer.name("groups").beginArray();
+        for (UUID uuid : _groups) {
+            writer.value(uuid.toString());
+        }
+        writer.endArray();
+
+        writer.endObject();
+    }
+
     public static VaultEntry fromJson(JSONObject obj) throws VaultEntryException {
+        return fromJson(obj, null);
+    }
+
+    /**
+     * Parses an entry from the given JSON. Icons that are referred to by their hash are looked
+     * up in the given icon store. If that's not possible, the entry is left without an icon.
+     */
+    static VaultEntry fromJson(JSONObject obj, @Nullable VaultIconStore icons) throws VaultEntryException {
         try {
             // if there is no uuid, generate a new one
             UUID uuid;
@@ -107,7 +192,7 @@ public class VaultEntry extends UUIDMap.Value {
             // entry. This allows us to introduce new icon types in the future (e.g. WebP)
             // without breaking compatibility with older versions of Aegis.
             try {
-                VaultEntryIcon icon = VaultEntryIcon.fromJson(obj);
+                VaultEntryIcon icon = VaultEntryIcon.fromJson(obj, icons);
                 entry.setIcon(icon);
             } catch (VaultEntryIconException ignored) {
             }
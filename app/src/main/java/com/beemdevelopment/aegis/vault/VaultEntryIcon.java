@@ -1,5 +1,7 @@
 package com.beemdevelopment.aegis.vault;
 
+import android.util.Log;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -7,12 +9,15 @@ import com.beemdevelopment.aegis.encoding.Base64;
 import com.beemdevelopment.aegis.encoding.EncodingException;
 import com.beemdevelopment.aegis.encoding.Hex;
 import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.util.JsonStreamWriter;
 import com.beemdevelopment.aegis.util.JsonUtils;
 import com.google.common.hash.HashCode;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
@@ -20,10 +25,19 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 public class VaultEntryIcon implements Serializable {
-    private final byte[] _bytes;
+    private static final String TAG = VaultEntryIcon.class.getSimpleName();
+
+    private volatile byte[] _bytes;
     private final byte[] _hash;
     private final IconType _type;
 
+    // The Base64 representation of the icon as it was read from the vault. Decoding it is
+    // deferred until the icon is actually needed, which speeds up loading the vault.
+    private volatile String _encoded;
+
+    // The store the icon is read from when it's needed, if it's not stored inline in the vault
+    private transient volatile VaultIconStore _store;
+
     public static final int MAX_DIMENS = 512;
 
     public VaultEntryIcon(@NonNull byte[] bytes, @NonNull IconType type) {
@@ -36,8 +50,77 @@ public class VaultEntryIcon implements Serializable {
         _type = type;
     }
 
-    public @NonNull byte[] getBytes() {
-        return _bytes;
+    private VaultEntryIcon(@NonNull String encoded, @NonNull IconType type, @NonNull byte[] hash) {
+        _encoded = encoded;
+        _hash = hash;
+        _type = type;
+    }
+
+    private VaultEntryIcon(@NonNull VaultIconStore store, @NonNull IconType type, @NonNull byte[] hash) {
+        _store = store;
+        _hash = hash;
+        _type = type;
+    }
+
+    /**
+     * Returns the icon, or null if it had to be read from the icon store and that failed. The
+     * icon keeps referring to it by hash in that case, so that saving the vault doesn't drop it.
+     */
+    public @Nullable byte[] getBytes() {
+        byte[] bytes = _bytes;
+        if (bytes == null) {
+            synchronized (this) {
+                if (_bytes == null) {
+                    if (_store != null) {
+                        try {
+                            _bytes = load(_store);
+                        } catch (IOException e) {
+                            Log.e(TAG, String.format("Unable to read icon %s from the icon store: %s", Hex.encode(_hash), e));
+                            return null;
+                        }
+                        _store = null;
+                    } else if (_encoded != null) {
+                        try {
+                            _bytes = Base64.decode(_encoded);
+                        } catch (EncodingException e) {
+                            // the encoded icon was validated when it was read
+                            throw new RuntimeException(e);
+                        }
+                        _encoded = null;
+                    }
+                }
+                bytes = _bytes;
+            }
+        }
+
+        return bytes;
+    }
+
+    private byte[] load(VaultIconStore store) throws IOException {
+        byte[] bytes = store.get(_hash);
+        if (!Arrays.equals(generateHash(bytes, _type), _hash)) {
+            throw new IOException("Icon in the icon store does not match its hash");
+        }
+
+        return bytes;
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        // The icon store can't be serialized, so the copy gets the icon bytes instead. If they
+        // can't be read, the copy only has the hash, like the vault file.
+        getBytes();
+        stream.defaultWriteObject();
+    }
+
+    @Nullable
+    private String toBase64() {
+        String encoded = _encoded;
+        if (encoded != null) {
+            return encoded;
+        }
+
+        byte[] bytes = getBytes();
+        return bytes != null ? Base64.encode(bytes) : null;
     }
 
     public @NonNull byte[] getHash() {
@@ -64,17 +147,55 @@ public class VaultEntryIcon implements Serializable {
         return HashCode.fromBytes(_hash).asInt();
     }
 
-    static void toJson(@Nullable VaultEntryIcon icon, @NonNull JSONObject obj) throws JSONException {
-        obj.put("icon", icon == null ? JSONObject.NULL : Base64.encode(icon.getBytes()));
-        if (icon != null) {
-            obj.put("icon_mime", icon.getType().toMimeType());
-            obj.put("icon_hash", Hex.encode(icon.getHash()));
+    /**
+     * Adds the given icon to the given entry JSON. If inline is false, the icon is referred to
+     * by its hash and the icon itself is expected to be in the icon store.
+     */
+    static void toJson(@Nullable VaultEntryIcon icon, @NonNull JSONObject obj, boolean inline) throws JSONException {
+        if (icon == null) {
+            obj.put("icon", JSONObject.NULL);
+            return;
+        }
+
+        // An icon that can't be read from the icon store is still referred to by its hash
+        String encoded = inline ? icon.toBase64() : null;
+        if (encoded != null) {
+            obj.put("icon", encoded);
+        }
+        obj.put("icon_mime", icon.getType().toMimeType());
+        obj.put("icon_hash", Hex.encode(icon.getHash()));
+    }
+
+    static void writeJson(@Nullable VaultEntryIcon icon, @NonNull JsonStreamWriter writer, boolean inline) throws IOException {
+        if (icon == null) {
+            writer.name("icon").nullValue();
+            return;
+        }
+
+        if (inline) {
+            String encoded = icon._encoded;
+            byte[] bytes = encoded == null ? icon.getBytes() : null;
+            if (encoded != null) {
+                writer.name("icon").value(encoded);
+            } else if (bytes != null) {
+                writer.name("icon").base64Value(bytes, 0, bytes.length);
+            }
         }
+        writer.name("icon_mime").value(icon.getType().toMimeType());
+        writer.name("icon_hash").value(Hex.encode(icon.getHash()));
     }
 
+    /**
+     * Parses the icon of the given entry JSON. Icons that are referred to by their hash are
+     * looked up in the given icon store, if any.
+     */
     @Nullable
-    static VaultEntryIcon fromJson(@NonNull JSONObject obj) throws VaultEntryIconException {
+    static VaultEntryIcon fromJson(@NonNull JSONObject obj, @Nullable VaultIconStore store) throws VaultEntryIconException {
         try {
+            if (!obj.has("icon") && obj.has("icon_hash")) {
+                return fromStore(obj, store);
+            }
+
             Object icon = obj.get("icon");
             if (icon == JSONObject.NULL) {
                 return null;
@@ -86,19 +207,43 @@ public class VaultEntryIcon implements Serializable {
                 throw new VaultEntryIconException(String.format("Bad icon MIME type: %s", mime));
             }
 
-            byte[] iconBytes = Base64.decode((String) icon);
+            String iconStr = (String) icon;
             String iconHashStr = JsonUtils.optString(obj, "icon_hash");
             if (iconHashStr != null) {
                 byte[] iconHash = Hex.decode(iconHashStr);
-                return new VaultEntryIcon(iconBytes, iconType, iconHash);
+                if (!Base64.canDecode(iconStr)) {
+                    throw new VaultEntryIconException("Bad icon encoding");
+                }
+                return new VaultEntryIcon(iconStr, iconType, iconHash);
             }
 
+            // without a hash, the icon has to be decoded right away to generate one
+            byte[] iconBytes = Base64.decode(iconStr);
             return new VaultEntryIcon(iconBytes, iconType);
         } catch (JSONException | EncodingException e) {
             throw new VaultEntryIconException(e);
         }
     }
 
+    private static VaultEntryIcon fromStore(@NonNull JSONObject obj, @Nullable VaultIconStore store)
+            throws JSONException, EncodingException, VaultEntryIconException {
+        if (store == null) {
+            throw new VaultEntryIconException("Icon is in an icon store that is not available");
+        }
+
+        IconType iconType = IconType.fromMimeType(obj.getString("icon_mime"));
+        if (iconType == IconType.INVALID) {
+            throw new VaultEntryIconException(String.format("Bad icon MIME type: %s", obj.getString("icon_mime")));
+        }
+
+        byte[] iconHash = Hex.decode(obj.getString("icon_hash"));
+        if (!store.contains(iconHash)) {
+            throw new VaultEntryIconException("Icon is missing from the icon store");
+        }
+
+        return new VaultEntryIcon(store, iconType, iconHash);
+    }
+
     private static @NonNull byte[] generateHash(@NonNull byte[] bytes, @NonNull IconType type) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
@@ -1,37 +1,56 @@
 package com.beemdevelopment.aegis.vault;
 
+import android.util.JsonReader;
+
+import androidx.annotation.Nullable;
+
 import com.beemdevelopment.aegis.crypto.CryptParameters;
 import com.beemdevelopment.aegis.crypto.CryptResult;
 import com.beemdevelopment.aegis.crypto.MasterKeyException;
 import com.beemdevelopment.aegis.encoding.Base64;
 import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.util.JsonUtils;
 import com.beemdevelopment.aegis.vault.slots.SlotList;
 import com.beemdevelopment.aegis.vault.slots.SlotListException;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 
 public class VaultFile {
     public static final byte VERSION = 1;
 
+    // Vault files with a binary db are marked with a newer version, so that older versions
+    // of Aegis refuse to load them, instead of failing to parse the db after decrypting it
+    public static final byte VERSION_PROTO = 2;
+
     private Object _content;
     private Header _header;
+    private Format _format = Format.JSON;
 
     public VaultFile() {
 
     }
 
-    private VaultFile(Object content, Header header) {
+    private VaultFile(Object content, Header header, Format format) {
         _content = content;
         _header = header;
+        _format = format;
     }
 
     public Header getHeader() {
         return _header;
     }
 
+    public Format getFormat() {
+        return _format;
+    }
+
     public boolean isEncrypted() {
         return !_header.isEmpty();
     }
@@ -39,7 +58,7 @@ public class VaultFile {
     public JSONObject toJson() {
         try {
             JSONObject obj = new JSONObject();
-            obj.put("version", VERSION);
+            obj.put("version", _format.getVersion());
             obj.put("header", _header.toJson());
             obj.put("db", _content);
             return obj;
@@ -61,21 +80,36 @@ public class VaultFile {
 
     public static VaultFile fromJson(JSONObject obj) throws VaultFileException {
         try {
-            if (obj.getInt("version") > VERSION) {
+            int version = obj.getInt("version");
+            if (version > VERSION_PROTO) {
                 throw new VaultFileException("unsupported version");
             }
 
+            Format format = version == VERSION_PROTO ? Format.PROTO : Format.JSON;
             Header header = Header.fromJson(obj.getJSONObject("header"));
-            if (!header.isEmpty()) {
-                return new VaultFile(obj.getString("db"), header);
+            if (!header.isEmpty() || format == Format.PROTO) {
+                return new VaultFile(obj.getString("db"), header, format);
             }
 
-            return new VaultFile(obj.getJSONObject("db"), header);
+            return new VaultFile(obj.getJSONObject("db"), header, format);
         } catch (JSONException e) {
             throw new VaultFileException(e);
         }
     }
 
+    /**
+     * Parses a VaultFile from the given stream, without reading the whole file into memory
+     * and converting it to a string first.
+     */
+    public static VaultFile fromStream(InputStream inStream) throws VaultFileException {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(inStream, StandardCharsets.UTF_8));
+            return VaultFile.fromJson(JsonUtils.readObject(reader));
+        } catch (IOException | IllegalStateException | NumberFormatException | JSONException e) {
+            throw new VaultFileException(e);
+        }
+    }
+
     public static VaultFile fromBytes(byte[] data) throws VaultFileException {
         try {
             JSONObject obj = new JSONObject(new String(data, StandardCharsets.UTF_8));
@@ -85,16 +119,54 @@ public class VaultFile {
         }
     }
 
-    public JSONObject getContent() {
+    public JSONObject getContent() throws VaultFileException {
+        if (_format == Format.PROTO) {
+            try {
+                return VaultProtoConverter.fromProto(Base64.decode((String) _content));
+            } catch (EncodingException e) {
+                throw new VaultFileException(e);
+            }
+        }
+
         return (JSONObject) _content;
     }
 
     public JSONObject getContent(VaultFileCredentials creds) throws VaultFileException {
+        // Decode the Base64 in chunks as it's fed to the cipher and parse the plaintext straight
+        // from the resulting bytes, instead of making a full copy of the vault at every step
         try {
-            byte[] bytes = Base64.decode((String) _content);
-            CryptResult result = creds.decrypt(bytes, _header.getParams());
-            return new JSONObject(new String(result.getData(), StandardCharsets.UTF_8));
-        } catch (MasterKeyException | JSONException | EncodingException e) {
+            InputStream encrypted = Base64.decodingStream((String) _content);
+            CryptResult result = creds.decrypt(encrypted, _header.getParams());
+            if (_format == Format.PROTO) {
+                return VaultProtoConverter.fromProto(result.getData());
+            }
+
+            InputStream decrypted = new ByteArrayInputStream(result.getData());
+            JsonReader reader = new JsonReader(new InputStreamReader(decrypted, StandardCharsets.UTF_8));
+            return JsonUtils.readObject(reader);
+        } catch (MasterKeyException | IOException | IllegalStateException | NumberFormatException | JSONException e) {
+            throw new VaultFileException(e);
+        }
+    }
+
+    /**
+     * Decrypts (if creds is not null) and parses the vault in this file. Unlike
+     * getContent(creds), the entries of an encrypted JSON vault are parsed one at a time
+     * straight from the plaintext, so that the whole vault is never held as a JSONObject.
+     */
+    Vault getVault(@Nullable VaultFileCredentials creds, @Nullable VaultIconStore icons) throws VaultFileException, VaultException {
+        if (creds == null || _format == Format.PROTO) {
+            JSONObject obj = creds == null ? getContent() : getContent(creds);
+            return Vault.fromJson(obj, icons);
+        }
+
+        try {
+            InputStream encrypted = Base64.decodingStream((String) _content);
+            CryptResult result = creds.decrypt(encrypted, _header.getParams());
+            InputStream decrypted = new ByteArrayInputStream(result.getData());
+            JsonReader reader = new JsonReader(new InputStreamReader(decrypted, StandardCharsets.UTF_8));
+            return Vault.fromJson(reader, icons);
+        } catch (MasterKeyException | IOException e) {
             throw new VaultFileException(e);
         }
     }
@@ -102,6 +174,7 @@ public class VaultFile {
     public void setContent(JSONObject obj) {
         _content = obj;
         _header = new Header(null, null);
+        _format = Format.JSON;
     }
 
     public void setContent(JSONObject obj, VaultFileCredentials creds) throws VaultFileException {
@@ -112,6 +185,7 @@ public class VaultFile {
             CryptResult result = creds.encrypt(vaultBytes);
             _content = Base64.encode(result.getData());
             _header = new Header(creds.getSlots(), result.getParams());
+            _format = Format.JSON;
         } catch (MasterKeyException | JSONException e) {
             throw new VaultFileException(e);
         }
@@ -129,7 +203,25 @@ public class VaultFile {
         return new VaultFile(_content, new VaultFile.Header(
                 getHeader().getSlots().exportable(),
                 getHeader().getParams()
-        ));
+        ), _format);
+    }
+
+    /**
+     * The encoding of the vault database inside of the vault file.
+     */
+    public enum Format {
+        JSON(VERSION),
+        PROTO(VERSION_PROTO);
+
+        private final byte _version;
+
+        Format(byte version) {
+            _version = version;
+        }
+
+        public byte getVersion() {
+            return _version;
+        }
     }
 
     public static class Header {
@@ -6,10 +6,16 @@ import com.beemdevelopment.aegis.crypto.CryptParameters;
 import com.beemdevelopment.aegis.crypto.CryptResult;
 import com.beemdevelopment.aegis.crypto.MasterKey;
 import com.beemdevelopment.aegis.crypto.MasterKeyException;
-import com.beemdevelopment.aegis.util.Cloner;
+import com.beemdevelopment.aegis.crypto.SegmentedFile;
+import com.beemdevelopment.aegis.crypto.SegmentedInputStream;
+import com.beemdevelopment.aegis.crypto.SegmentedOutputStream;
 import com.beemdevelopment.aegis.vault.slots.SlotList;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 
 public class VaultFileCredentials implements Serializable {
     private MasterKey _key;
@@ -33,6 +39,26 @@ public class VaultFileCredentials implements Serializable {
         return _key.decrypt(bytes, params);
     }
 
+    public CryptResult decrypt(byte[] bytes, int offset, int len, CryptParameters params) throws MasterKeyException {
+        return _key.decrypt(bytes, offset, len, params);
+    }
+
+    public CryptResult decrypt(InputStream encrypted, CryptParameters params) throws MasterKeyException {
+        return _key.decrypt(encrypted, params);
+    }
+
+    public SegmentedOutputStream encryptStream(OutputStream out) throws IOException {
+        return _key.encryptStream(out);
+    }
+
+    public SegmentedInputStream decryptStream(InputStream in) throws IOException {
+        return _key.decryptStream(in);
+    }
+
+    public SegmentedFile openSegmentedFile(FileChannel channel) throws IOException {
+        return _key.openSegmentedFile(channel);
+    }
+
     public MasterKey getKey() {
         return _key;
     }
@@ -49,9 +75,13 @@ public class VaultFileCredentials implements Serializable {
         return new VaultFileCredentials(_key, _slots.exportable());
     }
 
+    /**
+     * Returns a copy of these VaultFileCredentials. The master key is shared with the original,
+     * because it can't be modified.
+     */
     @NonNull
     @Override
     public VaultFileCredentials clone() {
-        return Cloner.clone(this);
+        return new VaultFileCredentials(_key, _slots.copy());
     }
 }
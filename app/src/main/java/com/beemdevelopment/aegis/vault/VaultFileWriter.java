@@ -0,0 +1,183 @@
+package com.beemdevelopment.aegis.vault;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.beemdevelopment.aegis.crypto.CryptParameters;
+import com.beemdevelopment.aegis.crypto.CryptResult;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.MasterKeyException;
+import com.beemdevelopment.aegis.util.JsonStreamWriter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * Serializes a vault straight to an OutputStream in the VaultFile format. The output is
+ * identical to that of VaultFile.toBytes(), but the JSON tree, the intermediate strings and
+ * the Base64 representation of the vault are never held in memory. If the vault is encrypted,
+ * only the ciphertext is buffered, because the tag is part of the header that precedes it.
+ */
+public class VaultFileWriter {
+    private static final int INDENT_SPACES = 4;
+
+    private VaultFileWriter() {
+
+    }
+
+    /**
+     * Writes the vault to the given stream. If creds is not null, it will be used to encrypt the
+     * vault. If filter is not null, only the entries it includes are written. Encryption errors
+     * are reported as an IOException.
+     */
+    public static void write(@NonNull OutputStream stream, @NonNull Vault vault, @Nullable VaultFileCredentials creds, @Nullable Vault.EntryFilter filter) throws IOException {
+        write(stream, vault, creds, filter, VaultFile.Format.JSON);
+    }
+
+    /**
+     * Writes the vault to the given stream, with its database in the given format.
+     */
+    public static void write(@NonNull OutputStream stream, @NonNull Vault vault, @Nullable VaultFileCredentials creds, @Nullable Vault.EntryFilter filter, @NonNull VaultFile.Format format) throws IOException {
+        write(stream, vault, creds, filter, format, null);
+    }
+
+    /**
+     * Writes the vault to the given stream, with its database in the given format. If icons is
+     * not null, the icons of the entries are added to it and the entries only refer to them by
+     * hash. Otherwise, the icons are included in the output.
+     */
+    public static void write(@NonNull OutputStream stream, @NonNull Vault vault, @Nullable VaultFileCredentials creds, @Nullable Vault.EntryFilter filter, @NonNull VaultFile.Format format, @Nullable VaultIconStore icons) throws IOException {
+        boolean inlineIcons = icons == null;
+        if (icons != null) {
+            icons.putAll(vault.getEntries());
+        }
+
+        if (format == VaultFile.Format.PROTO) {
+            writeProto(stream, vault, creds, filter, inlineIcons);
+            return;
+        }
+
+        VaultFile.Header header = new VaultFile.Header(null, null);
+        CiphertextBuffer ciphertext = null;
+
+        if (creds != null) {
+            CiphertextBuffer buffer = new CiphertextBuffer();
+            byte[] nonce;
+            try {
+                nonce = creds.getKey().encrypt(cipher -> {
+                    CipherStream cipherStream = new CipherStream(cipher, buffer);
+                    JsonStreamWriter writer = createWriter(cipherStream);
+                    vault.writeJson(writer, filter, inlineIcons);
+                    writer.flush();
+                    cipherStream.finish();
+                });
+            } catch (MasterKeyException e) {
+                throw new IOException(e);
+            }
+
+            // split off the tag to store it separately
+            byte[] tag = Arrays.copyOfRange(buffer.getBuffer(), buffer.getLength(), buffer.size());
+            header = new VaultFile.Header(creds.getSlots(), new CryptParameters(nonce, tag));
+            ciphertext = buffer;
+        }
+
+        JsonStreamWriter writer = createWriter(stream);
+        writer.beginObject();
+        writer.name("version").value(VaultFile.VERSION);
+        writer.name("header").value(header.toJson());
+        writer.name("db");
+        if (ciphertext == null) {
+            vault.writeJson(writer, filter, inlineIcons);
+        } else {
+            writer.base64Value(ciphertext.getBuffer(), 0, ciphertext.getLength());
+        }
+        writer.endObject();
+        writer.flush();
+    }
+
+    private static void writeProto(OutputStream stream, Vault vault, @Nullable VaultFileCredentials creds, @Nullable Vault.EntryFilter filter, boolean inlineIcons) throws IOException {
+        // The binary encoding is compact enough for the streaming approach not to be worth it
+        VaultFile.Header header = new VaultFile.Header(null, null);
+        byte[] db;
+        try {
+            db = VaultProtoConverter.toProto(vault.toJson(filter, inlineIcons));
+            if (creds != null) {
+                CryptResult result = creds.encrypt(db);
+                header = new VaultFile.Header(creds.getSlots(), result.getParams());
+                db = result.getData();
+            }
+        } catch (VaultFileException | MasterKeyException e) {
+            throw new IOException(e);
+        }
+
+        JsonStreamWriter writer = createWriter(stream);
+        writer.beginObject();
+        writer.name("version").value(VaultFile.VERSION_PROTO);
+        writer.name("header").value(header.toJson());
+        writer.name("db").base64Value(db, 0, db.length);
+        writer.endObject();
+        writer.flush();
+    }
+
+    private static JsonStreamWriter createWriter(OutputStream stream) {
+        OutputStreamWriter writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+        return new JsonStreamWriter(new BufferedWriter(writer), INDENT_SPACES);
+    }
+
+    /**
+     * Feeds everything that is written to it through the given cipher.
+     */
+    private static class CipherStream extends OutputStream {
+        private final Cipher _cipher;
+        private final OutputStream _stream;
+
+        public CipherStream(Cipher cipher, OutputStream stream) {
+            _cipher = cipher;
+            _stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            byte[] output = _cipher.update(b, off, len);
+            if (output != null) {
+                _stream.write(output);
+            }
+        }
+
+        public void finish() throws IOException {
+            try {
+                _stream.write(_cipher.doFinal());
+            } catch (BadPaddingException | IllegalBlockSizeException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Collects the output of the cipher: the ciphertext followed by the tag. Gives access to the
+     * underlying buffer, so that the ciphertext can be encoded without making a copy of it.
+     */
+    private static class CiphertextBuffer extends ByteArrayOutputStream {
+        public byte[] getBuffer() {
+            return buf;
+        }
+
+        public int getLength() {
+            return count - CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+        }
+    }
+}
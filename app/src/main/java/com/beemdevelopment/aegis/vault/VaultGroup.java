@@ -20,6 +20,13 @@ public class VaultGroup extends UUIDMap.Value {
         _name = name;
     }
 
+    /**
+     * Creates a copy of the given group, with the same UUID.
+     */
+    public VaultGroup(VaultGroup group) {
+        this(group.getUUID(), group._name);
+    }
+
     public JSONObject toJson() {
         JSONObject obj = new JSONObject();
 
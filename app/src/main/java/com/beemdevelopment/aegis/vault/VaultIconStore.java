@@ -0,0 +1,244 @@
+package com.beemdevelopment.aegis.vault;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.AtomicFile;
+
+import com.beemdevelopment.aegis.crypto.CryptParameters;
+import com.beemdevelopment.aegis.crypto.CryptResult;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.MasterKeyException;
+import com.beemdevelopment.aegis.encoding.Hex;
+import com.beemdevelopment.aegis.util.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A content-addressed store for the icons of the entries in the vault. Every icon is stored
+ * once, in a file that is named after its hash, so entries that share an icon also share the
+ * file. If the vault is encrypted, the icons are encrypted with the master key as well. Icons
+ * are never rewritten once stored, so saving the vault only has to encrypt icons that are new.
+ *
+ * Every master key gets a directory of its own, so that changing the key never touches the
+ * icons that the vault file on disk still refers to. Directories and icons that are no longer
+ * referenced are cleaned up with retain() once the vault file no longer needs them.
+ */
+public class VaultIconStore {
+    private static final String TAG = VaultIconStore.class.getSimpleName();
+
+    public static final String DIRNAME = "icons";
+
+    private static final String PLAIN_DIRNAME = "plain";
+    private static final byte[] KEY_ID_INFO = "aegis-icon-store".getBytes(StandardCharsets.UTF_8);
+    private static final int KEY_ID_SIZE = 8;
+
+    private final File _dir;
+
+    @Nullable
+    private final VaultFileCredentials _creds;
+
+    // The hashes of the icons in the store, as a cache for the directory listing
+    private Set<String> _hashes;
+
+    public VaultIconStore(@NonNull Context context, @Nullable VaultFileCredentials creds) {
+        _dir = new File(getRootDir(context), creds == null ? PLAIN_DIRNAME : getKeyId(creds));
+        _creds = creds;
+    }
+
+    public static File getRootDir(Context context) {
+        return new File(context.getFilesDir(), DIRNAME);
+    }
+
+    /**
+     * Deletes all icon stores. This must only be called if the vault file doesn't refer to
+     * any of the icons anymore.
+     */
+    public static void discard(Context context) {
+        synchronized (VaultJournal.LOCK) {
+            IOUtils.clearDirectory(getRootDir(context), true);
+        }
+    }
+
+    public synchronized boolean contains(byte[] hash) {
+        return getHashes().contains(Hex.encode(hash));
+    }
+
+    /**
+     * Adds the given icon to the store, unless it's already in there.
+     */
+    public synchronized void put(@NonNull VaultEntryIcon icon) throws IOException {
+        String name = Hex.encode(icon.getHash());
+        if (getHashes().contains(name)) {
+            return;
+        }
+
+        if (!_dir.exists() && !_dir.mkdirs()) {
+            throw new IOException(String.format("Unable to create directory %s", _dir));
+        }
+
+        byte[] bytes = icon.getBytes();
+        if (bytes == null) {
+            // The icon was lost from the store it was read from, but keep the reference to it
+            Log.w(TAG, String.format("Unable to add icon %s to the store: it can't be read", name));
+            return;
+        }
+        if (_creds != null) {
+            try {
+                CryptResult result = _creds.encrypt(bytes);
+                CryptParameters params = result.getParams();
+                bytes = concat(params.getNonce(), params.getTag(), result.getData());
+            } catch (MasterKeyException e) {
+                throw new IOException(e);
+            }
+        }
+
+        AtomicFile file = new AtomicFile(new File(_dir, name));
+        FileOutputStream outStream = null;
+        try {
+            outStream = file.startWrite();
+            outStream.write(bytes);
+            file.finishWrite(outStream);
+        } catch (IOException e) {
+            if (outStream != null) {
+                file.failWrite(outStream);
+            }
+            throw e;
+        }
+
+        _hashes.add(name);
+    }
+
+    public void putAll(@NonNull Iterable<VaultEntry> entries) throws IOException {
+        for (VaultEntry entry : entries) {
+            if (entry.hasIcon()) {
+                put(entry.getIcon());
+            }
+        }
+    }
+
+    /**
+     * Reads the icon with the given hash from the store. The caller is responsible for
+     * checking that the result actually matches the hash.
+     */
+    @NonNull
+    public byte[] get(byte[] hash) throws IOException {
+        byte[] bytes = new AtomicFile(new File(_dir, Hex.encode(hash))).readFully();
+        if (_creds == null) {
+            return bytes;
+        }
+
+        int headerSize = CryptoUtils.CRYPTO_AEAD_NONCE_SIZE + CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+        if (bytes.length < headerSize) {
+            throw new IOException(String.format("Icon is too short: %d bytes", bytes.length));
+        }
+
+        byte[] nonce = Arrays.copyOfRange(bytes, 0, CryptoUtils.CRYPTO_AEAD_NONCE_SIZE);
+        byte[] tag = Arrays.copyOfRange(bytes, CryptoUtils.CRYPTO_AEAD_NONCE_SIZE, headerSize);
+        try {
+            return _creds.decrypt(bytes, headerSize, bytes.length - headerSize, new CryptParameters(nonce, tag)).getData();
+        } catch (MasterKeyException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Removes all icons that none of the entries in the given vault refer to, along with the
+     * stores of any other master keys. This must only be called once the vault file and the
+     * journal no longer refer to anything else.
+     */
+    public void retain(@NonNull Vault vault) {
+        Set<String> used = new HashSet<>();
+        for (VaultEntry entry : vault.getEntries()) {
+            if (entry.hasIcon()) {
+                used.add(Hex.encode(entry.getIcon().getHash()));
+            }
+        }
+
+        synchronized (VaultJournal.LOCK) {
+            synchronized (this) {
+                File[] dirs = _dir.getParentFile().listFiles();
+                if (dirs != null) {
+                    for (File dir : dirs) {
+                        if (!dir.getName().equals(_dir.getName())) {
+                            IOUtils.clearDirectory(dir, true);
+                        }
+                    }
+                }
+
+                for (String name : getHashes().toArray(new String[0])) {
+                    if (!used.contains(name)) {
+                        File file = new File(_dir, name);
+                        if (file.delete()) {
+                            _hashes.remove(name);
+                        } else {
+                            Log.e(TAG, String.format("Unable to delete %s", file));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Set<String> getHashes() {
+        if (_hashes == null) {
+            _hashes = new HashSet<>();
+
+            // Skip over any leftovers of AtomicFile, it cleans those up itself
+            String[] names = _dir.list();
+            if (names != null) {
+                for (String name : names) {
+                    if (!name.contains(".")) {
+                        _hashes.add(name);
+                    }
+                }
+            }
+        }
+
+        return _hashes;
+    }
+
+    /**
+     * Derives an identifier for the master key in the given credentials, without
+     * revealing anything about the key itself.
+     */
+    private static String getKeyId(VaultFileCredentials creds) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(creds.getKey().getBytes(), "HmacSHA256"));
+            byte[] id = mac.doFinal(KEY_ID_INFO);
+            return Hex.encode(Arrays.copyOf(id, KEY_ID_SIZE));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) {
+            length += array.length;
+        }
+
+        byte[] res = new byte[length];
+        int offset = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, res, offset, array.length);
+            offset += array.length;
+        }
+
+        return res;
+    }
+}
@@ -0,0 +1,504 @@
+package com.beemdevelopment.aegis.vault;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.AtomicFile;
+
+import com.beemdevelopment.aegis.crypto.CryptParameters;
+import com.beemdevelopment.aegis.crypto.CryptResult;
+import com.beemdevelopment.aegis.crypto.MasterKeyException;
+import com.beemdevelopment.aegis.encoding.Base64;
+import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.encoding.Hex;
+import com.beemdevelopment.aegis.util.IOUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An append-only journal that is stored next to the vault file. Instead of rewriting the
+ * entire vault file on every save, the differences with the last persisted state are
+ * appended to the journal as (encrypted) delta records. Once the journal grows too large,
+ * it is folded back into the vault file on a background thread.
+ *
+ * The journal starts with a header that contains the hash of the vault file it belongs to.
+ * Whenever the vault file is rewritten, the journal is either discarded or replaced along
+ * with it, so a crash at any point still leaves a consistent vault: a journal that doesn't
+ * match the vault file is simply ignored.
+ */
+public class VaultJournal {
+    private static final String TAG = VaultJournal.class.getSimpleName();
+
+    public static final String FILENAME = "aegis.journal";
+    public static final int VERSION = 1;
+
+    // The journal is compacted once it's larger than a quarter of the vault file
+    private static final int COMPACTION_RATIO = 4;
+    private static final long COMPACTION_MIN_SIZE = 64 * 1024;
+
+    // Guards all writes to the vault file and the journal
+    static final Object LOCK = new Object();
+
+    // Incremented whenever the vault file is rewritten in full, so that pending compactions can bail out
+    private static int _generation;
+
+    private static final ExecutorService _executor = Executors.newSingleThreadExecutor();
+
+    private final Context _context;
+
+    // A snapshot of the vault as it is currently persisted in the vault file and the journal
+    private VaultDelta.State _state;
+
+    VaultJournal(@NonNull Context context) {
+        _context = context;
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILENAME);
+    }
+
+    private static File getNextFile(Context context) {
+        return new File(context.getFilesDir(), FILENAME + ".next");
+    }
+
+    /**
+     * Deletes the journal. This must be called whenever the vault file is rewritten in full.
+     */
+    static void discard(Context context) {
+        synchronized (LOCK) {
+            _generation++;
+
+            // A journal that is left behind is bound to the old vault file, so this is not fatal
+            for (File file : new File[]{getFile(context), getNextFile(context)}) {
+                if (file.exists() && !file.delete()) {
+                    Log.e(TAG, String.format("Unable to delete %s", file));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays the journal on top of the given vault, which must have just been loaded from
+     * the vault file. A journal that belongs to a different version of the vault file is
+     * ignored. The first record that can't be read (e.g. because of a torn write during a
+     * crash) marks the end of the journal. It's discarded along with anything after it.
+     * Icons that the records refer to by hash are looked up in the given icon store.
+     */
+    static void replay(Context context, Vault vault, @Nullable VaultFileCredentials creds, VaultIconStore icons) throws VaultRepositoryException {
+        synchronized (LOCK) {
+            try {
+                String vaultHash = hashVaultFile(context);
+
+                // If we crashed during compaction after the new vault file was written, the
+                // journal that belongs to it is still waiting to be moved into place
+                File nextFile = getNextFile(context);
+                if (nextFile.exists()) {
+                    if (vaultHash.equals(readHeader(readFile(nextFile)))) {
+                        moveNextFile(context);
+                    } else if (!nextFile.delete()) {
+                        throw new IOException(String.format("Unable to delete %s", nextFile));
+                    }
+                }
+
+                File file = getFile(context);
+                if (!file.exists()) {
+                    return;
+                }
+
+                byte[] bytes = readFile(file);
+                if (!vaultHash.equals(readHeader(bytes))) {
+                    Log.w(TAG, "Ignoring journal that belongs to a different vault file");
+                    discard(context);
+                    return;
+                }
+
+                int length = applyRecords(bytes, vault, creds, icons);
+                if (length < bytes.length) {
+                    Log.w(TAG, String.format("Discarding %d bytes of unreadable records", bytes.length - length));
+                    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                        raf.setLength(length);
+                    }
+                }
+            } catch (IOException e) {
+                throw new VaultRepositoryException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the journal that belongs to the given contents of the vault file, or null if
+     * there is none. This takes a journal that is still waiting to be moved into place after
+     * a compaction into account. The caller must hold LOCK, so that neither file changes
+     * while they're being read.
+     */
+    @Nullable
+    static byte[] readFor(Context context, byte[] vaultBytes) throws IOException {
+        String vaultHash = hash(vaultBytes);
+        for (File file : new File[]{getNextFile(context), getFile(context)}) {
+            if (file.exists()) {
+                byte[] bytes = readFile(file);
+                if (vaultHash.equals(readHeader(bytes))) {
+                    return bytes;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a copy of the given journal that belongs to the vault file with the given
+     * contents instead. This is for when the vault file was re-encoded without changing its
+     * contents, like when it's made exportable for a backup.
+     */
+    static byte[] rebind(byte[] journal, byte[] vaultBytes) {
+        int offset = indexOfNewline(journal, 0) + 1;
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] header = createHeader(hash(vaultBytes));
+        stream.write(header, 0, header.length);
+        stream.write(journal, offset, journal.length - offset);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Puts the given journal into place if it belongs to the current vault file, like after
+     * both have been restored from a backup. Returns whether the journal was put into place.
+     */
+    static boolean restore(Context context, byte[] journal) throws IOException {
+        synchronized (LOCK) {
+            if (!VaultRepository.fileExists(context) || !hashVaultFile(context).equals(readHeader(journal))) {
+                return false;
+            }
+
+            writeAtomically(new AtomicFile(getFile(context)), journal);
+            File nextFile = getNextFile(context);
+            if (nextFile.exists() && !nextFile.delete()) {
+                throw new IOException(String.format("Unable to delete %s", nextFile));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the given vault. The vault must match what is currently persisted.
+     */
+    void reset(Vault vault) {
+        _state = VaultDelta.State.of(vault);
+    }
+
+    /**
+     * Appends a record with the differences between the given vault and the last persisted
+     * state to the journal. Nothing is written if there are no differences. If the journal
+     * has grown too large, a compaction is scheduled on a background thread. If icons is not
+     * null, the icons of changed entries are added to it and the record only refers to them.
+     */
+    void append(Vault vault, @Nullable VaultFileCredentials creds, @Nullable VaultIconStore icons) throws VaultRepositoryException {
+        VaultDelta delta = VaultDelta.between(_state, vault);
+        if (delta.isEmpty()) {
+            return;
+        }
+
+        long journalSize;
+        try {
+            // The icons have to be in the store before the record that refers to them is written
+            if (icons != null) {
+                icons.putAll(delta.getChangedEntries());
+            }
+
+            journalSize = writeRecord(encodeRecord(delta.toJson(icons == null), creds));
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        } catch (IOException | VaultFileException e) {
+            throw new VaultRepositoryException(e);
+        }
+
+        _state = delta.getState();
+
+        long vaultSize = VaultRepository.getAtomicFile(_context).getBaseFile().length();
+        if (journalSize > Math.max(COMPACTION_MIN_SIZE, vaultSize / COMPACTION_RATIO)) {
+            compact(creds);
+        }
+    }
+
+    /**
+     * Schedules a compaction of the journal on a background thread. The records in the
+     * journal are folded into the vault file, after which they're removed from the journal.
+     */
+    Future<?> compact(@Nullable VaultFileCredentials creds) {
+        int generation;
+        synchronized (LOCK) {
+            generation = _generation;
+        }
+
+        return _executor.submit(() -> {
+            try {
+                compact(_context, creds, generation);
+            } catch (VaultRepositoryException | IOException e) {
+                // The journal remains intact, so we'll just try again next time
+                Log.e(TAG, String.format("Unable to compact journal: %s", e));
+            }
+        });
+    }
+
+    private static void compact(Context context, @Nullable VaultFileCredentials creds, int generation)
+            throws VaultRepositoryException, IOException {
+        byte[] vaultBytes;
+        byte[] journal;
+        synchronized (LOCK) {
+            File journalFile = getFile(context);
+            if (generation != _generation || !journalFile.exists()) {
+                return;
+            }
+
+            vaultBytes = VaultRepository.getAtomicFile(context).readFully();
+            journal = readFile(journalFile);
+        }
+
+        // Fold the records into the vault file without holding the lock, so that the
+        // journal can still be appended to in the meantime
+        if (!hash(vaultBytes).equals(readHeader(journal))) {
+            throw new VaultRepositoryException("Journal belongs to a different vault file");
+        }
+
+        Vault vault;
+        VaultFile.Format format;
+        VaultIconStore icons = new VaultIconStore(context, creds);
+        boolean usesIconStore;
+        try {
+            VaultFile file = VaultFile.fromBytes(vaultBytes);
+            vault = file.getVault(creds, icons);
+            format = file.getFormat();
+            usesIconStore = vault.usesIconStore();
+        } catch (VaultException | VaultFileException e) {
+            throw new VaultRepositoryException(e);
+        }
+
+        int length = applyRecords(journal, vault, creds, icons);
+        if (length < journal.length) {
+            throw new VaultRepositoryException("Journal contains unreadable records");
+        }
+
+        byte[] newVaultBytes;
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            VaultFileWriter.write(stream, vault, creds, null, format, usesIconStore ? icons : null);
+            newVaultBytes = stream.toByteArray();
+        } catch (IOException e) {
+            throw new VaultRepositoryException(e);
+        }
+
+        synchronized (LOCK) {
+            if (generation != _generation) {
+                return;
+            }
+
+            // Records that were appended while compacting are carried over to a new journal that
+            // belongs to the new vault file. It's written before the vault file is replaced, so
+            // that replay() can finish the job if we crash halfway through.
+            byte[] current = readFile(getFile(context));
+            ByteArrayOutputStream nextJournal = new ByteArrayOutputStream();
+            nextJournal.write(createHeader(hash(newVaultBytes)));
+            nextJournal.write(current, length, current.length - length);
+            writeAtomically(new AtomicFile(getNextFile(context)), nextJournal.toByteArray());
+            writeAtomically(VaultRepository.getAtomicFile(context), newVaultBytes);
+            moveNextFile(context);
+        }
+
+        Log.i(TAG, String.format("Compacted %d bytes of journal records", length));
+    }
+
+    private long writeRecord(JSONObject record) throws IOException {
+        byte[] bytes = (record.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+
+        synchronized (LOCK) {
+            File file = getFile(_context);
+            boolean exists = file.exists();
+
+            try (FileOutputStream stream = new FileOutputStream(file, true)) {
+                if (!exists) {
+                    stream.write(createHeader(hashVaultFile(_context)));
+                }
+                stream.write(bytes);
+                stream.getFD().sync();
+                return stream.getChannel().size();
+            }
+        }
+    }
+
+    private static byte[] createHeader(String vaultHash) {
+        try {
+            JSONObject obj = new JSONObject();
+            obj.put("version", VERSION);
+            obj.put("vault", vaultHash);
+            return (obj.toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the hash of the vault file the given journal belongs to, or null if the
+     * header of the journal could not be read.
+     */
+    @Nullable
+    private static String readHeader(byte[] journal) {
+        int end = indexOfNewline(journal, 0);
+        if (end < 0) {
+            return null;
+        }
+
+        try {
+            JSONObject obj = new JSONObject(new String(journal, 0, end, StandardCharsets.UTF_8));
+            if (obj.getInt("version") > VERSION) {
+                return null;
+            }
+            return obj.getString("vault");
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    private static void moveNextFile(Context context) throws IOException {
+        File nextFile = getNextFile(context);
+        if (!nextFile.renameTo(getFile(context))) {
+            throw new IOException(String.format("Unable to move %s into place", nextFile));
+        }
+    }
+
+    private static int applyRecords(byte[] bytes, Vault vault, @Nullable VaultFileCredentials creds, VaultIconStore icons) {
+        // Skip past the header
+        int offset = indexOfNewline(bytes, 0) + 1;
+        while (offset < bytes.length) {
+            // A record without a trailing newline was not written completely
+            int end = indexOfNewline(bytes, offset);
+            if (end < 0) {
+                break;
+            }
+
+            try {
+                JSONObject record = new JSONObject(new String(bytes, offset, end - offset, StandardCharsets.UTF_8));
+                VaultDelta.apply(vault, decodeRecord(record, creds), icons);
+            } catch (JSONException | VaultFileException | VaultEntryException e) {
+                Log.e(TAG, String.format("Unable to read journal record at offset %d: %s", offset, e));
+                break;
+            }
+
+            offset = end + 1;
+        }
+
+        return offset;
+    }
+
+    /**
+     * Wraps the given delta in a record, encrypting it with the given credentials if they're
+     * not null.
+     */
+    static JSONObject encodeRecord(JSONObject delta, @Nullable VaultFileCredentials creds)
+            throws JSONException, VaultFileException {
+        JSONObject record = new JSONObject();
+        record.put("version", VERSION);
+
+        if (creds == null) {
+            record.put("params", JSONObject.NULL);
+            record.put("delta", delta);
+            return record;
+        }
+
+        try {
+            byte[] bytes = delta.toString().getBytes(StandardCharsets.UTF_8);
+            CryptResult result = creds.encrypt(bytes);
+            record.put("params", result.getParams().toJson());
+            record.put("delta", Base64.encode(result.getData()));
+        } catch (MasterKeyException e) {
+            throw new VaultFileException(e);
+        }
+
+        return record;
+    }
+
+    /**
+     * Returns the delta in the given record, decrypting it with the given credentials if needed.
+     */
+    static JSONObject decodeRecord(JSONObject record, @Nullable VaultFileCredentials creds)
+            throws JSONException, VaultFileException {
+        if (record.getInt("version") > VERSION) {
+            throw new VaultFileException("unsupported version");
+        }
+
+        // Never mix plain and encrypted records with a vault of the other kind
+        boolean encrypted = !record.isNull("params");
+        if (encrypted != (creds != null)) {
+            throw new VaultFileException("journal record encryption does not match the vault");
+        }
+
+        if (!encrypted) {
+            return record.getJSONObject("delta");
+        }
+
+        try {
+            CryptParameters params = CryptParameters.fromJson(record.getJSONObject("params"));
+            byte[] bytes = Base64.decode(record.getString("delta"));
+            CryptResult result = creds.decrypt(bytes, params);
+            return new JSONObject(new String(result.getData(), StandardCharsets.UTF_8));
+        } catch (MasterKeyException | EncodingException e) {
+            throw new VaultFileException(e);
+        }
+    }
+
+    private static int indexOfNewline(byte[] bytes, int offset) {
+        for (int i = offset; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String hashVaultFile(Context context) throws IOException {
+        return hash(VaultRepository.getAtomicFile(context).readFully());
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Hex.encode(md.digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (FileInputStream inStream = new FileInputStream(file)) {
+            return IOUtils.readFile(inStream);
+        }
+    }
+
+    private static void writeAtomically(AtomicFile file, byte[] bytes) throws IOException {
+        FileOutputStream outStream = null;
+        try {
+            outStream = file.startWrite();
+            outStream.write(bytes);
+            file.finishWrite(outStream);
+        } catch (IOException e) {
+            if (outStream != null) {
+                file.failWrite(outStream);
+            }
+            throw e;
+        }
+    }
+}
@@ -6,6 +6,8 @@ import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.annotation.NonNull;
@@ -15,20 +17,37 @@ import androidx.fragment.app.Fragment;
 import com.beemdevelopment.aegis.BackupsVersioningStrategy;
 import com.beemdevelopment.aegis.Preferences;
 import com.beemdevelopment.aegis.R;
+import com.beemdevelopment.aegis.crypto.CryptoSession;
 import com.beemdevelopment.aegis.crypto.KeyStoreHandle;
 import com.beemdevelopment.aegis.crypto.KeyStoreHandleException;
+import com.beemdevelopment.aegis.crypto.otp.OtpGenerator;
 import com.beemdevelopment.aegis.database.AuditLogRepository;
+import com.beemdevelopment.aegis.encoding.Hex;
 import com.beemdevelopment.aegis.services.NotificationService;
 import com.beemdevelopment.aegis.ui.dialogs.Dialogs;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.json.JSONObject;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class VaultManager {
+    private static final String TAG = VaultManager.class.getSimpleName();
+
+    // The number of incremental backups to make before making a full backup again
+    private static final int MAX_INCREMENTAL_BACKUPS = 10;
+
     private final Context _context;
     private final Preferences _prefs;
 
@@ -36,6 +55,9 @@ public class VaultManager {
 
     private final VaultBackupManager _backups;
     private final BackupManager _androidBackups;
+    private final VaultSaveQueue _saveQueue;
+    // The write of the changes that were still waiting to be saved when the vault was locked
+    private Future<?> _lockFlush;
 
     private final List<LockListener> _lockListeners;
     private boolean _blockAutoLock;
@@ -47,6 +69,7 @@ public class VaultManager {
         _prefs = new Preferences(_context);
         _backups = new VaultBackupManager(_context, auditLogRepository);
         _androidBackups = new BackupManager(context);
+        _saveQueue = new VaultSaveQueue(this::writeVault);
         _lockListeners = new ArrayList<>();
         _auditLogRepository = auditLogRepository;
     }
@@ -61,9 +84,12 @@ public class VaultManager {
             throw new IllegalStateException("Vault manager is already initialized");
         }
 
+        awaitLockFlush();
         VaultRepository repo = new VaultRepository(_context, new Vault(), creds);
         repo.save();
+        repo.setJournalEnabled(_prefs.isVaultJournalEnabled());
         _repo = repo;
+        CryptoSession.start();
 
         if (getVault().isEncryptionEnabled()) {
             startNotificationService();
@@ -82,7 +108,10 @@ public class VaultManager {
             throw new IllegalStateException("Vault manager is already initialized");
         }
 
+        awaitLockFlush();
         _repo = VaultRepository.fromFile(_context, vaultFile, creds);
+        _repo.setJournalEnabled(_prefs.isVaultJournalEnabled());
+        CryptoSession.start();
 
         if (getVault().isEncryptionEnabled()) {
             startNotificationService();
@@ -96,13 +125,31 @@ public class VaultManager {
         return loadFrom(vaultFile, null);
     }
 
+    /**
+     * Reads the vault file from disk. If the vault was locked while changes to it were still
+     * being saved, this blocks until they have been written.
+     */
+    @NonNull
+    public VaultFile readVaultFile() throws VaultRepositoryException {
+        awaitLockFlush();
+        return VaultRepository.readVaultFile(_context);
+    }
+
     /**
      * Locks the vault and the app.
      * @param userInitiated whether or not the user initiated the lock in MainActivity.
      */
     public void lock(boolean userInitiated) {
+        // Make sure that any changes that are still waiting to be saved don't get lost. This is
+        // usually called on the main thread, so don't wait for the write here. The vault file
+        // isn't read or written again until it's done, see awaitLockFlush.
+        _lockFlush = _saveQueue.flushAsync();
         _repo = null;
 
+        // Don't keep the keys of the entries around in the caches of the OTP generators
+        OtpGenerator.invalidateAll();
+        CryptoSession.end();
+
         for (LockListener listener : _lockListeners) {
             listener.onLocked(userInitiated);
         }
@@ -122,7 +169,7 @@ public class VaultManager {
 
         // remove any keys that are stored in the KeyStore
         try {
-            KeyStoreHandle handle = new KeyStoreHandle();
+            KeyStoreHandle handle = CryptoSession.getKeyStore();
             handle.clear();
         } catch (KeyStoreHandleException e) {
             // this cleanup operation is not strictly necessary, so we ignore any exceptions here
@@ -132,19 +179,93 @@ public class VaultManager {
         stopNotificationService();
     }
 
+    /**
+     * Saves the vault and blocks until it has been written, along with any changes that were
+     * still waiting to be saved by saveAsync or saveAndBackupAsync.
+     */
     public void save() throws VaultRepositoryException {
-        getVault().save();
+        VaultRepository repo = getVault();
+        _saveQueue.save(repo, repo.snapshot(), false);
     }
 
+    /**
+     * Saves the vault like save(), and schedules a backup afterwards if backups are enabled.
+     */
     public void saveAndBackup() throws VaultRepositoryException {
-        save();
+        VaultRepository repo = getVault();
+        _saveQueue.save(repo, repo.snapshot(), true);
+    }
+
+    /**
+     * Schedules the vault to be saved on a background thread. Saves that are requested shortly
+     * after one another are coalesced into a single write.
+     * @return A future that completes once the vault has been saved.
+     */
+    public ListenableFuture<Void> saveAsync() {
+        VaultRepository repo = getVault();
+        return _saveQueue.submit(repo, repo.snapshot(), false);
+    }
 
+    /**
+     * Schedules the vault to be saved on a background thread like saveAsync(), and schedules a
+     * backup afterwards if backups are enabled.
+     */
+    public ListenableFuture<Void> saveAndBackupAsync() {
+        VaultRepository repo = getVault();
+        return _saveQueue.submit(repo, repo.snapshot(), true);
+    }
+
+    /**
+     * Starts writing any changes that are waiting to be saved right away, without waiting for
+     * that to finish. This should be called when the app moves to the background.
+     */
+    public void flushPendingSaves() {
+        _saveQueue.flushAsync();
+    }
+
+    /**
+     * Writes the given snapshot of the vault in the given repository. This is called on the
+     * background thread of the save queue.
+     */
+    private void writeVault(VaultRepository repo, Vault vault, boolean backup) throws VaultRepositoryException {
+        synchronized (repo) {
+            boolean journalEnabled = _prefs.isVaultJournalEnabled();
+            if (!journalEnabled) {
+                repo.setJournalEnabled(false);
+            }
+
+            // Switching formats requires rewriting the vault file in full
+            VaultFile.Format format = _prefs.isVaultProtoEncodingEnabled() ? VaultFile.Format.PROTO : VaultFile.Format.JSON;
+            if (repo.getFormat() != format) {
+                repo.setJournalEnabled(false);
+                repo.setFormat(format);
+            }
+
+            // The same goes for moving the icons in or out of the icon store
+            boolean iconStoreEnabled = _prefs.isVaultIconStoreEnabled();
+            if (repo.isIconStoreEnabled() != iconStoreEnabled) {
+                repo.setJournalEnabled(false);
+                repo.setIconStoreEnabled(iconStoreEnabled);
+            }
+
+            repo.save(vault);
+
+            // The repository is in sync with the vault file after saving, so this is a good time to start journaling
+            repo.setJournalEnabled(journalEnabled);
+        }
+
+        if (backup) {
+            backup(repo, vault);
+        }
+    }
+
+    private void backup(VaultRepository repo, Vault vault) {
         boolean backedUp = false;
-        if (getVault().isEncryptionEnabled()) {
+        if (repo.isEncryptionEnabled()) {
             if (_prefs.isBackupsEnabled()) {
                 backedUp = true;
                 try {
-                    scheduleBackup();
+                    scheduleBackup(repo, vault, false);
                 } catch (VaultRepositoryException e) {
                     _prefs.setBuiltInBackupResult(new Preferences.BackupResult(e));
                 }
@@ -152,7 +273,7 @@ public class VaultManager {
 
             if (_prefs.isAndroidBackupsEnabled()) {
                 backedUp = true;
-                scheduleAndroidBackup();
+                scheduleAndroidBackup(repo);
             }
         }
 
@@ -161,31 +282,97 @@ public class VaultManager {
         }
     }
 
+    /**
+     * Creates a full backup of the vault, even if nothing has changed since the last backup.
+     */
     public void scheduleBackup() throws VaultRepositoryException {
+        VaultRepository repo = getVault();
+        scheduleBackup(repo, repo.snapshot(), true);
+    }
+
+    private void scheduleBackup(VaultRepository repo, Vault vault, boolean force) throws VaultRepositoryException {
         _prefs.setIsBackupReminderNeeded(false);
 
+        BackupsVersioningStrategy strategy = _prefs.getBackupVersioningStrategy();
+        Uri uri = _prefs.getBackupsLocation();
+        int versionsToKeep = _prefs.getBackupsVersionCount();
+
+        // Backups that would be identical to the last one are skipped. A change in the order of
+        // the entries alone is not worth a new backup, so it's left out of the digest.
+        VaultDelta.State state = VaultDelta.State.of(vault);
+        String headerDigest = repo.getBackupHeaderDigest();
+        String digest = digest(headerDigest, state.digest(), strategy.name(), String.valueOf(uri));
+        if (!force && _backups.isLatestBackup(digest)) {
+            Log.i(TAG, "Skipping backup, because nothing has changed since the last one");
+            return;
+        }
+
+        boolean incremental = uri != null
+                && strategy == BackupsVersioningStrategy.MULTIPLE_BACKUPS
+                && _prefs.isBackupsIncrementalEnabled();
+
+        long start = SystemClock.elapsedRealtime();
         try {
             File dir = new File(_context.getCacheDir(), "backup");
             if (!dir.exists() && !dir.mkdir()) {
                 throw new IOException(String.format("Unable to create directory %s", dir));
             }
 
+            VaultBackupManager.Base base = incremental && !force ? _backups.readBase(uri, headerDigest) : null;
+            if (base != null && base.getDeltaCount() < MAX_INCREMENTAL_BACKUPS) {
+                // Once a large part of the vault has changed, a new full backup is hardly any larger
+                VaultDelta delta = VaultDelta.between(base.getState(), vault);
+                if (delta.getChangedEntries().size() <= state.size() / 2) {
+                    VaultFileCredentials creds = repo.getCredentials();
+                    File tempFile = File.createTempFile(VaultBackupManager.FILENAME_PREFIX, "." + VaultBackupManager.DELTA_EXTENSION, dir);
+                    try (OutputStream outStream = new FileOutputStream(tempFile)) {
+                        JSONObject obj = delta.toBackupJson(base.getFilename(), creds == null ? null : creds.exportable());
+                        outStream.write(obj.toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                    Log.i(TAG, String.format("Exported incremental backup in %d ms", SystemClock.elapsedRealtime() - start));
+
+                    _backups.scheduleIncrementalBackup(tempFile, uri, versionsToKeep, digest, base);
+                    return;
+                }
+            }
+
             File tempFile = File.createTempFile(VaultBackupManager.FILENAME_PREFIX, ".json", dir);
             try (OutputStream outStream = new FileOutputStream(tempFile)) {
-                _repo.export(outStream);
+                repo.exportBackup(outStream, vault);
             }
-            BackupsVersioningStrategy strategy = _prefs.getBackupVersioningStrategy();
-            Uri uri = _prefs.getBackupsLocation();
-            int versionsToKeep = _prefs.getBackupsVersionCount();
+            Log.i(TAG, String.format("Exported backup in %d ms", SystemClock.elapsedRealtime() - start));
 
-            _backups.scheduleBackup(tempFile, strategy, uri, versionsToKeep);
-        } catch (IOException e) {
+            base = incremental ? new VaultBackupManager.Base(headerDigest, state) : null;
+            _backups.scheduleBackup(tempFile, strategy, uri, versionsToKeep, digest, base);
+        } catch (IOException | VaultFileException e) {
             throw new VaultRepositoryException(e);
         }
     }
 
+    private static String digest(String... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                md.update(part.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+            }
+            return Hex.encode(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void scheduleAndroidBackup() {
+        scheduleAndroidBackup(_repo);
+    }
+
+    private void scheduleAndroidBackup(@Nullable VaultRepository repo) {
         _prefs.setIsBackupReminderNeeded(false);
+
+        // The backup agent only picks up the vault file, so fold any journal records into it first
+        if (repo != null) {
+            repo.compactJournal();
+        }
         _androidBackups.dataChanged();
     }
 
@@ -219,6 +406,21 @@ public class VaultManager {
         return _blockAutoLock;
     }
 
+    private void awaitLockFlush() {
+        Future<?> flush = _lockFlush;
+        if (flush == null) {
+            return;
+        }
+
+        try {
+            Uninterruptibles.getUninterruptibly(flush);
+        } catch (ExecutionException e) {
+            // VaultSaveQueue reports errors through the futures of the save requests instead
+            Log.e(TAG, String.format("Unable to flush pending saves: %s", e.getCause()));
+        }
+        _lockFlush = null;
+    }
+
     public boolean isVaultLoaded() {
         return _repo != null;
     }
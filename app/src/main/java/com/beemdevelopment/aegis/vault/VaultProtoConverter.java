@@ -0,0 +1,219 @@
+package com.beemdevelopment.aegis.vault;
+
+import com.beemdevelopment.aegis.VaultProtos;
+import com.beemdevelopment.aegis.encoding.Base32;
+import com.beemdevelopment.aegis.encoding.Base64;
+import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.encoding.Hex;
+import com.beemdevelopment.aegis.util.JsonUtils;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Converts the vault database between the JSON format produced by Vault.toJson() and the
+ * binary encoding defined in vault.proto. Converting a database to the binary encoding and back
+ * results in the same JSON that Vault.toJson() would produce for it.
+ */
+public class VaultProtoConverter {
+    private VaultProtoConverter() {
+
+    }
+
+    public static byte[] toProto(JSONObject obj) throws VaultFileException {
+        try {
+            VaultProtos.Vault.Builder vault = VaultProtos.Vault.newBuilder()
+                    .setVersion(obj.getInt("version"))
+                    .setIconsOptimized(obj.optBoolean("icons_optimized"));
+
+            JSONArray entries = obj.getJSONArray("entries");
+            for (int i = 0; i < entries.length(); i++) {
+                vault.addEntries(toProtoEntry(entries.getJSONObject(i)));
+            }
+
+            JSONArray groups = obj.optJSONArray("groups");
+            if (groups != null) {
+                for (int i = 0; i < groups.length(); i++) {
+                    JSONObject group = groups.getJSONObject(i);
+                    vault.addGroups(VaultProtos.Vault.Group.newBuilder()
+                            .setUuid(toBytes(group.getString("uuid")))
+                            .setName(group.getString("name")));
+                }
+            }
+
+            return vault.build().toByteArray();
+        } catch (JSONException | EncodingException | IllegalArgumentException e) {
+            throw new VaultFileException(e);
+        }
+    }
+
+    public static JSONObject fromProto(byte[] bytes) throws VaultFileException {
+        try {
+            VaultProtos.Vault vault = VaultProtos.Vault.parseFrom(bytes);
+
+            JSONArray entries = new JSONArray();
+            for (VaultProtos.Vault.Entry entry : vault.getEntriesList()) {
+                entries.put(fromProtoEntry(entry));
+            }
+
+            JSONArray groups = new JSONArray();
+            for (VaultProtos.Vault.Group group : vault.getGroupsList()) {
+                JSONObject obj = new JSONObject();
+                obj.put("uuid", toUUID(group.getUuid()).toString());
+                obj.put("name", group.getName());
+                groups.put(obj);
+            }
+
+            JSONObject obj = new JSONObject();
+            obj.put("version", vault.getVersion());
+            obj.put("entries", entries);
+            obj.put("groups", groups);
+            obj.put("icons_optimized", vault.getIconsOptimized());
+            return obj;
+        } catch (InvalidProtocolBufferException | JSONException | IllegalArgumentException e) {
+            throw new VaultFileException(e);
+        }
+    }
+
+    private static VaultProtos.Vault.Entry toProtoEntry(JSONObject obj) throws JSONException, EncodingException {
+        VaultProtos.Vault.Entry.Builder entry = VaultProtos.Vault.Entry.newBuilder()
+                .setType(obj.getString("type"))
+                .setName(obj.getString("name"))
+                .setIssuer(obj.getString("issuer"))
+                .setNote(obj.optString("note", ""))
+                .setFavorite(obj.optBoolean("favorite", false))
+                .setInfo(toProtoInfo(obj.getJSONObject("info")));
+
+        if (obj.has("uuid")) {
+            entry.setUuid(toBytes(obj.getString("uuid")));
+        }
+
+        // An icon without data refers to an icon in the icon store
+        String icon = JsonUtils.optString(obj, "icon");
+        if (icon != null || (!obj.has("icon") && obj.has("icon_hash"))) {
+            VaultProtos.Vault.Icon.Builder iconProto = VaultProtos.Vault.Icon.newBuilder();
+            if (icon != null) {
+                iconProto.setData(UnsafeByteOperations.unsafeWrap(Base64.decode(icon)));
+            }
+
+            String mime = JsonUtils.optString(obj, "icon_mime");
+            if (mime != null) {
+                iconProto.setMime(mime);
+            }
+
+            String hash = JsonUtils.optString(obj, "icon_hash");
+            if (hash != null) {
+                iconProto.setHash(UnsafeByteOperations.unsafeWrap(Hex.decode(hash)));
+            }
+
+            entry.setIcon(iconProto);
+        }
+
+        JSONArray groups = obj.optJSONArray("groups");
+        if (groups != null) {
+            for (int i = 0; i < groups.length(); i++) {
+                entry.addGroups(toBytes(groups.getString(i)));
+            }
+        }
+
+        return entry.build();
+    }
+
+    private static JSONObject fromProtoEntry(VaultProtos.Vault.Entry entry) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("type", entry.getType());
+        if (!entry.getUuid().isEmpty()) {
+            obj.put("uuid", toUUID(entry.getUuid()).toString());
+        }
+        obj.put("name", entry.getName());
+        obj.put("issuer", entry.getIssuer());
+        obj.put("note", entry.getNote());
+        obj.put("favorite", entry.getFavorite());
+
+        if (!entry.hasIcon()) {
+            obj.put("icon", JSONObject.NULL);
+        } else {
+            VaultProtos.Vault.Icon icon = entry.getIcon();
+            if (!icon.getData().isEmpty() || !icon.hasHash()) {
+                obj.put("icon", Base64.encode(icon.getData().toByteArray()));
+            }
+            if (icon.hasMime()) {
+                obj.put("icon_mime", icon.getMime());
+            }
+            if (icon.hasHash()) {
+                obj.put("icon_hash", Hex.encode(icon.getHash().toByteArray()));
+            }
+        }
+
+        obj.put("info", fromProtoInfo(entry.getInfo()));
+
+        JSONArray groups = new JSONArray();
+        for (ByteString group : entry.getGroupsList()) {
+            groups.put(toUUID(group).toString());
+        }
+        obj.put("groups", groups);
+
+        return obj;
+    }
+
+    private static VaultProtos.Vault.Info toProtoInfo(JSONObject obj) throws JSONException, EncodingException {
+        VaultProtos.Vault.Info.Builder info = VaultProtos.Vault.Info.newBuilder()
+                .setSecret(UnsafeByteOperations.unsafeWrap(Base32.decode(obj.getString("secret"))))
+                .setAlgo(obj.getString("algo"))
+                .setDigits(obj.getInt("digits"));
+
+        if (obj.has("period")) {
+            info.setPeriod(obj.getInt("period"));
+        }
+        if (obj.has("counter")) {
+            info.setCounter(obj.getLong("counter"));
+        }
+        if (obj.has("pin")) {
+            info.setPin(obj.getString("pin"));
+        }
+
+        return info.build();
+    }
+
+    private static JSONObject fromProtoInfo(VaultProtos.Vault.Info info) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("secret", Base32.encode(info.getSecret().toByteArray()));
+        obj.put("algo", info.getAlgo());
+        obj.put("digits", info.getDigits());
+        if (info.hasPeriod()) {
+            obj.put("period", info.getPeriod());
+        }
+        if (info.hasCounter()) {
+            obj.put("counter", info.getCounter());
+        }
+        if (info.hasPin()) {
+            obj.put("pin", info.getPin());
+        }
+
+        return obj;
+    }
+
+    private static ByteString toBytes(String uuidStr) {
+        UUID uuid = UUID.fromString(uuidStr);
+        ByteBuffer buf = ByteBuffer.allocate(16);
+        buf.putLong(uuid.getMostSignificantBits());
+        buf.putLong(uuid.getLeastSignificantBits());
+        return UnsafeByteOperations.unsafeWrap(buf.array());
+    }
+
+    private static UUID toUUID(ByteString bytes) {
+        if (bytes.size() != 16) {
+            throw new IllegalArgumentException(String.format("Bad UUID length: %d", bytes.size()));
+        }
+
+        ByteBuffer buf = bytes.asReadOnlyByteBuffer();
+        return new UUID(buf.getLong(), buf.getLong());
+    }
+}
@@ -1,19 +1,18 @@
 package com.beemdevelopment.aegis.vault;
 
 import android.content.Context;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.util.AtomicFile;
 
+import com.beemdevelopment.aegis.encoding.Hex;
 import com.beemdevelopment.aegis.otp.GoogleAuthInfo;
-import com.beemdevelopment.aegis.util.Cloner;
 import com.beemdevelopment.aegis.util.IOUtils;
 import com.google.zxing.WriterException;
 
-import org.json.JSONObject;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -21,6 +20,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
@@ -28,6 +29,8 @@ import java.util.UUID;
 import java.util.stream.Collectors;
 
 public class VaultRepository {
+    private static final String TAG = VaultRepository.class.getSimpleName();
+
     public static final String FILENAME = "aegis.json";
     public static final String FILENAME_PREFIX_EXPORT = "aegis-export";
     public static final String FILENAME_PREFIX_EXPORT_PLAIN = "aegis-export-plain";
@@ -43,13 +46,23 @@ public class VaultRepository {
     @NonNull
     private final Context _context;
 
+    @Nullable
+    private VaultJournal _journal;
+
+    @NonNull
+    private VaultFile.Format _format = VaultFile.Format.JSON;
+
+    // The store the icons are kept in, or null if they're stored inline in the vault file
+    @Nullable
+    private VaultIconStore _icons;
+
     public VaultRepository(@NonNull Context context, @NonNull Vault vault, @Nullable VaultFileCredentials creds) {
         _context = context;
         _vault = vault;
         _creds = creds;
     }
 
-    private static AtomicFile getAtomicFile(Context context) {
+    static AtomicFile getAtomicFile(Context context) {
         return new AtomicFile(new File(context.getFilesDir(), FILENAME));
     }
 
@@ -59,76 +72,253 @@ public class VaultRepository {
     }
 
     public static void deleteFile(Context context) {
-        getAtomicFile(context).delete();
+        synchronized (VaultJournal.LOCK) {
+            getAtomicFile(context).delete();
+            VaultJournal.discard(context);
+            VaultIconStore.discard(context);
+        }
     }
 
     public static VaultFile readVaultFile(Context context) throws VaultRepositoryException {
         AtomicFile file = getAtomicFile(context);
 
-        try {
-            byte[] fileBytes = file.readFully();
-            return VaultFile.fromBytes(fileBytes);
+        try (InputStream inStream = file.openRead()) {
+            return VaultFile.fromStream(inStream);
         } catch (IOException | VaultFileException e) {
             throw new VaultRepositoryException(e);
         }
     }
 
     public static void writeToFile(Context context, InputStream inStream) throws IOException {
+        writeToFile(context, outStream -> IOUtils.copy(inStream, outStream));
+    }
+
+    private static void writeToFile(Context context, StreamWriter writer) throws IOException {
         AtomicFile file = VaultRepository.getAtomicFile(context);
 
-        FileOutputStream outStream = null;
-        try {
-            outStream = file.startWrite();
-            IOUtils.copy(inStream, outStream);
-            file.finishWrite(outStream);
-        } catch (IOException e) {
-            if (outStream != null) {
-                file.failWrite(outStream);
+        synchronized (VaultJournal.LOCK) {
+            FileOutputStream outStream = null;
+            try {
+                outStream = file.startWrite();
+                writer.write(outStream);
+                file.finishWrite(outStream);
+            } catch (IOException e) {
+                if (outStream != null) {
+                    file.failWrite(outStream);
+                }
+                throw e;
             }
-            throw e;
+
+            // Any journal records were written on top of the old vault file
+            VaultJournal.discard(context);
         }
     }
 
+    /**
+     * Writes an exportable copy of the vault file to vaultFile, along with the journal
+     * records that haven't been folded into the vault file yet to journalFile. If there are
+     * no such records, journalFile is deleted. Everything is read while holding the journal
+     * lock, including the icon store that is copied by the given callback, so that a save or
+     * compaction that runs at the same time can't leave the copy in an inconsistent state.
+     */
+    public static void writeBackup(Context context, File vaultFile, File journalFile, BackupCallback callback)
+            throws VaultRepositoryException, IOException {
+        synchronized (VaultJournal.LOCK) {
+            byte[] vaultBytes = getAtomicFile(context).readFully();
+            byte[] journal = VaultJournal.readFor(context, vaultBytes);
+
+            byte[] exportBytes;
+            try {
+                exportBytes = VaultFile.fromBytes(vaultBytes).exportable().toBytes();
+            } catch (VaultFileException e) {
+                throw new VaultRepositoryException(e);
+            }
+
+            try (OutputStream stream = new FileOutputStream(vaultFile)) {
+                stream.write(exportBytes);
+            }
+            if (journal != null) {
+                try (OutputStream stream = new FileOutputStream(journalFile)) {
+                    stream.write(VaultJournal.rebind(journal, exportBytes));
+                }
+            } else if (journalFile.exists() && !journalFile.delete()) {
+                throw new IOException(String.format("Unable to delete %s", journalFile));
+            }
+
+            callback.onLocked();
+        }
+    }
+
+    /**
+     * Puts the journal that was written by writeBackup into place, if it belongs to the
+     * current vault file. Returns whether it did.
+     */
+    public static boolean restoreJournal(Context context, InputStream inStream) throws IOException {
+        return VaultJournal.restore(context, IOUtils.readAll(inStream));
+    }
+
     public static VaultRepository fromFile(Context context, VaultFile file, VaultFileCredentials creds) throws VaultRepositoryException {
         if (file.isEncrypted() && creds == null) {
             throw new IllegalArgumentException("The VaultFile is encrypted but the given VaultFileCredentials is null");
         }
 
         Vault vault;
+        VaultIconStore icons = new VaultIconStore(context, creds);
+        boolean usesIconStore;
         try {
-            JSONObject obj;
-            if (!file.isEncrypted()) {
-                obj = file.getContent();
-            } else {
-                obj = file.getContent(creds);
-            }
-
-            vault = Vault.fromJson(obj);
+            vault = file.getVault(file.isEncrypted() ? creds : null, icons);
+            usesIconStore = vault.usesIconStore();
         } catch (VaultException | VaultFileException e) {
             throw new VaultRepositoryException(e);
         }
 
-        return new VaultRepository(context, vault, creds);
+        VaultJournal.replay(context, vault, creds, icons);
+
+        // The vault file and the journal have been read, so we know which icons are still in use
+        icons.retain(vault);
+
+        VaultRepository repo = new VaultRepository(context, vault, creds);
+        repo._format = file.getFormat();
+        repo._icons = usesIconStore ? icons : null;
+        return repo;
     }
 
     void save() throws VaultRepositoryException {
-        try {
-            JSONObject obj = _vault.toJson();
-
-            VaultFile file = new VaultFile();
-            if (isEncryptionEnabled()) {
-                file.setContent(obj, _creds);
-            } else {
-                file.setContent(obj);
-            }
+        save(_vault);
+    }
 
+    /**
+     * Saves the given vault, which is expected to be a snapshot of the vault in this repository
+     * that was taken with snapshot(). Unlike save(), this is safe to call from a background
+     * thread while the vault in this repository is being changed.
+     */
+    synchronized void save(Vault vault) throws VaultRepositoryException {
+        if (_journal != null) {
             try {
-                byte[] bytes = file.toBytes();
-                writeToFile(_context, new ByteArrayInputStream(bytes));
-            } catch (IOException e) {
-                throw new VaultRepositoryException(e);
+                _journal.append(vault, _creds, _icons);
+                return;
+            } catch (VaultRepositoryException e) {
+                // Fall back to rewriting the vault file, which also gets rid of the journal
+                Log.e(TAG, String.format("Unable to append to journal: %s", e));
             }
-        } catch (VaultFileException e) {
+        }
+
+        try {
+            writeToFile(_context, stream -> VaultFileWriter.write(stream, vault, _creds, null, _format, _icons));
+        } catch (IOException e) {
+            throw new VaultRepositoryException(e);
+        }
+
+        // Only the vault file that was just written refers to icons in the store now
+        if (_icons != null) {
+            _icons.retain(vault);
+        } else {
+            VaultIconStore.discard(_context);
+        }
+
+        if (_journal != null) {
+            _journal.reset(vault);
+        }
+    }
+
+    /**
+     * Returns a copy of the vault in this repository that can be saved on a background thread.
+     */
+    Vault snapshot() {
+        return new Vault(_vault);
+    }
+
+    /**
+     * Enables or disables journaled storage. While enabled, save() appends small changes to
+     * a journal next to the vault file, instead of rewriting the vault file in full. Enabling
+     * it is only allowed while the repository is in sync with what's on disk, i.e. right
+     * after it was loaded or saved.
+     */
+    synchronized void setJournalEnabled(boolean enabled) {
+        if (!enabled) {
+            _journal = null;
+        } else if (_journal == null) {
+            _journal = new VaultJournal(_context);
+            _journal.reset(_vault);
+        }
+    }
+
+    public synchronized boolean isJournalEnabled() {
+        return _journal != null;
+    }
+
+    /**
+     * Schedules the journal to be folded back into the vault file on a background thread.
+     */
+    public synchronized void compactJournal() {
+        if (_journal != null) {
+            _journal.compact(_creds);
+        }
+    }
+
+    @NonNull
+    public synchronized VaultFile.Format getFormat() {
+        return _format;
+    }
+
+    /**
+     * Sets the encoding of the database in the vault file. It takes effect the next time the
+     * vault file is rewritten in full, so journaling should be disabled before calling this.
+     */
+    synchronized void setFormat(@NonNull VaultFile.Format format) {
+        _format = format;
+    }
+
+    public synchronized boolean isIconStoreEnabled() {
+        return _icons != null;
+    }
+
+    /**
+     * Sets whether to keep the icons in a separate content-addressed store, instead of inline in
+     * the vault file. It takes effect the next time the vault file is rewritten in full, so
+     * journaling should be disabled before calling this.
+     */
+    synchronized void setIconStoreEnabled(boolean enabled) {
+        _icons = enabled ? new VaultIconStore(_context, _creds) : null;
+    }
+
+    /**
+     * Returns a digest of everything besides the vault itself that ends up in a backup, i.e.
+     * the slots that the backup can be decrypted with and the format of the backup.
+     */
+    synchronized String getBackupHeaderDigest() {
+        String slots = _creds == null ? "" : _creds.exportable().getSlots().toJson().toString();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(slots.getBytes(StandardCharsets.UTF_8));
+            md.update(_format.name().getBytes(StandardCharsets.UTF_8));
+            return Hex.encode(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Exports the vault for a backup. Unlike the other export methods, this keeps the encoding
+     * of the vault file, so the result may be in a format that only recent versions of Aegis
+     * can import.
+     */
+    public void exportBackup(OutputStream stream) throws VaultRepositoryException {
+        exportBackup(stream, _vault);
+    }
+
+    /**
+     * Exports the given snapshot of the vault for a backup, like exportBackup(stream).
+     */
+    void exportBackup(OutputStream stream, Vault vault) throws VaultRepositoryException {
+        VaultFileCredentials creds = getCredentials();
+        if (creds != null) {
+            creds = creds.exportable();
+        }
+
+        try {
+            VaultFileWriter.write(stream, vault, creds, null, getFormat());
+        } catch (IOException e) {
             throw new VaultRepositoryException(e);
         }
     }
@@ -169,17 +359,8 @@ public class VaultRepository {
         }
 
         try {
-            VaultFile vaultFile = new VaultFile();
-
-            if (creds != null) {
-                vaultFile.setContent(_vault.toJson(filter), creds);
-            } else {
-                vaultFile.setContent(_vault.toJson(filter));
-            }
-
-            byte[] bytes = vaultFile.toBytes();
-            stream.write(bytes);
-        } catch (IOException | VaultFileException e) {
+            VaultFileWriter.write(stream, _vault, creds, filter);
+        } catch (IOException e) {
             throw new VaultRepositoryException(e);
         }
     }
@@ -251,7 +432,7 @@ public class VaultRepository {
     }
 
     public VaultEntry editEntry(VaultEntry entry, EntryEditor editor) {
-        VaultEntry newEntry = Cloner.clone(entry);
+        VaultEntry newEntry = new VaultEntry(entry);
         editor.edit(newEntry);
         replaceEntry(newEntry);
         return newEntry;
@@ -341,15 +522,24 @@ public class VaultRepository {
         _vault.setIconsOptimized(optimized);
     }
 
-    public VaultFileCredentials getCredentials() {
+    public synchronized VaultFileCredentials getCredentials() {
         return _creds == null ? null : _creds.clone();
     }
 
-    public void setCredentials(VaultFileCredentials creds) {
+    public synchronized void setCredentials(VaultFileCredentials creds) {
         _creds = creds == null ? null : creds.clone();
+
+        // Icons are encrypted with the master key, so a new key needs a store of its own
+        if (_icons != null) {
+            _icons = new VaultIconStore(_context, _creds);
+        }
+
+        // The header of the vault file changes along with the credentials, so the
+        // next save has to rewrite the vault file in full
+        _journal = null;
     }
 
-    public boolean isEncryptionEnabled() {
+    public synchronized boolean isEncryptionEnabled() {
         return _creds != null;
     }
 
@@ -361,6 +551,14 @@ public class VaultRepository {
         return getCredentials().getSlots().findBackupPasswordSlots().size() > 0;
     }
 
+    private interface StreamWriter {
+        void write(OutputStream stream) throws IOException;
+    }
+
+    public interface BackupCallback {
+        void onLocked() throws IOException;
+    }
+
     public interface EntryEditor {
         void edit(VaultEntry entry);
     }
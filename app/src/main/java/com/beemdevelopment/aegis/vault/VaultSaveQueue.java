@@ -0,0 +1,161 @@
+package com.beemdevelopment.aegis.vault;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A queue that saves snapshots of the vault on a dedicated background thread. Requests that
+ * come in while an earlier one is still waiting are coalesced: only the most recent snapshot
+ * is written, and all of the requests complete together once it has been. This keeps bursts
+ * of small changes from each causing a full write of the vault.
+ */
+public class VaultSaveQueue {
+    private static final String TAG = VaultSaveQueue.class.getSimpleName();
+
+    // How long to wait for more changes before writing the vault
+    public static final long DEFAULT_DELAY_MS = 500;
+
+    private final Writer _writer;
+    private final long _delayMs;
+    private final ScheduledExecutorService _executor;
+
+    // The request that hasn't been picked up by the background thread yet, guarded by this
+    private Request _pending;
+
+    public VaultSaveQueue(@NonNull Writer writer) {
+        this(writer, DEFAULT_DELAY_MS);
+    }
+
+    public VaultSaveQueue(@NonNull Writer writer, long delayMs) {
+        _writer = writer;
+        _delayMs = delayMs;
+        _executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules the given snapshot of the vault in the given repository to be saved. If backup
+     * is true, a backup is made after saving, even if the request is coalesced with one that
+     * didn't ask for a backup.
+     * @return A future that completes once the snapshot or a more recent one has been saved.
+     */
+    public synchronized ListenableFuture<Void> submit(@NonNull VaultRepository repo, @NonNull Vault vault, boolean backup) {
+        if (_pending == null) {
+            _pending = new Request(repo, vault, backup);
+            _pending.scheduled = _executor.schedule(this::runPending, _delayMs, TimeUnit.MILLISECONDS);
+        } else {
+            _pending.repo = repo;
+            _pending.vault = vault;
+            _pending.backup |= backup;
+        }
+
+        return _pending.result;
+    }
+
+    /**
+     * Saves the given snapshot right away, along with anything that was still waiting to be
+     * saved, and blocks until that is done.
+     */
+    public void save(@NonNull VaultRepository repo, @NonNull Vault vault, boolean backup) throws VaultRepositoryException {
+        ListenableFuture<Void> result = submit(repo, vault, backup);
+        flush();
+
+        try {
+            Uninterruptibles.getUninterruptibly(result);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof VaultRepositoryException) {
+                throw (VaultRepositoryException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Writes any snapshot that is still waiting to be saved and blocks until all writes that
+     * were requested so far have finished.
+     */
+    public void flush() {
+        try {
+            Uninterruptibles.getUninterruptibly(flushAsync());
+        } catch (ExecutionException e) {
+            // runPending reports its errors through the result of the request
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Schedules any snapshot that is still waiting to be saved to be written right away,
+     * without waiting for it.
+     */
+    public synchronized Future<?> flushAsync() {
+        if (_pending != null) {
+            _pending.scheduled.cancel(false);
+        }
+
+        return _executor.submit(this::runPending);
+    }
+
+    /**
+     * Reports whether there are snapshots that have not been written yet.
+     */
+    public synchronized boolean isPending() {
+        return _pending != null;
+    }
+
+    private void runPending() {
+        Request req;
+        synchronized (this) {
+            req = _pending;
+            _pending = null;
+        }
+
+        if (req == null) {
+            return;
+        }
+
+        try {
+            _writer.write(req.repo, req.vault, req.backup);
+            req.result.set(null);
+        } catch (VaultRepositoryException | RuntimeException e) {
+            Log.e(TAG, String.format("Unable to save the vault: %s", e));
+            req.result.setException(e);
+        }
+    }
+
+    private static class Request {
+        private final SettableFuture<Void> result = SettableFuture.create();
+        private Future<?> scheduled;
+        private VaultRepository repo;
+        private Vault vault;
+        private boolean backup;
+
+        public Request(VaultRepository repo, Vault vault, boolean backup) {
+            this.repo = repo;
+            this.vault = vault;
+            this.backup = backup;
+        }
+    }
+
+    public interface Writer {
+        /**
+         * Called on the background thread of the queue to save the given snapshot of the
+         * vault in the given repository.
+         */
+        void write(VaultRepository repo, Vault vault, boolean backup) throws VaultRepositoryException;
+    }
+}
@@ -13,6 +13,15 @@ public class BiometricSlot extends RawSlot {
         super(uuid, key, keyParams);
     }
 
+    private BiometricSlot(BiometricSlot slot) {
+        super(slot);
+    }
+
+    @Override
+    public BiometricSlot copy() {
+        return new BiometricSlot(this);
+    }
+
     @Override
     public byte getType() {
         return TYPE_BIOMETRIC;
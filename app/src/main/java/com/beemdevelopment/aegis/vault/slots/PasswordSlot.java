@@ -31,6 +31,18 @@ public class PasswordSlot extends RawSlot {
         _isBackup = isBackup;
     }
 
+    private PasswordSlot(PasswordSlot slot) {
+        super(slot);
+        _params = slot._params;
+        _repaired = slot._repaired;
+        _isBackup = slot._isBackup;
+    }
+
+    @Override
+    public PasswordSlot copy() {
+        return new PasswordSlot(this);
+    }
+
     @Override
     public JSONObject toJson() {
         try {
@@ -47,6 +59,10 @@ public class PasswordSlot extends RawSlot {
         }
     }
 
+    public SCryptParameters getSCryptParameters() {
+        return _params;
+    }
+
     public SecretKey deriveKey(char[] password, SCryptParameters params) {
         SecretKey key = CryptoUtils.deriveKey(password, params);
         _params = params;
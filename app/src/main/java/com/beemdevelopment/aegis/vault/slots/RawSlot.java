@@ -13,6 +13,15 @@ public class RawSlot extends Slot {
         super(uuid, key, keyParams);
     }
 
+    protected RawSlot(RawSlot slot) {
+        super(slot);
+    }
+
+    @Override
+    public RawSlot copy() {
+        return new RawSlot(this);
+    }
+
     @Override
     public byte getType() {
         return TYPE_RAW;
@@ -43,6 +43,16 @@ public abstract class Slot extends UUIDMap.Value {
         _encryptedMasterKeyParams = keyParams;
     }
 
+    protected Slot(Slot slot) {
+        this(slot.getUUID(), slot._encryptedMasterKey, slot._encryptedMasterKeyParams);
+    }
+
+    /**
+     * Returns a copy of this slot. The encrypted master key is shared with the original,
+     * because it's only ever replaced, never modified.
+     */
+    public abstract Slot copy();
+
     /**
      * Decrypts the encrypted master key in this slot using the given cipher and returns it.
      * @throws SlotException if a generic crypto operation error occurred.
@@ -73,6 +73,17 @@ public class SlotList extends UUIDMap<Slot> {
         return find(type) != null;
     }
 
+    /**
+     * Returns a copy of this SlotList with copies of all of its slots.
+     */
+    public SlotList copy() {
+        SlotList slots = new SlotList();
+        for (Slot slot : this) {
+            slots.add(slot.copy());
+        }
+        return slots;
+    }
+
     /**
      * Returns a copy of this SlotList that is suitable for exporting.
      * Strips biometric slots.
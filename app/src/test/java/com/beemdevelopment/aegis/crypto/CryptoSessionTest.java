@@ -0,0 +1,112 @@
+package com.beemdevelopment.aegis.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+public class CryptoSessionTest {
+    @After
+    public void tearDown() {
+        CryptoSession.end();
+    }
+
+    @Test
+    public void testReuseCiphers() throws MasterKeyException {
+        CryptoSession session = CryptoSession.start();
+        assertSame(session, CryptoSession.get());
+
+        MasterKey key = MasterKey.generate();
+        byte[] plain = CryptoUtils.generateRandomBytes(1000);
+        for (int i = 0; i < 10; i++) {
+            CryptResult res = key.encrypt(plain);
+            assertArrayEquals(plain, key.decrypt(res.getData(), res.getParams()).getData());
+        }
+
+        // the same cipher should be used for all operations, as they ran one after the other
+        CryptoSession.Stats stats = session.getStats();
+        assertEquals(20, stats.getOperations());
+        assertEquals(1, stats.getCiphersCreated());
+    }
+
+    @Test
+    public void testReuseCiphersIncremental() throws MasterKeyException, IOException {
+        CryptoSession session = CryptoSession.start();
+        MasterKey key = MasterKey.generate();
+        byte[] plain = CryptoUtils.generateRandomBytes(1000);
+        for (int i = 0; i < 10; i++) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            byte[] nonce = key.encrypt(cipher -> {
+                try {
+                    stream.write(cipher.update(plain, 0, 500));
+                    stream.write(cipher.doFinal(plain, 500, 500));
+                } catch (GeneralSecurityException e) {
+                    throw new IOException(e);
+                }
+            });
+
+            byte[] result = stream.toByteArray();
+            int len = result.length - CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+            CryptParameters params = new CryptParameters(nonce, Arrays.copyOfRange(result, len, result.length));
+            InputStream encrypted = new ByteArrayInputStream(result, 0, len);
+            assertArrayEquals(plain, key.decrypt(encrypted, params).getData());
+        }
+
+        CryptoSession.Stats stats = session.getStats();
+        assertEquals(20, stats.getOperations());
+        assertEquals(1, stats.getCiphersCreated());
+    }
+
+    @Test
+    public void testNoncesDiffer() throws MasterKeyException {
+        CryptoSession.start();
+        MasterKey key = MasterKey.generate();
+        byte[] plain = new byte[32];
+
+        CryptResult res1 = key.encrypt(plain);
+        CryptResult res2 = key.encrypt(plain);
+        assertEquals(CryptoUtils.CRYPTO_AEAD_NONCE_SIZE, res1.getParams().getNonce().length);
+        assertFalse(Arrays.equals(res1.getParams().getNonce(), res2.getParams().getNonce()));
+    }
+
+    @Test
+    public void testDecryptAfterFailure() throws MasterKeyException {
+        CryptoSession.start();
+        MasterKey key = MasterKey.generate();
+        byte[] plain = CryptoUtils.generateRandomBytes(100);
+        CryptResult res = key.encrypt(plain);
+
+        // a cipher that failed to authenticate should be fine to use again
+        byte[] tampered = res.getData().clone();
+        tampered[0] ^= 1;
+        assertThrows(MasterKeyException.class, () -> key.decrypt(tampered, res.getParams()));
+        assertArrayEquals(plain, key.decrypt(res.getData(), res.getParams()).getData());
+    }
+
+    @Test
+    public void testEnd() throws MasterKeyException {
+        CryptoSession session = CryptoSession.start();
+        assertNotNull(CryptoSession.get());
+        CryptoSession.end();
+        assertNull(CryptoSession.get());
+
+        // without a session, a new cipher is created for every operation
+        MasterKey key = MasterKey.generate();
+        CryptResult res = key.encrypt(new byte[16]);
+        assertArrayEquals(new byte[16], key.decrypt(res.getData(), res.getParams()).getData());
+        assertEquals(0, session.getStats().getOperations());
+    }
+}
@@ -0,0 +1,34 @@
+package com.beemdevelopment.aegis.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+public class CryptoUtilsTest {
+    @Test
+    public void testEncryptSplitsTag() throws GeneralSecurityException, IOException {
+        SecretKey key = CryptoUtils.generateKey();
+        for (int size : new int[]{0, 1, 15, 16, 17, 1000}) {
+            byte[] plain = CryptoUtils.generateRandomBytes(size);
+            Cipher cipher = CryptoUtils.createEncryptCipher(key);
+            CryptResult res = CryptoUtils.encrypt(plain, cipher);
+
+            // the result should be the same as the output of a single doFinal, with the tag split off
+            Cipher reference = Cipher.getInstance(CryptoUtils.CRYPTO_AEAD);
+            CryptoUtils.initCipher(reference, key, Cipher.ENCRYPT_MODE, res.getParams().getNonce());
+            byte[] expected = reference.doFinal(plain);
+            assertArrayEquals(Arrays.copyOf(expected, size), res.getData());
+            assertArrayEquals(Arrays.copyOfRange(expected, size, expected.length), res.getParams().getTag());
+
+            cipher = CryptoUtils.createDecryptCipher(key, res.getParams().getNonce());
+            assertArrayEquals(plain, CryptoUtils.decrypt(res.getData(), cipher, res.getParams()).getData());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.beemdevelopment.aegis.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SCryptCalibratorTest {
+    @Test
+    public void selectParamsWithinBounds() {
+        byte[] salt = CryptoUtils.generateSalt();
+
+        // a device so slow that even the minimum cost exceeds the target
+        // the minimum applies to every lane, not to the total cost
+        for (int cores : new int[]{1, 2, 4, 8}) {
+            int lanes = CryptoUtils.getSCryptLanes(cores);
+            SCryptParameters params = SCryptCalibrator.selectParams(1e6, 500, lanes, cores, salt);
+            assertEquals(SCryptCalibrator.MIN_N, params.getN());
+            assertEquals(lanes, params.getP());
+            assertTrue(getMemoryUsage(params, cores) <= SCryptCalibrator.MAX_MEMORY);
+        }
+
+        // a device so fast that the cost limit kicks in, with N as high as the memory limit allows
+        for (int cores : new int[]{1, 4, 8}) {
+            int lanes = CryptoUtils.getSCryptLanes(cores);
+            SCryptParameters params = SCryptCalibrator.selectParams(1, 500, lanes, cores, salt);
+            assertEquals(SCryptCalibrator.MAX_COST, params.getN() * params.getP());
+            assertTrue(params.getN() <= SCryptCalibrator.MAX_N);
+            assertTrue(getMemoryUsage(params, cores) <= SCryptCalibrator.MAX_MEMORY);
+        }
+
+        // with two cores, the lanes would run in parallel, so the memory limit kicks in first
+        SCryptParameters params = SCryptCalibrator.selectParams(1, 500, 1, 2, salt);
+        assertEquals(SCryptCalibrator.MAX_N, params.getN());
+        assertEquals(1, params.getP());
+    }
+
+    @Test
+    public void selectParamsForTarget() {
+        byte[] salt = CryptoUtils.generateSalt();
+
+        // 5 µs per unit of cost means that the default cost takes ~164 ms
+        double nanosPerCost = TimeUnit.MICROSECONDS.toNanos(5);
+        SCryptParameters params = SCryptCalibrator.selectParams(nanosPerCost, 200, 1, 1, salt);
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_N, params.getN());
+        assertEquals(1, params.getP());
+
+        params = SCryptCalibrator.selectParams(nanosPerCost, 100, 1, 1, salt);
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_N / 2, params.getN());
+
+        // four lanes at the minimum N already use all of the memory, so the lanes are doubled
+        nanosPerCost = TimeUnit.MICROSECONDS.toNanos(1);
+        params = SCryptCalibrator.selectParams(nanosPerCost, 150, 4, 8, salt);
+        assertEquals(SCryptCalibrator.MIN_N, params.getN());
+        assertEquals(8, params.getP());
+    }
+
+    @Test
+    public void calibrate() {
+        byte[] salt = CryptoUtils.generateSalt();
+        SCryptCalibrator.Result res = SCryptCalibrator.calibrate(salt, 100, 4);
+
+        SCryptParameters params = res.getParams();
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_r, params.getR());
+        assertEquals(0, params.getN() & (params.getN() - 1));
+        assertEquals(0, params.getP() & (params.getP() - 1));
+        assertTrue(params.getN() >= SCryptCalibrator.MIN_N);
+        assertTrue(params.getP() >= CryptoUtils.CRYPTO_SCRYPT_PARALLEL_p);
+        assertTrue((long) params.getN() * params.getP() <= SCryptCalibrator.MAX_COST);
+        assertTrue(res.getProbeMillis() >= 0);
+    }
+
+    private static long getMemoryUsage(SCryptParameters params, int cores) {
+        return CryptoUtils.getSCryptMemoryUsage(params.getN(), params.getR(), params.getP(), cores);
+    }
+}
@@ -1,7 +1,9 @@
 package com.beemdevelopment.aegis.crypto;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
 
 import com.beemdevelopment.aegis.crypto.bc.SCrypt;
 import com.beemdevelopment.aegis.encoding.EncodingException;
@@ -9,7 +11,14 @@ import com.beemdevelopment.aegis.encoding.Hex;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.SecretKey;
 
@@ -59,6 +68,35 @@ public class SCryptTest {
         }
     }
 
+    @Test
+    public void lanes() {
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_p, CryptoUtils.getSCryptLanes(1));
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_p, CryptoUtils.getSCryptLanes(2));
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_PARALLEL_p, CryptoUtils.getSCryptLanes(4));
+        assertEquals(CryptoUtils.CRYPTO_SCRYPT_PARALLEL_p, CryptoUtils.getSCryptLanes(8));
+    }
+
+    @Test
+    public void concurrentDerivationsMatch() throws Exception {
+        byte[] password = CryptoUtils.toBytes("password".toCharArray());
+        byte[] salt = CryptoUtils.toBytes("NaCl".toCharArray());
+        byte[] expected = SCrypt.generate(password, salt, 1 << 10, 8, 16, 64);
+
+        // derivations that run at the same time must not share any of their buffers
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> SCrypt.generate(password, salt, 1 << 10, 8, 16, 64)));
+            }
+            for (Future<byte[]> future : futures) {
+                assertArrayEquals(expected, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testTrailingNullCollision() throws EncodingException {
         byte[] salt = new byte[0];
@@ -85,4 +123,22 @@ public class SCryptTest {
             }
         }
     }
+
+    @Test
+    public void cancel() {
+        byte[] password = CryptoUtils.toBytes("password".toCharArray());
+        byte[] salt = CryptoUtils.generateSalt();
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        // an unset flag doesn't change the result, both with a single lane and with multiple lanes
+        for (int p : new int[]{1, 4}) {
+            byte[] key = SCrypt.generate(password, salt, 1 << 10, 8, p, 32);
+            assertArrayEquals(key, SCrypt.generate(password, salt, 1 << 10, 8, p, 32, cancelled));
+        }
+
+        cancelled.set(true);
+        for (int p : new int[]{1, 4}) {
+            assertThrows(CancellationException.class, () -> SCrypt.generate(password, salt, 1 << 10, 8, p, 32, cancelled));
+        }
+    }
 }
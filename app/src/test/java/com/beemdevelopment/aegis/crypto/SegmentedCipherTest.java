@@ -0,0 +1,177 @@
+package com.beemdevelopment.aegis.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class SegmentedCipherTest {
+    private static final int SEGMENT_SIZE = 64;
+    private static final int[] SIZES = {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, SEGMENT_SIZE * 3, 1000};
+
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private MasterKey _key;
+
+    @Before
+    public void init() {
+        _key = MasterKey.generate();
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+        for (int size : SIZES) {
+            byte[] plain = CryptoUtils.generateRandomBytes(size);
+            byte[] encrypted = encrypt(plain);
+
+            int segments = Math.max((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE, 1);
+            assertEquals(SegmentedCipher.HEADER_SIZE + size + segments * CryptoUtils.CRYPTO_AEAD_TAG_SIZE, encrypted.length);
+            assertArrayEquals(plain, decrypt(encrypted));
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws IOException {
+        byte[] plain = CryptoUtils.generateRandomBytes(1000);
+        try (SegmentedFile file = openFile(encrypt(plain))) {
+            assertEquals(plain.length, file.getSize());
+            assertEquals(16, file.getSegmentCount());
+
+            // read the segments backwards to make sure they don't depend on each other
+            byte[] segment = new byte[file.getSegmentSize()];
+            for (long i = file.getSegmentCount() - 1; i >= 0; i--) {
+                int len = file.readSegment(i, segment);
+                int start = (int) i * SEGMENT_SIZE;
+                assertArrayEquals(Arrays.copyOfRange(plain, start, start + len), Arrays.copyOf(segment, len));
+            }
+
+            // reads that span multiple segments
+            byte[] buf = new byte[200];
+            assertEquals(200, file.read(100, buf, 0, buf.length));
+            assertArrayEquals(Arrays.copyOfRange(plain, 100, 300), buf);
+            assertEquals(50, file.read(950, buf, 0, buf.length));
+            assertArrayEquals(Arrays.copyOfRange(plain, 950, 1000), Arrays.copyOf(buf, 50));
+            assertEquals(-1, file.read(1000, buf, 0, buf.length));
+        }
+    }
+
+    @Test
+    public void testTamperedSegment() throws IOException {
+        byte[] encrypted = encrypt(CryptoUtils.generateRandomBytes(1000));
+        encrypted[SegmentedCipher.HEADER_SIZE + SEGMENT_SIZE * 2] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(encrypted));
+    }
+
+    @Test
+    public void testTamperedHeader() throws IOException {
+        byte[] encrypted = encrypt(CryptoUtils.generateRandomBytes(1000));
+        encrypted[SegmentedCipher.HEADER_SIZE - 1] ^= 1;
+        assertThrows(IOException.class, () -> decrypt(encrypted));
+    }
+
+    @Test
+    public void testBadSegmentSize() throws IOException {
+        assertThrows(IOException.class, () -> _key.encryptStream(new ByteArrayOutputStream(), 0));
+        assertThrows(IOException.class, () -> _key.encryptStream(new ByteArrayOutputStream(), SegmentedCipher.MAX_SEGMENT_SIZE + 1));
+
+        // a header that claims a huge segment size must be rejected before anything is allocated
+        byte[] encrypted = encrypt(CryptoUtils.generateRandomBytes(100));
+        ByteBuffer.wrap(encrypted, 1, 4).putInt(Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> decrypt(encrypted));
+        assertThrows(IOException.class, () -> openFile(encrypted).close());
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        byte[] encrypted = encrypt(CryptoUtils.generateRandomBytes(SEGMENT_SIZE * 3));
+
+        // drop the last segment, so that the remaining one is no longer marked as the last
+        int segmentLen = SEGMENT_SIZE + CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+        byte[] truncated = Arrays.copyOf(encrypted, SegmentedCipher.HEADER_SIZE + segmentLen * 2);
+        assertThrows(IOException.class, () -> decrypt(truncated));
+        assertThrows(IOException.class, () -> {
+            try (SegmentedFile file = openFile(truncated)) {
+                file.readSegment(file.getSegmentCount() - 1, new byte[SEGMENT_SIZE]);
+            }
+        });
+
+        byte[] headerOnly = Arrays.copyOf(encrypted, SegmentedCipher.HEADER_SIZE);
+        assertThrows(IOException.class, () -> decrypt(headerOnly));
+    }
+
+    @Test
+    public void testSwappedSegments() throws IOException {
+        byte[] encrypted = encrypt(CryptoUtils.generateRandomBytes(SEGMENT_SIZE * 3));
+
+        int segmentLen = SEGMENT_SIZE + CryptoUtils.CRYPTO_AEAD_TAG_SIZE;
+        byte[] swapped = encrypted.clone();
+        System.arraycopy(encrypted, SegmentedCipher.HEADER_SIZE, swapped, SegmentedCipher.HEADER_SIZE + segmentLen, segmentLen);
+        System.arraycopy(encrypted, SegmentedCipher.HEADER_SIZE + segmentLen, swapped, SegmentedCipher.HEADER_SIZE, segmentLen);
+        assertThrows(IOException.class, () -> decrypt(swapped));
+    }
+
+    @Test
+    public void testWrongKey() throws IOException {
+        byte[] encrypted = encrypt(CryptoUtils.generateRandomBytes(100));
+        _key = MasterKey.generate();
+        assertThrows(IOException.class, () -> decrypt(encrypted));
+    }
+
+    @Test
+    public void testSingleShot() throws MasterKeyException {
+        byte[] plain = CryptoUtils.generateRandomBytes(1000);
+        CryptResult res = _key.encrypt(plain);
+        assertEquals(plain.length, res.getData().length);
+        assertArrayEquals(plain, _key.decrypt(res.getData(), res.getParams()).getData());
+
+        byte[] padded = new byte[res.getData().length + 10];
+        System.arraycopy(res.getData(), 0, padded, 5, res.getData().length);
+        assertArrayEquals(plain, _key.decrypt(padded, 5, res.getData().length, res.getParams()).getData());
+    }
+
+    private byte[] encrypt(byte[] plain) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream stream = _key.encryptStream(out, SEGMENT_SIZE)) {
+            // write in uneven chunks to cross the segment boundaries at different offsets
+            for (int i = 0; i < plain.length; i += 7) {
+                stream.write(plain, i, Math.min(7, plain.length - i));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] decrypt(byte[] encrypted) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream stream = _key.decryptStream(new ByteArrayInputStream(encrypted))) {
+            byte[] buf = new byte[13];
+            int len;
+            while ((len = stream.read(buf)) != -1) {
+                out.write(buf, 0, len);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private SegmentedFile openFile(byte[] encrypted) throws IOException {
+        File file = _folder.newFile();
+        Files.write(file.toPath(), encrypted);
+        return _key.openSegmentedFile(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+}
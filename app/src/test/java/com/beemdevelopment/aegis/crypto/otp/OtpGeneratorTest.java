@@ -0,0 +1,144 @@
+package com.beemdevelopment.aegis.crypto.otp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.beemdevelopment.aegis.encoding.Base32;
+import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.YandexInfo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+public class OtpGeneratorTest {
+    private static final String STEAM_ALPHABET = "23456789BCDFGHJKMNPQRTVWXY";
+
+    @Test
+    public void vectorsMatch() throws NoSuchAlgorithmException, InvalidKeyException {
+        OtpGenerator generator = OtpGenerator.get();
+        for (int i = 0; i < HOTPTest.VECTORS.length; i++) {
+            assertEquals(HOTPTest.VECTORS[i], generator.generateCode(HOTPTest.SECRET, "HmacSHA1", 6, i));
+        }
+
+        for (TOTPTest.Vector vector : TOTPTest.VECTORS) {
+            long counter = TOTP.getCounter(vector.Time, 30);
+            assertEquals(vector.OTP, generator.generateCode(TOTPTest.getSeed(vector.Algo), vector.Algo, 8, counter));
+        }
+    }
+
+    @Test
+    public void yandexVectorsMatch()
+            throws NoSuchAlgorithmException, InvalidKeyException, OtpInfoException, EncodingException {
+        String[][] vectors = {
+                {"5239", "6SB2IKNM6OBZPAVBVTOHDKS4FAAAAAAADFUTQMBTRY", "1641559648", "umozdicq"},
+                {"7586", "LA2V6KMCGYMWWVEW64RNP3JA3IAAAAAAHTSG4HRZPI", "1581064020", "oactmacq"},
+                {"7586", "LA2V6KMCGYMWWVEW64RNP3JA3IAAAAAAHTSG4HRZPI", "1581090810", "wemdwrix"},
+                {"5210481216086702", "JBGSAU4G7IEZG6OY4UAXX62JU4AAAAAAHTSG4HXU3M", "1581091469", "dfrpywob"},
+        };
+
+        for (String[] vector : vectors) {
+            byte[] secret = YandexInfo.parseSecret(Base32.decode(vector[1]));
+            long counter = TOTP.getCounter(Long.parseLong(vector[2]), 30);
+            assertEquals(vector[3], OtpGenerator.get().generateYandexCode(secret, vector[0], "HmacSHA256", 8, counter));
+        }
+    }
+
+    @Test
+    public void matchesReference() throws NoSuchAlgorithmException, InvalidKeyException {
+        Random random = new Random(42);
+        OtpGenerator generator = OtpGenerator.get();
+        String[] algos = {"HmacSHA1", "HmacSHA256", "HmacSHA512"};
+
+        for (int i = 0; i < 500; i++) {
+            byte[] secret = new byte[1 + random.nextInt(64)];
+            random.nextBytes(secret);
+            String algo = algos[random.nextInt(algos.length)];
+            long counter = random.nextInt(Integer.MAX_VALUE);
+            byte[] hash = getHash(secret, algo, counter);
+
+            for (int digits = 1; digits <= 10; digits++) {
+                assertEquals(formatDecimal(truncate(hash), digits), generator.generateCode(secret, algo, digits, counter));
+                assertEquals(formatSteam(truncate(hash), digits), generator.generateSteamCode(secret, algo, digits, counter));
+            }
+        }
+    }
+
+    @Test
+    public void secretChangedInPlace() throws NoSuchAlgorithmException, InvalidKeyException {
+        byte[] secret = HOTPTest.SECRET.clone();
+        OtpGenerator generator = OtpGenerator.get();
+        assertEquals(HOTPTest.VECTORS[0], generator.generateCode(secret, "HmacSHA1", 6, 0));
+
+        // The cached key must not be used for a secret that has been modified since
+        secret[0] ^= 1;
+        assertNotEquals(HOTPTest.VECTORS[0], generator.generateCode(secret, "HmacSHA1", 6, 0));
+        secret[0] ^= 1;
+        assertEquals(HOTPTest.VECTORS[0], generator.generateCode(secret, "HmacSHA1", 6, 0));
+
+        OtpGenerator.invalidateAll();
+        assertEquals(HOTPTest.VECTORS[1], generator.generateCode(secret, "HmacSHA1", 6, 1));
+    }
+
+    @Test
+    public void invalidateOtherThreads() throws Exception {
+        OtpGenerator[] generator = new OtpGenerator[1];
+        Thread thread = new Thread(() -> {
+            generator[0] = OtpGenerator.get();
+            try {
+                generator[0].generateCode(HOTPTest.SECRET, "HmacSHA1", 6, 0);
+            } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals(1, generator[0].getCachedKeyCount());
+
+        // The keys of other threads must be gone right away, not the next time they're used
+        OtpGenerator.invalidateAll();
+        assertEquals(0, generator[0].getCachedKeyCount());
+    }
+
+    // The way codes were generated and formatted before OtpGenerator was introduced
+    private static byte[] getHash(byte[] secret, String algo, long counter)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(algo);
+        mac.init(new SecretKeySpec(secret, "RAW"));
+        return mac.doFinal(ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong(counter).array());
+    }
+
+    private static int truncate(byte[] hash) {
+        int offset = hash[hash.length - 1] & 0xf;
+        return ((hash[offset] & 0x7f) << 24)
+                | ((hash[offset + 1] & 0xff) << 16)
+                | ((hash[offset + 2] & 0xff) << 8)
+                | (hash[offset + 3] & 0xff);
+    }
+
+    private static String formatDecimal(int code, int digits) {
+        code = code % (int) Math.pow(10, digits);
+        StringBuilder res = new StringBuilder(Long.toString(code));
+        while (res.length() < digits) {
+            res.insert(0, "0");
+        }
+        return res.toString();
+    }
+
+    private static String formatSteam(int code, int digits) {
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < digits; i++) {
+            res.append(STEAM_ALPHABET.charAt(code % STEAM_ALPHABET.length()));
+            code /= STEAM_ALPHABET.length();
+        }
+        return res.toString();
+    }
+}
@@ -4,7 +4,11 @@ import org.junit.Test;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class TOTPTest {
@@ -70,6 +74,62 @@ public class TOTPTest {
         }
     }
 
+    @Test
+    public void rangeMatches() throws NoSuchAlgorithmException, InvalidKeyException {
+        for (Vector vector : VECTORS) {
+            byte[] seed = getSeed(vector.Algo);
+            long step = TOTP.getCounter(vector.Time, 30);
+
+            int[] codes = new int[5];
+            TOTP.generateRange(seed, vector.Algo, 8, 30, step - 2, codes.length, codes);
+            for (int i = 0; i < codes.length; i++) {
+                OTP otp = TOTP.generateOTP(seed, vector.Algo, 8, 30, (step - 2 + i) * 30);
+                assertEquals(otp.toString(), String.format("%08d", codes[i]));
+            }
+        }
+    }
+
+    @Test
+    public void findStepWithDrift() throws NoSuchAlgorithmException, InvalidKeyException {
+        Vector vector = VECTORS[3];
+        byte[] seed = getSeed(vector.Algo);
+        int code = Integer.parseInt(vector.OTP);
+        long step = TOTP.getCounter(vector.Time, 30);
+
+        assertEquals(step, TOTP.findStep(seed, vector.Algo, 8, 30, vector.Time, 0, code));
+        assertEquals(step, TOTP.findStep(seed, vector.Algo, 8, 30, vector.Time + 90, 3, code));
+        assertEquals(step, TOTP.findStep(seed, vector.Algo, 8, 30, vector.Time - 60, 3, code));
+        assertEquals(-1, TOTP.findStep(seed, vector.Algo, 8, 30, vector.Time + 150, 3, code));
+    }
+
+    @Test
+    public void rangesMatch() throws NoSuchAlgorithmException, InvalidKeyException {
+        List<TOTP.Params> params = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String algo = VECTORS[i % 3].Algo;
+            params.add(new TOTP.Params(getSeed(algo), algo, 6 + i % 3, 30 + i % 2 * 30));
+        }
+
+        long time = VECTORS[3].Time;
+        int[][] codes = TOTP.generateRanges(params, time, 3, new ForkJoinPool(4));
+        assertEquals(params.size(), codes.length);
+        for (int i = 0; i < codes.length; i++) {
+            TOTP.Params p = params.get(i);
+            int[] expected = new int[3];
+            TOTP.generateRange(p.getSecret(), p.getAlgorithm(), p.getDigits(), p.getPeriod(), TOTP.getCounter(time, p.getPeriod()), 3, expected);
+            assertArrayEquals(expected, codes[i]);
+        }
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void rangesUnknownAlgorithm() throws NoSuchAlgorithmException, InvalidKeyException {
+        List<TOTP.Params> params = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            params.add(new TOTP.Params(SEED, i == 15 ? "HmacFOO" : "HmacSHA1", 6, 30));
+        }
+        TOTP.generateRanges(params, 0, 1);
+    }
+
     public static byte[] getSeed(String algorithm) {
         switch (algorithm) {
             case "HmacSHA1":
@@ -0,0 +1,206 @@
+package com.beemdevelopment.aegis.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import com.beemdevelopment.aegis.crypto.otp.TOTP;
+import com.beemdevelopment.aegis.otp.HotpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+@RunWith(RobolectricTestRunner.class)
+public class CodeSchedulerTest {
+    // Somewhere in the middle of a period of 30 seconds
+    private static final long START = 1_699_999_990_000L;
+
+    private long _now;
+    private RefreshScheduler _refreshScheduler;
+    private List<VaultEntry> _entries;
+    private List<Runnable> _tasks;
+    private Set<UUID> _changed;
+    private CodeScheduler _scheduler;
+
+    @Before
+    public void init() {
+        _entries = VaultEntries.get();
+        _tasks = new ArrayList<>();
+        _changed = new HashSet<>();
+        _now = START;
+        _refreshScheduler = new RefreshScheduler(() -> _now);
+        _scheduler = new CodeScheduler((snapshot, changed) -> _changed.addAll(changed), _refreshScheduler, _tasks::add);
+    }
+
+    @Test
+    public void testComputeAll() throws OtpInfoException {
+        _scheduler.setEntries(_entries);
+        _scheduler.start();
+        runTasks();
+
+        // all codes should be computed in a single batch
+        assertEquals(_entries.size(), _changed.size());
+        for (VaultEntry entry : _entries) {
+            CodeScheduler.Codes codes = _scheduler.getCodes(entry);
+            assertNotNull(codes);
+
+            OtpInfo info = entry.getInfo();
+            if (info instanceof TotpInfo) {
+                int period = ((TotpInfo) info).getPeriod();
+                long step = TOTP.getCounter(_now / 1000, period);
+                assertEquals(((TotpInfo) info).getOtp((step - 1) * period), codes.getCode(step - 1));
+                assertEquals(((TotpInfo) info).getOtp(step * period), codes.getCode(step));
+                assertEquals(((TotpInfo) info).getOtp((step + 1) * period), codes.getCode(step + 1));
+                assertFalse(codes.hasCode(step + 2));
+            } else {
+                assertEquals(info.getOtp(), codes.getCode(((HotpInfo) info).getCounter()));
+            }
+        }
+    }
+
+    @Test
+    public void testKeepUnchanged() throws OtpInfoException {
+        _scheduler.setEntries(_entries);
+        _scheduler.start();
+        runTasks();
+        _changed.clear();
+
+        // codes of entries that didn't change should remain available while the rest is computed
+        VaultEntry changed = _entries.get(0);
+        OtpInfo oldInfo = changed.getInfo().copy();
+        CodeScheduler.Codes oldCodes = _scheduler.getCodes(changed);
+        List<CodeScheduler.Codes> unchangedCodes = new ArrayList<>();
+        for (VaultEntry entry : _entries.subList(1, _entries.size())) {
+            unchangedCodes.add(_scheduler.getCodes(entry));
+        }
+        changed.getInfo().setDigits(changed.getInfo().getDigits() + 1);
+        _scheduler.setEntries(_entries);
+        assertNull(_scheduler.getCodes(changed));
+        for (int i = 1; i < _entries.size(); i++) {
+            CodeScheduler.Codes codes = _scheduler.getCodes(_entries.get(i));
+            assertSame(unchangedCodes.get(i - 1), codes);
+            assertTrue(codes.matches(_entries.get(i).getInfo()));
+        }
+
+        // the copy of the secret of the old version of the entry should have been wiped
+        assertFalse(oldCodes.matches(oldInfo));
+
+        runTasks();
+        assertTrue(_changed.contains(changed.getUUID()));
+        assertNotNull(_scheduler.getCodes(changed));
+    }
+
+    @Test
+    public void testRefreshHotp() throws OtpInfoException {
+        _scheduler.setEntries(_entries);
+        _scheduler.start();
+        runTasks();
+        _changed.clear();
+
+        VaultEntry entry = _entries.get(3);
+        HotpInfo info = (HotpInfo) entry.getInfo();
+        OtpInfo oldInfo = info.copy();
+        CodeScheduler.Codes oldCodes = _scheduler.getCodes(entry);
+        assertTrue(oldCodes.matches(oldInfo));
+        info.incrementCounter();
+        _scheduler.refresh(entry);
+        runTasks();
+
+        assertEquals(1, _changed.size());
+        assertFalse(oldCodes.matches(oldInfo));
+        assertEquals(info.getOtp(), _scheduler.getCodes(entry).getCode(info.getCounter()));
+    }
+
+    @Test
+    public void testRotate() throws OtpInfoException {
+        _scheduler.setEntries(_entries);
+        _scheduler.start();
+        runTasks();
+        _changed.clear();
+
+        // the boundary of the 20 and 50 second periods, but not of the 30 second one
+        _now = START + 10_000;
+        _refreshScheduler.tick();
+        runTasks();
+
+        Set<UUID> expected = new HashSet<>();
+        for (VaultEntry entry : _entries) {
+            if (entry.getInfo() instanceof TotpInfo) {
+                TotpInfo info = (TotpInfo) entry.getInfo();
+                int period = info.getPeriod();
+                long step = TOTP.getCounter(_now / 1000, period);
+                if (step != TOTP.getCounter(START / 1000, period)) {
+                    assertEquals(info.getOtp((step + 1) * period), _scheduler.getCodes(entry).getCode(step + 1));
+                    expected.add(entry.getUUID());
+                }
+            }
+        }
+        assertEquals(2, expected.size());
+        assertEquals(expected, _changed);
+
+        // nothing happens once the scheduler is stopped
+        _changed.clear();
+        _scheduler.stop();
+        _now = START + 50_000;
+        _refreshScheduler.tick();
+        runTasks();
+        assertTrue(_changed.isEmpty());
+    }
+
+    @Test
+    public void testStopDropsResults() {
+        _scheduler.setEntries(_entries);
+        _scheduler.start();
+        _scheduler.stop();
+        runTasks();
+
+        assertTrue(_changed.isEmpty());
+        assertNull(_scheduler.getCodes(_entries.get(0)));
+    }
+
+    @Test
+    public void testWipeOnLock() throws OtpInfoException {
+        _scheduler.setEntries(_entries);
+        _scheduler.start();
+        runTasks();
+
+        VaultEntry entry = _entries.get(0);
+        TotpInfo info = (TotpInfo) entry.getInfo();
+        assertNotNull(_scheduler.getCodes(entry));
+        assertEquals(info.getOtp(_now / 1000), _scheduler.getOtp(entry, 0));
+
+        // after locking, codes should be generated on demand again until the entries are set again
+        _scheduler.onLocked(false);
+        runTasks();
+        assertNull(_scheduler.getCodes(entry));
+        assertEquals(info.getOtp(_now / 1000), _scheduler.getOtp(entry, 0));
+    }
+
+    private void runTasks() {
+        List<Runnable> tasks = new ArrayList<>(_tasks);
+        _tasks.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
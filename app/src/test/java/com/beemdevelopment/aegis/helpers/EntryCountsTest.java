@@ -0,0 +1,67 @@
+package com.beemdevelopment.aegis.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class EntryCountsTest {
+    private List<VaultEntry> _entries;
+    private EntryCounts _counts;
+
+    @Before
+    public void init() {
+        _entries = VaultEntries.get();
+        _counts = new EntryCounts();
+        _counts.setEntries(_entries);
+    }
+
+    @Test
+    public void testIssuerCounts() {
+        assertEquals(1, _counts.getIssuerCount("Deno"));
+        assertEquals(0, _counts.getIssuerCount("Nope"));
+
+        // edit an entry in place
+        _entries.get(1).setIssuer("Deno");
+        _counts.setEntries(_entries);
+        assertEquals(2, _counts.getIssuerCount("Deno"));
+        assertEquals(0, _counts.getIssuerCount("SPDX"));
+
+        // remove an entry
+        List<VaultEntry> entries = new ArrayList<>(_entries);
+        entries.remove(0);
+        _counts.setEntries(entries);
+        assertEquals(1, _counts.getIssuerCount("Deno"));
+    }
+
+    @Test
+    public void testMostFrequentPeriod() throws OtpInfoException {
+        // periods of the TOTP entries: 30, 20, 50, 30 (Steam) and 30
+        assertEquals(30, _counts.getMostFrequentPeriod());
+
+        // only one TOTP entry
+        _counts.setEntries(_entries.subList(1, 2));
+        assertEquals(20, _counts.getMostFrequentPeriod());
+
+        // two TOTP entries with different periods
+        _counts.setEntries(_entries.subList(1, 3));
+        assertEquals(-1, _counts.getMostFrequentPeriod());
+
+        // change the period of one of them in place
+        ((TotpInfo) _entries.get(2).getInfo()).setPeriod(20);
+        _counts.setEntries(_entries.subList(1, 3));
+        assertEquals(20, _counts.getMostFrequentPeriod());
+
+        _counts.setEntries(Collections.emptyList());
+        assertEquals(-1, _counts.getMostFrequentPeriod());
+    }
+}
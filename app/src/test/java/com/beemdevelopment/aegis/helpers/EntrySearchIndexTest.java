@@ -0,0 +1,125 @@
+package com.beemdevelopment.aegis.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.beemdevelopment.aegis.Preferences;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vault.VaultGroup;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public class EntrySearchIndexTest {
+    private static final int MASK_ALL = Preferences.SEARCH_IN_ISSUER | Preferences.SEARCH_IN_NAME
+            | Preferences.SEARCH_IN_NOTE | Preferences.SEARCH_IN_GROUPS;
+
+    private List<VaultEntry> _entries;
+    private EntrySearchIndex _index;
+
+    @Before
+    public void init() {
+        _entries = VaultEntries.get();
+        _index = new EntrySearchIndex();
+        _index.setEntries(_entries);
+    }
+
+    @Test
+    public void testMatchesScan() {
+        // the index should give the same results as checking every field of every entry
+        String[] queries = {"a", "air", "ai ca", "mason", "james issuu", "sp", "battle.net", "2211", "xyz", "n a"};
+        int[] masks = {Preferences.SEARCH_IN_ISSUER, Preferences.SEARCH_IN_NAME, MASK_ALL};
+        for (String query : queries) {
+            for (int mask : masks) {
+                assertEquals(query, scan(query, mask), _index.search(query, mask).keySet());
+            }
+        }
+    }
+
+    @Test
+    public void testNormalization() {
+        VaultEntry entry = _entries.get(0);
+        entry.setIssuer("Ébay Deutschland");
+        _index.setEntries(_entries);
+
+        assertEquals(Collections.singleton(entry.getUUID()), _index.search("ebay", MASK_ALL).keySet());
+        assertEquals(Collections.singleton(entry.getUUID()), _index.search("ÉBAY DEU", MASK_ALL).keySet());
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        VaultEntry entry = _entries.get(2);
+        assertTrue(_index.search("airbnb", MASK_ALL).containsKey(entry.getUUID()));
+
+        entry.setIssuer("Lodging");
+        entry.setNote("Holiday homes");
+        _index.setEntries(_entries);
+        assertTrue(_index.search("airbnb", MASK_ALL).isEmpty());
+        assertEquals(Collections.singleton(entry.getUUID()), _index.search("holiday", MASK_ALL).keySet());
+        assertTrue(_index.search("holiday", Preferences.SEARCH_IN_ISSUER).isEmpty());
+
+        _index.setEntries(_entries.subList(0, 2));
+        assertTrue(_index.search("holiday", MASK_ALL).isEmpty());
+    }
+
+    @Test
+    public void testGroups() {
+        VaultGroup work = new VaultGroup("Work");
+        VaultGroup personal = new VaultGroup("Personal");
+        _entries.get(0).addGroup(work.getUUID());
+        _entries.get(1).addGroup(personal.getUUID());
+        _index.setEntries(_entries);
+        _index.setGroups(Arrays.asList(work, personal));
+
+        assertEquals(Collections.singleton(_entries.get(0).getUUID()), _index.search("work", MASK_ALL).keySet());
+        assertTrue(_index.search("work", Preferences.SEARCH_IN_ISSUER | Preferences.SEARCH_IN_NAME).isEmpty());
+
+        // renaming a group should be picked up
+        work.setName("Office");
+        _index.setGroups(Arrays.asList(work, personal));
+        assertTrue(_index.search("work", MASK_ALL).isEmpty());
+        assertEquals(Collections.singleton(_entries.get(0).getUUID()), _index.search("off", MASK_ALL).keySet());
+    }
+
+    @Test
+    public void testRanking() {
+        VaultEntry exact = _entries.get(0);
+        VaultEntry prefix = _entries.get(1);
+        VaultEntry word = _entries.get(2);
+        VaultEntry note = _entries.get(3);
+        exact.setIssuer("Mail");
+        prefix.setIssuer("Mailbox");
+        word.setIssuer("Proton Mail Bridge");
+        note.setNote("Old mail account");
+        _index.setEntries(_entries);
+
+        Map<UUID, Integer> scores = _index.search("mail", MASK_ALL);
+        assertTrue(scores.get(exact.getUUID()) > scores.get(prefix.getUUID()));
+        assertTrue(scores.get(prefix.getUUID()) > scores.get(word.getUUID()));
+        assertTrue(scores.get(word.getUUID()) > scores.get(note.getUUID()));
+    }
+
+    private Set<UUID> scan(String query, int mask) {
+        Set<UUID> res = new HashSet<>();
+        String[] tokens = query.toLowerCase().split("\\s+");
+        for (VaultEntry entry : _entries) {
+            boolean all = Arrays.stream(tokens).allMatch(token ->
+                    ((mask & Preferences.SEARCH_IN_ISSUER) != 0 && entry.getIssuer().toLowerCase().contains(token))
+                            || ((mask & Preferences.SEARCH_IN_NAME) != 0 && entry.getName().toLowerCase().contains(token))
+                            || ((mask & Preferences.SEARCH_IN_NOTE) != 0 && entry.getNote().toLowerCase().contains(token)));
+            if (all) {
+                res.add(entry.getUUID());
+            }
+        }
+        return res;
+    }
+}
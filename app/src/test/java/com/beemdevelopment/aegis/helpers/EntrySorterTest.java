@@ -0,0 +1,156 @@
+package com.beemdevelopment.aegis.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.beemdevelopment.aegis.SortCategory;
+import com.beemdevelopment.aegis.helpers.comparators.FavoriteComparator;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class EntrySorterTest {
+    private List<VaultEntry> _entries;
+    private EntrySorter _sorter;
+
+    @Before
+    public void init() {
+        _entries = VaultEntries.get();
+        for (int i = 0; i < _entries.size(); i++) {
+            VaultEntry entry = _entries.get(i);
+            entry.setUsageCount(i % 3);
+            entry.setLastUsedTimestamp(1000 - (i % 4) * 100);
+            entry.setIsFavorite(i % 5 == 0);
+        }
+        _entries.get(1).setIssuer("deno");
+        _entries.get(2).setName("mason");
+
+        _sorter = new EntrySorter();
+        _sorter.setEntries(_entries);
+    }
+
+    @Test
+    public void testMatchesComparators() {
+        // the single pass sort should give the same order as the two stable sorts it replaces
+        List<VaultEntry> subset = new ArrayList<>(_entries.subList(1, 6));
+        for (SortCategory category : SortCategory.values()) {
+            assertEquals(category.name(), sortSlow(_entries, category), _sorter.sort(_entries, category));
+            assertEquals(category.name(), sortSlow(subset, category), _sorter.sort(subset, category));
+        }
+    }
+
+    @Test
+    public void testUsageChanged() {
+        VaultEntry entry = _entries.get(_entries.size() - 1);
+        entry.setUsageCount(100);
+        entry.setLastUsedTimestamp(5000);
+        _sorter.onUsageChanged(entry);
+
+        for (SortCategory category : new SortCategory[]{SortCategory.USAGE_COUNT, SortCategory.LAST_USED}) {
+            List<VaultEntry> sorted = _sorter.sort(_entries, category);
+            assertEquals(sortSlow(_entries, category), sorted);
+            assertEquals(entry, sorted.get(firstNonFavorite(sorted)));
+        }
+    }
+
+    @Test
+    public void testEntriesChanged() {
+        List<VaultEntry> sorted = _sorter.sort(_entries, SortCategory.ISSUER);
+
+        // results are cached, but must not be handed out for modification
+        sorted.clear();
+        assertEquals(sortSlow(_entries, SortCategory.ISSUER), _sorter.sort(_entries, SortCategory.ISSUER));
+
+        _entries.get(3).setIssuer("AAA");
+        _entries.get(4).setIsFavorite(true);
+        _entries.remove(5);
+        _sorter.setEntries(_entries);
+        for (SortCategory category : SortCategory.values()) {
+            assertEquals(category.name(), sortSlow(_entries, category), _sorter.sort(_entries, category));
+        }
+    }
+
+    @Test
+    public void testDeleteFirstWithTies() {
+        // all usage keys tie, so the usage based orders fall back to the custom order
+        List<VaultEntry> entries = getTiedEntries();
+        _sorter.setEntries(entries);
+
+        entries.remove(0);
+        _sorter.setEntries(entries);
+        for (SortCategory category : new SortCategory[]{SortCategory.USAGE_COUNT, SortCategory.LAST_USED}) {
+            assertEquals(category.name(), entries, _sorter.sort(entries, category));
+        }
+    }
+
+    @Test
+    public void testReorderWithTies() {
+        List<VaultEntry> entries = getTiedEntries();
+        _sorter.setEntries(entries);
+
+        // drag the second entry below the third one
+        Collections.swap(entries, 1, 2);
+        _sorter.setEntries(entries);
+        for (SortCategory category : new SortCategory[]{SortCategory.USAGE_COUNT, SortCategory.LAST_USED}) {
+            assertEquals(category.name(), entries, _sorter.sort(entries, category));
+        }
+    }
+
+    @Test
+    public void testUnknownEntries() {
+        // entries that were never passed to setEntries should still be sorted correctly
+        List<VaultEntry> others = VaultEntries.get();
+        Collections.reverse(others);
+        for (SortCategory category : SortCategory.values()) {
+            assertEquals(category.name(), sortSlow(others, category), _sorter.sort(others, category));
+        }
+    }
+
+    @Test
+    public void testFoldCase() {
+        String[] values = {"a", "B", "é", "É", "ß", "SS", "İ", "i", "ǅ", "ǆ", "Z", "_", "1"};
+        for (String a : values) {
+            for (String b : values) {
+                assertEquals(a + " " + b, Integer.signum(a.compareToIgnoreCase(b)),
+                        Integer.signum(EntrySorter.foldCase(a).compareTo(EntrySorter.foldCase(b))));
+            }
+        }
+        assertTrue(EntrySorter.foldCase(null).isEmpty());
+    }
+
+    private static List<VaultEntry> getTiedEntries() {
+        List<VaultEntry> entries = new ArrayList<>(VaultEntries.get().subList(0, 4));
+        for (VaultEntry entry : entries) {
+            entry.setUsageCount(0);
+            entry.setLastUsedTimestamp(0);
+            entry.setIsFavorite(false);
+        }
+        return entries;
+    }
+
+    private static int firstNonFavorite(List<VaultEntry> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (!entries.get(i).isFavorite()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<VaultEntry> sortSlow(List<VaultEntry> entries, SortCategory category) {
+        List<VaultEntry> res = new ArrayList<>(entries);
+        Comparator<VaultEntry> comparator = category.getComparator();
+        if (comparator != null) {
+            res.sort(comparator);
+        }
+        res.sort(new FavoriteComparator());
+        return res;
+    }
+}
@@ -0,0 +1,119 @@
+package com.beemdevelopment.aegis.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class RefreshSchedulerTest {
+    // Somewhere in the middle of a 30 second period
+    private static final long START = 1_699_999_990_000L;
+
+    private long _now;
+    private List<String> _calls;
+    private RefreshScheduler _scheduler;
+
+    @Before
+    public void init() {
+        _now = START;
+        _calls = new ArrayList<>();
+        _scheduler = new RefreshScheduler(() -> _now);
+    }
+
+    @Test
+    public void testBoundaries() {
+        _scheduler.subscribe(30, () -> _calls.add("a"));
+        _scheduler.subscribe(30, () -> _calls.add("b"));
+        _scheduler.subscribe(60, () -> _calls.add("c"));
+
+        // nothing is due yet
+        tickAt(START + 19_999);
+        assertEquals(0, _calls.size());
+
+        // both listeners of the same period are called for a single boundary
+        tickAt(START + 20_000);
+        assertEquals(Arrays.asList("a", "b"), _calls);
+        assertEquals(1, _scheduler.getStats().getBoundaries());
+
+        // the next boundary of the 30 second period is also one of the 60 second period
+        _calls.clear();
+        tickAt(START + 50_000);
+        assertEquals(Arrays.asList("a", "b", "c"), _calls);
+        assertEquals(3, _scheduler.getStats().getBoundaries());
+        assertEquals(0, _scheduler.getStats().getMissedDeadlines());
+    }
+
+    @Test
+    public void testLeadTime() {
+        _scheduler.subscribe(30, 3000, () -> _calls.add("a"));
+
+        tickAt(START + 16_999);
+        assertEquals(0, _calls.size());
+        tickAt(START + 17_000);
+        assertEquals(1, _calls.size());
+        tickAt(START + 47_000);
+        assertEquals(2, _calls.size());
+    }
+
+    @Test
+    public void testUnsubscribe() {
+        RefreshScheduler.Listener listener = () -> _calls.add("a");
+        _scheduler.subscribe(30, listener);
+        _scheduler.subscribe(30, listener);
+        _scheduler.subscribe(30, 1000, listener);
+
+        tickAt(START + 20_000);
+        assertEquals(2, _calls.size());
+
+        // listeners can unsubscribe themselves while they're being called
+        _calls.clear();
+        _scheduler.subscribe(1, new RefreshScheduler.Listener() {
+            @Override
+            public void onRefresh() {
+                _calls.add("b");
+                _scheduler.unsubscribe(this);
+            }
+        });
+        _scheduler.unsubscribe(listener);
+        tickAt(START + 50_000);
+        tickAt(START + 51_000);
+        assertEquals(Arrays.asList("b"), _calls);
+    }
+
+    @Test
+    public void testMissedDeadlines() {
+        _scheduler.subscribe(1, () -> _calls.add("a"));
+
+        // a little late is fine
+        tickAt(START + 1000 + RefreshScheduler.MISSED_DEADLINE_MILLIS);
+        assertEquals(0, _scheduler.getStats().getMissedDeadlines());
+
+        tickAt(START + 2000 + RefreshScheduler.MISSED_DEADLINE_MILLIS + 1);
+        assertEquals(1, _scheduler.getStats().getMissedDeadlines());
+
+        // skipped boundaries are only dispatched once, but all count as missed
+        tickAt(START + 5000);
+        assertEquals(3, _calls.size());
+        assertEquals(3, _scheduler.getStats().getMissedDeadlines());
+        assertEquals(2000, _scheduler.getStats().getMaxLatenessMillis());
+    }
+
+    @Test
+    public void testBadPeriod() {
+        assertThrows(IllegalArgumentException.class, () -> _scheduler.subscribe(0, () -> { }));
+        assertThrows(IllegalArgumentException.class, () -> _scheduler.subscribe(30, -1, () -> { }));
+    }
+
+    private void tickAt(long now) {
+        _now = now;
+        _scheduler.tick();
+    }
+}
@@ -0,0 +1,111 @@
+package com.beemdevelopment.aegis.ui.tasks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.MasterKey;
+import com.beemdevelopment.aegis.crypto.SCryptParameters;
+import com.beemdevelopment.aegis.vault.slots.PasswordSlot;
+import com.beemdevelopment.aegis.vault.slots.Slot;
+import com.beemdevelopment.aegis.vault.slots.SlotException;
+import com.beemdevelopment.aegis.vault.slots.SlotIntegrityException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+
+@RunWith(RobolectricTestRunner.class)
+public class PasswordSlotDecryptTaskTest {
+    private MasterKey _masterKey;
+
+    @Before
+    public void init() {
+        _masterKey = MasterKey.generate();
+    }
+
+    @Test
+    public void testDecryptAnySlot() throws SlotException {
+        PasswordSlot slot1 = createSlot("password1");
+        PasswordSlot slot2 = createSlot("password2");
+        PasswordSlot backupSlot = createSlot("backup");
+        backupSlot.setIsBackup(true);
+        List<PasswordSlot> slots = Arrays.asList(slot1, slot2, backupSlot);
+
+        for (PasswordSlot slot : slots) {
+            String password = slot == slot1 ? "password1" : slot == slot2 ? "password2" : "backup";
+            PasswordSlotDecryptTask.Result res = PasswordSlotDecryptTask.decrypt(slots, password.toCharArray());
+            assertNotNull(res);
+            assertSame(slot, res.getSlot());
+            assertFalse(res.isSlotRepaired());
+            assertArrayEquals(_masterKey.getBytes(), res.getKey().getBytes());
+        }
+
+        assertNull(PasswordSlotDecryptTask.decrypt(slots, "wrong".toCharArray()));
+    }
+
+    @Test
+    public void testFirstSlotWins() throws SlotException {
+        // slots that share a password match in the order of the list, whichever finishes first
+        PasswordSlot slot1 = createSlot("password");
+        PasswordSlot slot2 = createSlot("password");
+        for (List<PasswordSlot> slots : Arrays.asList(Arrays.asList(slot1, slot2), Arrays.asList(slot2, slot1))) {
+            for (int i = 0; i < 5; i++) {
+                PasswordSlotDecryptTask.Result res = PasswordSlotDecryptTask.decrypt(slots, "password".toCharArray());
+                assertNotNull(res);
+                assertSame(slots.get(0), res.getSlot());
+            }
+        }
+    }
+
+    @Test
+    public void testRepairSlot() throws SlotException, JSONException, SlotIntegrityException {
+        // a slot that is affected by the bug introduced in afb9e59
+        char[] password = new char[80];
+        Arrays.fill(password, 'a');
+        PasswordSlot slot = new PasswordSlot();
+        slot.deriveKey("".toCharArray(), createParams());
+        SecretKey oldKey = slot.deriveKey(CryptoUtils.toBytesOld(password));
+        slot.setKey(_masterKey, Slot.createEncryptCipher(oldKey));
+        JSONObject obj = slot.toJson();
+        obj.put("repaired", false);
+        slot = (PasswordSlot) Slot.fromJson(obj);
+
+        List<PasswordSlot> slots = Arrays.asList(createSlot("other"), slot);
+        PasswordSlotDecryptTask.Result res = PasswordSlotDecryptTask.decrypt(slots, password);
+        assertNotNull(res);
+        assertSame(slot, res.getSlot());
+        assertTrue(res.isSlotRepaired());
+        assertTrue(slot.isRepaired());
+
+        // the slot should now be encrypted with the key of the correctly encoded password
+        MasterKey key = PasswordSlotDecryptTask.decryptPasswordSlot(slot, slot.deriveKey(password));
+        assertArrayEquals(_masterKey.getBytes(), key.getBytes());
+        assertNull(PasswordSlotDecryptTask.decrypt(Collections.emptyList(), password));
+    }
+
+    private PasswordSlot createSlot(String password) throws SlotException {
+        PasswordSlot slot = new PasswordSlot();
+        SecretKey key = slot.deriveKey(password.toCharArray(), createParams());
+        slot.setKey(_masterKey, Slot.createEncryptCipher(key));
+        return slot;
+    }
+
+    private static SCryptParameters createParams() {
+        // much cheaper than the real parameters, to keep the test fast
+        return new SCryptParameters(1 << 10, CryptoUtils.CRYPTO_SCRYPT_r, CryptoUtils.CRYPTO_SCRYPT_p, CryptoUtils.generateSalt());
+    }
+}
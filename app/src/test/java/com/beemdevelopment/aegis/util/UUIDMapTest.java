@@ -9,6 +9,14 @@ import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
 public class UUIDMapTest {
     @Test
     public void addValue() {
@@ -117,6 +125,92 @@ public class UUIDMapTest {
         });
     }
 
+    @Test
+    public void moveAndRemoveValuesRandomly() {
+        // apply the same random operations to the map and to a list, and compare the order
+        Random random = new Random(1337);
+        UUIDMap<Value> map = fillNewMap(500);
+        List<Value> list = new ArrayList<>(map.getValues());
+
+        for (int i = 0; i < 5000; i++) {
+            int op = random.nextInt(10);
+            if (op == 0) {
+                Value value = list.remove(random.nextInt(list.size()));
+                assertSame(value, map.remove(value));
+            } else if (op == 1) {
+                list.add(addNewValue(map));
+            } else {
+                int from = random.nextInt(list.size());
+                int to = random.nextInt(list.size());
+                map.move(list.get(from), list.get(to));
+                CollectionUtils.move(list, from, to);
+            }
+        }
+
+        assertEquals(list.size(), map.size());
+        assertArrayEquals(list.toArray(), map.getValues().toArray());
+        for (int i = 0; i < list.size(); i++) {
+            assertSame(list.get(i), map.get(i));
+            assertEquals(i, map.indexOf(list.get(i).getUUID()));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> map.get(list.size()));
+        assertEquals(-1, map.indexOf(new Value().getUUID()));
+    }
+
+    @Test
+    public void iterateAndRemove() {
+        UUIDMap<Value> map = fillNewMap(10);
+        List<Value> values = new ArrayList<>(map.getValues());
+
+        // remove every other value through the iterator
+        int i = 0;
+        for (Iterator<Value> it = map.iterator(); it.hasNext(); i++) {
+            it.next();
+            if (i % 2 == 0) {
+                it.remove();
+            }
+        }
+
+        assertArrayEquals(new Value[]{
+                values.get(1),
+                values.get(3),
+                values.get(5),
+                values.get(7),
+                values.get(9)
+        }, map.getValues().toArray());
+        assertThrows(UnsupportedOperationException.class, () -> {
+            Iterator<Value> it = map.getValues().iterator();
+            it.next();
+            it.remove();
+        });
+    }
+
+    @Test
+    public void cloneKeepsOrder() {
+        UUIDMap<Value> map = fillNewMap(100);
+        Value[] values = map.getValues().toArray(new Value[0]);
+        map.move(values[0], values[50]);
+
+        UUIDMap<Value> clone = Cloner.clone(map);
+        assertEquals(Arrays.asList(map.getValues().toArray()), Arrays.asList(clone.getValues().toArray()));
+
+        // the clone should still be fully functional
+        Value value = clone.get(50);
+        clone.move(value, clone.get(0));
+        assertSame(value, clone.get(0));
+        assertEquals(0, clone.indexOf(value.getUUID()));
+    }
+
+    @Test
+    public void serializedFormIsUnchanged() {
+        // the serialized form should stay compatible with the one of the LinkedHashMap-backed version
+        ObjectStreamClass desc = ObjectStreamClass.lookup(UUIDMap.class);
+        assertEquals(-4622649066317392699L, desc.getSerialVersionUID());
+        assertEquals(1, desc.getFields().length);
+        assertEquals("_map", desc.getFields()[0].getName());
+        assertEquals(LinkedHashMap.class, desc.getFields()[0].getType());
+    }
+
     private UUIDMap<Value> fillNewMap(int n) {
         UUIDMap<Value> map = new UUIDMap<>();
         for (int i = 0; i < n; i++) {
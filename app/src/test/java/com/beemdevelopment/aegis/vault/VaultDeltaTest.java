@@ -0,0 +1,100 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+@RunWith(RobolectricTestRunner.class)
+public class VaultDeltaTest {
+    private Vault _vault;
+
+    @Before
+    public void init() {
+        _vault = new Vault();
+        for (VaultEntry entry : VaultEntries.get()) {
+            _vault.getEntries().add(entry);
+        }
+    }
+
+    @Test
+    public void testDigest() {
+        String digest = VaultDelta.State.of(_vault).digest();
+
+        // only changing the order of the entries doesn't affect the digest
+        moveFirstToLast(_vault);
+        assertEquals(digest, VaultDelta.State.of(_vault).digest());
+
+        _vault.getEntries().get(0).setName("Edited");
+        assertNotEquals(digest, VaultDelta.State.of(_vault).digest());
+    }
+
+    @Test
+    public void testStateJson() throws Exception {
+        VaultDelta.State state = VaultDelta.State.of(_vault);
+        VaultDelta.State parsed = VaultDelta.State.fromJson(new JSONObject(state.toJson().toString()));
+        assertEquals(state.digest(), parsed.digest());
+        assertTrue(VaultDelta.between(parsed, _vault).isEmpty());
+
+        moveFirstToLast(_vault);
+        assertFalse(VaultDelta.between(parsed, _vault).isEmpty());
+    }
+
+    @Test
+    public void testIncrementalBackup() throws Exception {
+        VaultFileCredentials creds = new VaultFileCredentials();
+        byte[] full = export(_vault, creds);
+        VaultDelta.State base = VaultDelta.State.of(_vault);
+
+        // edit, remove, move and add some entries
+        _vault.getEntries().get(0).setName("Edited");
+        _vault.getEntries().remove(_vault.getEntries().get(1));
+        moveFirstToLast(_vault);
+        VaultGroup group = new VaultGroup("group");
+        _vault.getGroups().add(group);
+        VaultEntry entry = VaultEntries.get().get(2);
+        entry.addGroup(group.getUUID());
+        _vault.getEntries().add(entry);
+
+        VaultDelta delta = VaultDelta.between(base, _vault);
+        assertEquals(2, delta.getChangedEntries().size());
+        JSONObject obj = new JSONObject(delta.toBackupJson("aegis-backup.json", creds).toString());
+        assertEquals("aegis-backup.json", obj.getString("base"));
+
+        // applying the incremental backup on top of the full backup should result in the current vault
+        Vault vault = Vault.fromJson(VaultFile.fromBytes(full).getContent(creds));
+        VaultDelta.applyBackup(vault, obj, creds);
+        assertEquals(_vault.toJson().toString(), vault.toJson().toString());
+
+        // the same goes for applying it to the content of the full backup, like the importer does
+        JSONObject content = VaultDelta.applyBackup(VaultFile.fromBytes(full).getContent(creds), obj, creds);
+        assertEquals(_vault.toJson().toString(), content.toString());
+
+        // the delta can't be read without the right key
+        Vault other = Vault.fromJson(VaultFile.fromBytes(full).getContent(creds));
+        assertThrows(VaultFileException.class, () -> VaultDelta.applyBackup(other, obj, new VaultFileCredentials()));
+    }
+
+    private static byte[] export(Vault vault, VaultFileCredentials creds) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        VaultFileWriter.write(stream, vault, creds, null);
+        return stream.toByteArray();
+    }
+
+    private static void moveFirstToLast(Vault vault) {
+        int size = vault.getEntries().size();
+        vault.getEntries().move(vault.getEntries().get(0), vault.getEntries().get(size - 1));
+    }
+}
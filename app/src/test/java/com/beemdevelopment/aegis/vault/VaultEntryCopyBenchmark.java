@@ -0,0 +1,71 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assume.assumeTrue;
+
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.util.Cloner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Compares the time and the amount of memory it takes to copy an entry with a large icon
+ * through Java serialization (Cloner) with that of the VaultEntry copy constructor. This is
+ * skipped unless the "aegis.benchmarks" system property is set to true:
+ *
+ * ./gradlew testDebugUnitTest --tests '*VaultEntryCopyBenchmark' -Paegis.benchmarks=true
+ */
+public class VaultEntryCopyBenchmark {
+    // Roughly the size of a 512x512 PNG icon
+    private static final int ICON_SIZE = 256 * 1024;
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 1000;
+
+    private VaultEntry _entry;
+
+    @Before
+    public void init() throws OtpInfoException {
+        assumeTrue(Boolean.getBoolean("aegis.benchmarks"));
+
+        _entry = new VaultEntry(new TotpInfo(CryptoUtils.generateRandomBytes(20)), "Name", "Issuer");
+        _entry.setIcon(new VaultEntryIcon(CryptoUtils.generateRandomBytes(ICON_SIZE), IconType.PNG));
+    }
+
+    @Test
+    public void compareCopy() {
+        measure("Cloner.clone", () -> Cloner.clone(_entry));
+        measure("new VaultEntry", () -> new VaultEntry(_entry));
+    }
+
+    private static void measure(String name, Runnable task) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            task.run();
+        }
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long allocated = getAllocatedBytes(bean);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = getAllocatedBytes(bean) - allocated;
+
+        System.out.printf("%s: %.2f us/op, %d bytes/op%n",
+                name, elapsed / 1000.0 / ITERATIONS, allocated / ITERATIONS);
+    }
+
+    private static long getAllocatedBytes(ThreadMXBean bean) {
+        // Not every JVM can report this, in which case only the timings are meaningful
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
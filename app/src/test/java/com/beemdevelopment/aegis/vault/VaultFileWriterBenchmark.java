@@ -0,0 +1,103 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assume.assumeTrue;
+
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Compares the peak heap usage of serializing a large vault through Vault.toJson() and
+ * VaultFile.toBytes() with that of streaming it through VaultFileWriter. This is skipped
+ * unless the "aegis.benchmarks" system property is set to true:
+ *
+ * ./gradlew testDebugUnitTest --tests '*VaultFileWriterBenchmark' -Paegis.benchmarks=true
+ */
+public class VaultFileWriterBenchmark {
+    private static final int ENTRIES = 1000;
+    private static final int ICON_SIZE = 16 * 1024;
+    private static final int ROUNDS = 3;
+
+    private Vault _vault;
+    private VaultFileCredentials _creds;
+
+    @Before
+    public void init() throws OtpInfoException {
+        assumeTrue(Boolean.getBoolean("aegis.benchmarks"));
+
+        _vault = new Vault();
+        _creds = new VaultFileCredentials();
+        for (int i = 0; i < ENTRIES; i++) {
+            VaultEntry entry = new VaultEntry(new TotpInfo(CryptoUtils.generateRandomBytes(20)), "Name " + i, "Issuer " + i);
+            entry.setIcon(new VaultEntryIcon(CryptoUtils.generateRandomBytes(ICON_SIZE), IconType.PNG));
+            _vault.getEntries().add(entry);
+        }
+    }
+
+    @Test
+    public void comparePeakHeap() throws Exception {
+        for (int i = 0; i < ROUNDS; i++) {
+            long tree = measure(() -> {
+                VaultFile file = new VaultFile();
+                file.setContent(_vault.toJson(), _creds);
+                new NullOutputStream().write(file.toBytes());
+            });
+            long streaming = measure(() -> VaultFileWriter.write(new NullOutputStream(), _vault, _creds, null));
+
+            System.out.printf("round %d: toBytes: %d KiB peak, VaultFileWriter: %d KiB peak%n",
+                    i, tree / 1024, streaming / 1024);
+        }
+    }
+
+    /**
+     * Returns the peak heap usage while running the given task, relative to the heap usage right
+     * before it was started.
+     */
+    private static long measure(Task task) throws Exception {
+        System.gc();
+        long baseline = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                baseline += pool.getUsage().getUsed();
+            }
+        }
+
+        task.run();
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return peak - baseline;
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+        }
+    }
+}
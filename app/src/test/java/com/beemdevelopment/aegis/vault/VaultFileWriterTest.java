@@ -0,0 +1,150 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.util.JsonReader;
+
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.MasterKeyException;
+import com.beemdevelopment.aegis.encoding.Base64;
+import com.beemdevelopment.aegis.encoding.EncodingException;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// The output of VaultFileWriter is only expected to match byte-for-byte with the org.json
+// implementation of Android, which keeps keys in insertion order and escapes slashes
+@RunWith(RobolectricTestRunner.class)
+public class VaultFileWriterTest {
+    private Vault _vault;
+    private List<VaultEntry> _vectors;
+
+    @Before
+    public void init() {
+        _vault = new Vault();
+        _vectors = VaultEntries.get();
+
+        VaultGroup group = new VaultGroup("group/with \"quotes\"");
+        _vault.getGroups().add(group);
+        for (int i = 0; i < _vectors.size(); i++) {
+            VaultEntry entry = _vectors.get(i);
+            if (i % 2 == 0) {
+                // make sure the icon is large enough to be encoded in multiple chunks
+                entry.setIcon(new VaultEntryIcon(CryptoUtils.generateRandomBytes(10000 + i), IconType.PNG));
+                entry.addGroup(group.getUUID());
+            }
+            entry.setNote("Line 1\nLine 2\t\u0001 / \\ \u00e9\u20ac\ud83d\udd11");
+            _vault.getEntries().add(entry);
+        }
+    }
+
+    @Test
+    public void testMatchesToBytes() throws IOException {
+        VaultFile file = new VaultFile();
+        file.setContent(_vault.toJson());
+        assertArrayEquals(file.toBytes(), write(null, null));
+    }
+
+    @Test
+    public void testEncryptedMatchesToBytes() throws IOException, VaultFileException, JSONException, EncodingException, MasterKeyException {
+        // the nonce is random, so compare against the decrypted content and a reserialization
+        VaultFileCredentials creds = new VaultFileCredentials();
+        byte[] bytes = write(creds, null);
+        VaultFile file = VaultFile.fromBytes(bytes);
+        assertArrayEquals(file.toBytes(), bytes);
+
+        String expected = _vault.toJson().toString(4);
+        byte[] ciphertext = Base64.decode(file.toJson().getString("db"));
+        byte[] content = creds.decrypt(ciphertext, file.getHeader().getParams()).getData();
+        assertEquals(expected, new String(content, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, VaultFileException, VaultException {
+        VaultFileCredentials creds = new VaultFileCredentials();
+        for (VaultFileCredentials c : new VaultFileCredentials[]{null, creds}) {
+            VaultFile file = VaultFile.fromBytes(write(c, null));
+            Vault vault = Vault.fromJson(c == null ? file.getContent() : file.getContent(c));
+            assertArrayEquals(_vault.getEntries().getValues().toArray(), vault.getEntries().getValues().toArray());
+            assertArrayEquals(_vault.getGroups().getValues().toArray(), vault.getGroups().getValues().toArray());
+        }
+    }
+
+    @Test
+    public void testFilter() throws IOException, VaultFileException, VaultException {
+        VaultEntry entry = _vectors.get(1);
+        VaultFile file = VaultFile.fromBytes(write(null, e -> e.getUUID().equals(entry.getUUID())));
+        Vault vault = Vault.fromJson(file.getContent());
+        assertEquals(1, vault.getEntries().getValues().size());
+        assertEquals(entry, vault.getEntries().getByUUID(entry.getUUID()));
+        assertEquals(1, vault.getGroups().getValues().size());
+    }
+
+    @Test
+    public void testFromStream() throws IOException, VaultFileException, VaultException {
+        VaultFileCredentials creds = new VaultFileCredentials();
+        byte[] bytes = write(creds, null);
+        VaultFile file = VaultFile.fromStream(new ByteArrayInputStream(bytes));
+        assertEquals(VaultFile.fromBytes(bytes).toJson().toString(), file.toJson().toString());
+
+        Vault vault = Vault.fromJson(file.getContent(creds));
+        assertArrayEquals(_vault.getEntries().getValues().toArray(), vault.getEntries().getValues().toArray());
+    }
+
+    @Test
+    public void testGetVault() throws IOException, VaultFileException, VaultException {
+        VaultFileCredentials creds = new VaultFileCredentials();
+        for (VaultFileCredentials c : new VaultFileCredentials[]{null, creds}) {
+            VaultFile file = VaultFile.fromBytes(write(c, null));
+            Vault vault = file.getVault(c, null);
+            assertArrayEquals(_vault.getEntries().getValues().toArray(), vault.getEntries().getValues().toArray());
+            assertArrayEquals(_vault.getGroups().getValues().toArray(), vault.getGroups().getValues().toArray());
+            assertFalse(vault.usesIconStore());
+        }
+    }
+
+    @Test
+    public void testStreamMatchesFromJson() throws JSONException, IOException, VaultException {
+        // reorder the keys and add an unknown one to make sure the order doesn't matter
+        JSONObject obj = _vault.toJson();
+        JSONObject reordered = new JSONObject();
+        reordered.put("unknown", new JSONArray().put(new JSONObject().put("entries", 1)));
+        reordered.put("groups", obj.getJSONArray("groups"));
+        reordered.put("icons_optimized", false);
+        reordered.put("entries", obj.getJSONArray("entries"));
+        reordered.put("version", obj.getInt("version"));
+
+        Vault expected = Vault.fromJson(reordered);
+        Vault vault = Vault.fromJson(new JsonReader(new StringReader(reordered.toString())), null);
+        assertArrayEquals(expected.getEntries().getValues().toArray(), vault.getEntries().getValues().toArray());
+        assertArrayEquals(expected.getGroups().getValues().toArray(), vault.getGroups().getValues().toArray());
+        assertEquals(expected.areIconsOptimized(), vault.areIconsOptimized());
+    }
+
+    @Test(expected = VaultException.class)
+    public void testStreamMissingEntries() throws IOException, VaultException {
+        Vault.fromJson(new JsonReader(new StringReader("{\"version\": 3, \"groups\": []}")), null);
+    }
+
+    private byte[] write(VaultFileCredentials creds, Vault.EntryFilter filter) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        VaultFileWriter.write(stream, _vault, creds, filter);
+        return stream.toByteArray();
+    }
+}
@@ -0,0 +1,181 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.encoding.Hex;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class VaultIconStoreTest {
+    private Context _context;
+    private VaultFileCredentials _creds;
+    private List<VaultEntry> _vectors;
+    private VaultEntryIcon _icon;
+
+    @Before
+    public void init() {
+        _context = ApplicationProvider.getApplicationContext();
+        _creds = new VaultFileCredentials();
+        _vectors = VaultEntries.get();
+        _icon = new VaultEntryIcon(CryptoUtils.generateRandomBytes(1024), IconType.PNG);
+    }
+
+    @After
+    public void cleanup() {
+        VaultRepository.deleteFile(_context);
+    }
+
+    @Test
+    public void testDeduplication() throws Exception {
+        createRepo(_creds);
+
+        // all entries share the same icon, so it should only be stored once
+        assertEquals(1, listIcons().length);
+
+        VaultRepository repo = loadRepo(_creds);
+        assertTrue(repo.isIconStoreEnabled());
+        for (VaultEntry entry : repo.getEntries()) {
+            assertEquals(_icon, entry.getIcon());
+            assertArrayEquals(_icon.getBytes(), entry.getIcon().getBytes());
+        }
+    }
+
+    @Test
+    public void testUnchangedIconsAreNotRewritten() throws Exception {
+        VaultRepository repo = createRepo(_creds);
+        File file = listIcons()[0];
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        // the icon is encrypted with a random nonce, so rewriting it would change the file
+        repo.editEntry(_vectors.get(0), e -> e.setName("Edited"));
+        repo.save();
+        assertArrayEquals(bytes, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testUnusedIconsAreRemoved() throws Exception {
+        VaultRepository repo = createRepo(_creds);
+        VaultEntryIcon icon = new VaultEntryIcon(CryptoUtils.generateRandomBytes(1024), IconType.JPEG);
+        for (VaultEntry entry : repo.getEntries()) {
+            repo.editEntry(entry, e -> e.setIcon(icon));
+        }
+        repo.save();
+
+        File[] files = listIcons();
+        assertEquals(1, files.length);
+        assertEquals(new File(files[0].getParentFile(), Hex.encode(icon.getHash())), files[0]);
+    }
+
+    @Test
+    public void testExportInlinesIcons() throws Exception {
+        VaultRepository repo = createRepo(_creds);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        repo.export(stream);
+
+        // the export must be readable without access to the icon store
+        VaultFile file = VaultFile.fromStream(new ByteArrayInputStream(stream.toByteArray()));
+        Vault vault = Vault.fromJson(file.getContent(_creds));
+        for (VaultEntry entry : vault.getEntries()) {
+            assertNotNull(entry.getIcon());
+            assertArrayEquals(_icon.getBytes(), entry.getIcon().getBytes());
+        }
+    }
+
+    @Test
+    public void testChangeCredentials() throws Exception {
+        VaultRepository repo = createRepo(_creds);
+        File oldDir = listIcons()[0].getParentFile();
+
+        VaultFileCredentials creds = new VaultFileCredentials();
+        repo.setCredentials(creds);
+        repo.save();
+
+        assertFalse(oldDir.exists());
+        for (VaultEntry entry : loadRepo(creds).getEntries()) {
+            assertArrayEquals(_icon.getBytes(), entry.getIcon().getBytes());
+        }
+    }
+
+    @Test
+    public void testDisableIconStore() throws Exception {
+        createRepo(null);
+        VaultRepository repo = loadRepo(null);
+        repo.setIconStoreEnabled(false);
+        repo.save();
+
+        assertFalse(VaultIconStore.getRootDir(_context).exists());
+        repo = loadRepo(null);
+        assertFalse(repo.isIconStoreEnabled());
+        for (VaultEntry entry : repo.getEntries()) {
+            assertArrayEquals(_icon.getBytes(), entry.getIcon().getBytes());
+        }
+    }
+
+    @Test
+    public void testCorruptIconIsKept() throws Exception {
+        createRepo(_creds);
+        File file = listIcons()[0];
+        Files.write(file.toPath(), CryptoUtils.generateRandomBytes(1024));
+
+        // an icon that can't be read shouldn't crash anything, nor be dropped from the vault
+        VaultRepository repo = loadRepo(_creds);
+        for (VaultEntry entry : repo.getEntries()) {
+            assertEquals(_icon, entry.getIcon());
+            assertNull(entry.getIcon().getBytes());
+        }
+
+        repo.editEntry(_vectors.get(0), e -> e.setName("Edited"));
+        repo.save();
+        for (VaultEntry entry : loadRepo(_creds).getEntries()) {
+            assertEquals(_icon, entry.getIcon());
+        }
+    }
+
+    private VaultRepository createRepo(VaultFileCredentials creds) throws VaultRepositoryException {
+        VaultRepository repo = new VaultRepository(_context, new Vault(), creds);
+        repo.setIconStoreEnabled(true);
+        for (VaultEntry entry : _vectors) {
+            entry.setIcon(_icon);
+            repo.addEntry(entry);
+        }
+        repo.save();
+        return repo;
+    }
+
+    private VaultRepository loadRepo(VaultFileCredentials creds) throws VaultRepositoryException {
+        VaultFile file = VaultRepository.readVaultFile(_context);
+        return VaultRepository.fromFile(_context, file, creds);
+    }
+
+    private File[] listIcons() throws IOException {
+        File[] dirs = VaultIconStore.getRootDir(_context).listFiles();
+        if (dirs == null || dirs.length != 1) {
+            throw new IOException("Expected a single icon store");
+        }
+        return dirs[0].listFiles();
+    }
+}
@@ -0,0 +1,193 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class VaultJournalTest {
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private Context _context;
+    private VaultFileCredentials _creds;
+    private List<VaultEntry> _vectors;
+
+    @Before
+    public void init() {
+        _context = ApplicationProvider.getApplicationContext();
+        _creds = new VaultFileCredentials();
+        _vectors = VaultEntries.get();
+    }
+
+    @After
+    public void cleanup() {
+        VaultRepository.deleteFile(_context);
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        VaultRepository repo = createRepo();
+        VaultEntry first = _vectors.get(0);
+        VaultEntry last = _vectors.get(_vectors.size() - 1);
+
+        // edit, remove, move and add some entries
+        repo.editEntry(first, e -> e.setName("Edited"));
+        repo.removeEntry(_vectors.get(1));
+        repo.moveEntry(last, repo.getEntryByUUID(first.getUUID()));
+        repo.save();
+        VaultGroup group = new VaultGroup("group");
+        repo.addGroup(group);
+        VaultEntry entry = VaultEntries.get().get(2);
+        entry.addGroup(group.getUUID());
+        repo.addEntry(entry);
+        repo.save();
+
+        assertTrue(VaultJournal.getFile(_context).exists());
+        assertEntriesEqual(repo, loadRepo());
+    }
+
+    @Test
+    public void testReplayIgnoresTornRecord() throws Exception {
+        VaultRepository repo = createRepo();
+        repo.editEntry(_vectors.get(0), e -> e.setName("Edited"));
+        repo.save();
+
+        // simulate a crash halfway through writing a record
+        try (FileOutputStream stream = new FileOutputStream(VaultJournal.getFile(_context), true)) {
+            stream.write("{\"version\":1,\"params\":".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEntriesEqual(repo, loadRepo());
+
+        // the torn record should have been cut off, so that new records are readable again
+        repo = loadRepo();
+        repo.setJournalEnabled(true);
+        repo.editEntry(repo.getEntries().iterator().next(), e -> e.setIssuer("Edited"));
+        repo.save();
+        assertEntriesEqual(repo, loadRepo());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        VaultRepository repo = createRepo();
+        repo.editEntry(_vectors.get(0), e -> e.setNote("Note"));
+        repo.save();
+
+        VaultJournal journal = new VaultJournal(_context);
+        journal.compact(_creds).get();
+        // only the header should be left in the journal
+        assertEquals(1, new String(readJournal(), StandardCharsets.UTF_8).split("\n").length);
+
+        // the vault file should contain the edit on its own now
+        VaultFile file = VaultRepository.readVaultFile(_context);
+        Vault vault = Vault.fromJson(file.getContent(_creds));
+        assertEquals("Note", vault.getEntries().getByUUID(_vectors.get(0).getUUID()).getNote());
+        assertEntriesEqual(repo, loadRepo());
+    }
+
+    @Test
+    public void testStaleJournalIsIgnored() throws Exception {
+        VaultRepository repo = createRepo();
+        repo.editEntry(_vectors.get(0), e -> e.setName("Edited"));
+        repo.save();
+        byte[] journal = readJournal();
+
+        // make some more changes and rewrite the vault file in full
+        repo.setJournalEnabled(false);
+        repo.removeEntry(repo.getEntryByUUID(_vectors.get(0).getUUID()));
+        repo.moveEntry(repo.getEntryByUUID(_vectors.get(3).getUUID()), repo.getEntryByUUID(_vectors.get(1).getUUID()));
+        repo.save();
+
+        // simulate a crash right before the old journal was deleted
+        try (FileOutputStream stream = new FileOutputStream(VaultJournal.getFile(_context))) {
+            stream.write(journal);
+        }
+
+        VaultRepository loaded = loadRepo();
+        assertEquals(repo.getEntries().size(), loaded.getEntries().size());
+        assertFalse(loaded.hasEntryByUUID(_vectors.get(0).getUUID()));
+        assertEntriesEqual(repo, loaded);
+    }
+
+    @Test
+    public void testBackupIncludesJournal() throws Exception {
+        VaultRepository repo = createRepo();
+        repo.editEntry(_vectors.get(0), e -> e.setName("Edited"));
+        repo.removeEntry(_vectors.get(1));
+        repo.save();
+
+        File vaultFile = _folder.newFile();
+        File journalFile = _folder.newFile();
+        boolean[] locked = new boolean[1];
+        VaultRepository.writeBackup(_context, vaultFile, journalFile, () -> locked[0] = true);
+        assertTrue(locked[0]);
+        assertTrue(journalFile.exists());
+
+        // restore the journal before the vault file, which it doesn't belong to yet
+        VaultRepository.deleteFile(_context);
+        try (InputStream stream = new FileInputStream(journalFile)) {
+            assertFalse(VaultRepository.restoreJournal(_context, stream));
+        }
+        try (InputStream stream = new FileInputStream(vaultFile)) {
+            VaultRepository.writeToFile(_context, stream);
+        }
+        try (InputStream stream = new FileInputStream(journalFile)) {
+            assertTrue(VaultRepository.restoreJournal(_context, stream));
+        }
+        assertEntriesEqual(repo, loadRepo());
+
+        // without a journal, none is included
+        VaultJournal.discard(_context);
+        VaultRepository.writeBackup(_context, vaultFile, journalFile, () -> { });
+        assertFalse(journalFile.exists());
+    }
+
+    private VaultRepository createRepo() throws VaultRepositoryException {
+        VaultRepository repo = new VaultRepository(_context, new Vault(), _creds);
+        for (VaultEntry entry : _vectors) {
+            repo.addEntry(entry);
+        }
+        repo.save();
+        repo.setJournalEnabled(true);
+        return repo;
+    }
+
+    private VaultRepository loadRepo() throws VaultRepositoryException {
+        VaultFile file = VaultRepository.readVaultFile(_context);
+        return VaultRepository.fromFile(_context, file, _creds);
+    }
+
+    private byte[] readJournal() throws IOException {
+        return Files.readAllBytes(VaultJournal.getFile(_context).toPath());
+    }
+
+    private static void assertEntriesEqual(VaultRepository expected, VaultRepository actual) {
+        assertArrayEquals(expected.getEntries().toArray(), actual.getEntries().toArray());
+        assertArrayEquals(expected.getGroups().toArray(), actual.getGroups().toArray());
+    }
+}
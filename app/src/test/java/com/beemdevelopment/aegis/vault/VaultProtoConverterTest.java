@@ -0,0 +1,82 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.otp.MotpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.YandexInfo;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class VaultProtoConverterTest {
+    private Vault _vault;
+
+    @Before
+    public void init() throws OtpInfoException {
+        _vault = new Vault();
+
+        VaultGroup group = new VaultGroup("group");
+        _vault.getGroups().add(group);
+        _vault.getEntries().add(new VaultEntry(new YandexInfo(CryptoUtils.generateRandomBytes(16), "5678"), "Yandex", "Yandex"));
+        _vault.getEntries().add(new VaultEntry(new MotpInfo(CryptoUtils.generateRandomBytes(16), "1234"), "mOTP", "mOTP"));
+        for (VaultEntry entry : VaultEntries.get()) {
+            if (entry.getInfo().getDigits() % 2 == 0) {
+                entry.setIcon(new VaultEntryIcon(CryptoUtils.generateRandomBytes(1000), IconType.SVG));
+                entry.addGroup(group.getUUID());
+                entry.setIsFavorite(true);
+                entry.setNote("Note");
+            }
+            _vault.getEntries().add(entry);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws VaultFileException {
+        JSONObject obj = _vault.toJson();
+        JSONObject converted = VaultProtoConverter.fromProto(VaultProtoConverter.toProto(obj));
+        assertEquals(obj.toString(), converted.toString());
+    }
+
+    @Test
+    public void testRoundTripIconReferences() throws VaultFileException {
+        JSONObject obj = _vault.toJson(null, false);
+        JSONObject converted = VaultProtoConverter.fromProto(VaultProtoConverter.toProto(obj));
+        assertEquals(obj.toString(), converted.toString());
+    }
+
+    @Test
+    public void testVaultFile() throws IOException, VaultFileException, VaultException {
+        VaultFileCredentials creds = new VaultFileCredentials();
+        for (VaultFileCredentials c : new VaultFileCredentials[]{null, creds}) {
+            byte[] proto = write(c, VaultFile.Format.PROTO);
+            assertTrue(proto.length < write(c, VaultFile.Format.JSON).length);
+
+            VaultFile file = VaultFile.fromBytes(proto);
+            assertEquals(VaultFile.Format.PROTO, file.getFormat());
+            assertEquals(c != null, file.isEncrypted());
+
+            Vault vault = Vault.fromJson(c == null ? file.getContent() : file.getContent(c));
+            assertArrayEquals(_vault.getEntries().getValues().toArray(), vault.getEntries().getValues().toArray());
+            assertArrayEquals(_vault.getGroups().getValues().toArray(), vault.getGroups().getValues().toArray());
+
+            // The format should survive a round trip through VaultFile as well
+            assertEquals(VaultFile.Format.PROTO, VaultFile.fromBytes(file.toBytes()).getFormat());
+        }
+    }
+
+    private byte[] write(VaultFileCredentials creds, VaultFile.Format format) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        VaultFileWriter.write(stream, _vault, creds, null, format);
+        return stream.toByteArray();
+    }
+}
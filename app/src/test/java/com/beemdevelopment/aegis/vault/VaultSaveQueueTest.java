@@ -0,0 +1,110 @@
+package com.beemdevelopment.aegis.vault;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class VaultSaveQueueTest {
+    private VaultRepository _repo;
+    private List<Write> _writes;
+
+    @Before
+    public void init() {
+        _repo = new VaultRepository(ApplicationProvider.getApplicationContext(), new Vault(), null);
+        _writes = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        VaultSaveQueue queue = new VaultSaveQueue(this::write, 200);
+
+        // a burst of saves should only result in a single write of the most recent snapshot
+        List<ListenableFuture<Void>> futures = new ArrayList<>();
+        Vault vault = null;
+        for (int i = 0; i < 10; i++) {
+            vault = new Vault();
+            futures.add(queue.submit(_repo, vault, i == 3));
+        }
+        assertTrue(queue.isPending());
+
+        for (ListenableFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertFalse(queue.isPending());
+        assertEquals(1, _writes.size());
+        assertSame(vault, _writes.get(0).vault);
+
+        // one of the requests asked for a backup, so the coalesced write should make one
+        assertTrue(_writes.get(0).backup);
+
+        // saves that come in after the write should get a write of their own
+        queue.submit(_repo, new Vault(), false).get(5, TimeUnit.SECONDS);
+        assertEquals(2, _writes.size());
+        assertFalse(_writes.get(1).backup);
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        VaultSaveQueue queue = new VaultSaveQueue(this::write, TimeUnit.HOURS.toMillis(1));
+        ListenableFuture<Void> future = queue.submit(_repo, new Vault(), false);
+
+        queue.flush();
+        assertTrue(future.isDone());
+        assertEquals(1, _writes.size());
+
+        // saving synchronously should pick up pending snapshots without writing them separately
+        future = queue.submit(_repo, new Vault(), true);
+        Vault vault = new Vault();
+        queue.save(_repo, vault, false);
+        assertTrue(future.isDone());
+        assertEquals(2, _writes.size());
+        assertSame(vault, _writes.get(1).vault);
+        assertTrue(_writes.get(1).backup);
+    }
+
+    @Test
+    public void testError() {
+        VaultSaveQueue queue = new VaultSaveQueue((repo, vault, backup) -> {
+            throw new VaultRepositoryException("error");
+        }, 0);
+
+        assertThrows(VaultRepositoryException.class, () -> queue.save(_repo, new Vault(), false));
+
+        ListenableFuture<Void> future = queue.submit(_repo, new Vault(), false);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof VaultRepositoryException);
+    }
+
+    private void write(VaultRepository repo, Vault vault, boolean backup) {
+        assertSame(_repo, repo);
+        _writes.add(new Write(vault, backup));
+    }
+
+    private static class Write {
+        private final Vault vault;
+        private final boolean backup;
+
+        public Write(Vault vault, boolean backup) {
+            this.vault = vault;
+            this.backup = backup;
+        }
+    }
+}
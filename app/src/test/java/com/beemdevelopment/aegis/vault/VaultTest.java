@@ -1,14 +1,28 @@
 package com.beemdevelopment.aegis.vault;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.otp.MotpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.YandexInfo;
 import com.beemdevelopment.aegis.util.IOUtils;
+import com.beemdevelopment.aegis.vectors.VaultEntries;
 
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 public class VaultTest {
@@ -29,6 +43,80 @@ public class VaultTest {
         checkGroups(vault);
     }
 
+    @Test
+    public void testLazyIcon() throws VaultException, JSONException {
+        byte[] iconBytes = CryptoUtils.generateRandomBytes(1000);
+        VaultEntry entry = VaultEntries.get().get(0);
+        entry.setIcon(new VaultEntryIcon(iconBytes, IconType.PNG));
+
+        Vault vault = new Vault();
+        vault.getEntries().add(entry);
+        JSONObject obj = vault.toJson();
+
+        // The icon is only decoded when it's needed, but should serialize the same way regardless
+        VaultEntryIcon icon = Vault.fromJson(obj).getEntries().getByUUID(entry.getUUID()).getIcon();
+        assertEquals(entry.getIcon(), icon);
+        assertEquals(obj.toString(), vault.toJson().toString());
+        assertArrayEquals(iconBytes, icon.getBytes());
+
+        // Icons that aren't valid Base64 should be dropped while loading, like before
+        obj.getJSONArray("entries").getJSONObject(0).put("icon", "not base64!");
+        assertNull(Vault.fromJson(obj).getEntries().getByUUID(entry.getUUID()).getIcon());
+    }
+
+    @Test
+    public void testEntryCopy() throws OtpInfoException {
+        List<VaultEntry> entries = VaultEntries.get();
+        entries.add(new VaultEntry(new YandexInfo(CryptoUtils.generateRandomBytes(16), "5678"), "Yandex", "Yandex"));
+        entries.add(new VaultEntry(new MotpInfo(CryptoUtils.generateRandomBytes(16), "1234"), "mOTP", "mOTP"));
+
+        VaultEntryIcon icon = new VaultEntryIcon(CryptoUtils.generateRandomBytes(1000), IconType.PNG);
+        for (VaultEntry entry : entries) {
+            entry.setIcon(icon);
+            entry.addGroup(UUID.randomUUID());
+            entry.setNote("Note");
+            entry.setIsFavorite(true);
+            entry.setUsageCount(5);
+
+            VaultEntry copy = new VaultEntry(entry);
+            assertEquals(entry, copy);
+            assertEquals(entry.getInfo().getClass(), copy.getInfo().getClass());
+            assertEquals(entry.getUsageCount(), copy.getUsageCount());
+            assertEquals(entry.toJson().toString(), copy.toJson().toString());
+
+            // The icon is shared, but everything else should be independent of the original
+            assertSame(entry.getIcon(), copy.getIcon());
+            assertNotSame(entry.getInfo(), copy.getInfo());
+            copy.addGroup(UUID.randomUUID());
+            copy.getInfo().getSecret()[0] ^= 1;
+            assertNotEquals(entry.getGroups(), copy.getGroups());
+            assertNotEquals(entry.getInfo(), copy.getInfo());
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        Vault vault = new Vault();
+        VaultGroup group = new VaultGroup("group");
+        vault.getGroups().add(group);
+        for (VaultEntry entry : VaultEntries.get()) {
+            entry.addGroup(group.getUUID());
+            vault.getEntries().add(entry);
+        }
+
+        Vault snapshot = new Vault(vault);
+        String json = vault.toJson().toString();
+        assertEquals(json, snapshot.toJson().toString());
+
+        // changes to the vault should not show up in the snapshot
+        VaultEntry entry = vault.getEntries().get(0);
+        entry.setName("Changed");
+        entry.getInfo().getSecret()[0] ^= 1;
+        vault.getEntries().remove(vault.getEntries().get(1));
+        vault.getGroups().getByUUID(group.getUUID()).setName("Changed");
+        assertEquals(json, snapshot.toJson().toString());
+    }
+
     private static void checkGroups(Vault vault) {
         // No old groups should be present anymore
         assertEquals(0, vault.getEntries().getValues().stream()
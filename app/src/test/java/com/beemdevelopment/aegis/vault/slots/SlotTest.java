@@ -1,6 +1,9 @@
 package com.beemdevelopment.aegis.vault.slots;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertThrows;
 
 import com.beemdevelopment.aegis.crypto.CryptoUtils;
@@ -94,6 +97,26 @@ public class SlotTest {
         assertThrows(SlotIntegrityException.class, () -> slot.getKey(decryptCipher));
     }
 
+    @Test
+    public void testSlotListCopy() {
+        PasswordSlot passwordSlot = new PasswordSlot();
+        SlotList slots = new SlotList();
+        slots.add(new RawSlot());
+        slots.add(passwordSlot);
+        slots.add(new BiometricSlot());
+
+        SlotList copy = slots.copy();
+        assertArrayEquals(slots.getValues().toArray(), copy.getValues().toArray());
+        for (Slot slot : slots) {
+            assertEquals(slot.getClass(), copy.getByUUID(slot.getUUID()).getClass());
+            assertNotSame(slot, copy.getByUUID(slot.getUUID()));
+        }
+
+        // Changes to the copy should not affect the original
+        copy.find(PasswordSlot.class).setIsBackup(true);
+        assertFalse(passwordSlot.isBackup());
+    }
+
     @Test
     public void testNonExportableSlotsExclusion() {
         // If a backup password slot, multiple regular password slots and a biometric slot are present:
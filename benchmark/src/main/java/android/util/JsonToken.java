@@ -0,0 +1,17 @@
+package android.util;
+
+/**
+ * Stands in for the JsonToken of the Android framework on the JVM.
+ */
+public enum JsonToken {
+    BEGIN_ARRAY,
+    END_ARRAY,
+    BEGIN_OBJECT,
+    END_OBJECT,
+    NAME,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+}
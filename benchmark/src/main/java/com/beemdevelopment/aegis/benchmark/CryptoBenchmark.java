@@ -0,0 +1,90 @@
+package com.beemdevelopment.aegis.benchmark;
+
+import com.beemdevelopment.aegis.crypto.CryptParameters;
+import com.beemdevelopment.aegis.crypto.CryptResult;
+import com.beemdevelopment.aegis.crypto.CryptoUtils;
+import com.beemdevelopment.aegis.crypto.SCryptParameters;
+import com.beemdevelopment.aegis.crypto.bc.SCrypt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBenchmark {
+    // The size of the plaintext of a vault with 10, 1,000 and 10,000 entries without icons
+    @Param({"4096", "409600", "4096000"})
+    public int size;
+
+    private SecretKey _key;
+    private byte[] _data;
+    private CryptResult _encrypted;
+    private byte[] _password;
+    private SCryptParameters _scryptParams;
+
+    @Setup
+    public void setup() throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException,
+            InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        _key = CryptoUtils.generateKey();
+        _data = CryptoUtils.generateRandomBytes(size);
+        _encrypted = CryptoUtils.encrypt(_data, CryptoUtils.createEncryptCipher(_key));
+        _password = CryptoUtils.toBytes("benchmark".toCharArray());
+        _scryptParams = new SCryptParameters(
+                CryptoUtils.CRYPTO_SCRYPT_N,
+                CryptoUtils.CRYPTO_SCRYPT_r,
+                CryptoUtils.CRYPTO_SCRYPT_p,
+                CryptoUtils.generateSalt()
+        );
+    }
+
+    @Benchmark
+    public CryptResult encrypt() throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException,
+            InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        return CryptoUtils.encrypt(_data, CryptoUtils.createEncryptCipher(_key));
+    }
+
+    @Benchmark
+    public CryptResult decrypt() throws IOException, NoSuchAlgorithmException, NoSuchPaddingException, InvalidAlgorithmParameterException,
+            InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        CryptParameters params = _encrypted.getParams();
+        return CryptoUtils.decrypt(_encrypted.getData(), CryptoUtils.createDecryptCipher(_key, params.getNonce()), params);
+    }
+
+    /**
+     * Derives a key with the parameters that are used for new password slots. This doesn't
+     * depend on the size parameter, so only one of its results needs to be looked at.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public byte[] scrypt() {
+        return SCrypt.generate(_password, _scryptParams.getSalt(), _scryptParams.getN(),
+                _scryptParams.getR(), _scryptParams.getP(), CryptoUtils.CRYPTO_AEAD_KEY_SIZE);
+    }
+}
@@ -0,0 +1,83 @@
+package com.beemdevelopment.aegis.benchmark;
+
+import com.beemdevelopment.aegis.crypto.otp.HOTP;
+import com.beemdevelopment.aegis.crypto.otp.OTP;
+import com.beemdevelopment.aegis.crypto.otp.TOTP;
+import com.beemdevelopment.aegis.otp.OtpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.vault.Vault;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OtpBenchmark {
+    @Param({"HmacSHA1", "HmacSHA256", "HmacSHA512"})
+    public String algo;
+
+    private byte[] _secret;
+    private long _counter;
+    private int[] _range;
+    private List<OtpInfo> _infos;
+
+    @Setup
+    public void setup() {
+        _secret = new byte[20];
+        new Random(0).nextBytes(_secret);
+        _range = new int[16];
+
+        // the codes of the entries of a vault, as the entry list computes them
+        _infos = new ArrayList<>();
+        Vault vault = Vaults.create(100, false);
+        for (VaultEntry entry : vault.getEntries()) {
+            _infos.add(entry.getInfo());
+        }
+    }
+
+    @Benchmark
+    public OTP hotp() throws NoSuchAlgorithmException, InvalidKeyException {
+        return HOTP.generateOTP(_secret, algo, 6, _counter++);
+    }
+
+    @Benchmark
+    public String hotpString() throws NoSuchAlgorithmException, InvalidKeyException {
+        return HOTP.generateOTP(_secret, algo, 6, _counter++).toString();
+    }
+
+    @Benchmark
+    public int[] totpRange() throws NoSuchAlgorithmException, InvalidKeyException {
+        TOTP.generateRange(_secret, algo, 6, 30, _counter++, _range.length, _range);
+        return _range;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void vaultCodes(Blackhole bh) throws OtpInfoException {
+        for (OtpInfo info : _infos) {
+            bh.consume(info.getOtp());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.beemdevelopment.aegis.benchmark;
+
+import com.beemdevelopment.aegis.util.Cloner;
+import com.beemdevelopment.aegis.vault.Vault;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vault.VaultException;
+import com.beemdevelopment.aegis.vault.VaultFile;
+import com.beemdevelopment.aegis.vault.VaultFileCredentials;
+import com.beemdevelopment.aegis.vault.VaultFileException;
+import com.beemdevelopment.aegis.vault.VaultFileWriter;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class VaultBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean icons;
+
+    private Vault _vault;
+    private JSONObject _json;
+    private VaultFileCredentials _creds;
+    private VaultFile _file;
+    private byte[] _bytes;
+    private byte[] _encryptedBytes;
+
+    @Setup
+    public void setup() throws VaultFileException, IOException {
+        _vault = Vaults.create(entries, icons);
+        _json = _vault.toJson();
+        _creds = new VaultFileCredentials();
+
+        _file = new VaultFile();
+        _file.setContent(_json);
+        _bytes = _file.toBytes();
+
+        VaultFile encryptedFile = new VaultFile();
+        encryptedFile.setContent(_json, _creds);
+        _encryptedBytes = encryptedFile.toBytes();
+    }
+
+    @Benchmark
+    public JSONObject toJson() {
+        return _vault.toJson();
+    }
+
+    @Benchmark
+    public Vault fromJson() throws VaultException {
+        return Vault.fromJson(_json);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return _file.toBytes();
+    }
+
+    @Benchmark
+    public byte[] toEncryptedBytes() throws VaultFileException {
+        VaultFile file = new VaultFile();
+        file.setContent(_vault.toJson(), _creds);
+        return file.toBytes();
+    }
+
+    @Benchmark
+    public byte[] writeEncrypted() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(_encryptedBytes.length);
+        VaultFileWriter.write(stream, _vault, _creds, null);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Reads an encrypted vault file the way the Aegis importer does, without the parts that
+     * need an Android context.
+     */
+    @Benchmark
+    public Vault importEncrypted() throws VaultFileException, VaultException {
+        VaultFile file = VaultFile.fromBytes(_encryptedBytes);
+        return Vault.fromJson(file.getContent(_creds));
+    }
+
+    @Benchmark
+    public Vault importPlain() throws VaultFileException, VaultException {
+        VaultFile file = VaultFile.fromBytes(_bytes);
+        return Vault.fromJson(file.getContent());
+    }
+
+    @Benchmark
+    public void cloneEntries(Blackhole bh) {
+        for (VaultEntry entry : _vault.getEntries()) {
+            bh.consume(Cloner.clone(entry));
+        }
+    }
+
+    @Benchmark
+    public void copyEntries(Blackhole bh) {
+        for (VaultEntry entry : _vault.getEntries()) {
+            bh.consume(new VaultEntry(entry));
+        }
+    }
+}
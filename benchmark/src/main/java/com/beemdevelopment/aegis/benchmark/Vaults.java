@@ -0,0 +1,75 @@
+package com.beemdevelopment.aegis.benchmark;
+
+import com.beemdevelopment.aegis.icons.IconType;
+import com.beemdevelopment.aegis.otp.HotpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfo;
+import com.beemdevelopment.aegis.otp.OtpInfoException;
+import com.beemdevelopment.aegis.otp.SteamInfo;
+import com.beemdevelopment.aegis.otp.TotpInfo;
+import com.beemdevelopment.aegis.vault.Vault;
+import com.beemdevelopment.aegis.vault.VaultEntry;
+import com.beemdevelopment.aegis.vault.VaultEntryIcon;
+import com.beemdevelopment.aegis.vault.VaultGroup;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic vaults for the benchmarks. The contents only depend on the given
+ * parameters, so that the results of different runs can be compared.
+ */
+public class Vaults {
+    // Roughly the size of the icons in the icon packs
+    public static final int ICON_SIZE = 4 * 1024;
+    private static final int GROUPS = 8;
+    private static final String[] ALGORITHMS = {"SHA1", "SHA256", "SHA512"};
+
+    private Vaults() {
+
+    }
+
+    public static Vault create(int entries, boolean icons) {
+        Random random = new Random(entries);
+        Vault vault = new Vault();
+
+        VaultGroup[] groups = new VaultGroup[GROUPS];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = new VaultGroup("Group " + i);
+            vault.getGroups().add(groups[i]);
+        }
+
+        for (int i = 0; i < entries; i++) {
+            VaultEntry entry = new VaultEntry(createInfo(random, i), "Name " + i, "Issuer " + i % 500);
+            entry.addGroup(groups[random.nextInt(groups.length)].getUUID());
+            entry.setNote(i % 4 == 0 ? "Note " + i : "");
+            entry.setIsFavorite(i % 10 == 0);
+            entry.setUsageCount(random.nextInt(100));
+            if (icons) {
+                byte[] bytes = new byte[ICON_SIZE];
+                random.nextBytes(bytes);
+                entry.setIcon(new VaultEntryIcon(bytes, IconType.PNG));
+            }
+            vault.getEntries().add(entry);
+        }
+
+        return vault;
+    }
+
+    private static OtpInfo createInfo(Random random, int i) {
+        byte[] secret = new byte[20];
+        random.nextBytes(secret);
+        String algo = ALGORITHMS[i % ALGORITHMS.length];
+
+        try {
+            switch (i % 10) {
+                case 0:
+                    return new HotpInfo(secret, algo, 6, random.nextInt(1000));
+                case 1:
+                    return new SteamInfo(secret);
+                default:
+                    return new TotpInfo(secret, algo, 6 + i % 3, 30);
+            }
+        } catch (OtpInfoException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}